@@ -16,6 +16,7 @@
 
 package stroom.query.api.v2;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
@@ -30,9 +31,9 @@ import java.util.Objects;
 /**
  * Object describing the response to a {@link SearchRequest searchRequest} which may or may not contains results
  */
-@JsonPropertyOrder({"highlights", "results", "errors", "complete"})
+@JsonPropertyOrder({"highlights", "results", "errors", "complete", "queued"})
 @XmlRootElement(name = "searchResponse")
-@XmlType(name = "SearchResponse", propOrder = {"highlights", "results", "errors", "complete"})
+@XmlType(name = "SearchResponse", propOrder = {"highlights", "results", "errors", "complete", "queued"})
 @XmlAccessorType(XmlAccessType.FIELD)
 @ApiModel(description = "The response to a search request, that may or may not contain results. The results " +
         "may only be a partial set if an iterative screech was requested")
@@ -65,6 +66,12 @@ public final class SearchResponse implements Serializable {
             value = "True if the query has returned all known results")
     private Boolean complete;
 
+    @XmlElement
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @ApiModelProperty(
+            value = "True if the query is waiting for other queries to finish before it can start")
+    private Boolean queued;
+
     private SearchResponse() {
     }
 
@@ -79,10 +86,28 @@ public final class SearchResponse implements Serializable {
                           final List<Result> results,
                           final List<String> errors,
                           final Boolean complete) {
+        this(highlights, results, errors, complete, null);
+    }
+
+    /**
+     * @param highlights A list of strings to highlight in the UI that should correlate with the search query.
+     * @param results    A list of {@link Result result} objects that each correspond to a
+     *                   {@link ResultRequest resultRequest} in the {@link SearchRequest searchRequest}
+     * @param errors     Any errors that have been generated during searching.
+     * @param complete   Complete means that the search has finished and there are no more results to come.
+     * @param queued     Queued means that the search has not started yet as it is waiting for other searches to
+     *                   finish.
+     */
+    public SearchResponse(final List<String> highlights,
+                          final List<Result> results,
+                          final List<String> errors,
+                          final Boolean complete,
+                          final Boolean queued) {
         this.highlights = highlights;
         this.results = results;
         this.errors = errors;
         this.complete = complete;
+        this.queued = queued;
     }
 
     /**
@@ -122,6 +147,21 @@ public final class SearchResponse implements Serializable {
         return complete != null && complete;
     }
 
+    /**
+     * @return The queued status of the search. A value of true indicates the search is waiting for other searches
+     * to finish before it starts, false or null that it has started.
+     */
+    public Boolean getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return The queued status of the search. A value of true indicates the search has not started yet
+     */
+    public boolean queued() {
+        return queued != null && queued;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -130,12 +170,13 @@ public final class SearchResponse implements Serializable {
         return Objects.equals(highlights, that.highlights) &&
                 Objects.equals(results, that.results) &&
                 Objects.equals(errors, that.errors) &&
-                Objects.equals(complete, that.complete);
+                Objects.equals(complete, that.complete) &&
+                Objects.equals(queued, that.queued);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(highlights, results, errors, complete);
+        return Objects.hash(highlights, results, errors, complete, queued);
     }
 
     @Override
@@ -145,6 +186,7 @@ public final class SearchResponse implements Serializable {
                 ", results=" + results +
                 ", errors=" + errors +
                 ", complete=" + complete +
+                ", queued=" + queued +
                 '}';
     }
 
@@ -0,0 +1,314 @@
+package stroom.query.audit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import event.logging.Event;
+import event.logging.impl.DefaultEventSerializer;
+import event.logging.impl.EventSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Serialises audit events and writes them to the audit log on a background thread, so that the cost of auditing is
+ * not added to the request being audited. Events wait in a bounded queue and are written in batches, when the queue
+ * is full the {@link OverflowPolicy} decides whether the caller waits, the event is dropped or it is spilled to disk
+ * to be written once the queue has caught up.
+ * <p>
+ * Events are written in the order they are queued, spilled events are written after the events that were queued
+ * ahead of them so they may be out of order with respect to events queued later.
+ */
+public class AuditEventPipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuditEventPipeline.class);
+    private static final Logger AUDIT_LOGGER = LoggerFactory.getLogger(QueryEventLoggingService.AUDIT_LOGGER_NAME);
+
+    private static final String SPILL_FILE = "audit.spill";
+    private static final long POLL_INTERVAL_MS = 1_000L;
+    private static final long CLOSE_TIMEOUT_MS = 30_000L;
+
+    public enum OverflowPolicy {
+        /**
+         * Wait for space in the queue, nothing is lost but requests slow down to the speed of the audit log.
+         */
+        BLOCK,
+        /**
+         * Discard the event, counted by the 'dropped' metric.
+         */
+        DROP,
+        /**
+         * Serialise the event on the calling thread and append it to a file in the spill directory.
+         */
+        SPILL
+    }
+
+    private final AuditPipelineConfig config;
+    private final OverflowPolicy overflowPolicy;
+    private final BlockingQueue<Entry> queue;
+    private final Consumer<String> sink;
+    // Only used by the SPILL overflow policy.
+    private final Spool spool;
+
+    // Used by the writer thread only.
+    private final EventSerializer writerSerializer;
+
+    // Events written on the calling thread, either spilled or written after close, share a serializer guarded by the
+    // lock as the serializer isn't thread safe.
+    private final Object directLock = new Object();
+    private final EventSerializer directSerializer;
+
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final Meter written;
+    private final Meter dropped;
+    private final Meter spilled;
+    private final Timer batchTimer;
+
+    public AuditEventPipeline(final AuditPipelineConfig config) {
+        this(config, AuditMetrics.NO_OP);
+    }
+
+    /**
+     * @param config  The queue, batch and overflow settings.
+     * @param metrics Records the events written, dropped and spilled.
+     * @throws IllegalArgumentException If the overflow policy is {@link OverflowPolicy#SPILL} but there is no spill
+     *                                  directory.
+     */
+    public AuditEventPipeline(final AuditPipelineConfig config, final AuditMetrics metrics) {
+        this(config, metrics, DefaultEventSerializer::new, AUDIT_LOGGER::info);
+    }
+
+    AuditEventPipeline(final AuditPipelineConfig config,
+                       final Supplier<EventSerializer> serializerSupplier,
+                       final Consumer<String> sink) {
+        this(config, AuditMetrics.NO_OP, serializerSupplier, sink);
+    }
+
+    AuditEventPipeline(final AuditPipelineConfig config,
+                       final AuditMetrics metrics,
+                       final Supplier<EventSerializer> serializerSupplier,
+                       final Consumer<String> sink) {
+        this.config = config;
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.queue = new ArrayBlockingQueue<>(config.getQueueSize());
+        this.sink = sink;
+        this.spool = (overflowPolicy == OverflowPolicy.SPILL)
+                ? new Spool(getSpillDirectory(config), SPILL_FILE, 0)
+                : null;
+        this.writerSerializer = serializerSupplier.get();
+        this.directSerializer = serializerSupplier.get();
+
+        this.written = metrics.meter(AuditMetrics.PIPELINE, "written");
+        this.dropped = metrics.meter(AuditMetrics.PIPELINE, "dropped");
+        this.spilled = metrics.meter(AuditMetrics.PIPELINE, "spilled");
+        this.batchTimer = metrics.timer(AuditMetrics.PIPELINE, "batchWrite");
+        metrics.gauge(AuditMetrics.PIPELINE, "queued", (Gauge<Integer>) queue::size);
+
+        this.writer = new Thread(this::run, "Audit Event Writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue an event to be written.
+     *
+     * @param event       The event to write, it must not be changed by the caller afterwards.
+     * @param beforeWrite Run on the writing thread before the event is serialised, to complete the parts of the event
+     *                    that are only needed for the audit record. May be null.
+     */
+    public void submit(final Event event, final Runnable beforeWrite) {
+        final Entry entry = new Entry(event, beforeWrite);
+        if (closed) {
+            writeDirect(entry);
+            return;
+        }
+
+        try {
+            switch (overflowPolicy) {
+                case DROP:
+                    if (!queue.offer(entry)) {
+                        dropped.mark();
+                        LOGGER.debug("Audit queue full, dropped event");
+                        return;
+                    }
+                    break;
+                case SPILL:
+                    if (!queue.offer(entry)) {
+                        spill(entry);
+                        return;
+                    }
+                    break;
+                default:
+                    while (!queue.offer(entry, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                        if (closed) {
+                            writeDirect(entry);
+                            return;
+                        }
+                    }
+                    break;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeDirect(entry);
+            return;
+        }
+
+        // The pipeline may have been closed after the writer stopped taking events but before this one was queued.
+        if (closed && queue.remove(entry)) {
+            writeDirect(entry);
+        }
+    }
+
+    /**
+     * Stop the writer once it has written everything queued. Events submitted afterwards are written on the calling
+     * thread.
+     */
+    public void close() {
+        closed = true;
+        try {
+            writer.join(CLOSE_TIMEOUT_MS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            LOGGER.warn("Timed out waiting for {} audit events to be written", queue.size());
+        }
+
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    private static Path getSpillDirectory(final AuditPipelineConfig config) {
+        final String spillDirectory = config.getSpillDirectory();
+        if (spillDirectory == null || spillDirectory.trim().isEmpty()) {
+            throw new IllegalArgumentException("A spill directory is required for the SPILL audit overflow policy");
+        }
+        return Paths.get(spillDirectory);
+    }
+
+    private void run() {
+        final int batchSize = Math.max(1, config.getBatchSize());
+        final List<Entry> batch = new ArrayList<>(batchSize);
+
+        try {
+            while (!closed || !queue.isEmpty()) {
+                final Entry first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Only replay spilled events once the queue has caught up.
+                    replaySpilled();
+                } else {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+            }
+        } catch (final InterruptedException e) {
+            LOGGER.warn("Audit event writer interrupted, writing {} queued events", queue.size());
+            queue.drainTo(batch);
+            writeBatch(batch);
+            Thread.currentThread().interrupt();
+        }
+
+        replaySpilled();
+    }
+
+    private void writeBatch(final List<Entry> batch) {
+        final long startTime = System.nanoTime();
+        for (final Entry entry : batch) {
+            write(entry, writerSerializer);
+        }
+        batchTimer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+    }
+
+    private void writeDirect(final Entry entry) {
+        synchronized (directLock) {
+            write(entry, directSerializer);
+        }
+    }
+
+    private void write(final Entry entry, final EventSerializer serializer) {
+        try {
+            write(serialise(entry, serializer));
+        } catch (final RuntimeException e) {
+            LOGGER.error("Unable to write audit event", e);
+        }
+    }
+
+    private void write(final String data) {
+        if (data != null) {
+            sink.accept(data);
+            written.mark();
+        }
+    }
+
+    private String serialise(final Entry entry, final EventSerializer serializer) {
+        if (entry.beforeWrite != null) {
+            entry.beforeWrite.run();
+        }
+
+        final String data = serializer.serialize(entry.event);
+        if (data == null) {
+            return null;
+        }
+        final String trimmed = data.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    private void spill(final Entry entry) {
+        synchronized (directLock) {
+            final String data;
+            try {
+                data = serialise(entry, directSerializer);
+            } catch (final RuntimeException e) {
+                LOGGER.error("Unable to write audit event", e);
+                return;
+            }
+            if (data == null) {
+                return;
+            }
+
+            try {
+                spool.append(data.getBytes(StandardCharsets.UTF_8));
+                spilled.mark();
+            } catch (final IOException e) {
+                LOGGER.error("Unable to spill audit event, writing it directly", e);
+                write(data);
+            }
+        }
+    }
+
+    private void replaySpilled() {
+        if (spool == null) {
+            return;
+        }
+        try {
+            spool.replay(record -> write(new String(record, StandardCharsets.UTF_8)));
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.error("Unable to replay spilled audit events", e);
+        }
+    }
+
+    private static final class Entry {
+        private final Event event;
+        private final Runnable beforeWrite;
+
+        private Entry(final Event event, final Runnable beforeWrite) {
+            this.event = event;
+            this.beforeWrite = beforeWrite;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package stroom.query.audit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Records the metrics of the audit pipeline and the Kafka appender in the Dropwizard {@link MetricRegistry} of the
+ * application, e.g. 'stroom.audit.pipeline.written'. These are kept apart from the search metrics as events are
+ * audited whether or not the service searches.
+ */
+public class AuditMetrics {
+    public static final String PIPELINE = "pipeline";
+    public static final String KAFKA_APPENDER = "kafkaAppender";
+
+    /**
+     * Records nothing, for components created before the application's metrics are available.
+     */
+    public static final AuditMetrics NO_OP = new AuditMetrics(null);
+
+    private static final String PREFIX = "stroom.audit";
+
+    private final MetricRegistry metricRegistry;
+
+    /**
+     * @param metricRegistry Where to record the metrics, null to record nothing.
+     */
+    public AuditMetrics(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * @param component The audit component, e.g. {@link #PIPELINE}.
+     * @param name      The name of the metric within the component.
+     * @return A meter recording the rate at which events occur.
+     */
+    public Meter meter(final String component, final String name) {
+        return (metricRegistry != null)
+                ? metricRegistry.meter(MetricRegistry.name(PREFIX, component, name))
+                : new Meter();
+    }
+
+    /**
+     * @param component The audit component, e.g. {@link #PIPELINE}.
+     * @param name      The name of the metric within the component.
+     * @return A timer recording the distribution and rate of durations.
+     */
+    public Timer timer(final String component, final String name) {
+        return (metricRegistry != null)
+                ? metricRegistry.timer(MetricRegistry.name(PREFIX, component, name))
+                : new Timer();
+    }
+
+    /**
+     * Register a gauge whose value is read on demand. Registering a gauge with the same name replaces the existing one.
+     *
+     * @param component The audit component, e.g. {@link #PIPELINE}.
+     * @param name      The name of the metric within the component.
+     * @param gauge     Supplies the current value.
+     */
+    public synchronized void gauge(final String component, final String name, final Gauge<?> gauge) {
+        if (metricRegistry != null) {
+            final String metricName = MetricRegistry.name(PREFIX, component, name);
+            metricRegistry.remove(metricName);
+            metricRegistry.register(metricName, gauge);
+        }
+    }
+}
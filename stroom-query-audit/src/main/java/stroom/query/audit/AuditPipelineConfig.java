@@ -0,0 +1,86 @@
+package stroom.query.audit;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Settings for the {@link AuditEventPipeline} that writes audit events in the background, and for the
+ * {@link SearchAuditSummariser} that reduces the number of events written for polled searches.
+ */
+public class AuditPipelineConfig {
+
+    @JsonProperty
+    private Integer queueSize;
+
+    @JsonProperty
+    private Integer batchSize;
+
+    @JsonProperty
+    private AuditEventPipeline.OverflowPolicy overflowPolicy;
+
+    @JsonProperty
+    private String spillDirectory;
+
+    @JsonProperty
+    private Long searchSummaryIntervalMs;
+
+    /**
+     * @return The number of events that can wait to be written before the overflow policy applies. Defaults to 10,000.
+     */
+    public int getQueueSize() {
+        return (queueSize != null) ? queueSize : 10_000;
+    }
+
+    public void setQueueSize(final Integer queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @return The maximum number of events taken from the queue in one go. Defaults to 100.
+     */
+    public int getBatchSize() {
+        return (batchSize != null) ? batchSize : 100;
+    }
+
+    public void setBatchSize(final Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return What to do with an event when the queue is full. Defaults to
+     * {@link AuditEventPipeline.OverflowPolicy#BLOCK} so that no events are lost.
+     */
+    public AuditEventPipeline.OverflowPolicy getOverflowPolicy() {
+        return (overflowPolicy != null) ? overflowPolicy : AuditEventPipeline.OverflowPolicy.BLOCK;
+    }
+
+    public void setOverflowPolicy(final AuditEventPipeline.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return Where events are written when the queue is full and the overflow policy is
+     * {@link AuditEventPipeline.OverflowPolicy#SPILL}, it must be set for that policy. Spilled events are replayed
+     * from it when the application restarts so it must not be shared with any other application.
+     */
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public void setSpillDirectory(final String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * When set, only the first search for a query key is audited in full and later polls of the same query are
+     * summarised in one event per interval. Defaults to 0, auditing every poll in full.
+     *
+     * @return How often to write summaries of search polls.
+     */
+    public long getSearchSummaryIntervalMs() {
+        return (searchSummaryIntervalMs != null) ? searchSummaryIntervalMs : 0L;
+    }
+
+    public void setSearchSummaryIntervalMs(final Long searchSummaryIntervalMs) {
+        this.searchSummaryIntervalMs = searchSummaryIntervalMs;
+    }
+}
@@ -1,16 +1,21 @@
 package stroom.query.audit;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
 import com.google.inject.Module;
+import com.google.inject.Provides;
 import event.logging.EventLoggingService;
 import io.dropwizard.Configuration;
 import io.dropwizard.ConfiguredBundle;
 import io.dropwizard.auth.AuthDynamicFeature;
 import io.dropwizard.auth.AuthValueFactoryProvider;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.logging.DefaultLoggingFactory;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
+import stroom.query.audit.logback.KafkaLogbackAppenderFactory;
 import stroom.query.audit.model.DocRefEntity;
 import stroom.query.audit.rest.AuditedDocRefResourceImpl;
 import stroom.query.audit.rest.AuditedQueryResourceImpl;
@@ -18,7 +23,11 @@ import stroom.query.audit.service.DocRefService;
 import stroom.query.authorisation.AuthorisationService;
 import stroom.query.authorisation.AuthorisationServiceConfig;
 import stroom.query.authorisation.AuthorisationServiceImpl;
+import stroom.query.authorisation.CompressionCodec;
+import stroom.query.authorisation.CompressionFeature;
 import stroom.query.authorisation.HasAuthorisationConfig;
+import stroom.query.http.HasHttpClientConfig;
+import stroom.query.http.HttpClientFactory;
 import stroom.query.authorisation.NoAuthAuthorisationServiceImpl;
 import stroom.query.security.HasTokenConfig;
 import stroom.query.security.NoAuthValueFactoryProvider;
@@ -26,6 +35,9 @@ import stroom.query.security.RobustJwtAuthFilter;
 import stroom.query.security.ServiceUser;
 import stroom.query.security.TokenConfig;
 
+import javax.inject.Singleton;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.Function;
 
 /**
@@ -47,6 +59,7 @@ public class AuditedDocRefBundle<CONFIG extends Configuration & HasTokenConfig &
     private Function<CONFIG, Injector> injectorSupplier;
     protected final Class<DOC_REF_SERVICE> docRefServiceClass;
     protected final Class<DOC_REF_POJO> docRefEntityClass;
+    private MetricRegistry metricRegistry;
 
     public AuditedDocRefBundle(final Function<CONFIG, Injector> injectorSupplier,
                                final Class<DOC_REF_SERVICE> docRefServiceClass,
@@ -70,6 +83,19 @@ public class AuditedDocRefBundle<CONFIG extends Configuration & HasTokenConfig &
                 bind(DocRefEntity.ClassProvider.class).toInstance(new DocRefEntity.ClassProvider<>(docRefEntityClass));
                 bind(DocRefService.class).to(docRefServiceClass);
 
+                // Audit events from every resource go through the one pipeline, reporting through the application's
+                // metric registry.
+                final AuditPipelineConfig auditPipelineConfig = (configuration instanceof HasAuditPipelineConfig)
+                        ? ((HasAuditPipelineConfig) configuration).getAuditPipelineConfig()
+                        : null;
+                bind(AuditPipelineConfig.class).toInstance(auditPipelineConfig != null
+                        ? auditPipelineConfig
+                        : new AuditPipelineConfig());
+                bind(AuditMetrics.class).toInstance(metricRegistry != null
+                        ? new AuditMetrics(metricRegistry)
+                        : AuditMetrics.NO_OP);
+                bind(HostDeviceCache.class).in(Singleton.class);
+
                 if (configuration.getTokenConfig().getSkipAuth()) {
                     bind(AuthorisationService.class).to(NoAuthAuthorisationServiceImpl.class);
                 } else {
@@ -78,21 +104,84 @@ public class AuditedDocRefBundle<CONFIG extends Configuration & HasTokenConfig &
                     bind(TokenConfig.class).toInstance(configuration.getTokenConfig());
                 }
             }
+
+            @Provides
+            @Singleton
+            AuditEventPipeline auditEventPipeline(final AuditPipelineConfig auditPipelineConfig,
+                                                  final AuditMetrics auditMetrics) {
+                return new AuditEventPipeline(auditPipelineConfig, auditMetrics);
+            }
+
+            @Provides
+            @Singleton
+            SearchAuditSummariser searchAuditSummariser(final AuditPipelineConfig auditPipelineConfig) {
+                return new SearchAuditSummariser(auditPipelineConfig);
+            }
+
+            @Provides
+            @Singleton
+            ClientDeviceCache clientDeviceCache() {
+                return new ClientDeviceCache();
+            }
         };
     }
 
+    /**
+     * Override to support other codecs, e.g. zstd, for compressing request and response bodies.
+     *
+     * @return The codecs that can be used in order of preference.
+     */
+    protected List<CompressionCodec> getCompressionCodecs() {
+        return Arrays.asList(CompressionCodec.GZIP, CompressionCodec.DEFLATE);
+    }
+
+    /**
+     * @return The size in bytes below which response bodies are not compressed.
+     */
+    protected int getCompressionMinSize() {
+        return 1024;
+    }
+
     @Override
     public void initialize(final Bootstrap<?> bootstrap) {
-
+        // The environment is created with the same registry, it is needed before the injector is created in run.
+        metricRegistry = bootstrap.getMetricRegistry();
     }
 
     @Override
     public void run(final CONFIG configuration,
                     final Environment environment) {
+        // Remote clients, including the ones used for auth, share connections configured by the application.
+        if (configuration instanceof HasHttpClientConfig) {
+            HttpClientFactory.configureDefault(((HasHttpClientConfig) configuration).getHttpClientConfig());
+        }
+
         final Injector injector = injectorSupplier.apply(configuration);
 
+        // Logging was configured before the metrics were available.
+        final AuditMetrics metrics = injector.getInstance(AuditMetrics.class);
+        if (configuration.getLoggingFactory() instanceof DefaultLoggingFactory) {
+            ((DefaultLoggingFactory) configuration.getLoggingFactory()).getAppenders().stream()
+                    .filter(KafkaLogbackAppenderFactory.class::isInstance)
+                    .forEach(appenderFactory -> ((KafkaLogbackAppenderFactory<?>) appenderFactory).setMetrics(metrics));
+        }
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void stop() {
+                // Write any summarised or queued audit events before the application exits.
+                injector.getInstance(SearchAuditSummariser.class).close();
+                injector.getInstance(AuditEventPipeline.class).close();
+                injector.getInstance(ClientDeviceCache.class).close();
+            }
+        });
+
         environment.jersey().register(injector.getInstance(AuditedQueryResourceImpl.class));
         environment.jersey().register(injector.getInstance(AuditedDocRefResourceImpl.class));
+        environment.jersey().register(new CompressionFeature(getCompressionMinSize(), getCompressionCodecs()));
 
         // Configure auth
         if (configuration.getTokenConfig().getSkipAuth()) {
@@ -1,18 +1,29 @@
 package stroom.query.audit;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.AbstractModule;
+import com.google.inject.Binding;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.util.Modules;
 import io.dropwizard.Configuration;
 import io.dropwizard.ConfiguredBundle;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import stroom.query.authorisation.HasAuthorisationConfig;
+import stroom.query.http.HasHttpClientConfig;
+import stroom.query.http.HttpClientFactory;
 import stroom.query.audit.model.DocRefEntity;
+import stroom.query.audit.rest.AuditedAsyncQueryResourceImpl;
 import stroom.query.audit.rest.AuditedQueryResourceImpl;
+import stroom.query.audit.rest.AuditedQuerySubscriptionResourceImpl;
 import stroom.query.audit.service.DocRefService;
 import stroom.query.audit.service.QueryService;
+import stroom.query.common.v2.MergeScheduler;
+import stroom.query.common.v2.SearchMetrics;
+import stroom.query.common.v2.SearchResponseCreatorManager;
 import stroom.query.security.HasTokenConfig;
 
 import java.util.function.Function;
@@ -44,6 +55,7 @@ public class AuditedQueryBundle<CONFIG extends Configuration & HasTokenConfig &
     protected final Class<DOC_REF_SERVICE> docRefServiceClass;
     protected final Class<DOC_REF_POJO> docRefEntityClass;
     private final Class<QUERY_SERVICE> queryServiceClass;
+    private MetricRegistry metricRegistry;
 
     public AuditedQueryBundle(final Function<CONFIG, Injector> injectorSupplier,
                               final Class<DOC_REF_SERVICE> docRefServiceClass,
@@ -67,6 +79,10 @@ public class AuditedQueryBundle<CONFIG extends Configuration & HasTokenConfig &
             @SuppressWarnings("unchecked")
             protected void configure() {
                 bind(QueryService.class).to(queryServiceClass);
+                // Report search pipeline metrics through the application's metric registry.
+                bind(SearchMetrics.class).toInstance(metricRegistry != null
+                        ? new DropwizardSearchMetrics(metricRegistry)
+                        : SearchMetrics.NO_OP);
             }
         }, auditedDocRefBundle.getGuiceModule(configuration));
     }
@@ -76,13 +92,54 @@ public class AuditedQueryBundle<CONFIG extends Configuration & HasTokenConfig &
     public void initialize(final Bootstrap<?> bootstrap) {
         final Bootstrap<CONFIG> castBootstrap = (Bootstrap<CONFIG>) bootstrap; // this initialize function should have used the templated config type
         castBootstrap.addBundle(auditedDocRefBundle);
+        // The environment is created with the same registry, it is needed before the injector is created in run.
+        metricRegistry = bootstrap.getMetricRegistry();
     }
 
     @Override
     public void run(final CONFIG configuration,
                     final Environment environment) {
+        // This bundle runs before the doc ref bundle so the shared connection settings need applying here too.
+        if (configuration instanceof HasHttpClientConfig) {
+            HttpClientFactory.configureDefault(((HasHttpClientConfig) configuration).getHttpClientConfig());
+        }
+
         final Injector injector = injectorSupplier.apply(configuration);
 
         environment.jersey().register(injector.getInstance(AuditedQueryResourceImpl.class));
+        environment.jersey().register(injector.getInstance(AuditedAsyncQueryResourceImpl.class));
+        environment.jersey().register(injector.getInstance(AuditedQuerySubscriptionResourceImpl.class));
+
+        // Query services that merge results on a shared scheduler bind it so its threads can be stopped with the
+        // application. It is registered first so that it is stopped after the searches using it.
+        final Binding<MergeScheduler> mergeScheduler = injector.getExistingBinding(Key.get(MergeScheduler.class));
+        if (mergeScheduler != null) {
+            environment.lifecycle().manage(new Managed() {
+                @Override
+                public void start() {
+                }
+
+                @Override
+                public void stop() {
+                    mergeScheduler.getProvider().get().close();
+                }
+            });
+        }
+
+        // Query services that keep searches in a manager bind it so the searches can be stopped with the application.
+        final Binding<SearchResponseCreatorManager> searchResponseCreatorManager =
+                injector.getExistingBinding(Key.get(SearchResponseCreatorManager.class));
+        if (searchResponseCreatorManager != null) {
+            environment.lifecycle().manage(new Managed() {
+                @Override
+                public void start() {
+                }
+
+                @Override
+                public void stop() {
+                    searchResponseCreatorManager.getProvider().get().close();
+                }
+            });
+        }
     }
 }
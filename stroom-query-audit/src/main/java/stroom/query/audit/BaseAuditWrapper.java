@@ -17,6 +17,10 @@ public abstract class BaseAuditWrapper<CHILD_CLASS extends BaseAuditWrapper<?>>
 
     private PopulateEventDetail populateEventDetail;
 
+    private CompleteEventDetail completeEventDetail;
+
+    private AuditFilter auditFilter;
+
     @FunctionalInterface
     public interface PopulateEventDetail {
         void populate(final Event.EventDetail eventDetail,
@@ -24,6 +28,25 @@ public abstract class BaseAuditWrapper<CHILD_CLASS extends BaseAuditWrapper<?>>
                       final Exception exception);
     }
 
+    /**
+     * Completes the parts of an event detail that are only needed for the audit record, e.g. serialising a request.
+     * It is run after the event detail is populated, possibly on the thread writing the event.
+     */
+    @FunctionalInterface
+    public interface CompleteEventDetail {
+        void complete(final Event.EventDetail eventDetail);
+    }
+
+    /**
+     * Decides whether a call is audited with its own event, a filter that returns false is responsible for accounting
+     * for the call some other way, e.g. in a summary.
+     */
+    @FunctionalInterface
+    public interface AuditFilter {
+        boolean shouldAudit(final Response response,
+                            final Exception exception);
+    }
+
     public BaseAuditWrapper(final ServiceUser user) {
         this.user = user;
     }
@@ -33,6 +56,16 @@ public abstract class BaseAuditWrapper<CHILD_CLASS extends BaseAuditWrapper<?>>
         return self();
     }
 
+    public CHILD_CLASS withCompleteAudit(final CompleteEventDetail completeEventDetail) {
+        this.completeEventDetail = completeEventDetail;
+        return self();
+    }
+
+    public CHILD_CLASS withAuditFilter(final AuditFilter auditFilter) {
+        this.auditFilter = auditFilter;
+        return self();
+    }
+
     public Response callAndAudit(final EventLoggingService eventLoggingService) {
         if (this.user == null){
             throw new IllegalArgumentException("User must not be null");
@@ -62,4 +95,32 @@ public abstract class BaseAuditWrapper<CHILD_CLASS extends BaseAuditWrapper<?>>
     protected PopulateEventDetail populateEventDetail() {
         return populateEventDetail;
     }
+
+    /**
+     * Create, populate and log the event for a call, unless the audit filter says otherwise.
+     */
+    protected void logEvent(final EventLoggingService eventLoggingService,
+                            final Response response,
+                            final Exception exception) {
+        if (auditFilter != null && !auditFilter.shouldAudit(response, exception)) {
+            return;
+        }
+
+        final Event event = eventLoggingService.createEvent();
+        final Event.EventDetail eventDetail = event.getEventDetail();
+
+        event.getEventSource().getUser().setId(user().getName());
+
+        populateEventDetail.populate(eventDetail, response, exception);
+
+        if (completeEventDetail == null) {
+            eventLoggingService.log(event);
+        } else if (eventLoggingService instanceof QueryEventLoggingService) {
+            ((QueryEventLoggingService) eventLoggingService).log(event,
+                    () -> completeEventDetail.complete(eventDetail));
+        } else {
+            completeEventDetail.complete(eventDetail);
+            eventLoggingService.log(event);
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package stroom.query.audit;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import event.logging.Device;
+import event.logging.util.DeviceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Client details by IP address. Host names are looked up in the background so that a slow DNS server doesn't hold up
+ * the request being audited, until then the client is recorded by IP address only.
+ */
+class ClientDeviceCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientDeviceCache.class);
+
+    private static final long EXPIRE_AFTER_WRITE_MINUTES = 10;
+
+    private final Cache<String, Device> clients;
+    private final Function<String, Device> resolver;
+    private final Executor executor;
+
+    /**
+     * Look host names up on threads owned by the cache, see {@link #close()}.
+     */
+    ClientDeviceCache() {
+        this(ClientDeviceCache::resolve, createExecutor(), Ticker.systemTicker());
+    }
+
+    /**
+     * @param resolver Finds the details of the client with an IP address, it may be slow.
+     * @param executor Runs the resolver.
+     * @param ticker   The time source for expiring the details.
+     */
+    ClientDeviceCache(final Function<String, Device> resolver,
+                      final Executor executor,
+                      final Ticker ticker) {
+        this.resolver = resolver;
+        this.executor = executor;
+        this.clients = CacheBuilder.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(EXPIRE_AFTER_WRITE_MINUTES, TimeUnit.MINUTES)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * @param ip A valid IP address.
+     * @return The details of the client, shared so they must not be changed.
+     */
+    Device get(final String ip) {
+        Device client = clients.getIfPresent(ip);
+        if (client == null) {
+            client = new Device();
+            client.setIPAddress(ip);
+            // Only the first event from a client starts a lookup.
+            if (clients.asMap().putIfAbsent(ip, client) == null) {
+                resolveClient(ip);
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Stop looking up host names, clients are recorded by IP address from then on.
+     */
+    void close() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    private void resolveClient(final String ip) {
+        try {
+            executor.execute(() -> {
+                try {
+                    final Device client = resolver.apply(ip);
+                    client.setIPAddress(ip);
+                    clients.put(ip, client);
+                } catch (final RuntimeException e) {
+                    // The client stays recorded by IP address until the cache entry expires.
+                    LOGGER.warn("Problem getting client InetAddress", e);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // Too many lookups waiting, try again for a later event.
+            clients.invalidate(ip);
+        }
+    }
+
+    private static Device resolve(final String ip) {
+        try {
+            return DeviceUtil.createDeviceFromInetAddress(InetAddress.getByName(ip));
+        } catch (final UnknownHostException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(4,
+                4,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1_000),
+                runnable -> {
+                    final Thread thread = new Thread(runnable,
+                            "Audit Client Resolver #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -1,5 +1,6 @@
 package stroom.query.audit;
 
+import stroom.mapreduce.v2.Pair;
 import stroom.mapreduce.v2.UnsafePairQueue;
 import stroom.query.api.v2.TableSettings;
 import stroom.query.common.v2.CompiledSorter;
@@ -17,6 +18,7 @@ import stroom.query.common.v2.TablePayload;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -25,10 +27,16 @@ import java.util.concurrent.TimeUnit;
 public class CriteriaStore implements Store {
     private final CoprocessorSettingsMap coprocessorSettingsMap;
     private final Map<CoprocessorSettingsMap.CoprocessorKey, Payload> payloadMap;
+    // The payloads never change so the data for each coprocessor only needs to be assembled once.
+    private final Map<CoprocessorSettingsMap.CoprocessorKey, Data> dataMap = new ConcurrentHashMap<>();
 
     private final Sizes defaultMaxResultsSizes;
     private final Sizes storeSize;
 
+    // The payloads never change so their size is only estimated once.
+    private volatile long payloadSize = -1;
+    private volatile boolean destroyed;
+
     public CriteriaStore(final Sizes defaultMaxResultsSizes,
                          final Sizes storeSize,
                          final CoprocessorSettingsMap coprocessorSettingsMap,
@@ -41,7 +49,9 @@ public class CriteriaStore implements Store {
 
     @Override
     public void destroy() {
-        // Do nothing to do as this store doesn't hold any query state
+        // The results are complete so there is no work to stop, just release the data assembled from them.
+        destroyed = true;
+        dataMap.clear();
     }
 
     @Override
@@ -66,15 +76,22 @@ public class CriteriaStore implements Store {
         if (coprocessorKey == null) {
             return null;
         }
-        if (null == payloadMap) {
+        if (null == payloadMap || destroyed) {
             return new Data(new HashMap<>(), 0, 0);
         }
 
+        return dataMap.computeIfAbsent(coprocessorKey, this::createData);
+    }
+
+    private Data createData(final CoprocessorSettingsMap.CoprocessorKey coprocessorKey) {
         TableCoprocessorSettings tableCoprocessorSettings = (TableCoprocessorSettings) coprocessorSettingsMap.getMap()
                 .get(coprocessorKey);
         TableSettings tableSettings = tableCoprocessorSettings.getTableSettings();
 
         Payload payload = payloadMap.get(coprocessorKey);
+        if (payload == null) {
+            return new Data(new HashMap<>(), 0, 0);
+        }
         TablePayload tablePayload = (TablePayload) payload;
         UnsafePairQueue<GroupKey, Item> queue = tablePayload.getQueue();
 
@@ -88,6 +105,29 @@ public class CriteriaStore implements Store {
         return resultStoreCreator.create(queue.size(), queue.size());
     }
 
+    @Override
+    public long getEstimatedSize() {
+        long estimate = payloadSize;
+        if (estimate == -1) {
+            estimate = 0;
+            if (payloadMap != null) {
+                for (final Payload payload : payloadMap.values()) {
+                    if (payload instanceof TablePayload) {
+                        for (final Pair<GroupKey, Item> pair : ((TablePayload) payload).getQueue()) {
+                            estimate += Data.estimateSize(pair.getValue());
+                        }
+                    }
+                }
+            }
+            payloadSize = estimate;
+        }
+
+        for (final Data data : dataMap.values()) {
+            estimate += data.getEstimatedSize();
+        }
+        return estimate;
+    }
+
     @Override
     public List<String> getErrors() {
         return null;
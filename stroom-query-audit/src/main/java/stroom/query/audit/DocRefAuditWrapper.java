@@ -1,6 +1,5 @@
 package stroom.query.audit;
 
-import event.logging.Event;
 import event.logging.EventLoggingService;
 import org.eclipse.jetty.http.HttpStatus;
 import org.slf4j.Logger;
@@ -120,15 +119,16 @@ public class DocRefAuditWrapper<DOC_REF_ENTITY extends DocRefEntity>
                     final Optional<DOC_REF_ENTITY> docRefEntityOpt =
                             docRefEntitySupplier.getDocRefEntity(docRef);
 
+                    // Assign rather than return the response so that the audit sees it.
                     if (docRefEntityOpt.isPresent()) {
                         try {
-                            return responseSupplier.getResponse(docRefEntityOpt.get());
+                            response = responseSupplier.getResponse(docRefEntityOpt.get());
                         } catch (Exception e) {
                             LOGGER.error(e.getLocalizedMessage(), e);
-                            return Response.serverError().entity(e.getLocalizedMessage()).build();
+                            response = Response.serverError().entity(e.getLocalizedMessage()).build();
                         }
                     } else {
-                        return Response.status(HttpStatus.NOT_FOUND_404).build();
+                        response = Response.status(HttpStatus.NOT_FOUND_404).build();
                     }
                 } else {
                     response = Response.status(HttpStatus.FORBIDDEN_403).build();
@@ -141,14 +141,7 @@ public class DocRefAuditWrapper<DOC_REF_ENTITY extends DocRefEntity>
             exception = e;
             response = Response.serverError().build();
         } finally {
-            final Event event = eventLoggingService.createEvent();
-            final Event.EventDetail eventDetail = event.getEventDetail();
-
-            event.getEventSource().getUser().setId(user().getName());
-
-            populateEventDetail().populate(eventDetail, response, exception);
-
-            eventLoggingService.log(event);
+            logEvent(eventLoggingService, response, exception);
         }
 
         return response;
@@ -0,0 +1,45 @@
+package stroom.query.audit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import stroom.query.common.v2.SearchMetrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Records search pipeline metrics in the Dropwizard {@link MetricRegistry} of the application so they are reported
+ * alongside the resource metrics, e.g. 'stroom.query.tablePayloadHandler.merge'.
+ */
+public class DropwizardSearchMetrics implements SearchMetrics {
+    private static final String PREFIX = "stroom.query";
+
+    private final MetricRegistry metricRegistry;
+
+    public DropwizardSearchMetrics(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    public Meter meter(final String component, final String name) {
+        return metricRegistry.meter(MetricRegistry.name(PREFIX, component, name))::mark;
+    }
+
+    @Override
+    public Histogram histogram(final String component, final String name) {
+        return metricRegistry.histogram(MetricRegistry.name(PREFIX, component, name))::update;
+    }
+
+    @Override
+    public Timer timer(final String component, final String name) {
+        final com.codahale.metrics.Timer timer = metricRegistry.timer(MetricRegistry.name(PREFIX, component, name));
+        return nanos -> timer.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void gauge(final String component, final String name, final LongSupplier supplier) {
+        final String metricName = MetricRegistry.name(PREFIX, component, name);
+        metricRegistry.remove(metricName);
+        metricRegistry.register(metricName, (Gauge<Long>) supplier::getAsLong);
+    }
+}
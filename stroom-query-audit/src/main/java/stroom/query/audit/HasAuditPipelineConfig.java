@@ -0,0 +1,8 @@
+package stroom.query.audit;
+
+/**
+ * Implemented by application configurations that want to tune the {@link AuditEventPipeline}.
+ */
+public interface HasAuditPipelineConfig {
+    AuditPipelineConfig getAuditPipelineConfig();
+}
@@ -0,0 +1,77 @@
+package stroom.query.audit;
+
+import event.logging.Device;
+import event.logging.util.DeviceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The details of this host, found once and shared by all audit events.
+ */
+class HostDeviceCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostDeviceCache.class);
+
+    // Records that the details couldn't be found.
+    private static final Device NO_DEVICE = new Device();
+
+    private final AtomicReference<Device> storedDevice = new AtomicReference<>();
+
+    /**
+     * @param request The request being audited, used if the details can't be found from the local host. May be null.
+     * @return The details of this host, shared so they must not be changed, or null if they couldn't be found.
+     */
+    Device get(final HttpServletRequest request) {
+        Device device = storedDevice.get();
+        if (device == null) {
+            // Threads racing to find the details all get the same answer so the first one wins.
+            storedDevice.compareAndSet(null, create(request));
+            device = storedDevice.get();
+        }
+
+        return (device != NO_DEVICE) ? device : null;
+    }
+
+    private Device create(final HttpServletRequest request) {
+        // First try and get the local server IP address and host name.
+        InetAddress inetAddress = null;
+        try {
+            inetAddress = InetAddress.getLocalHost();
+        } catch (final UnknownHostException e) {
+            LOGGER.warn("Problem getting device from InetAddress", e);
+        }
+
+        if (inetAddress != null) {
+            return DeviceUtil.createDeviceFromInetAddress(inetAddress);
+        }
+
+        // Make final attempt to set with request if we have one and
+        // haven't been able to set IP and host name already.
+        if (request != null) {
+            final String ip = DeviceUtil.getValidIP(request.getLocalAddr());
+            if (ip != null) {
+                try {
+                    inetAddress = InetAddress.getByName(ip);
+                } catch (final UnknownHostException e) {
+                    LOGGER.warn("Problem getting client InetAddress", e);
+                }
+
+                final Device device;
+                if (inetAddress != null) {
+                    device = DeviceUtil.createDeviceFromInetAddress(inetAddress);
+                } else {
+                    device = new Device();
+                }
+
+                device.setIPAddress(ip);
+                return device;
+            }
+        }
+
+        return NO_DEVICE;
+    }
+}
@@ -6,8 +6,6 @@ import event.logging.EventLoggingService;
 import event.logging.System;
 import event.logging.User;
 import event.logging.impl.DefaultEventLoggingService;
-import event.logging.impl.DefaultEventSerializer;
-import event.logging.impl.EventSerializer;
 import event.logging.util.DeviceUtil;
 import event.logging.util.EventLoggingUtil;
 import org.slf4j.Logger;
@@ -16,42 +14,57 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Context;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.Date;
 
 /**
  * A standard implementation of the Event Logging Service that can be used across various Stroom micorservices.
+ * Events are written to the {@link #AUDIT_LOGGER_NAME audit logger} in the background by the
+ * {@link AuditEventPipeline}.
  */
 public class QueryEventLoggingService extends DefaultEventLoggingService implements EventLoggingService {
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryEventLoggingService.class);
 
     public static final String AUDIT_LOGGER_NAME = "AUDIT";
-    private static final Logger AUDIT_LOGGER = LoggerFactory.getLogger(AUDIT_LOGGER_NAME);
 
     private static final String SYSTEM = "Stroom";
     private static final String ENVIRONMENT = "";
     private static final String GENERATOR = "StroomDocRefEventLoggingService";
 
-    private volatile boolean obtainedDevice;
-    private volatile Device storedDevice;
-
-    private final EventSerializer eventSerializer = new DefaultEventSerializer();
+    private final AuditEventPipeline auditEventPipeline;
+    private final HostDeviceCache hostDeviceCache;
+    private final ClientDeviceCache clientDeviceCache;
 
     @Context
     private transient HttpServletRequest request;
 
+    /**
+     * @param auditEventPipeline Writes the events.
+     * @param hostDeviceCache    The details of this host, shared by all instances.
+     * @param clientDeviceCache  The details of clients, shared by all instances.
+     */
     @Inject
-    public QueryEventLoggingService() {
+    QueryEventLoggingService(final AuditEventPipeline auditEventPipeline,
+                             final HostDeviceCache hostDeviceCache,
+                             final ClientDeviceCache clientDeviceCache) {
+        this.auditEventPipeline = auditEventPipeline;
+        this.hostDeviceCache = hostDeviceCache;
+        this.clientDeviceCache = clientDeviceCache;
     }
 
     @Override
     public void log(Event event) {
-        String data = this.eventSerializer.serialize(event);
-        String trimmed = data.trim();
-        if (trimmed.length() > 0) {
-            AUDIT_LOGGER.info(trimmed);
-        }
+        log(event, null);
+    }
+
+    /**
+     * Log an event, leaving work that is only needed for the audit record, such as serialising a request, until the
+     * event is written rather than doing it on the thread being audited.
+     *
+     * @param event      The event to log, it must not be changed by the caller afterwards.
+     * @param completion Completes the event, it must be safe to run on another thread. May be null.
+     */
+    public void log(final Event event, final Runnable completion) {
+        auditEventPipeline.submit(event, completion);
     }
 
     public Event createEvent() {
@@ -105,7 +118,7 @@ public class QueryEventLoggingService extends DefaultEventLoggingService impleme
 
     private Device getDevice(final HttpServletRequest request) {
         // Get stored device info.
-        final Device storedDevice = obtainStoredDevice(request);
+        final Device storedDevice = hostDeviceCache.get(request);
 
         // We need to copy the stored device as users may make changes to the
         // returned object that might not be thread safe.
@@ -124,22 +137,8 @@ public class QueryEventLoggingService extends DefaultEventLoggingService impleme
                 ip = DeviceUtil.getValidIP(ip);
 
                 if (ip != null) {
-                    InetAddress inetAddress = null;
-                    try {
-                        inetAddress = InetAddress.getByName(ip);
-                    } catch (final UnknownHostException e) {
-                        LOGGER.warn("Problem getting client InetAddress:", e);
-                    }
-
-                    Device client = null;
-                    if (inetAddress != null) {
-                        client = DeviceUtil.createDeviceFromInetAddress(inetAddress);
-                    } else {
-                        client = new Device();
-                    }
-
-                    client.setIPAddress(ip);
-                    return client;
+                    // Copied as the caller may change the event.
+                    return copyDevice(clientDeviceCache.get(ip), new Device());
                 }
             } catch (final RuntimeException e) {
                 LOGGER.warn("Problem getting client IP address and host name", e);
@@ -149,47 +148,6 @@ public class QueryEventLoggingService extends DefaultEventLoggingService impleme
         return null;
     }
 
-    private synchronized Device obtainStoredDevice(final HttpServletRequest request) {
-        if (!obtainedDevice) {
-            // First try and get the local server IP address and host name.
-            InetAddress inetAddress = null;
-            try {
-                inetAddress = InetAddress.getLocalHost();
-            } catch (final UnknownHostException e) {
-                LOGGER.warn("Problem getting device from InetAddress", e);
-            }
-
-            if (inetAddress != null) {
-                storedDevice = DeviceUtil.createDeviceFromInetAddress(inetAddress);
-            } else {
-                // Make final attempt to set with request if we have one and
-                // haven't been able to set IP and host name already.
-                if (request != null) {
-                    final String ip = DeviceUtil.getValidIP(request.getLocalAddr());
-                    if (ip != null) {
-                        try {
-                            inetAddress = InetAddress.getByName(ip);
-                        } catch (final UnknownHostException e) {
-                            LOGGER.warn("Problem getting client InetAddress", e);
-                        }
-
-                        if (inetAddress != null) {
-                            storedDevice = DeviceUtil.createDeviceFromInetAddress(inetAddress);
-                        } else {
-                            storedDevice = new Device();
-                        }
-
-                        storedDevice.setIPAddress(ip);
-                    }
-                }
-            }
-
-            obtainedDevice = true;
-        }
-
-        return storedDevice;
-    }
-
     private Device copyDevice(final Device source, final Device dest) {
         dest.setIPAddress(source.getIPAddress());
         dest.setHostName(source.getHostName());
@@ -0,0 +1,255 @@
+package stroom.query.audit;
+
+import event.logging.Event;
+import event.logging.EventLoggingService;
+import event.logging.Outcome;
+import event.logging.Search;
+import stroom.docref.DocRef;
+import stroom.query.api.v2.QueryKey;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.security.ServiceUser;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental searches are polled repeatedly with the same {@link QueryKey}, auditing every poll in full produces
+ * many near identical events. When enabled this lets the first search by each user for each query key be audited in
+ * full and counts the later polls, writing a {@link #QUERY_SEARCH_SUMMARY} event for them once per interval and when
+ * the query is destroyed. Polls of the same query key by different users are summarised separately so that each
+ * summary names the user that made the polls. Only successful polls are summarised, polls that fail or are refused
+ * are always audited in full.
+ * <p>
+ * A query that isn't polled for a whole interval is forgotten, if it is polled again that poll is audited in full.
+ */
+public class SearchAuditSummariser {
+    public static final String QUERY_SEARCH_SUMMARY = "QUERY_SEARCH_SUMMARY";
+
+    private static final BaseAuditWrapper.AuditFilter AUDIT_IN_FULL = (response, exception) -> true;
+
+    private final Map<SummaryKey, Summary> summaries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    public SearchAuditSummariser(final AuditPipelineConfig config) {
+        final long intervalMs = config.getSearchSummaryIntervalMs();
+        if (intervalMs > 0) {
+            this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "Search Audit Summariser");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Call as a search starts, before the search is made.
+     *
+     * @param user                The user making the search.
+     * @param request             The search request.
+     * @param eventLoggingService Used to create and log the summary events.
+     * @return The filter to audit the search with, it allows the search to be audited in full if it is the user's
+     * first for its query key or if it fails, otherwise it records the search in the user's summary for the query.
+     */
+    public BaseAuditWrapper.AuditFilter start(final ServiceUser user,
+                                              final SearchRequest request,
+                                              final EventLoggingService eventLoggingService) {
+        final QueryKey queryKey = request.getKey();
+        if (executor == null || queryKey == null) {
+            return AUDIT_IN_FULL;
+        }
+
+        final String userName = user.getName();
+        final Summary summary = summaries.computeIfAbsent(new SummaryKey(userName, queryKey), k -> new Summary(queryKey,
+                userName,
+                (request.getQuery() != null) ? request.getQuery().getDataSource() : null,
+                eventLoggingService));
+        if (summary.claimFirst()) {
+            return AUDIT_IN_FULL;
+        }
+
+        final long startTime = System.nanoTime();
+        return (response, exception) -> {
+            if (exception != null || response == null || response.getStatus() >= 400) {
+                return true;
+            }
+            // If the summary has just been forgotten then audit the poll in full rather than lose it.
+            return !summary.record(System.nanoTime() - startTime);
+        };
+    }
+
+    /**
+     * Call when a query is destroyed to write the summary of the user's polls straight away.
+     *
+     * @param user     The user destroying the query.
+     * @param queryKey The key of the query.
+     */
+    public void end(final ServiceUser user, final QueryKey queryKey) {
+        if (queryKey != null) {
+            end(new SummaryKey(user.getName(), queryKey));
+        }
+    }
+
+    private void end(final SummaryKey summaryKey) {
+        final Summary summary = summaries.remove(summaryKey);
+        if (summary != null) {
+            summary.flush(true);
+        }
+    }
+
+    /**
+     * Write summaries for any polls recorded and stop summarising.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        summaries.keySet().forEach(this::end);
+    }
+
+    void flush() {
+        summaries.forEach((summaryKey, summary) -> {
+            if (!summary.flush(false)) {
+                summaries.remove(summaryKey, summary);
+            }
+        });
+    }
+
+    int size() {
+        return summaries.size();
+    }
+
+    private static final class SummaryKey {
+        private final String userName;
+        private final QueryKey queryKey;
+
+        private SummaryKey(final String userName, final QueryKey queryKey) {
+            this.userName = userName;
+            this.queryKey = queryKey;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final SummaryKey that = (SummaryKey) o;
+            return Objects.equals(userName, that.userName) &&
+                    Objects.equals(queryKey, that.queryKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userName, queryKey);
+        }
+    }
+
+    private static final class Summary {
+        private final QueryKey queryKey;
+        private final String userName;
+        private final DocRef dataSource;
+        private final EventLoggingService eventLoggingService;
+
+        private boolean claimed;
+        private boolean removed;
+
+        private Event event;
+        private long polls;
+        private long totalNanos;
+        private long maxNanos;
+        private long firstPollMs;
+        private long lastPollMs;
+
+        private Summary(final QueryKey queryKey,
+                        final String userName,
+                        final DocRef dataSource,
+                        final EventLoggingService eventLoggingService) {
+            this.queryKey = queryKey;
+            this.userName = userName;
+            this.dataSource = dataSource;
+            this.eventLoggingService = eventLoggingService;
+        }
+
+        synchronized boolean claimFirst() {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            return true;
+        }
+
+        synchronized boolean record(final long durationNanos) {
+            if (removed) {
+                return false;
+            }
+
+            final long now = System.currentTimeMillis();
+            if (event == null) {
+                // Created on the polling thread so that the event carries the client's details.
+                event = eventLoggingService.createEvent();
+                firstPollMs = now;
+            }
+            lastPollMs = now;
+            polls++;
+            totalNanos += durationNanos;
+            maxNanos = Math.max(maxNanos, durationNanos);
+            return true;
+        }
+
+        /**
+         * @param remove Stop recording polls whether or not there were any to write.
+         * @return False if there were no polls to write, the summary is then no longer recording.
+         */
+        synchronized boolean flush(final boolean remove) {
+            if (polls == 0) {
+                removed = true;
+                return false;
+            }
+            removed = remove;
+
+            event.getEventSource().getUser().setId(userName);
+
+            final Event.EventDetail eventDetail = event.getEventDetail();
+            eventDetail.setTypeId(QUERY_SEARCH_SUMMARY);
+            eventDetail.setDescription("Summary of repeated polls of a query");
+
+            final Search search = new Search();
+            if (dataSource != null) {
+                search.setId(dataSource.getUuid());
+                search.setType(dataSource.getType());
+                search.setName(dataSource.getName());
+            }
+            search.setDescription(String.format("%d polls of query %s between %s and %s, mean duration %d ms, " +
+                            "max duration %d ms",
+                    polls,
+                    queryKey.getUuid(),
+                    Instant.ofEpochMilli(firstPollMs),
+                    Instant.ofEpochMilli(lastPollMs),
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos / polls),
+                    TimeUnit.NANOSECONDS.toMillis(maxNanos)));
+            eventDetail.setSearch(search);
+
+            final Outcome outcome = new Outcome();
+            outcome.setSuccess(true);
+            search.setOutcome(outcome);
+
+            eventLoggingService.log(event);
+
+            event = null;
+            polls = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            return true;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package stroom.query.audit;
 
-import event.logging.Event;
 import event.logging.EventLoggingService;
 import org.eclipse.jetty.http.HttpStatus;
 import org.slf4j.Logger;
@@ -84,14 +83,7 @@ public class SimpleAuditWrapper extends BaseAuditWrapper<SimpleAuditWrapper> {
             exception = e;
             response = Response.serverError().build();
         } finally {
-            final Event event = eventLoggingService.createEvent();
-            final Event.EventDetail eventDetail = event.getEventDetail();
-
-            event.getEventSource().getUser().setId(user().getName());
-
-            populateEventDetail().populate(eventDetail, response, exception);
-
-            eventLoggingService.log(event);
+            logEvent(eventLoggingService, response, exception);
         }
 
         return response;
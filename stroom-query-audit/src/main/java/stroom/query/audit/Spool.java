@@ -0,0 +1,258 @@
+package stroom.query.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps records on disk that can't be delivered yet so that they can be replayed later. Records are appended to a
+ * file in the spool directory with a length prefix, when replayed the file is moved aside so that records can
+ * continue to be appended while the replay is in progress.
+ * <p>
+ * Records left from a previous run with the same directory and file name are replayed too. If a replay fails part
+ * way through a file, the offset of the first record not consumed is kept beside it so that the next replay starts
+ * from there.
+ */
+public class Spool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Spool.class);
+
+    private static final String REPLAY_SUFFIX = ".replay";
+    private static final String OFFSET_SUFFIX = ".offset";
+    private static final int LENGTH_BYTES = 4;
+
+    private final Path directory;
+    private final String fileName;
+    private final long maxBytes;
+
+    private final Object replayLock = new Object();
+    private final AtomicLong bytes = new AtomicLong();
+    private DataOutputStream output;
+    private volatile boolean pending;
+
+    /**
+     * @param directory The directory to keep the records in, created when the first record is appended.
+     * @param fileName  The name of the file records are appended to, it must be unique within the directory.
+     * @param maxBytes  The most the spool may hold on disk, zero or less for no limit.
+     */
+    public Spool(final Path directory,
+                 final String fileName,
+                 final long maxBytes) {
+        this.directory = directory;
+        this.fileName = fileName;
+        this.maxBytes = maxBytes;
+
+        long existing = 0;
+        for (final Path file : list(fileName + "*")) {
+            if (file.getFileName().toString().endsWith(OFFSET_SUFFIX)) {
+                continue;
+            }
+            try {
+                existing += Files.size(file);
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to read the size of {}", file, e);
+            }
+        }
+        this.bytes.set(existing);
+        this.pending = existing > 0;
+    }
+
+    /**
+     * @param record The record to keep.
+     * @throws IOException If the record couldn't be written or the spool is full.
+     */
+    public synchronized void append(final byte[] record) throws IOException {
+        final long size = LENGTH_BYTES + record.length;
+        if (maxBytes > 0 && bytes.get() + size > maxBytes) {
+            throw new IOException("Spool " + directory.resolve(fileName) + " is full");
+        }
+
+        try {
+            if (output == null) {
+                Files.createDirectories(directory);
+                output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                        directory.resolve(fileName),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)));
+            }
+            output.writeInt(record.length);
+            output.write(record);
+            output.flush();
+        } catch (final IOException e) {
+            closeOutput();
+            throw e;
+        }
+
+        bytes.addAndGet(size);
+        pending = true;
+    }
+
+    /**
+     * @return True if there are records waiting to be replayed.
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * @return The number of bytes the spool holds on disk.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Pass every record to the consumer, oldest first, deleting them once consumed. If the consumer throws then the
+     * record it was given and the ones after it are kept and will be replayed again, the ones already consumed are
+     * not.
+     *
+     * @param consumer Given each record.
+     * @throws IOException If the records couldn't be read.
+     */
+    public void replay(final Consumer<byte[]> consumer) throws IOException {
+        synchronized (replayLock) {
+            if (!pending) {
+                return;
+            }
+
+            try {
+                synchronized (this) {
+                    pending = false;
+                    closeOutput();
+                    final Path file = directory.resolve(fileName);
+                    if (Files.exists(file)) {
+                        Files.move(file, nextReplayFile());
+                    }
+                }
+
+                final List<Path> replayFiles = list(fileName + ".*" + REPLAY_SUFFIX);
+                Collections.sort(replayFiles);
+                for (final Path replayFile : replayFiles) {
+                    final long size = Files.size(replayFile);
+                    final Path offsetFile = offsetFile(replayFile);
+                    read(replayFile, offsetFile, consumer);
+                    Files.delete(replayFile);
+                    Files.deleteIfExists(offsetFile);
+                    bytes.addAndGet(-size);
+                }
+            } catch (final IOException | RuntimeException e) {
+                pending = true;
+                throw e;
+            }
+        }
+    }
+
+    public synchronized void close() {
+        closeOutput();
+    }
+
+    private Path nextReplayFile() {
+        // Names sort in the order the files were created.
+        long time = System.currentTimeMillis();
+        Path replayFile;
+        do {
+            replayFile = directory.resolve(String.format("%s.%013d%s", fileName, time++, REPLAY_SUFFIX));
+        } while (Files.exists(replayFile));
+        return replayFile;
+    }
+
+    private Path offsetFile(final Path replayFile) {
+        return replayFile.resolveSibling(replayFile.getFileName() + OFFSET_SUFFIX);
+    }
+
+    private long readOffset(final Path offsetFile) {
+        if (Files.exists(offsetFile)) {
+            try {
+                return Long.parseLong(new String(Files.readAllBytes(offsetFile), StandardCharsets.UTF_8).trim());
+            } catch (final IOException | NumberFormatException e) {
+                LOGGER.warn("Unable to read {}, replaying the whole file", offsetFile, e);
+            }
+        }
+        return 0;
+    }
+
+    private void writeOffset(final Path offsetFile, final long offset) {
+        try {
+            Files.write(offsetFile, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to write {}, records already consumed will be replayed again", offsetFile, e);
+        }
+    }
+
+    private List<Path> list(final String glob) {
+        final List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+                stream.forEach(files::add);
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to list spool directory {}", directory, e);
+            }
+        }
+        return files;
+    }
+
+    private void read(final Path file, final Path offsetFile, final Consumer<byte[]> consumer) throws IOException {
+        long offset = readOffset(offsetFile);
+        try (final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file)))) {
+            // Skip the records consumed by an earlier replay that failed part way through the file.
+            long remaining = offset;
+            while (remaining > 0) {
+                final long skipped = inputStream.skip(remaining);
+                if (skipped <= 0) {
+                    return;
+                }
+                remaining -= skipped;
+            }
+
+            while (true) {
+                final int length;
+                try {
+                    length = inputStream.readInt();
+                } catch (final EOFException e) {
+                    return;
+                }
+                final byte[] record = new byte[length];
+                try {
+                    inputStream.readFully(record);
+                } catch (final EOFException e) {
+                    LOGGER.warn("Ignoring incomplete record at the end of {}", file);
+                    return;
+                }
+                try {
+                    consumer.accept(record);
+                } catch (final RuntimeException e) {
+                    writeOffset(offsetFile, offset);
+                    throw e;
+                }
+                offset += LENGTH_BYTES + length;
+            }
+        }
+    }
+
+    private void closeOutput() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to close spool file {}", directory.resolve(fileName), e);
+            }
+            output = null;
+        }
+    }
+}
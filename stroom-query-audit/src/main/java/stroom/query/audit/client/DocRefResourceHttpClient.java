@@ -2,10 +2,10 @@ package stroom.query.audit.client;
 
 import stroom.query.audit.model.DocRefEntity;
 import stroom.query.audit.rest.DocRefResource;
+import stroom.query.http.HttpClientFactory;
 import stroom.query.security.ServiceUser;
 
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
 import java.io.Closeable;
@@ -39,6 +39,11 @@ public class DocRefResourceHttpClient<T extends DocRefEntity> implements DocRefR
     private final Function<String, String> exportUrl;
 
     public DocRefResourceHttpClient(final String baseUrl) {
+        this(baseUrl, HttpClientFactory.getDefault());
+    }
+
+    public DocRefResourceHttpClient(final String baseUrl,
+                                    final HttpClientFactory httpClientFactory) {
         this.getAllUrl = String.format("%s/docRefApi/v1/",
                 baseUrl);
         this.getUrl = (uuid) -> String.format("%s/docRefApi/v1/%s",
@@ -76,7 +81,7 @@ public class DocRefResourceHttpClient<T extends DocRefEntity> implements DocRefR
         this.exportUrl = (uuid) -> String.format("%s/docRefApi/v1/export/%s",
                 baseUrl,
                 uuid);
-        httpClient = ClientBuilder.newClient();
+        httpClient = httpClientFactory.create();
     }
 
     public void close() {
@@ -1,10 +1,14 @@
 package stroom.query.audit.client;
 
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.api.v2.SearchResponse;
 import stroom.query.audit.service.QueryService;
 import stroom.query.audit.service.QueryServiceSupplier;
+import stroom.query.security.ServiceUser;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -30,4 +34,18 @@ public class QueryRemoteServiceSupplier implements QueryServiceSupplier {
     public Optional<QueryService> apply(final String s) {
         return remoteClientCache.apply(s);
     }
+
+    /**
+     * Search many remote data sources at once without holding a thread for each of them.
+     *
+     * @param user           The authenticated user
+     * @param requestsByType The search request to make to the data source of each doc ref type
+     * @return The pending response of each type, types with no known data source are left out.
+     */
+    public Map<String, CompletableFuture<Optional<SearchResponse>>> searchAsync(
+            final ServiceUser user,
+            final Map<String, SearchRequest> requestsByType) {
+        return remoteClientCache.callEach(requestsByType.keySet(),
+                (type, queryService) -> queryService.searchAsync(user, requestsByType.get(type)));
+    }
 }
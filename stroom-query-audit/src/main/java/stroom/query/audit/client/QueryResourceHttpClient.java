@@ -1,18 +1,19 @@
 package stroom.query.audit.client;
 
-import org.glassfish.jersey.client.ClientConfig;
-import org.glassfish.jersey.client.ClientResponse;
 import stroom.docref.DocRef;
 import stroom.query.api.v2.QueryKey;
 import stroom.query.api.v2.SearchRequest;
 import stroom.query.audit.rest.QueryResource;
+import stroom.query.http.HttpClientFactory;
 import stroom.query.security.ServiceUser;
 
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.core.Response;
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 public class QueryResourceHttpClient implements QueryResource, Closeable {
 
@@ -23,7 +24,12 @@ public class QueryResourceHttpClient implements QueryResource, Closeable {
     private final String destroyUrl;
 
     public QueryResourceHttpClient(final String baseUrl) {
-        httpClient = ClientBuilder.newClient(new ClientConfig().register(ClientResponse.class));
+        this(baseUrl, HttpClientFactory.getDefault());
+    }
+
+    public QueryResourceHttpClient(final String baseUrl,
+                                   final HttpClientFactory httpClientFactory) {
+        httpClient = httpClientFactory.create();
 
         this.dataSourceUrl = String.format("%s/queryApi/v1/dataSource", baseUrl);
         this.searchUrl = String.format("%s/queryApi/v1/search", baseUrl);
@@ -56,6 +62,36 @@ public class QueryResourceHttpClient implements QueryResource, Closeable {
                 .post(Entity.json(request));
     }
 
+    /**
+     * Make a search request without blocking the calling thread, the response is handed over from Jersey's async
+     * executor when it arrives.
+     *
+     * @param user    The authenticated user
+     * @param request The details of the search
+     * @return A stage holding the response, the caller must close the response.
+     */
+    public CompletionStage<Response> searchAsync(final ServiceUser user,
+                                                 final SearchRequest request) {
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        httpClient
+                .target(this.searchUrl)
+                .request()
+                .header("Authorization", "Bearer " + user.getJwt())
+                .async()
+                .post(Entity.json(request), new InvocationCallback<Response>() {
+                    @Override
+                    public void completed(final Response response) {
+                        future.complete(response);
+                    }
+
+                    @Override
+                    public void failed(final Throwable throwable) {
+                        future.completeExceptionally(throwable);
+                    }
+                });
+        return future;
+    }
+
     @Override
     public Response destroy(final ServiceUser user,
                             final QueryKey queryKey) {
@@ -13,6 +13,8 @@ import stroom.query.security.ServiceUser;
 import javax.ws.rs.core.Response;
 import java.io.Closeable;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 public class QueryServiceHttpClient implements QueryService, Closeable {
 
@@ -59,6 +61,22 @@ public class QueryServiceHttpClient implements QueryService, Closeable {
         }
     }
 
+    @Override
+    public CompletionStage<Optional<SearchResponse>> searchAsync(final ServiceUser user,
+                                                                 final SearchRequest request) {
+        return httpClient.searchAsync(user, request).thenApply(response -> {
+            try {
+                if (response.getStatus() == HttpStatus.OK_200) {
+                    return Optional.of(response.readEntity(SearchResponse.class));
+                } else {
+                    throw new CompletionException(QueryApiExceptionMapper.create(response));
+                }
+            } finally {
+                response.close();
+            }
+        });
+    }
+
     @Override
     public Boolean destroy(final ServiceUser user,
                            final QueryKey queryKey) throws QueryApiException {
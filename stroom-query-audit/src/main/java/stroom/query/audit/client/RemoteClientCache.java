@@ -1,6 +1,12 @@
 package stroom.query.audit.client;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -22,4 +28,49 @@ public class RemoteClientCache<T> implements Function<String, Optional<T>> {
         return Optional.ofNullable(getUrlsByType.apply(type))
                 .map(url -> cache.computeIfAbsent(url, (u) -> supplier.apply(type, u)));
     }
+
+    /**
+     * Make a call to the client of each type at the same time, the call should not block.
+     *
+     * @param types The types to call, types that have no client are left out of the result.
+     * @param call  Makes the call on the client of a type
+     * @param <R>   The result type of the call
+     * @return The pending result of each type, a failure of one type does not affect the others.
+     */
+    public <R> Map<String, CompletableFuture<R>> callEach(final Collection<String> types,
+                                                          final BiFunction<String, T, ? extends CompletionStage<R>> call) {
+        final Map<String, CompletableFuture<R>> results = new LinkedHashMap<>();
+        for (final String type : types) {
+            apply(type).ifPresent(client -> {
+                CompletableFuture<R> result;
+                try {
+                    result = call.apply(type, client).toCompletableFuture();
+                } catch (final RuntimeException e) {
+                    result = new CompletableFuture<>();
+                    result.completeExceptionally(e);
+                }
+                results.put(type, result);
+            });
+        }
+        return results;
+    }
+
+    /**
+     * Make a call to the client of each type at the same time and wait for them all without blocking.
+     *
+     * @param types The types to call, types that have no client are left out of the result.
+     * @param call  Makes the call on the client of a type
+     * @param <R>   The result type of the call
+     * @return A stage holding the result of each type, which fails if any of the calls fail.
+     */
+    public <R> CompletableFuture<Map<String, R>> callAll(final Collection<String> types,
+                                                         final BiFunction<String, T, ? extends CompletionStage<R>> call) {
+        final Map<String, CompletableFuture<R>> pending = callEach(types, call);
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> {
+                    final Map<String, R> results = new HashMap<>();
+                    pending.forEach((type, result) -> results.put(type, result.join()));
+                    return results;
+                });
+    }
 }
@@ -16,48 +16,142 @@
 
 package stroom.query.audit.logback;
 
-import ch.qos.logback.core.Appender;
-import ch.qos.logback.core.LogbackException;
-import ch.qos.logback.core.filter.Filter;
-import ch.qos.logback.core.spi.ContextAwareBase;
-import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import com.codahale.metrics.Meter;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import stroom.query.audit.AuditMetrics;
+import stroom.query.audit.Spool;
 
-import java.nio.charset.Charset;
-import java.util.List;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * This is a logback implementation that writes all logs to a kafka queue.
  * Kafka may prove a nice way to capture logs from disparate boxes and processes onto a single bus.
+ * <p>
+ * Events are sent asynchronously and batched by the producer. Events that can't be delivered, e.g. because the
+ * brokers are unavailable, are kept in an on-disk {@link Spool} if a spool directory is given and are sent again
+ * once the brokers are back, otherwise they are counted by the 'dropped' metric.
+ * <p>
+ * The producer blocks sends until it has found the topic's partitions, so until it has the logging thread doesn't
+ * send. Events are spooled instead, or without a spool they are sent from a background thread.
+ *
  * @param <E> The log object
  */
-public class KafkaLogbackAppender<E> extends ContextAwareBase implements Appender<E> {
+public class KafkaLogbackAppender<E> extends UnsynchronizedAppenderBase<E> {
+    /**
+     * How events are keyed, which decides how they are spread across the topic's partitions.
+     */
+    public enum KeyStrategy {
+        /**
+         * No key, events are spread across all the partitions.
+         */
+        NONE,
+        /**
+         * Keyed by host name so that the events from each host stay in order.
+         */
+        HOST,
+        /**
+         * Keyed by logger name so that the events from each logger stay in order.
+         */
+        LOGGER
+    }
 
-    private String name;
-    private final Properties producerConfig;
+    // How often to try to find the topic's partitions until they are found.
+    private static final long METADATA_RETRY_MS = 1_000L;
+    // The most events that can wait to be sent from the background thread, later ones are dropped.
+    private static final int MAX_PENDING_SENDS = 10_000;
+    private static final long STOP_TIMEOUT_MS = 5_000L;
 
+    private final Properties producerConfig;
     private final String topic;
+    private final Integer partition;
+    private final KeyStrategy keyStrategy;
+    private final Path spoolDirectory;
+    private final long maxSpoolBytes;
+    private final Function<Properties, Producer<String, byte[]>> producerFactory;
+
+    private volatile Producer<String, byte[]> producer;
+    private volatile Spool spool;
+    private ScheduledExecutorService backgroundExecutor;
+    private final AtomicInteger pendingSends = new AtomicInteger();
+    private String hostName;
+
+    private long replayIntervalMs = 10_000L;
 
-    private volatile Producer<String, byte[]> producer = null;
+    // Appenders are built before the application sets up metrics, see KafkaLogbackAppenderFactory#setMetrics.
+    private volatile AuditMetrics metrics = AuditMetrics.NO_OP;
 
-    private static final Integer PARTITION = 0;
-    private static final String KEY = "0";
+    private volatile boolean metadataAvailable;
+    private volatile boolean failing;
+    private volatile long lastFailureMs;
 
     public KafkaLogbackAppender(final Properties producerConfig,
                                 final String topic) {
+        this(producerConfig, topic, null, KeyStrategy.NONE, null, 0);
+    }
+
+    /**
+     * @param producerConfig Kafka producer settings, added to or overriding the defaults.
+     * @param topic          The topic to send events to.
+     * @param partition      The partition to send all events to, null to let the producer's partitioner choose.
+     * @param keyStrategy    How to key events.
+     * @param spoolDirectory Where to keep events that can't be delivered, null to drop them.
+     * @param maxSpoolBytes  The most the spool may hold on disk, zero or less for no limit.
+     */
+    public KafkaLogbackAppender(final Properties producerConfig,
+                                final String topic,
+                                final Integer partition,
+                                final KeyStrategy keyStrategy,
+                                final Path spoolDirectory,
+                                final long maxSpoolBytes) {
+        this(producerConfig, topic, partition, keyStrategy, spoolDirectory, maxSpoolBytes, KafkaProducer::new);
+    }
+
+    KafkaLogbackAppender(final Properties producerConfig,
+                         final String topic,
+                         final Integer partition,
+                         final KeyStrategy keyStrategy,
+                         final Path spoolDirectory,
+                         final long maxSpoolBytes,
+                         final Function<Properties, Producer<String, byte[]>> producerFactory) {
         this.topic = topic;
+        this.partition = partition;
+        this.keyStrategy = (keyStrategy != null) ? keyStrategy : KeyStrategy.NONE;
+        this.spoolDirectory = spoolDirectory;
+        this.maxSpoolBytes = maxSpoolBytes;
+        this.producerFactory = producerFactory;
 
         // Build properties that can be used by the kafka producer
         this.producerConfig = new Properties();
         this.producerConfig.put(ProducerConfig.ACKS_CONFIG, "all");
-        this.producerConfig.put(ProducerConfig.RETRIES_CONFIG, 0);
-        this.producerConfig.put(ProducerConfig.BATCH_SIZE_CONFIG, 16384);
-        this.producerConfig.put(ProducerConfig.LINGER_MS_CONFIG, 1);
+        this.producerConfig.put(ProducerConfig.RETRIES_CONFIG, 10);
+        this.producerConfig.put(ProducerConfig.BATCH_SIZE_CONFIG, 65536);
+        this.producerConfig.put(ProducerConfig.LINGER_MS_CONFIG, 20);
         this.producerConfig.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 33554432);
+        this.producerConfig.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        // Only the background thread waits for the topic's partitions, but the logging thread can still block when the
+        // producer's buffer is full or the partitions have been forgotten, the event is spooled instead.
+        this.producerConfig.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, 200);
         this.producerConfig.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG,
                 org.apache.kafka.common.serialization.StringSerializer.class.getName());
         this.producerConfig.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
@@ -74,62 +168,254 @@ public class KafkaLogbackAppender<E> extends ContextAwareBase implements Appende
         return topic;
     }
 
+    /**
+     * @param replayIntervalMs How often to try sending spooled events again, set before the appender is started.
+     */
+    void setReplayIntervalMs(final long replayIntervalMs) {
+        this.replayIntervalMs = replayIntervalMs;
+    }
+
+    /**
+     * @param metrics Where to record the events sent, failed, spooled and dropped from now on.
+     */
+    public void setMetrics(final AuditMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public void start() {
+        if (topic == null) {
+            addError("No topic set for the appender named [" + name + "]");
+            return;
+        }
+
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        } catch (final UnknownHostException e) {
+            addWarn("Unable to get the host name to key events with", e);
+            hostName = "unknown";
+        }
 
-        producer = new KafkaProducer<>(this.producerConfig);
+        producer = producerFactory.apply(producerConfig);
+
+        backgroundExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "Kafka Appender Background");
+            thread.setDaemon(true);
+            return thread;
+        });
+        backgroundExecutor.scheduleWithFixedDelay(this::fetchMetadata, 0, METADATA_RETRY_MS, TimeUnit.MILLISECONDS);
+
+        if (spoolDirectory != null) {
+            spool = new Spool(spoolDirectory, topic + ".spool", maxSpoolBytes);
+            backgroundExecutor.scheduleWithFixedDelay(() -> {
+                        // Give the brokers a chance to recover before trying again.
+                        if (metadataAvailable && System.currentTimeMillis() - lastFailureMs >= replayIntervalMs) {
+                            replaySpool();
+                        }
+                    },
+                    replayIntervalMs,
+                    replayIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        super.start();
     }
 
     @Override
     public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+
+        // Periodic tasks are cancelled by the shutdown, give the events waiting to be sent a chance to go.
+        backgroundExecutor.shutdown();
+        try {
+            if (!backgroundExecutor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                meter("dropped").mark(backgroundExecutor.shutdownNow().size());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            meter("dropped").mark(backgroundExecutor.shutdownNow().size());
+        }
+        // Waits for the events already sent to be delivered, any that fail are spooled.
         producer.close();
+        if (spool != null) {
+            spool.close();
+        }
     }
 
     @Override
-    public boolean isStarted() {
-        return false;
+    protected void append(final E e) {
+        final String value = (e instanceof ILoggingEvent)
+                ? ((ILoggingEvent) e).getFormattedMessage()
+                : String.valueOf(e);
+        send(key(e), value.getBytes(StandardCharsets.UTF_8));
     }
 
-    @Override
-    public String getName() {
-        return this.name;
+    /**
+     * Find the topic's partitions if they aren't known yet. The producer blocks sends for up to max.block.ms until it
+     * has them, so this is only called off the logging thread. Once they are found any events spooled while waiting
+     * for them are sent.
+     *
+     * @return Null if the partitions are known, otherwise why they couldn't be found.
+     */
+    RuntimeException fetchMetadata() {
+        if (metadataAvailable) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (!metadataAvailable) {
+                try {
+                    producer.partitionsFor(topic);
+                } catch (final RuntimeException e) {
+                    return e;
+                }
+                metadataAvailable = true;
+                replaySpool();
+            }
+        }
+        return null;
     }
 
-    @Override
-    public void doAppend(E e) throws LogbackException {
+    /**
+     * Send any spooled events again.
+     */
+    void replaySpool() {
+        if (spool == null || !spool.isPending()) {
+            return;
+        }
+
+        try {
+            // Events that fail to send again are spooled again by the delivery callback.
+            spool.replay(record -> {
+                try (final DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(record))) {
+                    final String key = inputStream.readBoolean() ? inputStream.readUTF() : null;
+                    final byte[] value = new byte[inputStream.available()];
+                    inputStream.readFully(value);
+                    sendNow(key, value);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final IOException | RuntimeException e) {
+            addError("Unable to replay events spooled for topic " + topic, e);
+        }
+    }
+
+    private String key(final E e) {
+        switch (keyStrategy) {
+            case HOST:
+                return hostName;
+            case LOGGER:
+                return (e instanceof ILoggingEvent) ? ((ILoggingEvent) e).getLoggerName() : null;
+            default:
+                return null;
+        }
+    }
+
+    private void send(final String key, final byte[] value) {
+        if (metadataAvailable) {
+            sendNow(key, value);
+        } else if (spool != null) {
+            // Sent once the producer has found the topic's partitions.
+            spool(key, value);
+        } else {
+            sendLater(key, value);
+        }
+    }
+
+    private void sendLater(final String key, final byte[] value) {
+        if (pendingSends.incrementAndGet() > MAX_PENDING_SENDS) {
+            pendingSends.decrementAndGet();
+            meter("dropped").mark();
+            return;
+        }
+
+        try {
+            backgroundExecutor.execute(() -> {
+                pendingSends.decrementAndGet();
+                final RuntimeException exception = fetchMetadata();
+                if (exception == null) {
+                    sendNow(key, value);
+                } else {
+                    failed(key, value, exception);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            pendingSends.decrementAndGet();
+            meter("dropped").mark();
+        }
+    }
+
+    private void sendNow(final String key, final byte[] value) {
         final ProducerRecord<String, byte[]> record =
                 new ProducerRecord<>(
                         topic,
-                        PARTITION,
+                        partition,
                         System.currentTimeMillis(),
-                        KEY,
-                        e.toString().getBytes(Charset.defaultCharset()));
+                        key,
+                        value);
 
-        producer.send(record);
+        try {
+            producer.send(record, (metadata, exception) -> {
+                if (exception == null) {
+                    delivered();
+                } else {
+                    failed(key, value, exception);
+                }
+            });
+        } catch (final RuntimeException exception) {
+            failed(key, value, exception);
+        }
     }
 
-    @Override
-    public void setName(String s) {
-        this.name = s;
+    private void delivered() {
+        meter("sent").mark();
+        if (failing) {
+            failing = false;
+            addInfo("Delivering events to topic " + topic + " again");
+        }
     }
 
-    @Override
-    public void addFilter(Filter<E> filter) {
+    private void failed(final String key, final byte[] value, final Exception exception) {
+        lastFailureMs = System.currentTimeMillis();
+        meter("failed").mark();
+        // Only report the first failure in a run of them rather than flooding the status messages.
+        if (!failing) {
+            failing = true;
+            addWarn("Unable to deliver events to topic " + topic, exception);
+        }
 
+        spool(key, value);
     }
 
-    @Override
-    public void clearAllFilters() {
-
-    }
+    private void spool(final String key, final byte[] value) {
+        final Spool spool = this.spool;
+        if (spool == null) {
+            meter("dropped").mark();
+            return;
+        }
 
-    @Override
-    public List<Filter<E>> getCopyOfAttachedFiltersList() {
-        return null;
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(value.length + 64);
+            try (final DataOutputStream dataOutputStream = new DataOutputStream(outputStream)) {
+                dataOutputStream.writeBoolean(key != null);
+                if (key != null) {
+                    dataOutputStream.writeUTF(key);
+                }
+                dataOutputStream.write(value);
+            }
+            spool.append(outputStream.toByteArray());
+            meter("spooled").mark();
+        } catch (final IOException e) {
+            meter("dropped").mark();
+            addError("Unable to spool event for topic " + topic, e);
+        }
     }
 
-    @Override
-    public FilterReply getFilterChainDecision(E e) {
-        return FilterReply.ACCEPT;
+    private Meter meter(final String name) {
+        return metrics.meter(AuditMetrics.KAFKA_APPENDER, name);
     }
 }
@@ -25,7 +25,10 @@ import io.dropwizard.logging.AbstractAppenderFactory;
 import io.dropwizard.logging.async.AsyncAppenderFactory;
 import io.dropwizard.logging.filter.LevelFilterFactory;
 import io.dropwizard.logging.layout.LayoutFactory;
+import stroom.query.audit.AuditMetrics;
 
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -39,6 +42,39 @@ public class KafkaLogbackAppenderFactory<E extends DeferredProcessingAware> exte
     @JsonProperty
     private List<String> producerConfig;
 
+    /**
+     * The partition to send all events to, by default the producer's partitioner chooses.
+     */
+    @JsonProperty
+    private Integer partition;
+
+    @JsonProperty
+    private KafkaLogbackAppender.KeyStrategy keyStrategy = KafkaLogbackAppender.KeyStrategy.NONE;
+
+    /**
+     * Where to keep events that can't be delivered until the brokers are available, by default they are dropped.
+     */
+    @JsonProperty
+    private String spoolDirectory;
+
+    @JsonProperty
+    private long maxSpoolBytes = 1024L * 1024L * 1024L;
+
+    private volatile KafkaLogbackAppender<E> appender;
+
+    /**
+     * Logging is configured before the application's metrics are available, so the application passes them on once
+     * it runs.
+     *
+     * @param metrics Where the appender built by this factory records its metrics.
+     */
+    public void setMetrics(final AuditMetrics metrics) {
+        final KafkaLogbackAppender<E> appender = this.appender;
+        if (appender != null) {
+            appender.setMetrics(metrics);
+        }
+    }
+
     @Override
     public Appender<E> build(final LoggerContext context,
                           final String applicationName,
@@ -46,7 +82,8 @@ public class KafkaLogbackAppenderFactory<E extends DeferredProcessingAware> exte
                           final LevelFilterFactory<E> levelFilterFactory,
                           final AsyncAppenderFactory<E> asyncAppenderFactory) {
 
-        final Properties producerConfigProperties = producerConfig.stream()
+        final List<String> producerConfigValues = (producerConfig != null) ? producerConfig : Collections.emptyList();
+        final Properties producerConfigProperties = producerConfigValues.stream()
                 .map(s -> s.split("="))
                 .filter(values -> values.length == 2)
                 .reduce(new Properties(), (props, values) -> {
@@ -59,14 +96,20 @@ public class KafkaLogbackAppenderFactory<E extends DeferredProcessingAware> exte
                     return merged;
                 });
 
-        final Appender<E> appender = new KafkaLogbackAppender<>(producerConfigProperties, topic);
+        final KafkaLogbackAppender<E> appender = new KafkaLogbackAppender<>(producerConfigProperties,
+                topic,
+                partition,
+                keyStrategy,
+                (spoolDirectory != null) ? Paths.get(spoolDirectory) : null,
+                maxSpoolBytes);
 
         appender.setContext(context);
 
         appender.addFilter(levelFilterFactory.build(threshold));
         getFilterFactories().forEach(f -> appender.addFilter(f.build()));
-        appender.start();
         appender.setName(APPENDER_NAME);
+        appender.start();
+        this.appender = appender;
 
         return appender;
         //return wrapAsync(appender, asyncAppenderFactory);
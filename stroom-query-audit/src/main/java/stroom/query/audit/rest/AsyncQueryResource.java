@@ -0,0 +1,31 @@
+package stroom.query.audit.rest;
+
+import io.dropwizard.auth.Auth;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.security.ServiceUser;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * An asynchronous form of {@link QueryResource#search}. The request thread is released while the search runs and the
+ * response is resumed when the search completes, new results arrive for an incremental search or the timeout
+ * expires, so long polling clients don't each hold a server thread.
+ */
+@Path("/queryApi/v1/async")
+@Produces(MediaType.APPLICATION_JSON)
+public interface AsyncQueryResource {
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/search")
+    void search(@Auth ServiceUser user,
+                SearchRequest request,
+                @Suspended AsyncResponse asyncResponse);
+}
@@ -0,0 +1,99 @@
+package stroom.query.audit.rest;
+
+import event.logging.EventLoggingService;
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.api.v2.SearchResponse;
+import stroom.query.audit.DocRefAuditWrapper;
+import stroom.query.audit.SearchAuditSummariser;
+import stroom.query.audit.model.DocRefEntity;
+import stroom.query.audit.service.DocRefService;
+import stroom.query.audit.service.QueryService;
+import stroom.query.authorisation.AuthorisationService;
+import stroom.query.authorisation.DocumentPermission;
+import stroom.query.security.ServiceUser;
+
+import javax.inject.Inject;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A standard implementation of {@link AsyncQueryResource}. The user is authorised and the search is audited in the
+ * same way as {@link AuditedQueryResourceImpl#search}, including summarising repeated polls, see
+ * {@link SearchAuditSummariser}. The audit event is logged when the search is started as the request thread has been
+ * released by the time results are available.
+ */
+public class AuditedAsyncQueryResourceImpl<T extends DocRefEntity> implements AsyncQueryResource {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AuditedAsyncQueryResourceImpl.class);
+
+    private final EventLoggingService eventLoggingService;
+
+    private final QueryService service;
+
+    private final AuthorisationService authorisationService;
+
+    private final DocRefService<T> docRefService;
+
+    private final SearchAuditSummariser searchAuditSummariser;
+
+    @Inject
+    @SuppressWarnings("unchecked")
+    public AuditedAsyncQueryResourceImpl(final EventLoggingService eventLoggingService,
+                                         final QueryService service,
+                                         final AuthorisationService authorisationService,
+                                         final DocRefService docRefService,
+                                         final SearchAuditSummariser searchAuditSummariser) {
+        this.eventLoggingService = eventLoggingService;
+        this.service = service;
+        this.authorisationService = authorisationService;
+        this.docRefService = docRefService;
+        this.searchAuditSummariser = searchAuditSummariser;
+    }
+
+    @Override
+    public void search(final ServiceUser user,
+                       final SearchRequest request,
+                       final AsyncResponse asyncResponse) {
+        final AtomicReference<CompletionStage<Optional<SearchResponse>>> stage = new AtomicReference<>();
+
+        // Authorise and audit on the request thread, the search itself is only started if that succeeds.
+        final Response response = DocRefAuditWrapper.<T>withUser(user)
+                .withDocRef(request.getQuery().getDataSource())
+                .withDocRefEntity(docRef -> docRefService.get(user, docRef.getUuid()))
+                .withAuthSupplier(docRef -> authorisationService.isAuthorised(user,
+                        docRef,
+                        DocumentPermission.READ))
+                .withResponse(docRefEntity -> {
+                    stage.set(service.searchAsync(user, request));
+                    return Response.accepted().build();
+                })
+                .withPopulateAudit((eventDetail, r, exception) ->
+                        SearchAuditEvents.populateSearchEvent(eventDetail, request, exception))
+                .withCompleteAudit(eventDetail -> SearchAuditEvents.completeSearchEvent(eventDetail, request))
+                .withAuditFilter(searchAuditSummariser.start(user, request, eventLoggingService))
+                .callAndAudit(eventLoggingService);
+
+        if (stage.get() == null) {
+            // The search wasn't started, e.g. the user isn't authorised, so respond with the reason.
+            asyncResponse.resume(response);
+            return;
+        }
+
+        stage.get().whenComplete((searchResponse, throwable) -> {
+            if (throwable != null) {
+                LOGGER.error("Search failed: " + throwable.getLocalizedMessage(), throwable);
+                asyncResponse.resume(Response.serverError().entity(throwable.getLocalizedMessage()).build());
+            } else {
+                asyncResponse.resume(searchResponse
+                        .map(d -> Response.ok(d).build())
+                        .orElse(Response.status(HttpStatus.NOT_FOUND_404).build()));
+            }
+        });
+    }
+}
@@ -15,7 +15,9 @@ import stroom.query.security.ServiceUser;
 import javax.inject.Inject;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class AuditedDocRefResourceImpl<T extends DocRefEntity> implements DocRefResource {
     private final Class<T> docRefEntityClass;
@@ -44,7 +46,20 @@ public class AuditedDocRefResourceImpl<T extends DocRefEntity> implements DocRef
     public Response getAll(final ServiceUser user) {
         return SimpleAuditWrapper.withUser(user)
                 .withDefaultAuthSupplier()
-                .withResponse(() -> Response.ok(service.getAll(user)).build())
+                .withResponse(() -> {
+                    final List<T> docRefEntities = service.getAll(user);
+
+                    // Check all the doc refs in one go rather than making a call per document.
+                    final Map<DocRef, Boolean> decisions = authorisationService.isAuthorised(user,
+                            docRefEntities.stream()
+                                    .map(this::getDocRef)
+                                    .collect(Collectors.toList()),
+                            DocumentPermission.READ);
+
+                    return Response.ok(docRefEntities.stream()
+                            .filter(d -> Boolean.TRUE.equals(decisions.get(getDocRef(d))))
+                            .collect(Collectors.toList())).build();
+                })
                 .withPopulateAudit((eventDetail, response, exception) -> {
                     eventDetail.setTypeId(GET_ALL_DOC_REFS);
                     eventDetail.setDescription("Get the list of doc refs hosted by this service");
@@ -331,4 +346,11 @@ public class AuditedDocRefResourceImpl<T extends DocRefEntity> implements DocRef
                     eventDetail.setSearch(search);
                 }).callAndAudit(eventLoggingService);
     }
+
+    private DocRef getDocRef(final T docRefEntity) {
+        return new DocRef.Builder()
+                .type(this.service.getType())
+                .uuid(docRefEntity.getUuid())
+                .build();
+    }
 }
@@ -1,11 +1,8 @@
 package stroom.query.audit.rest;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import event.logging.EventLoggingService;
 import event.logging.ObjectOutcome;
 import event.logging.Outcome;
-import event.logging.Query;
 import event.logging.Search;
 import org.eclipse.jetty.http.HttpStatus;
 import org.slf4j.Logger;
@@ -16,6 +13,7 @@ import stroom.docref.DocRef;
 import stroom.query.api.v2.QueryKey;
 import stroom.query.api.v2.SearchRequest;
 import stroom.query.audit.DocRefAuditWrapper;
+import stroom.query.audit.SearchAuditSummariser;
 import stroom.query.audit.model.DocRefEntity;
 import stroom.query.audit.service.DocRefService;
 import stroom.query.audit.service.QueryService;
@@ -32,8 +30,6 @@ public class AuditedQueryResourceImpl<T extends DocRefEntity> implements QueryRe
 
     private final Logger LOGGER = LoggerFactory.getLogger(AuditedQueryResourceImpl.class);
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
-
     private final EventLoggingService eventLoggingService;
 
     private final QueryService service;
@@ -42,16 +38,20 @@ public class AuditedQueryResourceImpl<T extends DocRefEntity> implements QueryRe
 
     private final DocRefService<T> docRefService;
 
+    private final SearchAuditSummariser searchAuditSummariser;
+
     @Inject
     @SuppressWarnings("unchecked")
     public AuditedQueryResourceImpl(final EventLoggingService eventLoggingService,
                                     final QueryService service,
                                     final AuthorisationService authorisationService,
-                                    final DocRefService docRefService) {
+                                    final DocRefService docRefService,
+                                    final SearchAuditSummariser searchAuditSummariser) {
         this.eventLoggingService = eventLoggingService;
         this.service = service;
         this.authorisationService = authorisationService;
         this.docRefService = docRefService;
+        this.searchAuditSummariser = searchAuditSummariser;
     }
 
     public static final String GET_DATA_SOURCE = "GET_DATA_SOURCE";
@@ -80,12 +80,12 @@ public class AuditedQueryResourceImpl<T extends DocRefEntity> implements QueryRe
                     eventDetail.setSearch(search);
 
                     final Outcome outcome = new Outcome();
-                    outcome.setSuccess(null != exception);
+                    outcome.setSuccess(null == exception);
                     search.setOutcome(outcome);
                 }).callAndAudit(eventLoggingService);
     }
 
-    public static final String QUERY_SEARCH = "QUERY_SEARCH";
+    public static final String QUERY_SEARCH = SearchAuditEvents.QUERY_SEARCH;
 
     @Override
     public Response search(final ServiceUser user,
@@ -100,31 +100,11 @@ public class AuditedQueryResourceImpl<T extends DocRefEntity> implements QueryRe
                         .map(d -> Response.ok(d).build())
                         .orElse(Response.status(HttpStatus.NOT_FOUND_404)
                                 .build()))
-                .withPopulateAudit((eventDetail, response, exception) -> {
-                    eventDetail.setTypeId(QUERY_SEARCH);
-                    eventDetail.setDescription("Run a Query over the data");
-
-                    final Search search = new Search();
-                    if (null != request.getQuery() && null != request.getQuery().getDataSource()) {
-                        search.setId(request.getQuery().getDataSource().getUuid());
-                        search.setType(request.getQuery().getDataSource().getType());
-                        search.setName(request.getQuery().getDataSource().getName());
-                    }
-                    eventDetail.setSearch(search);
-
-                    final Query query = new Query();
-                    try {
-                        final String requestJson = objectMapper.writeValueAsString(request);
-                        query.setRaw(requestJson);
-                    } catch (JsonProcessingException e) {
-                        LOGGER.warn("Could not serialize request details for audit", e);
-                    }
-                    search.setQuery(query);
-
-                    final Outcome outcome = new Outcome();
-                    outcome.setSuccess(null != exception);
-                    search.setOutcome(outcome);
-                }).callAndAudit(eventLoggingService);
+                .withPopulateAudit((eventDetail, response, exception) ->
+                        SearchAuditEvents.populateSearchEvent(eventDetail, request, exception))
+                .withCompleteAudit(eventDetail -> SearchAuditEvents.completeSearchEvent(eventDetail, request))
+                .withAuditFilter(searchAuditSummariser.start(user, request, eventLoggingService))
+                .callAndAudit(eventLoggingService);
     }
 
     public static final String QUERY_DESTROY = "QUERY_DESTROY";
@@ -132,6 +112,9 @@ public class AuditedQueryResourceImpl<T extends DocRefEntity> implements QueryRe
     @Override
     public Response destroy(final ServiceUser user,
                             final QueryKey queryKey) {
+        // Any polls of the query not yet audited are summarised ahead of its destruction.
+        searchAuditSummariser.end(user, queryKey);
+
         return DocRefAuditWrapper.<T>withUser(user)
                 .withDocRefSupplier(() -> service.getDocRefForQueryKey(user, queryKey))
                 .withDocRefEntity(docRef -> docRefService.get(user, docRef.getUuid()))
@@ -0,0 +1,144 @@
+package stroom.query.audit.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import event.logging.EventLoggingService;
+import event.logging.Query;
+import event.logging.Search;
+import org.eclipse.jetty.http.HttpStatus;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stroom.query.api.v2.QueryKey;
+import stroom.query.api.v2.SearchResponse;
+import stroom.query.audit.DocRefAuditWrapper;
+import stroom.query.audit.model.DocRefEntity;
+import stroom.query.audit.service.DocRefService;
+import stroom.query.audit.service.QueryService;
+import stroom.query.authorisation.AuthorisationService;
+import stroom.query.authorisation.DocumentPermission;
+import stroom.query.common.v2.SearchSubscription;
+import stroom.query.security.ServiceUser;
+
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+
+/**
+ * A standard implementation of {@link QuerySubscriptionResource} which logs the subscription to the
+ * {@link EventLoggingService eventLoggingService} and then streams the responses pushed by the {@link QueryService}.
+ * <p>
+ * Responses are written to the connection as the subscription pushes them, so no request thread is held for the life
+ * of the stream.
+ */
+public class AuditedQuerySubscriptionResourceImpl<T extends DocRefEntity> implements QuerySubscriptionResource {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AuditedQuerySubscriptionResourceImpl.class);
+
+    public static final String QUERY_SUBSCRIBE = "QUERY_SUBSCRIBE";
+
+    // Comment lines are sent when idle so that proxies keep the connection open and we notice clients going away.
+    private static final Duration KEEP_ALIVE_INTERVAL = Duration.ofSeconds(15);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final EventLoggingService eventLoggingService;
+
+    private final QueryService service;
+
+    private final AuthorisationService authorisationService;
+
+    private final DocRefService<T> docRefService;
+
+    @Inject
+    @SuppressWarnings("unchecked")
+    public AuditedQuerySubscriptionResourceImpl(final EventLoggingService eventLoggingService,
+                                                final QueryService service,
+                                                final AuthorisationService authorisationService,
+                                                final DocRefService docRefService) {
+        this.eventLoggingService = eventLoggingService;
+        this.service = service;
+        this.authorisationService = authorisationService;
+        this.docRefService = docRefService;
+    }
+
+    @Override
+    public Response subscribe(final ServiceUser user,
+                              final String queryKeyUuid,
+                              final long intervalMs) {
+        final QueryKey queryKey = new QueryKey(queryKeyUuid);
+
+        return DocRefAuditWrapper.<T>withUser(user)
+                .withDocRefSupplier(() -> service.getDocRefForQueryKey(user, queryKey))
+                .withDocRefEntity(docRef -> docRefService.get(user, docRef.getUuid()))
+                .withAuthSupplier(docRef -> authorisationService.isAuthorised(user,
+                        docRef,
+                        DocumentPermission.READ))
+                .withResponse(docRefEntity -> {
+                    // Events pushed before Jersey takes the output are buffered until it does.
+                    final ChunkedOutput<String> output = new ChunkedOutput<>(String.class);
+                    return service.subscribe(user, queryKey, Duration.ofMillis(intervalMs), response -> send(output, response))
+                            .map(subscription -> {
+                                keepAlive(queryKey, subscription, output);
+                                return Response.ok(output, SERVER_SENT_EVENTS)
+                                        .header("Cache-Control", "no-cache")
+                                        .build();
+                            })
+                            .orElse(Response.status(HttpStatus.NOT_FOUND_404).build());
+                })
+                .withPopulateAudit((eventDetail, response, exception) -> {
+                    eventDetail.setTypeId(QUERY_SUBSCRIBE);
+                    eventDetail.setDescription("Follow the results of a running query");
+
+                    final Search search = new Search();
+                    final Query query = new Query();
+                    query.setRaw(queryKey.getUuid());
+                    search.setQuery(query);
+                    eventDetail.setSearch(search);
+                }).callAndAudit(eventLoggingService);
+    }
+
+    private void send(final ChunkedOutput<String> output,
+                      final SearchResponse response) {
+        try {
+            write(output, "event: searchResponse\n" + "data: " + objectMapper.writeValueAsString(response) + "\n\n");
+        } catch (final IOException e) {
+            // The subscription closes itself when the consumer fails, e.g. because the client has gone away.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void keepAlive(final QueryKey queryKey,
+                           final SearchSubscription subscription,
+                           final ChunkedOutput<String> output) {
+        // The keep alive runs on the threads owned by the search's cache until the subscription is closed.
+        subscription.runPeriodically(KEEP_ALIVE_INTERVAL, () -> {
+            try {
+                write(output, ": keep-alive\n\n");
+            } catch (final IOException e) {
+                // The client has gone away.
+                subscription.close();
+            }
+        });
+
+        // The subscription is closed once the final response has been sent, the search is destroyed or the client
+        // has gone away.
+        subscription.getClosedFuture().thenRun(() -> {
+            LOGGER.debug("Subscription to {} ended", queryKey);
+            try {
+                output.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Unable to close the stream for {}", queryKey, e);
+            }
+        });
+    }
+
+    private static void write(final ChunkedOutput<String> output,
+                              final String chunk) throws IOException {
+        // Keep-alives and responses are written from different threads.
+        synchronized (output) {
+            output.write(chunk);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package stroom.query.audit.rest;
+
+import io.dropwizard.auth.Auth;
+import stroom.query.security.ServiceUser;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+/**
+ * Allows clients to follow a running search as server-sent events rather than repeatedly posting the search request
+ * to {@link QueryResource#search}. The search must have been started with a search request first.
+ */
+@Path("/queryApi/v1/subscribe")
+public interface QuerySubscriptionResource {
+
+    String SERVER_SENT_EVENTS = "text/event-stream";
+
+    /**
+     * Stream a 'searchResponse' event whenever the results of a component change, at most once per interval, until
+     * the search completes.
+     */
+    @GET
+    @Produces(SERVER_SENT_EVENTS)
+    @Path("/{queryKey}")
+    Response subscribe(@Auth ServiceUser user,
+                       @PathParam("queryKey") String queryKey,
+                       @QueryParam("intervalMs") @DefaultValue("1000") long intervalMs);
+}
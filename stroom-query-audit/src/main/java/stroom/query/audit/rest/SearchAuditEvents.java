@@ -0,0 +1,63 @@
+package stroom.query.audit.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import event.logging.Event;
+import event.logging.Outcome;
+import event.logging.Query;
+import event.logging.Search;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stroom.query.api.v2.SearchRequest;
+
+/**
+ * Populates the audit events for searches, shared by {@link AuditedQueryResourceImpl} and
+ * {@link AuditedAsyncQueryResourceImpl}.
+ */
+final class SearchAuditEvents {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchAuditEvents.class);
+
+    static final String QUERY_SEARCH = "QUERY_SEARCH";
+
+    // Writers are immutable and thread safe, sharing one keeps the serialisers it builds for each type.
+    private static final ObjectWriter REQUEST_WRITER = new ObjectMapper().writerFor(SearchRequest.class);
+
+    private SearchAuditEvents() {
+        // Utility class.
+    }
+
+    static void populateSearchEvent(final Event.EventDetail eventDetail,
+                                    final SearchRequest request,
+                                    final Exception exception) {
+        eventDetail.setTypeId(QUERY_SEARCH);
+        eventDetail.setDescription("Run a Query over the data");
+
+        final Search search = new Search();
+        if (null != request.getQuery() && null != request.getQuery().getDataSource()) {
+            search.setId(request.getQuery().getDataSource().getUuid());
+            search.setType(request.getQuery().getDataSource().getType());
+            search.setName(request.getQuery().getDataSource().getName());
+        }
+        eventDetail.setSearch(search);
+
+        search.setQuery(new Query());
+
+        final Outcome outcome = new Outcome();
+        outcome.setSuccess(null == exception);
+        search.setOutcome(outcome);
+    }
+
+    /**
+     * Adds the serialised request to a search event, it is only needed for the audit record so it can be left until
+     * the event is written.
+     */
+    static void completeSearchEvent(final Event.EventDetail eventDetail,
+                                    final SearchRequest request) {
+        try {
+            eventDetail.getSearch().getQuery().setRaw(REQUEST_WRITER.writeValueAsString(request));
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Could not serialize request details for audit", e);
+        }
+    }
+}
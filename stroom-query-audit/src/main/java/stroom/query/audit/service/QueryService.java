@@ -5,9 +5,15 @@ import stroom.docref.DocRef;
 import stroom.query.api.v2.QueryKey;
 import stroom.query.api.v2.SearchRequest;
 import stroom.query.api.v2.SearchResponse;
+import stroom.query.common.v2.SearchSubscription;
 import stroom.query.security.ServiceUser;
 
+import java.time.Duration;
+
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 public interface QueryService {
     /**
@@ -40,6 +46,47 @@ public interface QueryService {
     Optional<SearchResponse> search(ServiceUser user,
                                     SearchRequest request) throws QueryApiException;
 
+    /**
+     * Conduct a search on the data without blocking the calling thread while waiting for results. The returned
+     * stage completes when the search completes, new results are available for an incremental search or the
+     * request's timeout expires.
+     * <p>
+     * The default implementation performs a blocking {@link #search(ServiceUser, SearchRequest)} so services should
+     * override it if they can wait for results without a thread.
+     *
+     * @param user    The authenticated user
+     * @param request The details of the search
+     * @return A stage holding an optional search response.
+     */
+    default CompletionStage<Optional<SearchResponse>> searchAsync(final ServiceUser user,
+                                                                  final SearchRequest request) {
+        final CompletableFuture<Optional<SearchResponse>> future = new CompletableFuture<>();
+        try {
+            future.complete(search(user, request));
+        } catch (final QueryApiException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Push responses for a running search to the consumer as new data arrives, see {@link SearchSubscription}.
+     * Services that can't push responses don't need to implement this.
+     *
+     * @param user     The authenticated user
+     * @param queryKey The key of the running search
+     * @param interval The minimum interval between responses
+     * @param consumer Receives the responses, this must not block
+     * @return The subscription, which must be closed by the caller, or empty if the search isn't running.
+     * @throws QueryApiException if anything goes wrong
+     */
+    default Optional<SearchSubscription> subscribe(final ServiceUser user,
+                                                   final QueryKey queryKey,
+                                                   final Duration interval,
+                                                   final Consumer<SearchResponse> consumer) throws QueryApiException {
+        return Optional.empty();
+    }
+
     /**
      * Destroy any existing query being conducted under the given key.
      *
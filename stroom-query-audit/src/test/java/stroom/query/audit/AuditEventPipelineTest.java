@@ -0,0 +1,177 @@
+package stroom.query.audit;
+
+import event.logging.Event;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AuditEventPipelineTest {
+
+    @Test
+    void testWritesInOrderOnWriterThread() {
+        final AuditPipelineConfig config = new AuditPipelineConfig();
+        config.setBatchSize(3);
+        final List<String> written = new CopyOnWriteArrayList<>();
+        final List<String> completedOn = new CopyOnWriteArrayList<>();
+        final AuditEventPipeline pipeline = new AuditEventPipeline(config,
+                () -> event -> ((TestEvent) event).data,
+                written::add);
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final TestEvent event = new TestEvent("event " + i);
+            expected.add(event.data);
+            pipeline.submit(event, () -> completedOn.add(Thread.currentThread().getName()));
+        }
+        pipeline.close();
+
+        assertThat(written).containsExactlyElementsOf(expected);
+        assertThat(completedOn).hasSize(10).containsOnly("Audit Event Writer");
+    }
+
+    @Test
+    void testDropWhenFull() throws InterruptedException {
+        final AuditPipelineConfig config = new AuditPipelineConfig();
+        config.setQueueSize(1);
+        config.setOverflowPolicy(AuditEventPipeline.OverflowPolicy.DROP);
+        final BlockingSink sink = new BlockingSink();
+        final AuditEventPipeline pipeline = new AuditEventPipeline(config,
+                () -> event -> ((TestEvent) event).data,
+                sink);
+
+        fill(pipeline, sink);
+        pipeline.submit(new TestEvent("dropped"), null);
+        sink.release.countDown();
+        pipeline.close();
+
+        assertThat(sink.written).containsExactly("writing", "queued");
+    }
+
+    @Test
+    void testSpillWhenFull() throws InterruptedException, IOException {
+        final Path spillDirectory = Files.createTempDirectory("audit-spill");
+        try {
+            final AuditPipelineConfig config = new AuditPipelineConfig();
+            config.setQueueSize(1);
+            config.setOverflowPolicy(AuditEventPipeline.OverflowPolicy.SPILL);
+            config.setSpillDirectory(spillDirectory.toString());
+            final BlockingSink sink = new BlockingSink();
+            final AuditEventPipeline pipeline = new AuditEventPipeline(config,
+                    () -> event -> ((TestEvent) event).data,
+                    sink);
+
+            fill(pipeline, sink);
+            final List<String> spilled = IntStream.range(0, 5)
+                    .mapToObj(i -> "spilled " + i)
+                    .collect(Collectors.toList());
+            spilled.forEach(data -> pipeline.submit(new TestEvent(data), null));
+            assertThat(spillDirectory.resolve("audit.spill")).exists();
+
+            sink.release.countDown();
+            pipeline.close();
+
+            final List<String> expected = new ArrayList<>();
+            expected.add("writing");
+            expected.add("queued");
+            expected.addAll(spilled);
+            assertThat(sink.written).containsExactlyElementsOf(expected);
+            try (final Stream<Path> remaining = Files.list(spillDirectory)) {
+                assertThat(remaining).isEmpty();
+            }
+        } finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
+    @Test
+    void testSpillRequiresDirectory() {
+        final AuditPipelineConfig config = new AuditPipelineConfig();
+        config.setOverflowPolicy(AuditEventPipeline.OverflowPolicy.SPILL);
+
+        assertThatThrownBy(() -> new AuditEventPipeline(config,
+                () -> event -> ((TestEvent) event).data,
+                data -> {
+                }))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testOnlySpillPolicyUsesSpillDirectory() throws IOException {
+        final Path spillDirectory = Files.createTempDirectory("audit-spill");
+        try {
+            // Events left in the directory by another application must not be written by a pipeline that doesn't spill.
+            Files.write(spillDirectory.resolve("audit.spill"), "other".getBytes(StandardCharsets.UTF_8));
+
+            final AuditPipelineConfig config = new AuditPipelineConfig();
+            config.setOverflowPolicy(AuditEventPipeline.OverflowPolicy.DROP);
+            config.setSpillDirectory(spillDirectory.toString());
+            final List<String> written = new CopyOnWriteArrayList<>();
+            final AuditEventPipeline pipeline = new AuditEventPipeline(config,
+                    () -> event -> ((TestEvent) event).data,
+                    written::add);
+            pipeline.submit(new TestEvent("event"), null);
+            pipeline.close();
+
+            assertThat(written).containsExactly("event");
+            assertThat(spillDirectory.resolve("audit.spill")).exists();
+        } finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
+    private void deleteRecursively(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * Leave the writer blocked on one event with another waiting in the queue.
+     */
+    private void fill(final AuditEventPipeline pipeline, final BlockingSink sink) throws InterruptedException {
+        pipeline.submit(new TestEvent("writing"), null);
+        assertThat(sink.writing.await(5, TimeUnit.SECONDS)).isTrue();
+        pipeline.submit(new TestEvent("queued"), null);
+    }
+
+    private static class TestEvent extends Event {
+        private final String data;
+
+        private TestEvent(final String data) {
+            this.data = data;
+        }
+    }
+
+    private static class BlockingSink implements Consumer<String> {
+        private final List<String> written = new CopyOnWriteArrayList<>();
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void accept(final String data) {
+            writing.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.add(data);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package stroom.query.audit;
+
+import com.google.common.base.Ticker;
+import event.logging.Device;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientDeviceCacheTest {
+    private static final String IP = "10.0.0.1";
+
+    @Test
+    void testResolvedOnceAndThenCached() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final TestDevice resolved = new TestDevice("client.example.com");
+        final ClientDeviceCache cache = new ClientDeviceCache(ip -> {
+            lookups.incrementAndGet();
+            return resolved;
+        }, Runnable::run, Ticker.systemTicker());
+
+        // The first event records the client by IP address, the lookup completes it for later events.
+        assertThat(cache.get(IP)).isNotSameAs(resolved);
+        assertThat(cache.get(IP)).isSameAs(resolved);
+        assertThat(cache.get(IP)).isSameAs(resolved);
+        assertThat(resolved.getIPAddress()).isEqualTo(IP);
+        assertThat(lookups.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testResolvedAgainOnceExpired() {
+        final List<TestDevice> resolved = new CopyOnWriteArrayList<>();
+        final FakeTicker ticker = new FakeTicker();
+        final ClientDeviceCache cache = new ClientDeviceCache(ip -> {
+            final TestDevice device = new TestDevice("client" + resolved.size() + ".example.com");
+            resolved.add(device);
+            return device;
+        }, Runnable::run, ticker);
+
+        cache.get(IP);
+        assertThat(cache.get(IP)).isSameAs(resolved.get(0));
+
+        ticker.advance(9, TimeUnit.MINUTES);
+        assertThat(cache.get(IP)).isSameAs(resolved.get(0));
+        assertThat(resolved).hasSize(1);
+
+        ticker.advance(2, TimeUnit.MINUTES);
+        assertThat(cache.get(IP)).isNotSameAs(resolved.get(0));
+        assertThat(resolved).hasSize(2);
+        assertThat(cache.get(IP)).isSameAs(resolved.get(1));
+    }
+
+    @Test
+    void testDoesNotWaitForLookup() throws InterruptedException {
+        final CountDownLatch lookupStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger lookups = new AtomicInteger();
+        final TestDevice resolved = new TestDevice("client.example.com");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final ClientDeviceCache cache = new ClientDeviceCache(ip -> {
+                lookups.incrementAndGet();
+                lookupStarted.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return resolved;
+            }, executor, Ticker.systemTicker());
+
+            final Device unresolved = cache.get(IP);
+            assertThat(lookupStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // Events while the lookup is stuck are recorded by IP address without starting another lookup.
+            for (int i = 0; i < 10; i++) {
+                assertThat(cache.get(IP)).isSameAs(unresolved);
+            }
+            assertThat(lookups.get()).isEqualTo(1);
+
+            release.countDown();
+            executor.shutdown();
+            assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(cache.get(IP)).isSameAs(resolved);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static class TestDevice extends Device {
+        private final String hostName;
+        private volatile String ipAddress;
+
+        private TestDevice(final String hostName) {
+            this.hostName = hostName;
+        }
+
+        @Override
+        public String getHostName() {
+            return hostName;
+        }
+
+        @Override
+        public String getIPAddress() {
+            return ipAddress;
+        }
+
+        @Override
+        public void setIPAddress(final String ipAddress) {
+            this.ipAddress = ipAddress;
+        }
+    }
+
+    private static class FakeTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        private void advance(final long duration, final TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(duration));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package stroom.query.audit;
+
+import org.junit.jupiter.api.Test;
+import stroom.dashboard.expression.v1.FieldIndexMap;
+import stroom.dashboard.expression.v1.Val;
+import stroom.dashboard.expression.v1.ValString;
+import stroom.query.api.v2.Field;
+import stroom.query.api.v2.Query;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.api.v2.TableSettings;
+import stroom.query.common.v2.CoprocessorSettingsMap;
+import stroom.query.common.v2.Data;
+import stroom.query.common.v2.Payload;
+import stroom.query.common.v2.Sizes;
+import stroom.query.common.v2.TableCoprocessor;
+import stroom.query.common.v2.TableCoprocessorSettings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CriteriaStoreTest {
+    private static final String TEXT_COMPONENT = "text";
+    private static final String NUMBER_COMPONENT = "number";
+
+    @Test
+    void testDataIsAssembledOnce() {
+        final CriteriaStore store = createStore();
+
+        final Data first = store.getData(TEXT_COMPONENT);
+        assertThat(first.getSize()).isEqualTo(3);
+        assertThat(store.getData(TEXT_COMPONENT)).isSameAs(first);
+    }
+
+    @Test
+    void testComponentsDoNotShareData() {
+        final CriteriaStore store = createStore();
+
+        final Data text = store.getData(TEXT_COMPONENT);
+        final Data number = store.getData(NUMBER_COMPONENT);
+        assertThat(number).isNotSameAs(text);
+        // The number column is grouped so the rows collapse into two groups.
+        assertThat(text.getSize()).isEqualTo(3);
+        assertThat(number.getSize()).isEqualTo(2);
+
+        assertThat(store.getData(TEXT_COMPONENT)).isSameAs(text);
+        assertThat(store.getData(NUMBER_COMPONENT)).isSameAs(number);
+    }
+
+    @Test
+    void testDestroyReleasesData() {
+        final CriteriaStore store = createStore();
+
+        final Data text = store.getData(TEXT_COMPONENT);
+        store.destroy();
+        assertThat(store.getData(TEXT_COMPONENT)).isNotSameAs(text);
+        assertThat(store.getData(TEXT_COMPONENT).getSize()).isZero();
+    }
+
+    private CriteriaStore createStore() {
+        final SearchRequest searchRequest = new SearchRequest.Builder()
+                .key(UUID.randomUUID().toString())
+                .query(new Query.Builder()
+                        .dataSource("test", UUID.randomUUID().toString(), "test")
+                        .build())
+                .addResultRequests(new ResultRequest(TEXT_COMPONENT, new TableSettings.Builder()
+                        .addFields(new Field.Builder()
+                                .name("Text")
+                                .expression("${Text}")
+                                .build())
+                        .build()))
+                .addResultRequests(new ResultRequest(NUMBER_COMPONENT, new TableSettings.Builder()
+                        .addFields(new Field.Builder()
+                                .name("Number")
+                                .expression("${Number}")
+                                .group(0)
+                                .build())
+                        .build()))
+                .build();
+
+        final CoprocessorSettingsMap coprocessorSettingsMap = CoprocessorSettingsMap.create(searchRequest);
+        final FieldIndexMap fieldIndexMap = new FieldIndexMap(true);
+        final Map<CoprocessorSettingsMap.CoprocessorKey, TableCoprocessor> coprocessorMap = new HashMap<>();
+        coprocessorSettingsMap.getMap().forEach((key, settings) -> coprocessorMap.put(key,
+                new TableCoprocessor((TableCoprocessorSettings) settings, fieldIndexMap, Collections.emptyMap())));
+
+        final String[][] rows = {{"a", "1"}, {"b", "2"}, {"c", "2"}};
+        for (final String[] row : rows) {
+            final Val[] values = new Val[fieldIndexMap.size()];
+            values[fieldIndexMap.get("Text")] = ValString.create(row[0]);
+            values[fieldIndexMap.get("Number")] = ValString.create(row[1]);
+            coprocessorMap.values().forEach(coprocessor -> coprocessor.receive(values));
+        }
+
+        final Map<CoprocessorSettingsMap.CoprocessorKey, Payload> payloadMap = new HashMap<>();
+        coprocessorMap.forEach((key, coprocessor) -> payloadMap.put(key, coprocessor.createPayload()));
+
+        final Sizes storeSize = Sizes.create(rows.length);
+        return new CriteriaStore(storeSize, storeSize, coprocessorSettingsMap, payloadMap);
+    }
+}
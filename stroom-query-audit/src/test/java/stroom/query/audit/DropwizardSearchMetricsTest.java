@@ -0,0 +1,39 @@
+package stroom.query.audit;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import stroom.query.common.v2.SearchMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DropwizardSearchMetricsTest {
+    @Test
+    void testMetricsRegistered() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final SearchMetrics searchMetrics = new DropwizardSearchMetrics(metricRegistry);
+
+        searchMetrics.meter(SearchMetrics.TABLE_COPROCESSOR, "rowsReceived").mark(5);
+        searchMetrics.histogram(SearchMetrics.TABLE_PAYLOAD_HANDLER, "queueSize").update(10);
+        searchMetrics.timer(SearchMetrics.TABLE_PAYLOAD_HANDLER, "merge").update(1_000_000);
+
+        assertThat(metricRegistry.meter("stroom.query.tableCoprocessor.rowsReceived").getCount()).isEqualTo(5);
+        assertThat(metricRegistry.histogram("stroom.query.tablePayloadHandler.queueSize").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer("stroom.query.tablePayloadHandler.merge").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testGaugeReplaced() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final SearchMetrics searchMetrics = new DropwizardSearchMetrics(metricRegistry);
+
+        final AtomicLong value = new AtomicLong(1);
+        searchMetrics.gauge(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "size", () -> 99);
+        searchMetrics.gauge(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "size", value::get);
+        value.set(42);
+
+        assertThat(metricRegistry.getGauges().get("stroom.query.searchResponseCreatorCache.size").getValue())
+                .isEqualTo(42L);
+    }
+}
@@ -0,0 +1,224 @@
+package stroom.query.audit;
+
+import event.logging.Event;
+import event.logging.EventLoggingService;
+import event.logging.User;
+import org.junit.jupiter.api.Test;
+import stroom.query.api.v2.Query;
+import stroom.query.api.v2.QueryKey;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.security.ServiceUser;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SearchAuditSummariserTest {
+    private final ServiceUser user = new ServiceUser.Builder()
+            .name(UUID.randomUUID().toString())
+            .jwt(UUID.randomUUID().toString())
+            .build();
+
+    @Test
+    void testDisabledAuditsEverySearch() {
+        final SearchAuditSummariser summariser = new SearchAuditSummariser(new AuditPipelineConfig());
+        final RecordingEventLoggingService eventLoggingService = new RecordingEventLoggingService();
+        final SearchRequest request = request();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(summariser.start(user, request, eventLoggingService)
+                    .shouldAudit(Response.ok().build(), null))
+                    .isTrue();
+        }
+        assertThat(summariser.size()).isZero();
+    }
+
+    @Test
+    void testPollsSummarisedAfterFirstSearch() {
+        final SearchAuditSummariser summariser = new SearchAuditSummariser(config());
+        final RecordingEventLoggingService eventLoggingService = new RecordingEventLoggingService();
+        final SearchRequest request = request();
+
+        assertThat(summariser.start(user, request, eventLoggingService)
+                .shouldAudit(Response.ok().build(), null))
+                .isTrue();
+        for (int i = 0; i < 5; i++) {
+            assertThat(summariser.start(user, request, eventLoggingService)
+                    .shouldAudit(Response.ok().build(), null))
+                    .isFalse();
+        }
+        assertThat(eventLoggingService.logged).isEmpty();
+
+        // One summary for all the polls.
+        summariser.flush();
+        assertThat(eventLoggingService.logged).hasSize(1);
+        assertThat(eventLoggingService.created).isEqualTo(1);
+
+        // Nothing to summarise so the query is forgotten and the next search is audited in full.
+        summariser.flush();
+        assertThat(eventLoggingService.logged).hasSize(1);
+        assertThat(summariser.size()).isZero();
+        assertThat(summariser.start(user, request, eventLoggingService)
+                .shouldAudit(Response.ok().build(), null))
+                .isTrue();
+
+        summariser.close();
+    }
+
+    @Test
+    void testFailedPollsAuditedInFull() {
+        final SearchAuditSummariser summariser = new SearchAuditSummariser(config());
+        final RecordingEventLoggingService eventLoggingService = new RecordingEventLoggingService();
+        final SearchRequest request = request();
+
+        assertThat(summariser.start(user, request, eventLoggingService)
+                .shouldAudit(Response.ok().build(), null))
+                .isTrue();
+        assertThat(summariser.start(user, request, eventLoggingService)
+                .shouldAudit(Response.serverError().build(), null))
+                .isTrue();
+        assertThat(summariser.start(user, request, eventLoggingService)
+                .shouldAudit(Response.status(Response.Status.FORBIDDEN).build(), null))
+                .isTrue();
+        assertThat(summariser.start(user, request, eventLoggingService)
+                .shouldAudit(null, new RuntimeException("Search failed")))
+                .isTrue();
+
+        // None of the failures were recorded so there is nothing to summarise.
+        summariser.flush();
+        assertThat(eventLoggingService.logged).isEmpty();
+        assertThat(eventLoggingService.created).isZero();
+
+        summariser.close();
+    }
+
+    @Test
+    void testEndWritesSummary() {
+        final SearchAuditSummariser summariser = new SearchAuditSummariser(config());
+        final RecordingEventLoggingService eventLoggingService = new RecordingEventLoggingService();
+        final SearchRequest request1 = request();
+        final SearchRequest request2 = request();
+
+        for (int i = 0; i < 3; i++) {
+            summariser.start(user, request1, eventLoggingService).shouldAudit(Response.ok().build(), null);
+            summariser.start(user, request2, eventLoggingService).shouldAudit(Response.ok().build(), null);
+        }
+
+        summariser.end(user, request1.getKey());
+        assertThat(eventLoggingService.logged).hasSize(1);
+        assertThat(summariser.size()).isEqualTo(1);
+
+        // Closing writes the summaries that are left.
+        summariser.close();
+        assertThat(eventLoggingService.logged).hasSize(2);
+        assertThat(summariser.size()).isZero();
+    }
+
+    @Test
+    void testUsersSummarisedSeparately() {
+        final SearchAuditSummariser summariser = new SearchAuditSummariser(config());
+        final RecordingEventLoggingService eventLoggingService = new RecordingEventLoggingService();
+        final SearchRequest request = request();
+        final ServiceUser otherUser = new ServiceUser.Builder()
+                .name(UUID.randomUUID().toString())
+                .jwt(UUID.randomUUID().toString())
+                .build();
+
+        assertThat(summariser.start(user, request, eventLoggingService)
+                .shouldAudit(Response.ok().build(), null))
+                .isTrue();
+        assertThat(summariser.start(user, request, eventLoggingService)
+                .shouldAudit(Response.ok().build(), null))
+                .isFalse();
+
+        // Another user polling the same query is audited in full and then gets a summary of their own.
+        assertThat(summariser.start(otherUser, request, eventLoggingService)
+                .shouldAudit(Response.ok().build(), null))
+                .isTrue();
+        assertThat(summariser.start(otherUser, request, eventLoggingService)
+                .shouldAudit(Response.ok().build(), null))
+                .isFalse();
+        assertThat(summariser.size()).isEqualTo(2);
+
+        summariser.flush();
+        assertThat(eventLoggingService.logged)
+                .extracting(event -> event.getEventSource().getUser().getId())
+                .containsExactlyInAnyOrder(user.getName(), otherUser.getName());
+
+        summariser.close();
+    }
+
+    private AuditPipelineConfig config() {
+        final AuditPipelineConfig config = new AuditPipelineConfig();
+        // Long enough that only the test flushes the summaries.
+        config.setSearchSummaryIntervalMs(3_600_000L);
+        return config;
+    }
+
+    private SearchRequest request() {
+        return new SearchRequest.Builder()
+                .key(new QueryKey(UUID.randomUUID().toString()))
+                .query(new Query.Builder()
+                        .dataSource("test", UUID.randomUUID().toString(), "test")
+                        .build())
+                .incremental(true)
+                .build();
+    }
+
+    private static class RecordingEventLoggingService implements EventLoggingService {
+        private final List<Event> logged = new ArrayList<>();
+        private int created;
+
+        @Override
+        public Event createEvent() {
+            created++;
+            return new TestEvent();
+        }
+
+        @Override
+        public void log(final Event event) {
+            logged.add(event);
+        }
+    }
+
+    private static class TestEvent extends Event {
+        private final EventSource eventSource = new TestEventSource();
+        private final EventDetail eventDetail = new EventDetail();
+
+        @Override
+        public EventSource getEventSource() {
+            return eventSource;
+        }
+
+        @Override
+        public EventDetail getEventDetail() {
+            return eventDetail;
+        }
+    }
+
+    private static class TestEventSource extends Event.EventSource {
+        private final User user = new TestUser();
+
+        @Override
+        public User getUser() {
+            return user;
+        }
+    }
+
+    private static class TestUser extends User {
+        private String id;
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(final String id) {
+            this.id = id;
+        }
+    }
+}
@@ -20,7 +20,10 @@ class SimpleAuditWrapperTest {
     @Test
     void test() {
         final String auditType = "TestFunction";
-        final EventLoggingService eventLoggingService = spy(new QueryEventLoggingService());
+        final EventLoggingService eventLoggingService = spy(new QueryEventLoggingService(
+                new AuditEventPipeline(new AuditPipelineConfig()),
+                new HostDeviceCache(),
+                new ClientDeviceCache()));
         final ServiceUser user = new ServiceUser.Builder()
                 .name(UUID.randomUUID().toString())
                 .jwt(UUID.randomUUID().toString())
@@ -0,0 +1,89 @@
+package stroom.query.audit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpoolTest {
+    private Path spoolDirectory;
+
+    @BeforeEach
+    void before() throws IOException {
+        spoolDirectory = Files.createTempDirectory("spool");
+    }
+
+    @AfterEach
+    void after() throws IOException {
+        try (final Stream<Path> files = Files.walk(spoolDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void testReplaysInOrder() throws IOException {
+        final Spool spool = new Spool(spoolDirectory, "test.spool", 0);
+        append(spool, "a", "b", "c");
+        assertThat(spool.isPending()).isTrue();
+
+        final List<String> replayed = new ArrayList<>();
+        spool.replay(record -> replayed.add(new String(record, StandardCharsets.UTF_8)));
+        spool.close();
+
+        assertThat(replayed).containsExactly("a", "b", "c");
+        assertThat(spool.isPending()).isFalse();
+        assertThat(spool.getBytes()).isZero();
+        try (final Stream<Path> remaining = Files.list(spoolDirectory)) {
+            assertThat(remaining).isEmpty();
+        }
+    }
+
+    @Test
+    void testFailedReplayResumesAfterConsumedRecords() throws IOException {
+        final Spool spool = new Spool(spoolDirectory, "test.spool", 0);
+        append(spool, "a", "b", "c", "d");
+
+        final List<String> replayed = new ArrayList<>();
+        assertThatThrownBy(() -> spool.replay(record -> {
+            final String data = new String(record, StandardCharsets.UTF_8);
+            if (data.equals("c")) {
+                throw new IllegalStateException("Unable to write " + data);
+            }
+            replayed.add(data);
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(replayed).containsExactly("a", "b");
+        assertThat(spool.isPending()).isTrue();
+
+        // Records appended since are replayed after the ones left over.
+        append(spool, "e");
+        spool.close();
+
+        // A new spool over the same directory carries on from the failed record.
+        final Spool reopened = new Spool(spoolDirectory, "test.spool", 0);
+        reopened.replay(record -> replayed.add(new String(record, StandardCharsets.UTF_8)));
+        reopened.close();
+
+        assertThat(replayed).containsExactly("a", "b", "c", "d", "e");
+        assertThat(reopened.getBytes()).isZero();
+        try (final Stream<Path> remaining = Files.list(spoolDirectory)) {
+            assertThat(remaining).isEmpty();
+        }
+    }
+
+    private void append(final Spool spool, final String... records) throws IOException {
+        for (final String record : records) {
+            spool.append(record.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package stroom.query.audit.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RemoteClientCacheTest {
+    private final Map<String, String> urlsByType = Map.of("a", "http://a", "b", "http://b");
+    private final RemoteClientCache<String> remoteClientCache = new RemoteClientCache<>(urlsByType::get,
+            (type, url) -> url);
+
+    @Test
+    void testCallEachStartsAllCallsBeforeAnyComplete() {
+        final CompletableFuture<String> resultA = new CompletableFuture<>();
+        final CompletableFuture<String> resultB = new CompletableFuture<>();
+
+        final Map<String, CompletableFuture<String>> results = remoteClientCache.callEach(
+                Arrays.asList("a", "b", "unknown"),
+                (type, client) -> "a".equals(type) ? resultA : resultB);
+
+        assertThat(results).containsOnlyKeys("a", "b");
+
+        // A failure of one type doesn't affect the other.
+        resultB.completeExceptionally(new RuntimeException("Failed"));
+        resultA.complete("done");
+        assertThat(results.get("a").join()).isEqualTo("done");
+        assertThat(results.get("b")).isCompletedExceptionally();
+    }
+
+    @Test
+    void testCallAll() throws Exception {
+        final Map<String, String> results = remoteClientCache.callAll(Arrays.asList("a", "b"),
+                (type, client) -> CompletableFuture.supplyAsync(() -> type + " " + client))
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(results).containsEntry("a", "a http://a").containsEntry("b", "b http://b");
+    }
+
+    @Test
+    void testCallAllFailsIfAnyCallFails() {
+        final CompletableFuture<Map<String, String>> results = remoteClientCache.callAll(Arrays.asList("a", "b"),
+                (type, client) -> {
+                    if ("b".equals(type)) {
+                        throw new RuntimeException("Failed");
+                    }
+                    return CompletableFuture.completedFuture(client);
+                });
+
+        assertThatThrownBy(results::join).isInstanceOf(CompletionException.class);
+    }
+}
@@ -0,0 +1,214 @@
+package stroom.query.audit.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KafkaLogbackAppenderTest {
+    private static final String TOPIC = "audit";
+
+    private final LoggerContext context = new LoggerContext();
+
+    @Test
+    void testSendsFormattedMessageKeyedByLogger() {
+        final MockProducer<String, byte[]> producer = producer(true);
+        final KafkaLogbackAppender<ILoggingEvent> appender = new KafkaLogbackAppender<>(new Properties(),
+                TOPIC,
+                null,
+                KafkaLogbackAppender.KeyStrategy.LOGGER,
+                null,
+                0,
+                config -> producer);
+        appender.setContext(context);
+        appender.start();
+        assertThat(appender.isStarted()).isTrue();
+        // Send on the logging thread rather than waiting for the background thread to find the partitions.
+        assertThat(appender.fetchMetadata()).isNull();
+
+        appender.doAppend(event("<Event>caf\u00e9</Event>"));
+
+        assertThat(producer.history()).hasSize(1);
+        final ProducerRecord<String, byte[]> record = producer.history().get(0);
+        assertThat(record.topic()).isEqualTo(TOPIC);
+        assertThat(record.partition()).isNull();
+        assertThat(record.key()).isEqualTo("AUDIT");
+        assertThat(new String(record.value(), StandardCharsets.UTF_8)).isEqualTo("<Event>caf\u00e9</Event>");
+
+        appender.stop();
+        assertThat(appender.isStarted()).isFalse();
+    }
+
+    @Test
+    void testSpoolsUndeliveredEventsAndSendsThemAgain() throws IOException {
+        final Path spoolDirectory = Files.createTempDirectory("kafka-spool");
+        try {
+            final MockProducer<String, byte[]> producer = producer(false);
+            final KafkaLogbackAppender<ILoggingEvent> appender = new KafkaLogbackAppender<>(new Properties(),
+                    TOPIC,
+                    null,
+                    KafkaLogbackAppender.KeyStrategy.LOGGER,
+                    spoolDirectory,
+                    0,
+                    config -> producer);
+            // Only replay when the test asks.
+            appender.setReplayIntervalMs(3_600_000L);
+            appender.setContext(context);
+            appender.start();
+            assertThat(appender.fetchMetadata()).isNull();
+
+            // The broker is unavailable.
+            for (int i = 0; i < 3; i++) {
+                appender.doAppend(event("event " + i));
+                assertThat(producer.errorNext(new TimeoutException("Broker unavailable"))).isTrue();
+            }
+            assertThat(spoolDirectory.resolve(TOPIC + ".spool")).exists();
+
+            // The broker is available again.
+            appender.replaySpool();
+            assertThat(producer.history()).hasSize(6);
+            final List<ProducerRecord<String, byte[]>> resent = producer.history().subList(3, 6);
+            assertThat(resent.stream()
+                    .map(record -> new String(record.value(), StandardCharsets.UTF_8))
+                    .collect(Collectors.toList()))
+                    .containsExactly("event 0", "event 1", "event 2");
+            assertThat(resent).extracting(ProducerRecord::key).containsOnly("AUDIT");
+            while (producer.completeNext()) {
+                // Delivered.
+            }
+
+            appender.stop();
+            try (final Stream<Path> remaining = Files.list(spoolDirectory)) {
+                assertThat(remaining).isEmpty();
+            }
+        } finally {
+            deleteRecursively(spoolDirectory);
+        }
+    }
+
+    @Test
+    void testSpoolsEventsUntilPartitionsFound() throws IOException, InterruptedException {
+        final Path spoolDirectory = Files.createTempDirectory("kafka-spool");
+        try {
+            final CountDownLatch brokerAvailable = new CountDownLatch(1);
+            final MockProducer<String, byte[]> producer = new MetadataWaitingProducer(brokerAvailable);
+            final KafkaLogbackAppender<ILoggingEvent> appender = new KafkaLogbackAppender<>(new Properties(),
+                    TOPIC,
+                    null,
+                    KafkaLogbackAppender.KeyStrategy.LOGGER,
+                    spoolDirectory,
+                    0,
+                    config -> producer);
+            appender.setReplayIntervalMs(3_600_000L);
+            appender.setContext(context);
+            appender.start();
+
+            // The background thread is waiting for the partitions, the logging thread spools rather than waiting.
+            appender.doAppend(event("event 0"));
+            appender.doAppend(event("event 1"));
+            assertThat(producer.history()).isEmpty();
+            assertThat(spoolDirectory.resolve(TOPIC + ".spool")).exists();
+
+            // The spooled events are sent once the partitions are found.
+            brokerAvailable.countDown();
+            awaitHistory(producer, 2);
+            assertThat(producer.history().stream()
+                    .map(record -> new String(record.value(), StandardCharsets.UTF_8))
+                    .collect(Collectors.toList()))
+                    .containsExactly("event 0", "event 1");
+
+            appender.stop();
+        } finally {
+            deleteRecursively(spoolDirectory);
+        }
+    }
+
+    @Test
+    void testSendsInBackgroundUntilPartitionsFoundWithoutSpool() throws InterruptedException {
+        final CountDownLatch brokerAvailable = new CountDownLatch(1);
+        final MockProducer<String, byte[]> producer = new MetadataWaitingProducer(brokerAvailable);
+        final KafkaLogbackAppender<ILoggingEvent> appender = new KafkaLogbackAppender<>(new Properties(),
+                TOPIC,
+                null,
+                KafkaLogbackAppender.KeyStrategy.LOGGER,
+                null,
+                0,
+                config -> producer);
+        appender.setContext(context);
+        appender.start();
+
+        appender.doAppend(event("event 0"));
+        assertThat(producer.history()).isEmpty();
+
+        brokerAvailable.countDown();
+        awaitHistory(producer, 1);
+
+        appender.stop();
+    }
+
+    private void awaitHistory(final MockProducer<String, byte[]> producer, final int size) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (producer.history().size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(producer.history()).hasSize(size);
+    }
+
+    private void deleteRecursively(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private MockProducer<String, byte[]> producer(final boolean autoComplete) {
+        return new MockProducer<>(autoComplete, new StringSerializer(), new ByteArraySerializer());
+    }
+
+    /**
+     * Blocks finding the partitions until the broker is available, like a producer that can't reach the brokers.
+     */
+    private static class MetadataWaitingProducer extends MockProducer<String, byte[]> {
+        private final CountDownLatch brokerAvailable;
+
+        MetadataWaitingProducer(final CountDownLatch brokerAvailable) {
+            super(true, new StringSerializer(), new ByteArraySerializer());
+            this.brokerAvailable = brokerAvailable;
+        }
+
+        @Override
+        public List<PartitionInfo> partitionsFor(final String topic) {
+            try {
+                brokerAvailable.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.partitionsFor(topic);
+        }
+    }
+
+    private ILoggingEvent event(final String message) {
+        final Logger logger = context.getLogger("AUDIT");
+        return new LoggingEvent(Logger.class.getName(), logger, Level.INFO, message, null, null);
+    }
+}
@@ -0,0 +1,70 @@
+package stroom.query.audit.rest;
+
+import event.logging.EventLoggingService;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+import stroom.query.audit.model.DocRefEntity;
+import stroom.query.audit.service.DocRefService;
+import stroom.query.audit.service.QueryApiException;
+import stroom.query.authorisation.AuthorisationService;
+import stroom.query.authorisation.DocumentPermission;
+import stroom.query.security.ServiceUser;
+
+import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuditedDocRefResourceImplTest {
+    private static final String TYPE = "TestDocRefType";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetAllHidesDocumentsWithoutReadPermission() throws QueryApiException {
+        final ServiceUser user = new ServiceUser.Builder()
+                .name(UUID.randomUUID().toString())
+                .jwt(UUID.randomUUID().toString())
+                .build();
+        final DocRefEntity readable = entity("readable");
+        final DocRefEntity updatable = entity("updatable");
+        final DocRefEntity hidden = entity("hidden");
+
+        final DocRefService<DocRefEntity> service = mock(DocRefService.class);
+        when(service.getType()).thenReturn(TYPE);
+        when(service.getAll(user)).thenReturn(Arrays.asList(readable, updatable, hidden));
+
+        // The user may read the first document and only update the second.
+        final AuthorisationService authorisationService = (serviceUser, docRef, permissionName) ->
+                TYPE.equals(docRef.getType()) &&
+                        ((readable.getUuid().equals(docRef.getUuid())
+                                && DocumentPermission.READ.getName().equals(permissionName))
+                                || (updatable.getUuid().equals(docRef.getUuid())
+                                && DocumentPermission.UPDATE.getName().equals(permissionName)));
+
+        final EventLoggingService eventLoggingService = mock(EventLoggingService.class, RETURNS_DEEP_STUBS);
+        final AuditedDocRefResourceImpl<DocRefEntity> resource = new AuditedDocRefResourceImpl<>(service,
+                eventLoggingService,
+                authorisationService,
+                new DocRefEntity.ClassProvider<>(DocRefEntity.class));
+
+        final Response response = resource.getAll(user);
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK_200);
+        assertThat((List<DocRefEntity>) response.getEntity()).containsExactly(readable);
+        verify(eventLoggingService).log(any());
+    }
+
+    private DocRefEntity entity(final String name) {
+        final DocRefEntity entity = new DocRefEntity();
+        entity.setUuid(UUID.randomUUID().toString());
+        entity.setType(TYPE);
+        entity.setName(name);
+        return entity;
+    }
+}
@@ -19,6 +19,10 @@ package stroom.query.authorisation;
 import stroom.docref.DocRef;
 import stroom.query.security.ServiceUser;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 public interface AuthorisationService {
     default boolean isAuthorised(final ServiceUser serviceUser,
                                  final DocRef docRef,
@@ -27,4 +31,40 @@ public interface AuthorisationService {
     }
 
     boolean isAuthorised(ServiceUser serviceUser, DocRef docRef, String permissionName);
+
+    default Map<DocRef, Boolean> isAuthorised(final ServiceUser serviceUser,
+                                              final Collection<DocRef> docRefs,
+                                              final DocumentPermission permission) {
+        return this.isAuthorised(serviceUser, docRefs, permission.getName());
+    }
+
+    /**
+     * Check a single permission against many documents. Implementations that can check many documents in one go
+     * should override this, by default each document is checked in turn.
+     *
+     * @return The decision for each of the doc refs.
+     */
+    default Map<DocRef, Boolean> isAuthorised(final ServiceUser serviceUser,
+                                              final Collection<DocRef> docRefs,
+                                              final String permissionName) {
+        final Map<DocRef, Boolean> decisions = new HashMap<>();
+        for (final DocRef docRef : docRefs) {
+            decisions.put(docRef, isAuthorised(serviceUser, docRef, permissionName));
+        }
+        return decisions;
+    }
+
+    /**
+     * Forget any remembered authorisation decisions, e.g. after permissions have been changed.
+     */
+    default void invalidate() {
+    }
+
+    /**
+     * Forget any remembered authorisation decisions for a single user.
+     *
+     * @param userName The name of the user whose permissions have changed.
+     */
+    default void invalidate(final String userName) {
+    }
 }
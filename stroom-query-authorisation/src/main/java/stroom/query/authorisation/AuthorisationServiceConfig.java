@@ -26,6 +26,18 @@ public class AuthorisationServiceConfig {
     @JsonProperty("isAuthorisedPath")
     private String isAuthorisedPath;
 
+    @JsonProperty("isAuthorisedBatchPath")
+    private String isAuthorisedBatchPath;
+
+    @JsonProperty("maxConcurrentChecks")
+    private Integer maxConcurrentChecks;
+
+    @JsonProperty("cacheTimeToLiveMs")
+    private Long cacheTimeToLiveMs;
+
+    @JsonProperty("cacheMaxEntries")
+    private Long cacheMaxEntries;
+
     public String getUrl() {
         return url;
     }
@@ -33,4 +45,40 @@ public class AuthorisationServiceConfig {
     public String getIsAuthorisedUrl() {
         return url + isAuthorisedPath;
     }
+
+    /**
+     * The batch endpoint takes the doc refs and permission to check and returns a JSON array of the uuids of the doc
+     * refs that the user holds the permission for.
+     *
+     * @return The URL that checks many doc refs in one request or null if the authorisation service does not support
+     * batch checks.
+     */
+    public String getIsAuthorisedBatchUrl() {
+        return (isAuthorisedBatchPath != null) ? url + isAuthorisedBatchPath : null;
+    }
+
+    public void setIsAuthorisedBatchPath(final String isAuthorisedBatchPath) {
+        this.isAuthorisedBatchPath = isAuthorisedBatchPath;
+    }
+
+    /**
+     * @return The maximum number of single checks made at once when batch checks can't be used. Defaults to 8.
+     */
+    public int getMaxConcurrentChecks() {
+        return (maxConcurrentChecks != null) ? maxConcurrentChecks : 8;
+    }
+
+    /**
+     * @return How long an authorisation decision is remembered for, zero disables caching. Defaults to 10 seconds.
+     */
+    public long getCacheTimeToLiveMs() {
+        return (cacheTimeToLiveMs != null) ? cacheTimeToLiveMs : 10_000L;
+    }
+
+    /**
+     * @return The maximum number of authorisation decisions to remember. Defaults to 10,000.
+     */
+    public long getCacheMaxEntries() {
+        return (cacheMaxEntries != null) ? cacheMaxEntries : 10_000L;
+    }
 }
@@ -16,39 +16,171 @@
 
 package stroom.query.authorisation;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.eclipse.jetty.http.HttpStatus;
-import org.glassfish.jersey.client.ClientConfig;
-import org.glassfish.jersey.client.ClientResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import stroom.docref.DocRef;
+import stroom.query.http.HttpClientFactory;
 import stroom.query.security.ServiceUser;
 
 import javax.inject.Inject;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class AuthorisationServiceImpl implements AuthorisationService {
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthorisationServiceImpl.class);
 
     private final Client httpClient;
     private final String isAuthorisedUrl;
+    private final String isAuthorisedBatchUrl;
+    // Cleared if the authorisation service turns out not to support batch checks.
+    private volatile boolean batchSupported;
+    // Used to make single checks in parallel when a batch check can't be made.
+    private final ExecutorService checkExecutor;
+    // Searches check the same permission on every poll so decisions are remembered briefly, null if disabled.
+    private final Cache<DecisionKey, Boolean> decisions;
 
     @Inject
     public AuthorisationServiceImpl(final AuthorisationServiceConfig config) {
-        this.httpClient = ClientBuilder.newClient(new ClientConfig().register(ClientResponse.class));
+        this(config, HttpClientFactory.getDefault());
+    }
+
+    public AuthorisationServiceImpl(final AuthorisationServiceConfig config,
+                                    final HttpClientFactory httpClientFactory) {
+        this.httpClient = httpClientFactory.create();
         this.isAuthorisedUrl = config.getIsAuthorisedUrl();
+        this.isAuthorisedBatchUrl = config.getIsAuthorisedBatchUrl();
+        this.batchSupported = isAuthorisedBatchUrl != null;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.checkExecutor = Executors.newFixedThreadPool(Math.max(1, config.getMaxConcurrentChecks()), runnable -> {
+            final Thread thread = new Thread(runnable, "Authorisation Check #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final long timeToLiveMs = config.getCacheTimeToLiveMs();
+        if (timeToLiveMs > 0) {
+            this.decisions = CacheBuilder.newBuilder()
+                    .maximumSize(config.getCacheMaxEntries())
+                    .expireAfterWrite(timeToLiveMs, TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            this.decisions = null;
+        }
     }
 
     @Override
     public boolean isAuthorised(final ServiceUser serviceUser,
                                 final DocRef docRef,
                                 final String permissionName) {
-        boolean isUserAuthorised;
+        if (decisions == null) {
+            return Boolean.TRUE.equals(requestAuthorisation(serviceUser, docRef, permissionName));
+        }
+
+        final DecisionKey key = new DecisionKey(serviceUser.getName(), docRef.getUuid(), permissionName);
+        try {
+            // Guava only loads a key once at a time so concurrent identical checks share a single request.
+            return decisions.get(key, () -> {
+                final Boolean decision = requestAuthorisation(serviceUser, docRef, permissionName);
+                if (decision == null) {
+                    throw new NoDecisionException();
+                }
+                return decision;
+            });
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            // Failures to get a decision are not cached so the next check asks the service again.
+            return false;
+        }
+    }
+
+    @Override
+    public Map<DocRef, Boolean> isAuthorised(final ServiceUser serviceUser,
+                                             final Collection<DocRef> docRefs,
+                                             final String permissionName) {
+        final Map<DocRef, Boolean> result = new HashMap<>();
+
+        // Only ask about the doc refs we don't already know the answer for.
+        final Set<DocRef> unknown = new LinkedHashSet<>();
+        for (final DocRef docRef : docRefs) {
+            final Boolean decision = (decisions != null)
+                    ? decisions.getIfPresent(new DecisionKey(serviceUser.getName(), docRef.getUuid(), permissionName))
+                    : null;
+            if (decision != null) {
+                result.put(docRef, decision);
+            } else {
+                unknown.add(docRef);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return result;
+        }
+
+        final Map<DocRef, Boolean> requested = batchSupported
+                ? requestBatchAuthorisation(serviceUser, unknown, permissionName)
+                : null;
+        if (requested != null) {
+            requested.forEach((docRef, decision) -> {
+                result.put(docRef, decision);
+                if (decisions != null) {
+                    decisions.put(new DecisionKey(serviceUser.getName(), docRef.getUuid(), permissionName), decision);
+                }
+            });
+        } else {
+            // Fall back to checking each doc ref on its own, in parallel.
+            final Map<DocRef, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+            unknown.forEach(docRef -> futures.put(docRef, CompletableFuture.supplyAsync(() ->
+                    isAuthorised(serviceUser, docRef, permissionName), checkExecutor)));
+            futures.forEach((docRef, future) -> result.put(docRef, future.join()));
+        }
+
+        return result;
+    }
+
+    @Override
+    public void invalidate() {
+        if (decisions != null) {
+            decisions.invalidateAll();
+        }
+    }
+
+    @Override
+    public void invalidate(final String userName) {
+        if (decisions != null) {
+            decisions.asMap().keySet().removeIf(key -> key.userName.equals(userName));
+        }
+    }
+
+    /**
+     * Ask the authorisation service for a decision.
+     *
+     * @return True or false if the service made a decision, null if a decision could not be obtained.
+     */
+    Boolean requestAuthorisation(final ServiceUser serviceUser,
+                                 final DocRef docRef,
+                                 final String permissionName) {
+        Boolean isUserAuthorised;
 
         Response response = null;
         try {
@@ -73,17 +205,17 @@ public class AuthorisationServiceImpl implements AuthorisationService {
                     isUserAuthorised = true;
                     break;
                 case HttpStatus.NOT_FOUND_404:
-                    isUserAuthorised = false;
+                    isUserAuthorised = null;
                     LOGGER.error("Received a 404 when trying to access the authorisation service! I am unable to check authorisation so all requests will be rejected until this is fixed. Is the service location correctly configured? Is the service running? The URL I tried was: {}", this.isAuthorisedUrl);
                     break;
                 default:
-                    isUserAuthorised = false;
-                    LOGGER.error("Tried to check authorisation for a user but got an unknown response!",
+                    isUserAuthorised = null;
+                    LOGGER.error("Tried to check authorisation for a user but got an unknown response! {}",
                             response.getStatus());
             }
         } catch (final RuntimeException e) {
             LOGGER.error("Could not request authorisation " + e.getLocalizedMessage());
-            isUserAuthorised = false;
+            isUserAuthorised = null;
         } finally {
             if (null != response) {
                 response.close();
@@ -92,4 +224,96 @@ public class AuthorisationServiceImpl implements AuthorisationService {
 
         return isUserAuthorised;
     }
+
+    /**
+     * Ask the authorisation service for decisions on many doc refs in one request.
+     *
+     * @return The decision for each doc ref or null if the decisions could not be obtained.
+     */
+    Map<DocRef, Boolean> requestBatchAuthorisation(final ServiceUser serviceUser,
+                                                   final Collection<DocRef> docRefs,
+                                                   final String permissionName) {
+        Map<DocRef, Boolean> decisions = null;
+
+        Response response = null;
+        try {
+            final Map<String, Object> request = new HashMap<>();
+            request.put("docRefs", docRefs.stream()
+                    .map(docRef -> new DocRef.Builder()
+                            .uuid(docRef.getUuid())
+                            .type(docRef.getType())
+                            .build()) // stripping out the name
+                    .collect(Collectors.toList()));
+            request.put("permission", permissionName);
+
+            response = httpClient
+                    .target(this.isAuthorisedBatchUrl)
+                    .request()
+                    .header("Authorization", "Bearer " + serviceUser.getJwt())
+                    .post(Entity.json(request));
+
+            switch (response.getStatus()) {
+                case HttpStatus.UNAUTHORIZED_401:
+                    decisions = docRefs.stream().collect(Collectors.toMap(docRef -> docRef, docRef -> false));
+                    break;
+                case HttpStatus.OK_200:
+                    final Set<String> authorisedUuids = new HashSet<>(
+                            response.readEntity(new GenericType<List<String>>() {
+                            }));
+                    decisions = docRefs.stream().collect(Collectors.toMap(docRef -> docRef,
+                            docRef -> authorisedUuids.contains(docRef.getUuid())));
+                    break;
+                case HttpStatus.NOT_FOUND_404:
+                case HttpStatus.METHOD_NOT_ALLOWED_405:
+                case HttpStatus.NOT_IMPLEMENTED_501:
+                    batchSupported = false;
+                    LOGGER.warn("The authorisation service does not support batch checks, checking doc refs one at a time instead. The URL I tried was: {}", this.isAuthorisedBatchUrl);
+                    break;
+                default:
+                    LOGGER.error("Tried to check authorisation for a batch of doc refs but got an unknown response! {}",
+                            response.getStatus());
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.error("Could not request batch authorisation " + e.getLocalizedMessage());
+        } finally {
+            if (null != response) {
+                response.close();
+            }
+        }
+
+        return decisions;
+    }
+
+    private static final class DecisionKey {
+        private final String userName;
+        private final String docRefUuid;
+        private final String permissionName;
+
+        DecisionKey(final String userName, final String docRefUuid, final String permissionName) {
+            this.userName = userName;
+            this.docRefUuid = docRefUuid;
+            this.permissionName = permissionName;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final DecisionKey that = (DecisionKey) o;
+            return Objects.equals(userName, that.userName) &&
+                    Objects.equals(docRefUuid, that.docRefUuid) &&
+                    Objects.equals(permissionName, that.permissionName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userName, docRefUuid, permissionName);
+        }
+    }
+
+    private static final class NoDecisionException extends Exception {
+        NoDecisionException() {
+            super(null, null, false, false);
+        }
+    }
 }
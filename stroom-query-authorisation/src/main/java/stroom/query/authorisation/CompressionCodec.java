@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stroom.query.authorisation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A content coding that can be used to compress HTTP request and response bodies, see {@link CompressionFeature}.
+ * Codings other than the standard gzip and deflate ones can be supported by implementing this.
+ */
+public interface CompressionCodec {
+    CompressionCodec GZIP = new CompressionCodec() {
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream encode(final OutputStream outputStream) throws IOException {
+            // Sync flush so that flushing sends everything written so far rather than holding it back in the deflater.
+            return new GZIPOutputStream(outputStream, 8192, true);
+        }
+
+        @Override
+        public InputStream decode(final InputStream inputStream) throws IOException {
+            return new GZIPInputStream(inputStream, 8192);
+        }
+    };
+
+    CompressionCodec DEFLATE = new CompressionCodec() {
+        @Override
+        public String getName() {
+            return "deflate";
+        }
+
+        @Override
+        public OutputStream encode(final OutputStream outputStream) {
+            return new DeflaterOutputStream(outputStream, true);
+        }
+
+        @Override
+        public InputStream decode(final InputStream inputStream) {
+            return new InflaterInputStream(inputStream);
+        }
+    };
+
+    /**
+     * @return The name of the coding as used in the Content-Encoding and Accept-Encoding headers.
+     */
+    String getName();
+
+    /**
+     * @return A stream that compresses everything written to it, closing it must finish the compressed data and
+     * flushing it must send all the data written so far.
+     */
+    OutputStream encode(OutputStream outputStream) throws IOException;
+
+    InputStream decode(InputStream inputStream) throws IOException;
+}
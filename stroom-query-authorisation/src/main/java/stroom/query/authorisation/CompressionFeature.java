@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stroom.query.authorisation;
+
+import javax.ws.rs.RuntimeType;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Feature;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Compresses HTTP bodies that are at least a minimum size and decompresses bodies compressed with any of the known
+ * codecs. Register it with a server to compress responses using the best codec the caller accepts, or with a client
+ * to accept compressed responses and optionally compress request bodies.
+ * <p>
+ * Bodies are buffered until they reach the minimum size, or until they are flushed, so streamed responses are not
+ * held back. Server sent events are never compressed as each event is written as a separate chunk of the body.
+ */
+public class CompressionFeature implements Feature {
+    private static final String ACCEPTED_CODEC = CompressionFeature.class.getName() + ".acceptedCodec";
+    private static final MediaType SERVER_SENT_EVENTS = MediaType.valueOf("text/event-stream");
+
+    private final int minSize;
+    // In order of preference.
+    private final Map<String, CompressionCodec> codecs = new LinkedHashMap<>();
+    private final CompressionCodec requestCodec;
+
+    /**
+     * @param minSize The size in bytes below which bodies are not compressed.
+     * @param codecs  The codecs that can be used, in order of preference.
+     */
+    public CompressionFeature(final int minSize,
+                              final List<CompressionCodec> codecs) {
+        this(minSize, codecs, null);
+    }
+
+    /**
+     * @param minSize      The size in bytes below which bodies are not compressed.
+     * @param codecs       The codecs that can be used, in order of preference.
+     * @param requestCodec The codec a client compresses request bodies with, null to send them uncompressed. Only
+     *                     use this if the remote service is known to accept compressed requests.
+     */
+    public CompressionFeature(final int minSize,
+                              final List<CompressionCodec> codecs,
+                              final CompressionCodec requestCodec) {
+        this.minSize = minSize;
+        codecs.forEach(codec -> this.codecs.put(codec.getName().toLowerCase(Locale.ROOT), codec));
+        this.requestCodec = requestCodec;
+    }
+
+    @Override
+    public boolean configure(final FeatureContext context) {
+        if (RuntimeType.CLIENT.equals(context.getConfiguration().getRuntimeType())) {
+            context.register(new ClientNegotiation());
+            context.register(new CompressionInterceptor(true));
+        } else {
+            context.register(new ServerNegotiation());
+            context.register(new CompressionInterceptor(false));
+        }
+        return true;
+    }
+
+    CompressionCodec negotiate(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        final List<String> accepted = Arrays.stream(acceptEncoding.split(","))
+                .map(String::trim)
+                .filter(coding -> !coding.replace(" ", "").matches(".*;q=0(\\.0*)?$"))
+                .map(coding -> coding.split(";")[0].trim().toLowerCase(Locale.ROOT))
+                .collect(Collectors.toList());
+        for (final CompressionCodec codec : codecs.values()) {
+            if (accepted.contains(codec.getName().toLowerCase(Locale.ROOT)) || accepted.contains("*")) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    private class ClientNegotiation implements ClientRequestFilter {
+        @Override
+        public void filter(final ClientRequestContext requestContext) {
+            if (!requestContext.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+                requestContext.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, String.join(",", codecs.keySet()));
+            }
+        }
+    }
+
+    private class ServerNegotiation implements ContainerRequestFilter, ContainerResponseFilter {
+        @Override
+        public void filter(final ContainerRequestContext requestContext) {
+            final CompressionCodec codec = negotiate(requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+            if (codec != null) {
+                requestContext.setProperty(ACCEPTED_CODEC, codec);
+            }
+        }
+
+        @Override
+        public void filter(final ContainerRequestContext requestContext,
+                           final ContainerResponseContext responseContext) {
+            if (responseContext.hasEntity()) {
+                responseContext.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+        }
+    }
+
+    private class CompressionInterceptor implements ReaderInterceptor, WriterInterceptor {
+        private final boolean client;
+
+        CompressionInterceptor(final boolean client) {
+            this.client = client;
+        }
+
+        @Override
+        public Object aroundReadFrom(final ReaderInterceptorContext context) throws IOException {
+            final String contentEncoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+            if (contentEncoding != null) {
+                final CompressionCodec codec = codecs.get(contentEncoding.trim().toLowerCase(Locale.ROOT));
+                if (codec != null) {
+                    context.setInputStream(codec.decode(context.getInputStream()));
+                    context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+                }
+            }
+            return context.proceed();
+        }
+
+        @Override
+        public void aroundWriteTo(final WriterInterceptorContext context) throws IOException {
+            final CompressionCodec codec = client
+                    ? requestCodec
+                    : (CompressionCodec) context.getProperty(ACCEPTED_CODEC);
+            if (codec == null
+                    || context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)
+                    || SERVER_SENT_EVENTS.isCompatible(context.getMediaType())) {
+                context.proceed();
+                return;
+            }
+
+            final ThresholdOutputStream outputStream = new ThresholdOutputStream(context.getOutputStream(),
+                    context.getHeaders(),
+                    codec);
+            context.setOutputStream(outputStream);
+            context.proceed();
+            outputStream.finish();
+        }
+    }
+
+    /**
+     * Holds on to the body until it is big enough to be worth compressing, then sets the content encoding before
+     * anything is written so the headers are still open to change.
+     */
+    private class ThresholdOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+        private final MultivaluedMap<String, Object> headers;
+        private final CompressionCodec codec;
+
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // Where the body is written once we know whether to compress it.
+        private OutputStream target;
+
+        ThresholdOutputStream(final OutputStream outputStream,
+                              final MultivaluedMap<String, Object> headers,
+                              final CompressionCodec codec) {
+            this.outputStream = outputStream;
+            this.headers = headers;
+            this.codec = codec;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (target != null) {
+                target.write(b, off, len);
+            } else {
+                buffer.write(b, off, len);
+                if (buffer.size() >= minSize) {
+                    headers.putSingle(HttpHeaders.CONTENT_ENCODING, codec.getName());
+                    headers.remove(HttpHeaders.CONTENT_LENGTH);
+                    start(codec.encode(new UnclosableOutputStream(outputStream)));
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Something wants what has been written so far sent now so stop waiting to see if it's worth compressing.
+            if (target == null) {
+                start(outputStream);
+            }
+            target.flush();
+        }
+
+        void finish() throws IOException {
+            if (target == null) {
+                start(outputStream);
+            } else if (target != outputStream) {
+                // Closing the codec's stream writes the end of the compressed data, the stream underneath stays open.
+                target.close();
+            }
+        }
+
+        private void start(final OutputStream target) throws IOException {
+            this.target = target;
+            buffer.writeTo(target);
+            buffer = null;
+        }
+    }
+
+    private static class UnclosableOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+
+        UnclosableOutputStream(final OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            outputStream.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            outputStream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.flush();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stroom.query.http;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Connection settings shared by all the HTTP clients created by {@link HttpClientFactory}.
+ */
+public class HttpClientConfig {
+
+    @JsonProperty
+    private Integer maxConnections;
+
+    @JsonProperty
+    private Integer maxConnectionsPerRoute;
+
+    @JsonProperty
+    private Long connectTimeoutMs;
+
+    @JsonProperty
+    private Long readTimeoutMs;
+
+    @JsonProperty
+    private Long idleConnectionTimeoutMs;
+
+    @JsonProperty
+    private Integer maxAsyncThreads;
+
+    @JsonProperty
+    private Integer compressionMinSize;
+
+    @JsonProperty
+    private Boolean compressRequests;
+
+    /**
+     * @return The maximum number of pooled connections across all hosts. Defaults to 200.
+     */
+    public int getMaxConnections() {
+        return (maxConnections != null) ? maxConnections : 200;
+    }
+
+    public void setMaxConnections(final Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return The maximum number of pooled connections to any one host. Defaults to 50.
+     */
+    public int getMaxConnectionsPerRoute() {
+        return (maxConnectionsPerRoute != null) ? maxConnectionsPerRoute : 50;
+    }
+
+    public void setMaxConnectionsPerRoute(final Integer maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return How long to wait for a connection to be made, zero waits forever. Defaults to 5 seconds.
+     */
+    public long getConnectTimeoutMs() {
+        return (connectTimeoutMs != null) ? connectTimeoutMs : 5_000L;
+    }
+
+    public void setConnectTimeoutMs(final Long connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    /**
+     * @return How long to wait for a response, zero waits forever. Defaults to 60 seconds.
+     */
+    public long getReadTimeoutMs() {
+        return (readTimeoutMs != null) ? readTimeoutMs : 60_000L;
+    }
+
+    public void setReadTimeoutMs(final Long readTimeoutMs) {
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    /**
+     * @return How long a pooled connection can sit idle before it is closed. Defaults to 30 seconds.
+     */
+    public long getIdleConnectionTimeoutMs() {
+        return (idleConnectionTimeoutMs != null) ? idleConnectionTimeoutMs : 30_000L;
+    }
+
+    public void setIdleConnectionTimeoutMs(final Long idleConnectionTimeoutMs) {
+        this.idleConnectionTimeoutMs = idleConnectionTimeoutMs;
+    }
+
+    /**
+     * @return The number of threads each client uses to make async requests, further requests wait for a free
+     * thread. Defaults to 16.
+     */
+    public int getMaxAsyncThreads() {
+        return (maxAsyncThreads != null) ? maxAsyncThreads : 16;
+    }
+
+    public void setMaxAsyncThreads(final Integer maxAsyncThreads) {
+        this.maxAsyncThreads = maxAsyncThreads;
+    }
+
+    /**
+     * @return The size in bytes below which request bodies are not compressed. Defaults to 1024.
+     */
+    public int getCompressionMinSize() {
+        return (compressionMinSize != null) ? compressionMinSize : 1024;
+    }
+
+    public void setCompressionMinSize(final Integer compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    /**
+     * Responses are always accepted compressed but request bodies are only compressed if this is set, as not every
+     * remote service can read them.
+     *
+     * @return Whether to gzip request bodies. Defaults to false.
+     */
+    public boolean getCompressRequests() {
+        return (compressRequests != null) ? compressRequests : false;
+    }
+
+    public void setCompressRequests(final Boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+}
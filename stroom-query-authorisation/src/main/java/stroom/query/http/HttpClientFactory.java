@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stroom.query.http;
+
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import stroom.query.authorisation.CompressionCodec;
+import stroom.query.authorisation.CompressionFeature;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates Jersey clients that share a single pool of keep-alive connections, so that calls to the same remote
+ * service reuse connections rather than opening a new socket each time. The clients accept compressed responses,
+ * see {@link CompressionFeature}.
+ * <p>
+ * Clients created by a factory can be closed independently, the pool lives as long as the factory.
+ */
+public class HttpClientFactory {
+    private static volatile HttpClientFactory defaultFactory;
+
+    private final HttpClientConfig config;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor idleConnectionEvictor;
+
+    public HttpClientFactory(final HttpClientConfig config) {
+        this.config = config;
+
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(config.getMaxConnections());
+        this.connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        // Check connections that have been idle for a while are still open before reusing them.
+        this.connectionManager.setValidateAfterInactivity(2_000);
+
+        final long idleConnectionTimeoutMs = config.getIdleConnectionTimeoutMs();
+        if (idleConnectionTimeoutMs > 0) {
+            this.idleConnectionEvictor = new IdleConnectionEvictor(connectionManager,
+                    idleConnectionTimeoutMs,
+                    TimeUnit.MILLISECONDS);
+            this.idleConnectionEvictor.start();
+        } else {
+            this.idleConnectionEvictor = null;
+        }
+    }
+
+    /**
+     * @return The factory used by clients that are not given one, see {@link #configureDefault(HttpClientConfig)}.
+     */
+    public static HttpClientFactory getDefault() {
+        HttpClientFactory factory = defaultFactory;
+        if (factory == null) {
+            synchronized (HttpClientFactory.class) {
+                factory = defaultFactory;
+                if (factory == null) {
+                    factory = new HttpClientFactory(new HttpClientConfig());
+                    defaultFactory = factory;
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Replace the default factory with one using the supplied settings. The previous default factory is closed, so
+     * this should be called at startup before any clients are created from the default factory.
+     *
+     * @param config The connection settings for the new default factory, null keeps the current default.
+     */
+    public static synchronized void configureDefault(final HttpClientConfig config) {
+        if (config != null && (defaultFactory == null || defaultFactory.config != config)) {
+            final HttpClientFactory previous = defaultFactory;
+            defaultFactory = new HttpClientFactory(config);
+            if (previous != null) {
+                previous.close();
+            }
+        }
+    }
+
+    /**
+     * @return A new client that uses this factory's connection pool.
+     */
+    public Client create() {
+        final ClientConfig clientConfig = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                // Closing a client must not close the pool the other clients are using.
+                .property(ApacheClientProperties.CONNECTION_MANAGER_SHARED, true)
+                .property(ClientProperties.CONNECT_TIMEOUT, (int) config.getConnectTimeoutMs())
+                .property(ClientProperties.READ_TIMEOUT, (int) config.getReadTimeoutMs())
+                .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.BUFFERED)
+                .property(ClientProperties.ASYNC_THREADPOOL_SIZE, config.getMaxAsyncThreads())
+                .register(ClientResponse.class)
+                .register(new CompressionFeature(config.getCompressionMinSize(),
+                        Arrays.asList(CompressionCodec.GZIP, CompressionCodec.DEFLATE),
+                        config.getCompressRequests() ? CompressionCodec.GZIP : null));
+        return ClientBuilder.newClient(clientConfig);
+    }
+
+    /**
+     * Close all pooled connections. Clients created by this factory can't be used afterwards.
+     */
+    public void close() {
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.shutdown();
+        }
+        connectionManager.close();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stroom.query.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.Authenticator;
+import org.jose4j.jwa.AlgorithmConstraints;
+import org.jose4j.jwt.MalformedClaimException;
+import org.jose4j.jwt.NumericDate;
+import org.jose4j.jwt.consumer.InvalidJwtException;
+import org.jose4j.jwt.consumer.JwtConsumer;
+import org.jose4j.jwt.consumer.JwtConsumerBuilder;
+import org.jose4j.jwt.consumer.JwtContext;
+import org.jose4j.keys.resolvers.VerificationKeyResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies bearer tokens and remembers the ones that pass, until they expire, so that a client polling with the same
+ * token doesn't have its signature checked on every request.
+ */
+class CachingJwtAuthenticator implements Authenticator<String, ServiceUser> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingJwtAuthenticator.class);
+
+    private final JwtConsumer jwtConsumer;
+    private final UserAuthenticator userAuthenticator = new UserAuthenticator();
+    private final long cacheTimeMs;
+    // Keyed by a hash of the token, null if disabled.
+    private final Cache<String, VerifiedToken> verifiedTokens;
+
+    CachingJwtAuthenticator(final TokenConfig tokenConfig,
+                            final VerificationKeyResolver verificationKeyResolver) {
+        this.jwtConsumer = new JwtConsumerBuilder()
+                .setAllowedClockSkewInSeconds(30) // allow some leeway in validating time based claims to account for clock skew
+                .setRequireSubject() // the JWT must have a subject claim
+                .setVerificationKeyResolver(verificationKeyResolver) // verify the signature with the issuer's public keys
+                .setJwsAlgorithmConstraints( // only allow the expected signature algorithm(s) in the given context
+                        new AlgorithmConstraints(AlgorithmConstraints.ConstraintType.WHITELIST, // which is only RS256 here
+                                tokenConfig.getAlgorithm()))
+                .setRelaxVerificationKeyValidation() // relaxes key length requirement
+                .setExpectedIssuer(tokenConfig.getJwsIssuer())
+                .build();
+
+        this.cacheTimeMs = tokenConfig.getVerifiedTokenCacheTimeMs();
+        if (cacheTimeMs > 0) {
+            this.verifiedTokens = CacheBuilder.newBuilder()
+                    .maximumSize(tokenConfig.getVerifiedTokenCacheMaxEntries())
+                    .expireAfterWrite(cacheTimeMs, TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            this.verifiedTokens = null;
+        }
+    }
+
+    @Override
+    public Optional<ServiceUser> authenticate(final String token) throws AuthenticationException {
+        final String tokenHash = Hashing.sha256().hashString(token, StandardCharsets.UTF_8).toString();
+        if (verifiedTokens != null) {
+            final VerifiedToken verifiedToken = verifiedTokens.getIfPresent(tokenHash);
+            if (verifiedToken != null) {
+                if (System.currentTimeMillis() < verifiedToken.expiryTime) {
+                    return Optional.of(verifiedToken.serviceUser);
+                }
+                verifiedTokens.invalidate(tokenHash);
+            }
+        }
+
+        final JwtContext context;
+        try {
+            context = jwtConsumer.process(token);
+        } catch (final InvalidJwtException e) {
+            LOGGER.debug("Token failed verification: {}", e.getMessage());
+            return Optional.empty();
+        }
+
+        final Optional<ServiceUser> serviceUser = userAuthenticator.authenticate(context);
+        if (verifiedTokens != null && serviceUser.isPresent()) {
+            verifiedTokens.put(tokenHash, new VerifiedToken(serviceUser.get(), getExpiryTime(context)));
+        }
+        return serviceUser;
+    }
+
+    private long getExpiryTime(final JwtContext context) {
+        long expiryTime = System.currentTimeMillis() + cacheTimeMs;
+        try {
+            final NumericDate expirationTime = context.getJwtClaims().getExpirationTime();
+            if (expirationTime != null) {
+                expiryTime = Math.min(expiryTime, expirationTime.getValueInMillis());
+            }
+        } catch (final MalformedClaimException e) {
+            // The token has been verified so this won't happen, if it does just don't trust the token for long.
+            expiryTime = 0;
+        }
+        return expiryTime;
+    }
+
+    private static final class VerifiedToken {
+        private final ServiceUser serviceUser;
+        private final long expiryTime;
+
+        VerifiedToken(final ServiceUser serviceUser, final long expiryTime) {
+            this.serviceUser = serviceUser;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package stroom.query.security;
+
+import org.jose4j.json.JsonUtil;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.JsonWebStructure;
+import org.jose4j.keys.resolvers.JwksVerificationKeyResolver;
+import org.jose4j.keys.resolvers.VerificationKeyResolver;
+import org.jose4j.lang.JoseException;
+import org.jose4j.lang.UnresolvableKeyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.Key;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Resolves the key to verify a token with from the public keys published by the token issuer. The keys are loaded
+ * lazily, as the order in which services are stood up cannot be guaranteed, and loaded again periodically or when a
+ * token is signed with a key we haven't seen so that signing keys can be rotated without a restart.
+ * <p>
+ * The issuer may publish a single JWK or a JWK set holding several active keys.
+ */
+class PublicKeyResolver implements VerificationKeyResolver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PublicKeyResolver.class);
+
+    // Stops tokens signed with unknown keys from making us fetch the keys on every request.
+    private static final long MIN_RELOAD_INTERVAL_MS = 30_000L;
+
+    private final Supplier<String> keyLoader;
+    private final long refreshIntervalMs;
+    private final long minReloadIntervalMs;
+    // Only one thread loads the keys at a time, the others wait for it or carry on with the keys they have.
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    private volatile List<JsonWebKey> keys;
+    private volatile long loadTime;
+
+    /**
+     * @param keyLoader         Fetches the JSON of the published keys.
+     * @param refreshIntervalMs How often to load the keys again.
+     */
+    PublicKeyResolver(final Supplier<String> keyLoader,
+                      final long refreshIntervalMs) {
+        this(keyLoader, refreshIntervalMs, MIN_RELOAD_INTERVAL_MS);
+    }
+
+    PublicKeyResolver(final Supplier<String> keyLoader,
+                      final long refreshIntervalMs,
+                      final long minReloadIntervalMs) {
+        this.keyLoader = keyLoader;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.minReloadIntervalMs = minReloadIntervalMs;
+    }
+
+    @Override
+    public Key resolveKey(final JsonWebSignature jws,
+                          final List<JsonWebStructure> nestingContext) throws UnresolvableKeyException {
+        final List<JsonWebKey> current = getKeys();
+        try {
+            return new JwksVerificationKeyResolver(current).resolveKey(jws, nestingContext);
+        } catch (final UnresolvableKeyException e) {
+            // The token may have been signed with a key that has been published since we last looked.
+            if (System.currentTimeMillis() - loadTime < minReloadIntervalMs) {
+                throw e;
+            }
+            return new JwksVerificationKeyResolver(reload(current)).resolveKey(jws, nestingContext);
+        }
+    }
+
+    List<JsonWebKey> getKeys() {
+        final List<JsonWebKey> current = keys;
+        if (current == null) {
+            return reload(null);
+        }
+
+        if (System.currentTimeMillis() - loadTime >= refreshIntervalMs && loadLock.tryLock()) {
+            try {
+                if (keys == current) {
+                    tryLoad();
+                }
+            } finally {
+                loadLock.unlock();
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Load the keys unless another thread has already replaced the ones we have.
+     */
+    private List<JsonWebKey> reload(final List<JsonWebKey> seen) {
+        loadLock.lock();
+        try {
+            if (keys == null) {
+                // Without any keys no token can be verified so let the failure through.
+                load();
+            } else if (keys == seen) {
+                tryLoad();
+            }
+            return keys;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    private void tryLoad() {
+        try {
+            load();
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Could not refresh public keys, continuing with the current keys: {}", e.getMessage());
+            // Don't try again straight away.
+            loadTime = System.currentTimeMillis();
+        }
+    }
+
+    private void load() {
+        final String json = keyLoader.get();
+        try {
+            final Map<String, Object> map = JsonUtil.parseJson(json);
+            final List<JsonWebKey> loaded = map.containsKey(JsonWebKeySet.JWK_SET_MEMBER_NAME)
+                    ? new JsonWebKeySet(json).getJsonWebKeys()
+                    : Collections.singletonList(JsonWebKey.Factory.newJwk(map));
+            keys = Collections.unmodifiableList(loaded);
+            loadTime = System.currentTimeMillis();
+            LOGGER.debug("Loaded {} public keys", loaded.size());
+        } catch (final JoseException e) {
+            throw new RuntimeException("Could not decode public key: " + e.getLocalizedMessage(), e);
+        }
+    }
+}
@@ -13,87 +13,94 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package stroom.query.security;
 
-import com.github.toastshaman.dropwizard.auth.jwt.JwtAuthFilter;
-import org.glassfish.jersey.client.ClientConfig;
-import org.glassfish.jersey.client.ClientResponse;
-import org.jose4j.jwa.AlgorithmConstraints;
-import org.jose4j.jwk.PublicJsonWebKey;
-import org.jose4j.jwk.RsaJsonWebKey;
-import org.jose4j.jwt.consumer.JwtConsumer;
-import org.jose4j.jwt.consumer.JwtConsumerBuilder;
-import org.jose4j.lang.JoseException;
+import io.dropwizard.auth.AuthFilter;
+import stroom.query.http.HttpClientFactory;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
 import java.io.IOException;
 
 /**
- * Allows the lazy loading of the public key. This is required because the order of services being stood up
- * cannot be guaranteed.
+ * Authenticates requests carrying a bearer JWT. The public keys are loaded lazily, as the order of services being
+ * stood up cannot be guaranteed, and refreshed periodically so signing keys can be rotated, see
+ * {@link PublicKeyResolver}. Verified tokens are remembered until they expire, see {@link CachingJwtAuthenticator}.
  */
 public class RobustJwtAuthFilter implements ContainerRequestFilter {
 
     private final TokenConfig tokenConfig;
 
-    private JwtAuthFilter<ServiceUser> jwtAuthFilter;
+    private final AuthFilter<String, ServiceUser> authFilter;
 
     private final Client httpClient;
 
     public RobustJwtAuthFilter(final TokenConfig tokenConfig) {
+        this(tokenConfig, HttpClientFactory.getDefault());
+    }
+
+    public RobustJwtAuthFilter(final TokenConfig tokenConfig,
+                               final HttpClientFactory httpClientFactory) {
         this.tokenConfig = tokenConfig;
-        this.httpClient = ClientBuilder.newClient(new ClientConfig().register(ClientResponse.class));
+        this.httpClient = httpClientFactory.create();
+
+        final PublicKeyResolver publicKeyResolver = new PublicKeyResolver(this::fetchPublicKeys,
+                tokenConfig.getPublicKeyRefreshIntervalMs());
+        this.authFilter = new AuthFilter.AuthFilterBuilder<String, ServiceUser, BearerTokenAuthFilter>() {
+            @Override
+            protected BearerTokenAuthFilter newInstance() {
+                return new BearerTokenAuthFilter();
+            }
+        }
+                .setAuthenticator(new CachingJwtAuthenticator(tokenConfig, publicKeyResolver))
+                .setRealm("realm")
+                .setPrefix("Bearer")
+                .buildAuthFilter();
     }
 
     @Override
     public void filter(final ContainerRequestContext requestContext) throws IOException {
-        if (null == jwtAuthFilter) {
-            init();
-        }
-
-        jwtAuthFilter.filter(requestContext);
+        authFilter.filter(requestContext);
     }
 
-    private void init() {
+    private String fetchPublicKeys() {
         final Response response = httpClient
                 .target(this.tokenConfig.getPublicKeyUrl())
                 .request()
                 .header("accept", MediaType.APPLICATION_JSON)
                 .header("Content-Type", MediaType.APPLICATION_JSON)
                 .get();
-
-        final String pkJson = response.readEntity(String.class);
-
-        PublicJsonWebKey jwk;
         try {
-            jwk = RsaJsonWebKey.Factory.newPublicJwk(pkJson);
-        } catch (JoseException e) {
-            throw new RuntimeException("Could not decode public key: " + e.getLocalizedMessage());
+            if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                throw new RuntimeException("Could not fetch public key, got response " + response.getStatus());
+            }
+            return response.readEntity(String.class);
+        } finally {
+            response.close();
         }
+    }
 
-        final JwtConsumerBuilder builder = new JwtConsumerBuilder()
-                .setAllowedClockSkewInSeconds(30) // allow some leeway in validating time based claims to account for clock skew
-                .setRequireSubject() // the JWT must have a subject claim
-                .setVerificationKey(jwk.getPublicKey()) // verify the signature with the public key
-                .setJwsAlgorithmConstraints( // only allow the expected signature algorithm(s) in the given context
-                        new AlgorithmConstraints(AlgorithmConstraints.ConstraintType.WHITELIST, // which is only RS256 here
-                                tokenConfig.getAlgorithm()))
-                .setRelaxVerificationKeyValidation() // relaxes key length requirement
-                .setExpectedIssuer(this.tokenConfig.getJwsIssuer());
-
-        final JwtConsumer jwtConsumer = builder.build();
-
-        this.jwtAuthFilter = new JwtAuthFilter.Builder<ServiceUser>()
-                .setJwtConsumer(jwtConsumer)
-                .setRealm("realm")
-                .setPrefix("Bearer")
-                .setAuthenticator(new UserAuthenticator())
-                .buildAuthFilter();
+    private static class BearerTokenAuthFilter extends AuthFilter<String, ServiceUser> {
+        @Override
+        public void filter(final ContainerRequestContext requestContext) {
+            String token = null;
+            final String header = requestContext.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+            if (header != null) {
+                final int space = header.indexOf(' ');
+                if (space > 0 && prefix.equalsIgnoreCase(header.substring(0, space))) {
+                    token = header.substring(space + 1).trim();
+                }
+            }
+
+            if (!authenticate(requestContext, token, SecurityContext.BASIC_AUTH)) {
+                throw new WebApplicationException(unauthorizedHandler.buildResponse(prefix, realm));
+            }
+        }
     }
 }
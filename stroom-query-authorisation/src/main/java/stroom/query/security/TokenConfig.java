@@ -32,6 +32,15 @@ public class TokenConfig {
     @JsonProperty
     private Boolean skipAuth;
 
+    @JsonProperty
+    private Long publicKeyRefreshIntervalMs;
+
+    @JsonProperty
+    private Long verifiedTokenCacheTimeMs;
+
+    @JsonProperty
+    private Long verifiedTokenCacheMaxEntries;
+
     public String getJwsIssuer() {
         return jwsIssuer;
     }
@@ -63,4 +72,38 @@ public class TokenConfig {
     public void setSkipAuth(final Boolean skipAuth) {
         this.skipAuth = skipAuth;
     }
+
+    /**
+     * @return How often to fetch the public keys again so that new signing keys are picked up. Defaults to 5 minutes.
+     */
+    public long getPublicKeyRefreshIntervalMs() {
+        return (publicKeyRefreshIntervalMs != null) ? publicKeyRefreshIntervalMs : 300_000L;
+    }
+
+    public void setPublicKeyRefreshIntervalMs(final Long publicKeyRefreshIntervalMs) {
+        this.publicKeyRefreshIntervalMs = publicKeyRefreshIntervalMs;
+    }
+
+    /**
+     * @return The longest time a verified token is trusted without checking its signature again, tokens are never
+     * trusted beyond their expiry. Zero verifies every request. Defaults to 5 minutes.
+     */
+    public long getVerifiedTokenCacheTimeMs() {
+        return (verifiedTokenCacheTimeMs != null) ? verifiedTokenCacheTimeMs : 300_000L;
+    }
+
+    public void setVerifiedTokenCacheTimeMs(final Long verifiedTokenCacheTimeMs) {
+        this.verifiedTokenCacheTimeMs = verifiedTokenCacheTimeMs;
+    }
+
+    /**
+     * @return The maximum number of verified tokens to remember. Defaults to 10,000.
+     */
+    public long getVerifiedTokenCacheMaxEntries() {
+        return (verifiedTokenCacheMaxEntries != null) ? verifiedTokenCacheMaxEntries : 10_000L;
+    }
+
+    public void setVerifiedTokenCacheMaxEntries(final Long verifiedTokenCacheMaxEntries) {
+        this.verifiedTokenCacheMaxEntries = verifiedTokenCacheMaxEntries;
+    }
 }
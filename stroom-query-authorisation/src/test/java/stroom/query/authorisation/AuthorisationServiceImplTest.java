@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package stroom.query.authorisation;
+
+import org.junit.jupiter.api.Test;
+import stroom.docref.DocRef;
+import stroom.query.security.ServiceUser;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuthorisationServiceImplTest {
+    private static final ServiceUser USER_1 = new ServiceUser("user1", "jwt1");
+    private static final ServiceUser USER_2 = new ServiceUser("user2", "jwt2");
+    private static final DocRef DOC_REF = new DocRef.Builder().type("test").uuid("uuid").build();
+    private static final DocRef DOC_REF_2 = new DocRef.Builder().type("test").uuid("uuid2").build();
+
+    @Test
+    void testDecisionsAreCached() {
+        final TestAuthorisationService service = new TestAuthorisationService(true);
+
+        assertThat(service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ)).isTrue();
+        assertThat(service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ)).isTrue();
+        assertThat(service.requests.get()).isEqualTo(1);
+
+        // Refusals are remembered too.
+        service.decision = false;
+        assertThat(service.isAuthorised(USER_1, DOC_REF, DocumentPermission.UPDATE)).isFalse();
+        assertThat(service.isAuthorised(USER_1, DOC_REF, DocumentPermission.UPDATE)).isFalse();
+        assertThat(service.requests.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testFailuresAreNotCached() {
+        final TestAuthorisationService service = new TestAuthorisationService(null);
+
+        assertThat(service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ)).isFalse();
+        service.decision = true;
+        assertThat(service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ)).isTrue();
+        assertThat(service.requests.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testInvalidateUser() {
+        final TestAuthorisationService service = new TestAuthorisationService(true);
+        service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ);
+        service.isAuthorised(USER_2, DOC_REF, DocumentPermission.READ);
+
+        service.decision = false;
+        service.invalidate(USER_1.getName());
+        assertThat(service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ)).isFalse();
+        assertThat(service.isAuthorised(USER_2, DOC_REF, DocumentPermission.READ)).isTrue();
+
+        service.invalidate();
+        assertThat(service.isAuthorised(USER_2, DOC_REF, DocumentPermission.READ)).isFalse();
+        assertThat(service.requests.get()).isEqualTo(4);
+    }
+
+    @Test
+    void testConcurrentChecksShareRequest() throws Exception {
+        final TestAuthorisationService service = new TestAuthorisationService(true);
+        service.release = new CountDownLatch(1);
+
+        final CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() ->
+                service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ));
+        final CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() ->
+                service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ));
+
+        // Give both checks a chance to start before the service answers.
+        Thread.sleep(100);
+        service.release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(second.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(service.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testBatchCheck() {
+        final AuthorisationServiceConfig config = new AuthorisationServiceConfig();
+        config.setIsAuthorisedBatchPath("/isAuthorisedBatch");
+        final TestAuthorisationService service = new TestAuthorisationService(config, true);
+        service.batchDecisions = Map.of(DOC_REF, true, DOC_REF_2, false);
+
+        // Already known decisions are not asked for again.
+        service.isAuthorised(USER_1, DOC_REF, DocumentPermission.READ);
+        final Map<DocRef, Boolean> decisions = service.isAuthorised(USER_1,
+                Arrays.asList(DOC_REF, DOC_REF_2),
+                DocumentPermission.READ);
+
+        assertThat(decisions).containsEntry(DOC_REF, true).containsEntry(DOC_REF_2, false);
+        assertThat(service.requests.get()).isEqualTo(1);
+        assertThat(service.batchRequests.get()).isEqualTo(1);
+        assertThat(service.lastBatch).containsExactly(DOC_REF_2);
+
+        // The batch decisions are cached.
+        assertThat(service.isAuthorised(USER_1, DOC_REF_2, DocumentPermission.READ)).isFalse();
+        assertThat(service.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testBatchCheckFallsBackToSingleChecks() {
+        final TestAuthorisationService service = new TestAuthorisationService(true);
+
+        final Map<DocRef, Boolean> decisions = service.isAuthorised(USER_1,
+                Arrays.asList(DOC_REF, DOC_REF_2),
+                DocumentPermission.READ);
+
+        assertThat(decisions).containsEntry(DOC_REF, true).containsEntry(DOC_REF_2, true);
+        assertThat(service.batchRequests.get()).isZero();
+        assertThat(service.requests.get()).isEqualTo(2);
+    }
+
+    private static class TestAuthorisationService extends AuthorisationServiceImpl {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger batchRequests = new AtomicInteger();
+        private volatile Boolean decision;
+        private volatile Map<DocRef, Boolean> batchDecisions;
+        private volatile Collection<DocRef> lastBatch;
+        private volatile CountDownLatch release;
+
+        TestAuthorisationService(final Boolean decision) {
+            this(new AuthorisationServiceConfig(), decision);
+        }
+
+        TestAuthorisationService(final AuthorisationServiceConfig config, final Boolean decision) {
+            super(config);
+            this.decision = decision;
+        }
+
+        @Override
+        Map<DocRef, Boolean> requestBatchAuthorisation(final ServiceUser serviceUser,
+                                                       final Collection<DocRef> docRefs,
+                                                       final String permissionName) {
+            batchRequests.incrementAndGet();
+            lastBatch = docRefs;
+            return batchDecisions;
+        }
+
+        @Override
+        Boolean requestAuthorisation(final ServiceUser serviceUser,
+                                     final DocRef docRef,
+                                     final String permissionName) {
+            requests.incrementAndGet();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return decision;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package stroom.query.authorisation;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import stroom.query.http.HttpClientConfig;
+import stroom.query.http.HttpClientFactory;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressionFeatureTest {
+    private static final String LARGE_BODY = String.join("", Collections.nCopies(500, "group key, "));
+
+    private HttpServer server;
+    private String url;
+    private volatile String receivedContentEncoding;
+    private volatile String receivedAcceptEncoding;
+    private volatile String receivedBody;
+
+    @BeforeEach
+    void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/echo", exchange -> {
+            receivedContentEncoding = exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+            receivedAcceptEncoding = exchange.getRequestHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING);
+            InputStream inputStream = exchange.getRequestBody();
+            if ("gzip".equals(receivedContentEncoding)) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            receivedBody = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+
+            // Always reply with a compressed copy of what was sent.
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (final OutputStream outputStream = new GZIPOutputStream(compressed)) {
+                outputStream.write(receivedBody.getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add(HttpHeaders.CONTENT_ENCODING, "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (final OutputStream outputStream = exchange.getResponseBody()) {
+                compressed.writeTo(outputStream);
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/echo";
+    }
+
+    @AfterEach
+    void after() {
+        server.stop(0);
+    }
+
+    @Test
+    void testCompressedResponsesAccepted() {
+        final HttpClientFactory httpClientFactory = new HttpClientFactory(new HttpClientConfig());
+        final Client client = httpClientFactory.create();
+
+        assertThat(post(client, LARGE_BODY)).isEqualTo(LARGE_BODY);
+        assertThat(receivedAcceptEncoding).contains("gzip");
+        // Requests aren't compressed unless asked for.
+        assertThat(receivedContentEncoding).isNull();
+
+        client.close();
+        httpClientFactory.close();
+    }
+
+    @Test
+    void testLargeRequestsCompressed() {
+        final HttpClientConfig config = new HttpClientConfig();
+        config.setCompressRequests(true);
+        config.setCompressionMinSize(1024);
+        final HttpClientFactory httpClientFactory = new HttpClientFactory(config);
+        final Client client = httpClientFactory.create();
+
+        assertThat(post(client, LARGE_BODY)).isEqualTo(LARGE_BODY);
+        assertThat(receivedContentEncoding).isEqualTo("gzip");
+        assertThat(receivedBody).isEqualTo(LARGE_BODY);
+
+        assertThat(post(client, "small")).isEqualTo("small");
+        assertThat(receivedContentEncoding).isNull();
+        assertThat(receivedBody).isEqualTo("small");
+
+        client.close();
+        httpClientFactory.close();
+    }
+
+    @Test
+    void testNegotiate() {
+        final CompressionFeature compressionFeature = new CompressionFeature(0,
+                Arrays.asList(CompressionCodec.GZIP, CompressionCodec.DEFLATE));
+
+        assertThat(compressionFeature.negotiate(null)).isNull();
+        assertThat(compressionFeature.negotiate("identity")).isNull();
+        assertThat(compressionFeature.negotiate("deflate, gzip")).isSameAs(CompressionCodec.GZIP);
+        assertThat(compressionFeature.negotiate("gzip;q=0, deflate;q=0.5")).isSameAs(CompressionCodec.DEFLATE);
+        assertThat(compressionFeature.negotiate("*")).isSameAs(CompressionCodec.GZIP);
+    }
+
+    @Test
+    void testFlushSendsEverythingWritten() throws IOException {
+        for (final CompressionCodec codec : Arrays.asList(CompressionCodec.GZIP, CompressionCodec.DEFLATE)) {
+            final byte[] event = "event: searchResponse\n\n".getBytes(StandardCharsets.UTF_8);
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            final OutputStream outputStream = codec.encode(compressed);
+            outputStream.write(event);
+            outputStream.flush();
+
+            // The event can be read before the compressed stream is finished.
+            final InputStream inputStream = codec.decode(new ByteArrayInputStream(compressed.toByteArray()));
+            assertThat(inputStream.readNBytes(event.length)).isEqualTo(event);
+        }
+    }
+
+    private String post(final Client client, final String body) {
+        final Response response = client.target(url).request().post(Entity.entity(body, MediaType.TEXT_PLAIN));
+        try {
+            assertThat(response.getStatus()).isEqualTo(200);
+            return response.readEntity(String.class);
+        } finally {
+            response.close();
+        }
+    }
+}
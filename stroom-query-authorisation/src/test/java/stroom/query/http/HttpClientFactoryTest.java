@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package stroom.query.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.jersey.client.ClientProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HttpClientFactoryTest {
+    private HttpServer server;
+    private String url;
+
+    @BeforeEach
+    void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/test", exchange -> {
+            final byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/test";
+    }
+
+    @AfterEach
+    void after() {
+        server.stop(0);
+    }
+
+    @Test
+    void testClientsUseConfiguredTimeouts() {
+        final HttpClientConfig config = new HttpClientConfig();
+        config.setConnectTimeoutMs(1_234L);
+        config.setReadTimeoutMs(5_678L);
+        final HttpClientFactory httpClientFactory = new HttpClientFactory(config);
+
+        final Client client = httpClientFactory.create();
+        assertThat(client.getConfiguration().getProperty(ClientProperties.CONNECT_TIMEOUT)).isEqualTo(1_234);
+        assertThat(client.getConfiguration().getProperty(ClientProperties.READ_TIMEOUT)).isEqualTo(5_678);
+
+        client.close();
+        httpClientFactory.close();
+    }
+
+    @Test
+    void testClosingOneClientLeavesPoolOpen() {
+        final HttpClientFactory httpClientFactory = new HttpClientFactory(new HttpClientConfig());
+        final Client client1 = httpClientFactory.create();
+        final Client client2 = httpClientFactory.create();
+
+        assertThat(get(client1)).isEqualTo("ok");
+        client1.close();
+        assertThat(get(client2)).isEqualTo("ok");
+        assertThat(get(client2)).isEqualTo("ok");
+
+        client2.close();
+        httpClientFactory.close();
+    }
+
+    @Test
+    void testConfiguringDefaultClosesPreviousPool() {
+        final HttpClientFactory previous = HttpClientFactory.getDefault();
+        final Client client = previous.create();
+        assertThat(get(client)).isEqualTo("ok");
+
+        HttpClientFactory.configureDefault(new HttpClientConfig());
+        assertThat(HttpClientFactory.getDefault()).isNotSameAs(previous);
+        assertThatThrownBy(() -> get(client)).isInstanceOf(ProcessingException.class);
+        final Client replacement = HttpClientFactory.getDefault().create();
+        assertThat(get(replacement)).isEqualTo("ok");
+
+        client.close();
+        replacement.close();
+    }
+
+    private String get(final Client client) {
+        final Response response = client.target(url).request().get();
+        try {
+            assertThat(response.getStatus()).isEqualTo(200);
+            return response.readEntity(String.class);
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package stroom.query.security;
+
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jwk.RsaJsonWebKey;
+import org.jose4j.jwk.RsaJwkGenerator;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.jwt.NumericDate;
+import org.jose4j.lang.JoseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingJwtAuthenticatorTest {
+    private final AtomicInteger keyLoads = new AtomicInteger();
+    private final AtomicInteger keyResolutions = new AtomicInteger();
+    private volatile String publishedKeys;
+
+    private RsaJsonWebKey key1;
+    private RsaJsonWebKey key2;
+    private TokenConfig tokenConfig;
+
+    @BeforeEach
+    void before() throws JoseException {
+        key1 = RsaJwkGenerator.generateJwk(2048);
+        key1.setKeyId("key1");
+        key2 = RsaJwkGenerator.generateJwk(2048);
+        key2.setKeyId("key2");
+
+        tokenConfig = new TokenConfig();
+        tokenConfig.setAlgorithm(AlgorithmIdentifiers.RSA_USING_SHA256);
+    }
+
+    @Test
+    void testVerifiedTokensCached() throws Exception {
+        publishedKeys = key1.toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+        final CachingJwtAuthenticator authenticator = authenticator(new PublicKeyResolver(this::loadKeys, 60_000));
+
+        final String token = token("user1", key1);
+        final Optional<ServiceUser> serviceUser = authenticator.authenticate(token);
+        assertThat(serviceUser.map(ServiceUser::getName)).contains("user1");
+        assertThat(serviceUser.map(ServiceUser::getJwt)).contains(token);
+
+        assertThat(authenticator.authenticate(token).map(ServiceUser::getName)).contains("user1");
+        assertThat(keyResolutions.get()).isEqualTo(1);
+        assertThat(keyLoads.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testInvalidTokensRejected() throws Exception {
+        publishedKeys = key1.toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+        final CachingJwtAuthenticator authenticator = authenticator(new PublicKeyResolver(this::loadKeys, 60_000));
+
+        // Signed with a key that claims to be key1 but isn't.
+        key2.setKeyId("key1");
+        assertThat(authenticator.authenticate(token("user1", key2))).isEmpty();
+        assertThat(authenticator.authenticate("not a token")).isEmpty();
+    }
+
+    @Test
+    void testRotatedKeysPickedUp() throws Exception {
+        publishedKeys = new JsonWebKeySet(key1).toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+        final CachingJwtAuthenticator authenticator = authenticator(new PublicKeyResolver(this::loadKeys, 60_000, 0));
+
+        assertThat(authenticator.authenticate(token("user1", key1))).isPresent();
+
+        // A new signing key is published alongside the old one.
+        publishedKeys = new JsonWebKeySet(key1, key2).toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+        assertThat(authenticator.authenticate(token("user2", key2))).isPresent();
+        assertThat(authenticator.authenticate(token("user3", key1))).isPresent();
+        assertThat(keyLoads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testKeysRefreshedPeriodically() throws Exception {
+        publishedKeys = new JsonWebKeySet(key1).toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+        final PublicKeyResolver publicKeyResolver = new PublicKeyResolver(this::loadKeys, 0);
+        assertThat(publicKeyResolver.getKeys()).hasSize(1);
+
+        publishedKeys = new JsonWebKeySet(key1, key2).toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+        assertThat(publicKeyResolver.getKeys()).hasSize(2);
+
+        // Failing to refresh keeps the current keys.
+        publishedKeys = "not json";
+        assertThat(publicKeyResolver.getKeys()).hasSize(2);
+    }
+
+    private String loadKeys() {
+        keyLoads.incrementAndGet();
+        return publishedKeys;
+    }
+
+    private CachingJwtAuthenticator authenticator(final PublicKeyResolver publicKeyResolver) {
+        return new CachingJwtAuthenticator(tokenConfig, (jws, nestingContext) -> {
+            keyResolutions.incrementAndGet();
+            return publicKeyResolver.resolveKey(jws, nestingContext);
+        });
+    }
+
+    private String token(final String subject, final RsaJsonWebKey key) throws JoseException {
+        final JwtClaims claims = new JwtClaims();
+        claims.setIssuer(tokenConfig.getJwsIssuer());
+        claims.setSubject(subject);
+        claims.setExpirationTime(NumericDate.fromMilliseconds(System.currentTimeMillis() + 60_000));
+
+        final JsonWebSignature jws = new JsonWebSignature();
+        jws.setPayload(claims.toJson());
+        jws.setAlgorithmHeaderValue(AlgorithmIdentifiers.RSA_USING_SHA256);
+        jws.setKey(key.getPrivateKey());
+        jws.setKeyIdHeaderValue(key.getKeyId());
+        return jws.getCompactSerialization();
+    }
+}
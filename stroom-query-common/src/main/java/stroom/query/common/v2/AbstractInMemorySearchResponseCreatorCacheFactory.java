@@ -8,7 +8,13 @@ import com.google.common.cache.RemovalNotification;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 @SuppressWarnings("unused")
 public abstract class AbstractInMemorySearchResponseCreatorCacheFactory implements SearchResponseCreatorCacheFactory {
@@ -18,10 +24,32 @@ public abstract class AbstractInMemorySearchResponseCreatorCacheFactory implemen
     @Override
     public SearchResponseCreatorCache create(final StoreFactory storeFactory) {
 
-        final CacheLoader<SearchResponseCreatorCache.Key, SearchResponseCreator> cacheLoader = buildLoaderFunc(storeFactory);
+        // The cancellation token for each search, held separately so that searches can be cancelled while their
+        // store is still being created by the cache loader.
+        final Map<SearchResponseCreatorCache.Key, CancellationToken> cancellationTokens = new ConcurrentHashMap<>();
+
+        // Completed searches can be kept on disk so they survive restarts and eviction if enabled.
+        final Path snapshotDirectory = getSnapshotDirectory();
+        final DataSnapshots dataSnapshots = snapshotDirectory == null
+                ? null
+                : new DataSnapshots(snapshotDirectory, getMaxSnapshotBytes(), getMaxSnapshotAge());
+
+        final SearchMetrics searchMetrics = getSearchMetrics();
+        final SearchMetrics.Meter evictions = searchMetrics.meter(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "evictions");
+
+        // The cache owns the threads its searches use and stops them when it is closed.
+        final SearchExecutors searchExecutors = new SearchExecutors(getResponseThreads(), getMaxConcurrentSearches());
+
+        final CacheLoader<SearchResponseCreatorCache.Key, SearchResponseCreator> cacheLoader = buildLoaderFunc(storeFactory, cancellationTokens, dataSnapshots, searchExecutors, searchMetrics);
 
         final CacheBuilder<SearchResponseCreatorCache.Key, SearchResponseCreator> cacheBuilder = CacheBuilder.newBuilder()
-                .removalListener(AbstractInMemorySearchResponseCreatorCacheFactory::onRemove);
+                .recordStats()
+                .removalListener((RemovalNotification<SearchResponseCreatorCache.Key, SearchResponseCreator> notification) -> {
+                    onRemove(notification, evictions);
+                    if (notification.getKey() != null && notification.getValue() != null) {
+                        cancellationTokens.remove(notification.getKey(), notification.getValue().getCancellationToken());
+                    }
+                });
 
         addAdditionalBuildOptions(cacheBuilder);
 
@@ -29,10 +57,26 @@ public abstract class AbstractInMemorySearchResponseCreatorCacheFactory implemen
 
         registerCache(cacheBuilder, cache);
 
-        return new InMemorySearchResponseCreatorCache(cache);
+        final InMemorySearchResponseCreatorCache searchResponseCreatorCache = new InMemorySearchResponseCreatorCache(
+                cache,
+                cancellationTokens,
+                getMaxMemoryBytes(),
+                getMaxIdleTime().toMillis(),
+                dataSnapshots,
+                searchExecutors,
+                searchMetrics);
+
+        // Guava only cleans up when the cache is used so expired and idle searches are reaped in the background.
+        final Duration reaperInterval = getReaperInterval();
+        if (!reaperInterval.isZero() && !reaperInterval.isNegative()) {
+            SearchReaper.schedule(searchResponseCreatorCache, reaperInterval, searchExecutors.getReaperExecutor());
+        }
+
+        return searchResponseCreatorCache;
     }
 
-    private static void onRemove(final RemovalNotification<SearchResponseCreatorCache.Key, SearchResponseCreator> notification) {
+    private static void onRemove(final RemovalNotification<SearchResponseCreatorCache.Key, SearchResponseCreator> notification,
+                                 final SearchMetrics.Meter evictions) {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Removal notification for key {}, value {}, cause {}",
                     notification.getKey(),
@@ -40,20 +84,191 @@ public abstract class AbstractInMemorySearchResponseCreatorCacheFactory implemen
                     notification.getCause());
         }
 
+        if (notification != null && notification.wasEvicted()) {
+            evictions.mark();
+        }
+
         if (notification != null && notification.getValue() != null) {
             notification.getValue().destroy();
         }
     }
 
-    private CacheLoader<SearchResponseCreatorCache.Key, SearchResponseCreator> buildLoaderFunc(final StoreFactory storeFactory) {
+    private CacheLoader<SearchResponseCreatorCache.Key, SearchResponseCreator> buildLoaderFunc(
+            final StoreFactory storeFactory,
+            final Map<SearchResponseCreatorCache.Key, CancellationToken> cancellationTokens,
+            final DataSnapshots dataSnapshots,
+            final SearchExecutors searchExecutors,
+            final SearchMetrics searchMetrics) {
+        // Searches for the same thing from different query keys can share a store if enabled.
+        final Duration maxStoreShareAge = getMaxStoreShareAge();
+        final SharedStores sharedStores = maxStoreShareAge.isZero() || maxStoreShareAge.isNegative()
+                ? null
+                : new SharedStores(storeFactory, maxStoreShareAge);
+
+        // Limit the number of searches that run at once if enabled.
+        final int maxConcurrentSearches = getMaxConcurrentSearches();
+        final SearchAdmissionController admissionController = maxConcurrentSearches <= 0
+                ? null
+                : new SearchAdmissionController(
+                        maxConcurrentSearches,
+                        getMaxConcurrentSearchesPerUser(),
+                        getMaxQueuedSearches(),
+                        searchMetrics,
+                        searchExecutors.getAdmissionExecutor());
+
         final Function<SearchResponseCreatorCache.Key, SearchResponseCreator> loaderFunc = (SearchResponseCreatorCache.Key key) -> {
             LOGGER.debug("Loading new store for key {}", key);
-            final Store store = storeFactory.create(key.getSearchRequest());
-            return new SearchResponseCreator(store);
+            final CancellationToken cancellationToken = new CancellationToken();
+            cancellationTokens.put(key, cancellationToken);
+            try {
+                if (dataSnapshots != null) {
+                    final Optional<DataSnapshots.SnapshotStore> snapshot = dataSnapshots.restore(key.getQueryKey(), key.getUserId());
+                    if (snapshot.isPresent()) {
+                        LOGGER.debug("Restored store for key {} from snapshot", key);
+                        // The query key comes from the client so check access to the data source the snapshot holds
+                        // results from rather than the one in the request. A snapshot of another user's search is
+                        // never restored, they get a fresh search of their own instead.
+                        storeFactory.checkAccess(snapshot.get().getDataSource());
+                        return new SearchResponseCreator(snapshot.get(),
+                                cancellationToken,
+                                key.getUserId(),
+                                searchMetrics,
+                                searchExecutors.getResponseExecutor());
+                    }
+                }
+
+                final Supplier<Store> storeSupplier = () -> sharedStores != null
+                        ? sharedStores.acquire(key.getSearchRequest(), cancellationToken)
+                        : storeFactory.create(key.getSearchRequest(), cancellationToken);
+                final Store store = admissionController != null
+                        ? admissionController.admit(
+                                key.getUserId(),
+                                storeFactory.withRequestContext(storeSupplier),
+                                cancellationToken)
+                        : storeSupplier.get();
+                if (dataSnapshots != null && !store.isRejected()) {
+                    dataSnapshots.saveOnCompletion(key.getSearchRequest(), key.getUserId(), store, cancellationToken);
+                }
+                return new SearchResponseCreator(store,
+                        cancellationToken,
+                        key.getUserId(),
+                        searchMetrics,
+                        searchExecutors.getResponseExecutor());
+            } catch (final RuntimeException e) {
+                cancellationTokens.remove(key, cancellationToken);
+                throw e;
+            }
         };
         return CacheLoader.from(loaderFunc::apply);
     }
 
+    /**
+     * The total estimated size in bytes of all cached searches, see {@link Store#getEstimatedSize()}. When the
+     * total goes over this limit, idle searches are destroyed heaviest first. The limit is checked each time the
+     * reaper runs, see {@link #getReaperInterval()}, so searches may go over it in between. Override to set a limit.
+     *
+     * @return The limit in bytes or 0 for no limit.
+     */
+    protected long getMaxMemoryBytes() {
+        return 0;
+    }
+
+    /**
+     * @return The time after which a search that no results have been requested from is destroyed or zero to keep
+     * idle searches until they are destroyed or evicted by other means.
+     */
+    protected Duration getMaxIdleTime() {
+        return Duration.ZERO;
+    }
+
+    /**
+     * @return How often expired and idle searches are evicted in the background or zero to only evict them when the
+     * cache is used or {@link SearchResponseCreatorCache#evictExpiredElements()} is called.
+     */
+    protected Duration getReaperInterval() {
+        return Duration.ZERO;
+    }
+
+    /**
+     * Searches with different query keys that would produce identical results can share a single store, see
+     * {@link SharedStores}. A search only joins a store created within this period. Only enable sharing if the
+     * store factory checks each user's access in {@link StoreFactory#checkAccess}.
+     *
+     * @return The maximum age of a store that new searches may share or zero to disable sharing.
+     */
+    protected Duration getMaxStoreShareAge() {
+        return Duration.ZERO;
+    }
+
+    /**
+     * Searches beyond this number wait for others to finish before they start, see
+     * {@link SearchAdmissionController}. Searches restored from snapshots are not limited.
+     *
+     * @return The maximum number of searches that can run at once or 0 for no limit.
+     */
+    protected int getMaxConcurrentSearches() {
+        return 0;
+    }
+
+    /**
+     * @return The maximum number of searches each user can run at once or 0 for no limit other than
+     * {@link #getMaxConcurrentSearches()}. Users are identified by {@link SearchResponseCreatorCache.Key#getUserId()}.
+     */
+    protected int getMaxConcurrentSearchesPerUser() {
+        return 0;
+    }
+
+    /**
+     * @return The maximum number of searches that can wait to start, further searches are rejected with an error.
+     */
+    protected int getMaxQueuedSearches() {
+        return 100;
+    }
+
+    /**
+     * @return The number of threads assembling responses for asynchronous requests and pushing them to subscribers.
+     * Responses are assembled on the requesting thread when these can't keep up.
+     */
+    protected int getResponseThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Completed searches can be written to this directory and restored from it when they are next requested, after
+     * a restart or after being evicted from memory, see {@link DataSnapshots}. The store factory must check each
+     * user's access to the snapshot's data source in {@link StoreFactory#checkAccess(stroom.docref.DocRef)} as
+     * restored searches are not run again. Pending snapshots are written when the cache is closed, see
+     * {@link SearchResponseCreatorCache#close()}.
+     *
+     * @return The directory to keep snapshots in or null to disable snapshots.
+     */
+    protected Path getSnapshotDirectory() {
+        return null;
+    }
+
+    /**
+     * @return The maximum total size in bytes of the snapshots on disk, the oldest are deleted first, or 0 for no
+     * limit.
+     */
+    protected long getMaxSnapshotBytes() {
+        return 0;
+    }
+
+    /**
+     * @return How long a snapshot can be restored for after it was written or zero to keep snapshots until the size
+     * limit is reached.
+     */
+    protected Duration getMaxSnapshotAge() {
+        return Duration.ofDays(1);
+    }
+
+    /**
+     * @return Where the cache and the searches it creates record their metrics, by default nothing is recorded.
+     */
+    protected SearchMetrics getSearchMetrics() {
+        return SearchMetrics.NO_OP;
+    }
+
     protected abstract void addAdditionalBuildOptions(
             final CacheBuilder<SearchResponseCreatorCache.Key, SearchResponseCreator> cacheBuilder);
     /**
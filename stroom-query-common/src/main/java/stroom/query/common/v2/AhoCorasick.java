@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * An Aho-Corasick automaton that finds out whether a string contains any of a set of literals in a single pass over
+ * the string, regardless of how many literals there are.
+ */
+class AhoCorasick {
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final Node root = new Node();
+
+    AhoCorasick(final Collection<String> literals) {
+        for (final String literal : literals) {
+            add(literal);
+        }
+        buildFailureLinks();
+    }
+
+    private void add(final String literal) {
+        Node node = root;
+        for (int i = 0; i < literal.length(); i++) {
+            node = node.getOrCreateChild(literal.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    private void buildFailureLinks() {
+        final Deque<Node> queue = new ArrayDeque<>();
+        root.failure = root;
+        for (final Node child : root.children) {
+            child.failure = root;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            final Node node = queue.poll();
+            for (int i = 0; i < node.chars.length; i++) {
+                final char c = node.chars[i];
+                final Node child = node.children[i];
+
+                Node failure = node.failure;
+                while (failure != root && failure.getChild(c) == null) {
+                    failure = failure.failure;
+                }
+                final Node target = failure.getChild(c);
+                child.failure = target != null && target != child ? target : root;
+
+                // A node matches if any suffix of the text that leads to it is a complete literal.
+                child.terminal = child.terminal || child.failure.terminal;
+                queue.add(child);
+            }
+        }
+    }
+
+    boolean containsAny(final String value) {
+        if (root.terminal) {
+            // The empty string is contained by everything.
+            return true;
+        }
+
+        Node node = root;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            Node next = node.getChild(c);
+            while (next == null && node != root) {
+                node = node.failure;
+                next = node.getChild(c);
+            }
+            node = next != null ? next : root;
+
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Node {
+        // Children are held in parallel arrays sorted by char so lookups are a binary search with no boxing.
+        private char[] chars = NO_CHARS;
+        private Node[] children = NO_NODES;
+        private Node failure;
+        private boolean terminal;
+
+        Node getChild(final char c) {
+            final int index = Arrays.binarySearch(chars, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrCreateChild(final char c) {
+            final int index = Arrays.binarySearch(chars, c);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            final int insertAt = -index - 1;
+            final Node child = new Node();
+
+            final char[] newChars = new char[chars.length + 1];
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newChars[insertAt] = c;
+            newChildren[insertAt] = child;
+            System.arraycopy(chars, insertAt, newChars, insertAt + 1, chars.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+
+            chars = newChars;
+            children = newChildren;
+            return child;
+        }
+    }
+}
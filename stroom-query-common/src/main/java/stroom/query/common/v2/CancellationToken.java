@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets work done for a search find out that the search has been destroyed or has timed out so it can stop as soon as
+ * possible rather than running to completion. Long running loops should check {@link #isCancelled()} and blocking
+ * work, e.g. a JDBC statement, can register an action with {@link #onCancel(Runnable)} to abort itself.
+ */
+public class CancellationToken {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CancellationToken.class);
+
+    /**
+     * A token that is never cancelled for work that isn't cancellable.
+     */
+    public static final CancellationToken NONE = new CancellationToken() {
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void onCancel(final Runnable action) {
+        }
+    };
+
+    private final List<Runnable> actions = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws CancellationException If this token has been cancelled.
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Search cancelled");
+        }
+    }
+
+    /**
+     * Cancel the work and run any registered actions. Subsequent calls do nothing.
+     */
+    public void cancel() {
+        final List<Runnable> toRun;
+        synchronized (actions) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(actions);
+            actions.clear();
+        }
+        toRun.forEach(CancellationToken::run);
+    }
+
+    /**
+     * Register an action to run when this token is cancelled. The action runs immediately if the token has already
+     * been cancelled.
+     */
+    public void onCancel(final Runnable action) {
+        synchronized (actions) {
+            if (!cancelled) {
+                actions.add(action);
+                return;
+            }
+        }
+        run(action);
+    }
+
+    private static void run(final Runnable action) {
+        try {
+            action.run();
+        } catch (final RuntimeException e) {
+            // One failing action mustn't stop the others from releasing their resources.
+            LOGGER.error("Error running cancel action: " + e.getMessage(), e);
+        }
+    }
+}
@@ -21,56 +21,65 @@ import stroom.query.api.v2.Filter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CompiledFilter {
-    private final List<Pattern> includes;
-    private final List<Pattern> excludes;
+    // Field values often repeat so remember the outcome for values we have already seen, up to a limit.
+    private static final int MAX_CACHED_MATCHES = 10000;
+    private static final int MAX_CACHED_VALUE_LENGTH = 256;
+
+    private final CompiledPatterns includes;
+    private final CompiledPatterns excludes;
+    private final Map<String, Boolean> matchCache = new ConcurrentHashMap<>();
 
     public CompiledFilter(final Filter filter, final Map<String, String> paramMap) {
-        includes = createPatternList(filter.getIncludes(), paramMap);
-        excludes = createPatternList(filter.getExcludes(), paramMap);
+        includes = createPatterns(filter.getIncludes(), paramMap);
+        excludes = createPatterns(filter.getExcludes(), paramMap);
     }
 
     public boolean match(final String value) {
         final String v = value == null ? "" : value;
+
+        final Boolean cached = matchCache.get(v);
+        if (cached != null) {
+            return cached;
+        }
+
+        final boolean match = doMatch(v);
+        if (v.length() <= MAX_CACHED_VALUE_LENGTH && matchCache.size() < MAX_CACHED_MATCHES) {
+            matchCache.put(v, match);
+        }
+        return match;
+    }
+
+    private boolean doMatch(final String value) {
         boolean match = true;
 
         if (includes != null) {
-            match = false;
-            for (final Pattern pattern : includes) {
-                if (pattern.matcher(v).find()) {
-                    match = true;
-                    break;
-                }
-            }
+            match = includes.find(value);
         }
         if (excludes != null && match) {
-            for (final Pattern pattern : excludes) {
-                if (pattern.matcher(v).find()) {
-                    match = false;
-                    break;
-                }
-            }
+            match = !excludes.find(value);
         }
         return match;
     }
 
-    private List<Pattern> createPatternList(final String patterns, final Map<String, String> paramMap) {
-        List<Pattern> patternList = null;
+    private CompiledPatterns createPatterns(final String patterns, final Map<String, String> paramMap) {
+        CompiledPatterns compiledPatterns = null;
         if (patterns != null && patterns.trim().length() > 0) {
             final String replaced = KVMapUtil.replaceParameters(patterns, paramMap);
             final String[] patternArray = replaced.split("\n");
-            patternList = new ArrayList<>(patternArray.length);
+            final List<String> patternList = new ArrayList<>(patternArray.length);
             for (final String pattern : patternArray) {
                 final String trimmed = pattern.trim();
                 if (trimmed.length() > 0) {
-                    patternList.add(Pattern.compile(trimmed));
+                    patternList.add(trimmed);
                 }
             }
+            compiledPatterns = new CompiledPatterns(patternList);
         }
 
-        return patternList;
+        return compiledPatterns;
     }
 
     @Override
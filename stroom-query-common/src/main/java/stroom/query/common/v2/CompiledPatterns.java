@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A set of filter patterns that matches a value if any one of the patterns can be found in it, with the same result
+ * as calling {@link java.util.regex.Matcher#find()} for each pattern in turn. Patterns that are plain literals,
+ * optionally anchored with '^' and/or '$', are recognised and matched without using regular expressions. All
+ * unanchored literals are combined into a single {@link AhoCorasick} automaton so they are found in one pass. Only
+ * genuine regular expressions fall back to {@link Pattern}.
+ */
+class CompiledPatterns {
+    private static final String META_CHARS = "\\.[]{}()*+?^$|";
+
+    private final List<String> patterns;
+    private final Set<String> exact = new HashSet<>();
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<String> suffixes = new ArrayList<>();
+    private final AhoCorasick contains;
+    private final List<Pattern> regexes = new ArrayList<>();
+
+    CompiledPatterns(final List<String> patterns) {
+        this.patterns = patterns;
+
+        final List<String> literals = new ArrayList<>();
+        for (final String pattern : patterns) {
+            if (!addLiteral(pattern, literals)) {
+                regexes.add(Pattern.compile(pattern));
+            }
+        }
+
+        contains = literals.isEmpty() ? null : new AhoCorasick(literals);
+    }
+
+    private boolean addLiteral(final String pattern, final List<String> literals) {
+        int start = 0;
+        int end = pattern.length();
+        final boolean anchoredStart = pattern.startsWith("^");
+        if (anchoredStart) {
+            start++;
+        }
+        boolean anchoredEnd = false;
+        if (end > start && pattern.charAt(end - 1) == '$' && !isEscaped(pattern, end - 1)) {
+            anchoredEnd = true;
+            end--;
+        }
+
+        final String literal = unescape(pattern, start, end);
+        if (literal == null) {
+            return false;
+        }
+
+        if (anchoredStart && anchoredEnd) {
+            exact.add(literal);
+        } else if (anchoredStart) {
+            prefixes.add(literal);
+        } else if (anchoredEnd) {
+            suffixes.add(literal);
+        } else {
+            literals.add(literal);
+        }
+        return true;
+    }
+
+    private static boolean isEscaped(final String pattern, final int index) {
+        int backslashes = 0;
+        for (int i = index - 1; i >= 0 && pattern.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /**
+     * @return The literal text the pattern region matches, or null if the region contains regex syntax other than
+     * escaped punctuation.
+     */
+    private static String unescape(final String pattern, final int start, final int end) {
+        final StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            final char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= end) {
+                    return null;
+                }
+                final char escaped = pattern.charAt(++i);
+                // Escaped letters and digits are character classes, back references etc. so are not literal.
+                if (Character.isLetterOrDigit(escaped)) {
+                    return null;
+                }
+                sb.append(escaped);
+            } else if (META_CHARS.indexOf(c) != -1) {
+                return null;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    boolean find(final String value) {
+        final String trimmed = withoutFinalLineTerminator(value);
+        if (!exact.isEmpty() && (exact.contains(value) || (trimmed != value && exact.contains(trimmed)))) {
+            return true;
+        }
+        for (final String prefix : prefixes) {
+            if (value.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (final String suffix : suffixes) {
+            if (value.endsWith(suffix) || (trimmed != value && trimmed.endsWith(suffix))) {
+                return true;
+            }
+        }
+        if (contains != null && contains.containsAny(value)) {
+            return true;
+        }
+        for (final Pattern regex : regexes) {
+            if (regex.matcher(value).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Without the MULTILINE flag '$' matches at the end of the input and also before a final line terminator so we
+     * need to allow for this when matching anchored literals.
+     */
+    private static String withoutFinalLineTerminator(final String value) {
+        final int length = value.length();
+        if (length == 0) {
+            return value;
+        }
+        final char last = value.charAt(length - 1);
+        if (last == '\n') {
+            if (length > 1 && value.charAt(length - 2) == '\r') {
+                return value.substring(0, length - 2);
+            }
+            return value.substring(0, length - 1);
+        }
+        if (last == '\r' || last == '\u0085' || last == '\u2028' || last == '\u2029') {
+            return value.substring(0, length - 1);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return patterns.toString();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides a completion future for stores that can't signal their own completion by checking them periodically. The
+ * checks are cheap so they are run by the JDK's shared delayed executor rather than threads of our own, which would
+ * have no owner to stop them as stores needn't belong to a cache. This is still far cheaper than parking a request
+ * thread per waiting client.
+ */
+final class CompletionPoller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompletionPoller.class);
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private static final Executor DELAYED = CompletableFuture.delayedExecutor(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+    private CompletionPoller() {
+        // Utility class.
+    }
+
+    static CompletableFuture<Void> poll(final Store store) {
+        if (store.isComplete()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        DELAYED.execute(() -> check(store, future));
+        return future;
+    }
+
+    private static void check(final Store store, final CompletableFuture<Void> future) {
+        try {
+            if (future.isDone() || store.isComplete()) {
+                future.complete(null);
+            } else {
+                // Only check again once this check has finished so a slow store isn't checked more than once at a time.
+                DELAYED.execute(() -> check(store, future));
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.error(e.getMessage(), e);
+            future.completeExceptionally(e);
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package stroom.query.common.v2;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -23,10 +24,28 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class CompletionState {
     private final AtomicBoolean complete = new AtomicBoolean();
     private final CountDownLatch countDownLatch = new CountDownLatch(1);
+    private final CompletableFuture<Void> completionFuture = new CompletableFuture<>();
 
     public void complete() {
         complete.set(true);
         countDownLatch.countDown();
+        completionFuture.complete(null);
+    }
+
+    /**
+     * @return A future that completes when this state is complete, so callers can react to completion without
+     * blocking a thread.
+     */
+    public CompletableFuture<Void> getCompletionFuture() {
+        // Return a copy so callers can't complete the state through the future.
+        return completionFuture.copy();
+    }
+
+    /**
+     * Call the listener when this state completes, or immediately if it already has.
+     */
+    public void addCompletionListener(final CompletionListener listener) {
+        completionFuture.thenRun(listener::onCompletion);
     }
 
     public boolean isComplete() {
@@ -19,10 +19,17 @@ package stroom.query.common.v2;
 import java.util.Map;
 
 public class Data {
+    // Rough per object costs used to estimate the memory held by stored items.
+    private static final long ITEM_BYTES = 96;
+    private static final long GENERATOR_BYTES = 48;
+
     private final Map<GroupKey, Items<Item>> childMap;
     private final long size;
     private final long totalSize;
 
+    // Data is never modified once created so the estimate is calculated once on demand.
+    private volatile long estimatedSize = -1;
+
     public Data(final Map<GroupKey, Items<Item>> childMap, final long size, final long totalSize) {
         this.childMap = childMap;
         this.size = size;
@@ -40,4 +47,35 @@ public class Data {
     public long getTotalSize() {
         return totalSize;
     }
+
+    /**
+     * @return The approximate number of bytes held by the items in this data.
+     */
+    public long getEstimatedSize() {
+        long estimate = estimatedSize;
+        if (estimate == -1) {
+            estimate = 0;
+            if (childMap != null) {
+                for (final Items<Item> items : childMap.values()) {
+                    for (final Item item : items) {
+                        estimate += estimateSize(item);
+                    }
+                }
+            }
+            estimatedSize = estimate;
+        }
+        return estimate;
+    }
+
+    /**
+     * @param item An item to estimate the size of.
+     * @return The approximate number of bytes held by the item, its key and its generators.
+     */
+    public static long estimateSize(final Item item) {
+        long estimate = ITEM_BYTES;
+        if (item.getGenerators() != null) {
+            estimate += item.getGenerators().length * GENERATOR_BYTES;
+        }
+        return estimate;
+    }
 }
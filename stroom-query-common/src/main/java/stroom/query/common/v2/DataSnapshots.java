@@ -0,0 +1,513 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stroom.dashboard.expression.v1.Generator;
+import stroom.dashboard.expression.v1.Val;
+import stroom.docref.DocRef;
+import stroom.query.api.v2.QueryKey;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.SearchRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps a copy of the results of completed searches on local disk so that they can be served again after a restart
+ * or after the search has been evicted from memory, rather than having to run the search again.
+ * <p>
+ * A snapshot holds the {@link Data} for each component of a search, including the aggregate state of each item, and
+ * is written with GZIP compressed Java serialisation, along with the data source that was searched so that access to
+ * a restored snapshot can be checked against it. Query keys are supplied by clients so each snapshot also records the
+ * user who owns the search and is only ever restored for, or deleted by, that user. Snapshots are removed when they expire, when the search is destroyed
+ * or, oldest first, when the total size of the snapshots goes over the limit.
+ * <p>
+ * Snapshots are written on a thread owned by each instance, {@link #close()} waits for pending writes and stops it.
+ */
+public class DataSnapshots {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataSnapshots.class);
+
+    private static final int VERSION = 3;
+    private static final String EXTENSION = ".snapshot";
+    private static final long CLOSE_TIMEOUT_MS = 30_000L;
+
+    private final Path directory;
+    private final long maxTotalBytes;
+    private final long maxAgeMs;
+    private final ThreadPoolExecutor writer;
+
+    /**
+     * @param directory     The directory to keep snapshots in, it is created if it doesn't exist.
+     * @param maxTotalBytes The maximum total size of the snapshots on disk or 0 for no limit.
+     * @param maxAge        How long a snapshot can be restored for after it was written.
+     */
+    public DataSnapshots(final Path directory, final long maxTotalBytes, final Duration maxAge) {
+        this.directory = directory;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMs = maxAge.toMillis();
+
+        try {
+            Files.createDirectories(directory);
+        } catch (final IOException e) {
+            throw new RuntimeException("Unable to create snapshot directory " + directory, e);
+        }
+
+        // A single thread so snapshots are written one at a time, it stops when there is nothing to write.
+        this.writer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "Search Snapshot Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer.allowCoreThreadTimeOut(true);
+
+        // Remove anything that expired while we were down.
+        writer.execute(this::enforceLimits);
+    }
+
+    /**
+     * Write a snapshot of the store once it completes, unless the search is cancelled first.
+     */
+    void saveOnCompletion(final SearchRequest searchRequest,
+                          final String userId,
+                          final Store store,
+                          final CancellationToken cancellationToken) {
+        store.getCompletionFuture().thenRun(() -> {
+            if (!cancellationToken.isCancelled()) {
+                try {
+                    writer.execute(() -> save(searchRequest, userId, store));
+                } catch (final RejectedExecutionException e) {
+                    LOGGER.debug("Not saving snapshot of {} as snapshots are closed", searchRequest.getKey());
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for the snapshots already pending to be written and stop the writer. Snapshots of searches that complete
+     * afterwards are not written.
+     */
+    void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Timed out waiting for {} search snapshots to be written", writer.getQueue().size());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write a snapshot of the data for each component of the search request.
+     *
+     * @param userId The user who owns the search, see {@link SearchResponseCreatorCache.Key#getUserId()}.
+     */
+    void save(final SearchRequest searchRequest, final String userId, final Store store) {
+        final QueryKey queryKey = searchRequest.getKey();
+        final Path file = getFile(queryKey, userId);
+        final Path tempFile = directory.resolve(file.getFileName() + ".tmp");
+
+        try {
+            try (final ObjectOutputStream output = new ObjectOutputStream(new GZIPOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tempFile))))) {
+                output.writeInt(VERSION);
+                output.writeUTF(queryKey.getUuid());
+                output.writeObject(userId);
+                writeDocRef(output, searchRequest.getQuery() != null ? searchRequest.getQuery().getDataSource() : null);
+                writeStrings(output, store.getErrors());
+                writeStrings(output, store.getHighlights());
+                writeSizes(output, store.getDefaultMaxResultsSizes());
+                writeSizes(output, store.getStoreSize());
+
+                final List<String> componentIds = searchRequest.getResultRequests().stream()
+                        .map(ResultRequest::getComponentId)
+                        .distinct()
+                        .collect(Collectors.toList());
+                output.writeInt(componentIds.size());
+                for (final String componentId : componentIds) {
+                    output.writeUTF(componentId);
+                    writeData(output, store.getData(componentId));
+                }
+            }
+
+            // Move into place so that a partially written snapshot is never restored.
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug("Saved snapshot of {} ({} bytes)", queryKey, Files.size(file));
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("Unable to save snapshot of {}: {}", queryKey, e.getMessage());
+            LOGGER.debug(e.getMessage(), e);
+            deleteFile(tempFile);
+        }
+
+        enforceLimits();
+    }
+
+    /**
+     * @param queryKey The key of the search to restore.
+     * @param userId   The user asking for the search, only a snapshot of a search they own is restored.
+     * @return A complete store holding the snapshot data if there is an unexpired snapshot of the user's search.
+     * Access to it must be checked against {@link SnapshotStore#getDataSource()} as the query key is supplied by the
+     * client.
+     */
+    Optional<SnapshotStore> restore(final QueryKey queryKey, final String userId) {
+        final Path file = getFile(queryKey, userId);
+        try {
+            if (!Files.isRegularFile(file)) {
+                return Optional.empty();
+            }
+            if (isExpired(file)) {
+                deleteFile(file);
+                return Optional.empty();
+            }
+
+            try (final ObjectInputStream input = new ObjectInputStream(new GZIPInputStream(
+                    new BufferedInputStream(Files.newInputStream(file))))) {
+                if (input.readInt() != VERSION || !queryKey.getUuid().equals(input.readUTF())) {
+                    deleteFile(file);
+                    return Optional.empty();
+                }
+                final String ownerId = (String) input.readObject();
+                if (!Objects.equals(userId, ownerId)) {
+                    LOGGER.warn("Not restoring snapshot of {} for user {} as it is owned by another user",
+                            queryKey,
+                            userId);
+                    return Optional.empty();
+                }
+
+                final DocRef dataSource = readDocRef(input);
+                final List<String> errors = readStrings(input);
+                final List<String> highlights = readStrings(input);
+                final Sizes defaultMaxResultsSizes = readSizes(input);
+                final Sizes storeSize = readSizes(input);
+
+                final int componentCount = input.readInt();
+                final Map<String, Data> dataMap = new ConcurrentHashMap<>();
+                for (int i = 0; i < componentCount; i++) {
+                    final String componentId = input.readUTF();
+                    final Data data = readData(input);
+                    if (data != null) {
+                        dataMap.put(componentId, data);
+                    }
+                }
+
+                LOGGER.debug("Restored snapshot of {}", queryKey);
+                return Optional.of(new SnapshotStore(dataSource,
+                        dataMap,
+                        errors,
+                        highlights,
+                        defaultMaxResultsSizes,
+                        storeSize));
+            }
+        } catch (final IOException | ClassNotFoundException | RuntimeException e) {
+            // The snapshot is unreadable, perhaps it was written by a different version, so just run the search.
+            LOGGER.warn("Unable to restore snapshot of {}: {}", queryKey, e.getMessage());
+            LOGGER.debug(e.getMessage(), e);
+            deleteFile(file);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Delete the snapshot of a user's search, if there is one.
+     */
+    void delete(final QueryKey queryKey, final String userId) {
+        deleteFile(getFile(queryKey, userId));
+    }
+
+    private synchronized void enforceLimits() {
+        final List<Path> files;
+        try (final Stream<Path> stream = Files.list(directory)) {
+            files = stream
+                    .filter(path -> path.getFileName().toString().endsWith(EXTENSION))
+                    .collect(Collectors.toList());
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to list snapshots in {}: {}", directory, e.getMessage());
+            return;
+        }
+
+        final List<Snapshot> snapshots = new ArrayList<>();
+        long totalBytes = 0;
+        for (final Path file : files) {
+            try {
+                if (isExpired(file)) {
+                    deleteFile(file);
+                } else {
+                    final Snapshot snapshot = new Snapshot(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+                    snapshots.add(snapshot);
+                    totalBytes += snapshot.size;
+                }
+            } catch (final IOException e) {
+                // The file has probably been deleted since we listed it.
+                LOGGER.debug(e.getMessage(), e);
+            }
+        }
+
+        if (maxTotalBytes > 0 && totalBytes > maxTotalBytes) {
+            snapshots.sort(Comparator.comparingLong(snapshot -> snapshot.lastModified));
+            for (final Snapshot snapshot : snapshots) {
+                if (totalBytes <= maxTotalBytes) {
+                    break;
+                }
+                deleteFile(snapshot.file);
+                totalBytes -= snapshot.size;
+            }
+        }
+    }
+
+    private boolean isExpired(final Path file) throws IOException {
+        return maxAgeMs > 0 && System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() > maxAgeMs;
+    }
+
+    private Path getFile(final QueryKey queryKey, final String userId) {
+        // Query keys are supplied by clients so don't use them directly as file names. The owner is part of the name
+        // so that another user reusing the query key can't replace or delete the owner's snapshot.
+        final String id = queryKey.getUuid() + "/" + (userId == null ? "" : userId);
+        final UUID name = UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(name + EXTENSION);
+    }
+
+    private static void deleteFile(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to delete snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static void writeDocRef(final ObjectOutputStream output, final DocRef docRef) throws IOException {
+        output.writeBoolean(docRef != null);
+        if (docRef != null) {
+            output.writeObject(docRef.getType());
+            output.writeObject(docRef.getUuid());
+            output.writeObject(docRef.getName());
+        }
+    }
+
+    private static DocRef readDocRef(final ObjectInputStream input) throws IOException, ClassNotFoundException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        return new DocRef((String) input.readObject(), (String) input.readObject(), (String) input.readObject());
+    }
+
+    private static void writeStrings(final ObjectOutputStream output, final List<String> strings) throws IOException {
+        output.writeObject(strings == null ? null : new ArrayList<>(strings));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> readStrings(final ObjectInputStream input) throws IOException, ClassNotFoundException {
+        return (List<String>) input.readObject();
+    }
+
+    private static void writeSizes(final ObjectOutputStream output, final Sizes sizes) throws IOException {
+        output.writeBoolean(sizes != null);
+        if (sizes != null) {
+            sizes.write(output);
+        }
+    }
+
+    private static Sizes readSizes(final ObjectInputStream input) throws IOException {
+        return input.readBoolean() ? Sizes.read(input) : null;
+    }
+
+    private static void writeData(final ObjectOutputStream output, final Data data) throws IOException {
+        if (data == null || data.getChildMap() == null) {
+            output.writeBoolean(false);
+            return;
+        }
+        output.writeBoolean(true);
+        output.writeLong(data.getSize());
+        output.writeLong(data.getTotalSize());
+        output.writeInt(data.getChildMap().size());
+        for (final Map.Entry<GroupKey, Items<Item>> entry : data.getChildMap().entrySet()) {
+            writeKey(output, entry.getKey());
+            output.writeInt(entry.getValue().size());
+            for (final Item item : entry.getValue()) {
+                writeKey(output, item.getKey());
+                output.writeInt(item.getDepth());
+                output.writeObject(item.getGenerators());
+            }
+        }
+    }
+
+    private static Data readData(final ObjectInputStream input) throws IOException, ClassNotFoundException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        final long size = input.readLong();
+        final long totalSize = input.readLong();
+        final int groupCount = input.readInt();
+        final Map<GroupKey, Items<Item>> childMap = new HashMap<>();
+        for (int i = 0; i < groupCount; i++) {
+            final GroupKey groupKey = readKey(input);
+            final int itemCount = input.readInt();
+            final Items<Item> items = new ItemsArrayList<>();
+            for (int j = 0; j < itemCount; j++) {
+                final GroupKey key = readKey(input);
+                final int depth = input.readInt();
+                items.add(new Item(key, (Generator[]) input.readObject(), depth));
+            }
+            childMap.put(groupKey, items);
+        }
+        return new Data(childMap, size, totalSize);
+    }
+
+    private static void writeKey(final ObjectOutputStream output, final GroupKey key) throws IOException {
+        if (key == null) {
+            output.writeBoolean(false);
+            return;
+        }
+        output.writeBoolean(true);
+        writeKey(output, key.getParent());
+        output.writeObject(key.getValues() == null ? null : new ArrayList<>(key.getValues()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static GroupKey readKey(final ObjectInputStream input) throws IOException, ClassNotFoundException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        final GroupKey parent = readKey(input);
+        return new GroupKey(parent, (List<Val>) input.readObject());
+    }
+
+    private static class Snapshot {
+        private final Path file;
+        private final long size;
+        private final long lastModified;
+
+        Snapshot(final Path file, final long size, final long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * A complete store serving the data restored from a snapshot.
+     */
+    static class SnapshotStore implements Store {
+        private final DocRef dataSource;
+        private final Map<String, Data> dataMap;
+        private final List<String> errors;
+        private final List<String> highlights;
+        private final Sizes defaultMaxResultsSizes;
+        private final Sizes storeSize;
+
+        SnapshotStore(final DocRef dataSource,
+                      final Map<String, Data> dataMap,
+                      final List<String> errors,
+                      final List<String> highlights,
+                      final Sizes defaultMaxResultsSizes,
+                      final Sizes storeSize) {
+            this.dataSource = dataSource;
+            this.dataMap = dataMap;
+            this.errors = errors;
+            this.highlights = highlights;
+            this.defaultMaxResultsSizes = defaultMaxResultsSizes;
+            this.storeSize = storeSize;
+        }
+
+        /**
+         * @return The data source searched to produce the snapshot, or null if the search request didn't have one.
+         */
+        DocRef getDataSource() {
+            return dataSource;
+        }
+
+        @Override
+        public void destroy() {
+            dataMap.clear();
+        }
+
+        @Override
+        public boolean isComplete() {
+            return true;
+        }
+
+        @Override
+        public void awaitCompletion() {
+        }
+
+        @Override
+        public boolean awaitCompletion(final long timeout, final TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public Data getData(final String componentId) {
+            return dataMap.get(componentId);
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            long estimate = 0;
+            for (final Data data : dataMap.values()) {
+                estimate += data.getEstimatedSize();
+            }
+            return estimate;
+        }
+
+        @Override
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        @Override
+        public List<String> getHighlights() {
+            return highlights;
+        }
+
+        @Override
+        public Sizes getDefaultMaxResultsSizes() {
+            return defaultMaxResultsSizes;
+        }
+
+        @Override
+        public Sizes getStoreSize() {
+            return storeSize;
+        }
+    }
+}
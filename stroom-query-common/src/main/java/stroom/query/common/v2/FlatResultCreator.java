@@ -30,6 +30,7 @@ import stroom.query.api.v2.Result;
 import stroom.query.api.v2.ResultRequest;
 import stroom.query.api.v2.TableSettings;
 import stroom.query.common.v2.format.FieldFormatter;
+import stroom.query.common.v2.format.Formatter;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -45,6 +46,7 @@ public class FlatResultCreator implements ResultCreator {
     private final FieldFormatter fieldFormatter;
     private final List<Mapper> mappers;
     private final List<Field> fields;
+    private final Formatter[] formatters;
 
     private String error;
 
@@ -76,6 +78,10 @@ public class FlatResultCreator implements ResultCreator {
         final TableSettings child = tableSettings.get(tableSettings.size() - 1);
 
         fields = child.getFields();
+        // Resolve each field's formatter once rather than for every value.
+        formatters = (fieldFormatter != null)
+                ? fields.stream().map(fieldFormatter::getFormatter).toArray(Formatter[]::new)
+                : null;
     }
 
     private List<Object> toNodeKey(final Map<Integer, List<Field>> groupFields, final GroupKey key) {
@@ -126,7 +132,8 @@ public class FlatResultCreator implements ResultCreator {
     public Result create(final Data data, final ResultRequest resultRequest) {
         if (error == null) {
             try {
-                // Map data.
+                // Map data. Each mapper will reuse its previous output if its input hasn't changed since the last
+                // request, so unchanged stages of the chain are not re-aggregated.
                 Data mappedData = data;
                 for (final Mapper mapper : mappers) {
                     mappedData = mapper.map(mappedData);
@@ -224,7 +231,7 @@ public class FlatResultCreator implements ResultCreator {
                             final Val val = generator.eval();
                             if (val != null) {
                                 if (fieldFormatter != null) {
-                                    value = fieldFormatter.format(field, val);
+                                    value = fieldFormatter.formatWith(formatters[i], val);
                                 } else {
                                     value = convert(field, val);
                                 }
@@ -313,6 +320,11 @@ public class FlatResultCreator implements ResultCreator {
         private final TablePayloadHandler tablePayloadHandler;
         private final int maxItems;
 
+        // Data is replaced rather than modified whenever new results are merged, so if we are asked to map the same
+        // parent data instance again the previous mapping still holds and we can avoid re-aggregating it.
+        private Data lastParentData;
+        private Data lastMappedData;
+
         Mapper(final TableSettings parent,
                final TableSettings child,
                final Map<String, String> paramMap,
@@ -339,7 +351,18 @@ public class FlatResultCreator implements ResultCreator {
             tablePayloadHandler = new TablePayloadHandler(child.getFields(), true, maxResults, null);
         }
 
-        public Data map(final Data data) {
+        public synchronized Data map(final Data data) {
+            if (data == lastParentData && lastMappedData != null) {
+                return lastMappedData;
+            }
+
+            final Data mappedData = doMap(data);
+            lastParentData = data;
+            lastMappedData = mappedData;
+            return mappedData;
+        }
+
+        private Data doMap(final Data data) {
             // Create a new table coprocessor to receive data.
             final TableCoprocessor tableCoprocessor = new TableCoprocessor(new UnsafePairQueue<>(), compiledFields, compiledDepths);
 
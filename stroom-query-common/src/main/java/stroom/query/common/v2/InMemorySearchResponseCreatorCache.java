@@ -4,30 +4,181 @@ import com.google.common.cache.LoadingCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
 class InMemorySearchResponseCreatorCache implements SearchResponseCreatorCache {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(InMemorySearchResponseCreatorCache.class);
 
     private final LoadingCache<Key, SearchResponseCreator> cache;
+    private final Map<Key, CancellationToken> cancellationTokens;
+    private final long maxMemoryBytes;
+    private final long maxIdleMs;
+    private final DataSnapshots dataSnapshots;
+    private final SearchExecutors searchExecutors;
+    private final SearchMetrics.Meter memoryEvictions;
+    private final SearchMetrics.Meter idleEvictions;
+    private final SearchMetrics.Histogram reclaimedBytes;
 
     InMemorySearchResponseCreatorCache(final LoadingCache<Key, SearchResponseCreator> cache) {
+        this(cache, new ConcurrentHashMap<>(), 0, 0, null, null, SearchMetrics.NO_OP);
+    }
+
+    /**
+     * @param cancellationTokens The cancellation token of each search, including searches still being loaded.
+     * @param maxMemoryBytes The total estimated size in bytes of all cached searches above which idle searches are
+     *                       evicted, heaviest first. A value of 0 or less means no limit.
+     * @param maxIdleMs      The time in milliseconds after which a search that hasn't been used is evicted. A value of
+     *                       0 or less means searches are never evicted for being idle.
+     * @param dataSnapshots  The snapshots of completed searches, or null if snapshots are disabled. The snapshot of a
+     *                       search is deleted when the search is removed.
+     * @param searchExecutors The threads used by the searches, or null if they don't need any. They are stopped when
+     *                        the cache is closed.
+     * @param searchMetrics  Records cache use and evictions. Hits and misses are read from the cache's statistics so
+     *                       are only recorded if the cache was built with {@link com.google.common.cache.CacheBuilder#recordStats()}.
+     */
+    InMemorySearchResponseCreatorCache(final LoadingCache<Key, SearchResponseCreator> cache,
+                                       final Map<Key, CancellationToken> cancellationTokens,
+                                       final long maxMemoryBytes,
+                                       final long maxIdleMs,
+                                       final DataSnapshots dataSnapshots,
+                                       final SearchExecutors searchExecutors,
+                                       final SearchMetrics searchMetrics) {
         this.cache = cache;
+        this.cancellationTokens = cancellationTokens;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxIdleMs = maxIdleMs;
+        this.dataSnapshots = dataSnapshots;
+        this.searchExecutors = searchExecutors;
+
+        searchMetrics.gauge(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "hits", () -> cache.stats().hitCount());
+        searchMetrics.gauge(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "misses", () -> cache.stats().missCount());
+        this.memoryEvictions = searchMetrics.meter(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "memoryEvictions");
+        this.idleEvictions = searchMetrics.meter(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "idleEvictions");
+        this.reclaimedBytes = searchMetrics.histogram(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "reclaimedBytes");
+        searchMetrics.gauge(SearchMetrics.SEARCH_RESPONSE_CREATOR_CACHE, "size", cache::size);
     }
 
     @Override
     public SearchResponseCreator get(final SearchResponseCreatorCache.Key key) {
-        return cache.getUnchecked(key);
+        final SearchResponseCreator searchResponseCreator = cache.getUnchecked(key);
+        if (searchResponseCreator.isRejected()) {
+            // Don't keep a rejected search so that asking for it again tries to start it again. The caller can still
+            // create the error response from it.
+            cache.asMap().remove(key, searchResponseCreator);
+        }
+        return searchResponseCreator;
+    }
+
+    @Override
+    public Optional<SearchResponseCreator> getIfPresent(final SearchResponseCreatorCache.Key key) {
+        return Optional.ofNullable(cache.getIfPresent(key));
     }
 
     @Override
     public void remove(final SearchResponseCreatorCache.Key key) {
+        // Cancel first so that a search whose store is still being loaded stops too.
+        final CancellationToken cancellationToken = cancellationTokens.remove(key);
+        if (cancellationToken != null) {
+            cancellationToken.cancel();
+        }
         cache.invalidate(key);
         cache.cleanUp();
+
+        // The search isn't wanted any more so don't restore it later.
+        if (dataSnapshots != null) {
+            dataSnapshots.delete(key.getQueryKey(), key.getUserId());
+        }
     }
 
     @Override
     public void evictExpiredElements() {
         cache.cleanUp();
+        evictIdle();
+        enforceMemoryLimit();
+    }
+
+    /**
+     * Evict searches that nobody has requested results from for longer than the max idle time, e.g. because the user
+     * closed their browser without destroying the search. Removal destroys the search, stopping any work that is still
+     * running for it.
+     */
+    void evictIdle() {
+        if (maxIdleMs <= 0) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        int evicted = 0;
+        long reclaimed = 0;
+        for (final Map.Entry<Key, SearchResponseCreator> entry : cache.asMap().entrySet()) {
+            final SearchResponseCreator searchResponseCreator = entry.getValue();
+            if (searchResponseCreator.isIdle() && now - searchResponseCreator.getLastAccessTime() > maxIdleMs) {
+                final long size = searchResponseCreator.getEstimatedSize();
+                LOGGER.debug("Evicting {} as it has been idle for {}ms", entry.getKey(),
+                        now - searchResponseCreator.getLastAccessTime());
+                cache.invalidate(entry.getKey());
+                idleEvictions.mark();
+                evicted++;
+                reclaimed += size;
+            }
+        }
+
+        if (evicted > 0) {
+            reclaimedBytes.update(reclaimed);
+            LOGGER.info("Evicted {} idle searches reclaiming an estimated {} bytes", evicted, reclaimed);
+        }
+    }
+
+    /**
+     * Stores grow as searches progress so their weight can't be fixed when they are added to the cache. Instead the
+     * current estimates are summed each time expired elements are evicted, normally by the reaper, and if the total
+     * is over the limit idle searches are removed heaviest first until it isn't. Removal destroys the search via the
+     * cache's removal listener.
+     */
+    private void enforceMemoryLimit() {
+        if (maxMemoryBytes <= 0) {
+            return;
+        }
+
+        synchronized (this) {
+            removeHeaviestIdle();
+        }
+    }
+
+    private void removeHeaviestIdle() {
+        final List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        for (final Map.Entry<Key, SearchResponseCreator> entry : cache.asMap().entrySet()) {
+            final long size = entry.getValue().getEstimatedSize();
+            total += size;
+            if (entry.getValue().isIdle()) {
+                entries.add(new Entry(entry.getKey(), size));
+            }
+        }
+
+        if (total > maxMemoryBytes) {
+            entries.sort(Comparator.comparingLong(Entry::getSize).reversed());
+            for (final Entry entry : entries) {
+                if (total <= maxMemoryBytes) {
+                    break;
+                }
+                LOGGER.debug("Evicting {} with estimated size {} as cache size {} exceeds limit {}",
+                        entry.getKey(), entry.getSize(), total, maxMemoryBytes);
+                cache.invalidate(entry.getKey());
+                memoryEvictions.mark();
+                total -= entry.getSize();
+            }
+
+            if (total > maxMemoryBytes) {
+                LOGGER.warn("Estimated size of active searches {} exceeds limit {}", total, maxMemoryBytes);
+            }
+        }
     }
 
     @Override
@@ -41,4 +192,35 @@ class InMemorySearchResponseCreatorCache implements SearchResponseCreatorCache {
             LOGGER.error("Error clearing cache: " + e.getMessage(), e);
         }
     }
+
+    @Override
+    public void close() {
+        // Write the snapshots of searches that have completed before the searches are destroyed.
+        if (dataSnapshots != null) {
+            dataSnapshots.close();
+        }
+        clear();
+        // The searches are destroyed so nothing more will be given to their threads.
+        if (searchExecutors != null) {
+            searchExecutors.close();
+        }
+    }
+
+    private static class Entry {
+        private final Key key;
+        private final long size;
+
+        Entry(final Key key, final long size) {
+            this.key = key;
+            this.size = size;
+        }
+
+        Key getKey() {
+            return key;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
 }
@@ -23,6 +23,7 @@ import stroom.mapreduce.v2.MapperBase;
 import stroom.mapreduce.v2.OutputCollector;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class ItemMapper extends MapperBase<GroupKey, Val[], GroupKey, Item> {
@@ -31,24 +32,57 @@ public class ItemMapper extends MapperBase<GroupKey, Val[], GroupKey, Item> {
     private final CompiledFields fields;
     private final int maxDepth;
     private final int maxGroupDepth;
+    private final OutputCollector<GroupKey, Item> outputCollector;
+    private final int[] sharedIndexes;
+    private final boolean[] aggregates;
 
     public ItemMapper(final OutputCollector<GroupKey, Item> outputCollector,
                       final CompiledFields fields,
                       final int maxDepth,
                       final int maxGroupDepth) {
+        this(outputCollector, fields, maxDepth, maxGroupDepth, null);
+    }
+
+    /**
+     * @param sharedIndexes The index of each field's generator in the shared generators passed to
+     *                      {@link #collectShared(Val[], Generator[])} or -1 if the field's generator must be created
+     *                      here. See {@link SharedExpressions#getIndexes(CompiledFields)}.
+     */
+    public ItemMapper(final OutputCollector<GroupKey, Item> outputCollector,
+                      final CompiledFields fields,
+                      final int maxDepth,
+                      final int maxGroupDepth,
+                      final int[] sharedIndexes) {
         super(outputCollector);
+        this.outputCollector = outputCollector;
         this.fields = fields;
         this.maxDepth = maxDepth;
         this.maxGroupDepth = maxGroupDepth;
+        this.sharedIndexes = sharedIndexes;
+
+        aggregates = new boolean[fields.size()];
+        int pos = 0;
+        for (final CompiledField compiledField : fields) {
+            final Expression expression = compiledField.getExpression();
+            aggregates[pos++] = expression != null && expression.hasAggregate();
+        }
     }
 
     @Override
     public void map(final GroupKey key, final Val[] values, final OutputCollector<GroupKey, Item> output) {
         // Add the item to the output recursively up to the max depth.
-        addItem(values, null, PARENT_GENERATORS, 0, maxDepth, maxGroupDepth, output);
+        addItem(values, new Row(values, null), null, PARENT_GENERATORS, 0, maxDepth, maxGroupDepth, output);
     }
 
-    private void addItem(final Val[] values, final GroupKey parentKey, final Generator[] parentGenerators,
+    /**
+     * Map a row using generators that have already been created by {@link SharedExpressions}.
+     */
+    public void collectShared(final Val[] values, final Generator[] sharedGenerators) {
+        addItem(values, new Row(values, sharedGenerators), null, PARENT_GENERATORS, 0, maxDepth, maxGroupDepth,
+                outputCollector);
+    }
+
+    private void addItem(final Val[] values, final Row row, final GroupKey parentKey, final Generator[] parentGenerators,
                          final int depth, final int maxDepth, final int maxGroupDepth, final OutputCollector<GroupKey, Item> output) {
         // Process list into fields.
         final Generator[] generators = new Generator[fields.size()];
@@ -60,8 +94,15 @@ public class ItemMapper extends MapperBase<GroupKey, Val[], GroupKey, Item> {
 
             final Expression expression = compiledField.getExpression();
             if (expression != null) {
-                final Generator generator = expression.createGenerator();
-                generator.set(values);
+                // Aggregates accumulate into the generator of each item so need a new one at every depth, others
+                // only depend on the row so one generator is used at every depth.
+                final Generator generator;
+                if (aggregates[pos]) {
+                    generator = expression.createGenerator();
+                    generator.set(values);
+                } else {
+                    generator = row.getGenerator(pos, expression);
+                }
 
                 // Only output a value if we are at the group depth or greater
                 // for this field, or have a function.
@@ -70,7 +111,7 @@ public class ItemMapper extends MapperBase<GroupKey, Val[], GroupKey, Item> {
                     // We always want to output fields that have an aggregate
                     // function or fields that are grouped at the current depth
                     // or above.
-                    if (expression.hasAggregate()
+                    if (aggregates[pos]
                             || (compiledField.getGroupDepth() >= 0 && compiledField.getGroupDepth() <= depth)) {
                         // This field is grouped so output.
                         generators[pos] = generator;
@@ -83,7 +124,7 @@ public class ItemMapper extends MapperBase<GroupKey, Val[], GroupKey, Item> {
                 if (compiledField.getCompiledFilter() != null || compiledField.getGroupDepth() == depth) {
                     // If we are filtering then we need to evaluate this field
                     // now so that we can filter the resultant value.
-                    value = generator.eval();
+                    value = aggregates[pos] ? generator.eval() : row.getValue(pos);
 
                     if (compiledField.getCompiledFilter() != null && value != null && !compiledField.getCompiledFilter().match(value.toString())) {
                         // We want to exclude this item.
@@ -123,7 +164,49 @@ public class ItemMapper extends MapperBase<GroupKey, Val[], GroupKey, Item> {
 
         // If we haven't reached the max depth then recurse.
         if (depth < maxDepth) {
-            addItem(values, key, generators, depth + 1, maxDepth, maxGroupDepth, output);
+            addItem(values, row, key, generators, depth + 1, maxDepth, maxGroupDepth, output);
+        }
+    }
+
+    /**
+     * The generators, and their values, of the fields without aggregates for the row being mapped. They are created
+     * when first needed and then used by the items at every depth.
+     */
+    private final class Row {
+        private final Val[] values;
+        private final Generator[] sharedGenerators;
+        private final Generator[] generators;
+        private final Val[] evaluated;
+        private final boolean[] isEvaluated;
+
+        private Row(final Val[] values, final Generator[] sharedGenerators) {
+            this.values = values;
+            this.sharedGenerators = sharedGenerators;
+            this.generators = new Generator[aggregates.length];
+            this.evaluated = new Val[aggregates.length];
+            this.isEvaluated = new boolean[aggregates.length];
+        }
+
+        private Generator getGenerator(final int pos, final Expression expression) {
+            Generator generator = generators[pos];
+            if (generator == null) {
+                if (sharedGenerators != null && sharedIndexes != null && sharedIndexes[pos] != -1) {
+                    generator = sharedGenerators[sharedIndexes[pos]];
+                } else {
+                    generator = expression.createGenerator();
+                    generator.set(values);
+                }
+                generators[pos] = generator;
+            }
+            return generator;
+        }
+
+        private Val getValue(final int pos) {
+            if (!isEvaluated[pos]) {
+                evaluated[pos] = generators[pos].eval();
+                isEvaluated[pos] = true;
+            }
+            return evaluated[pos];
         }
     }
 
@@ -133,6 +216,7 @@ public class ItemMapper extends MapperBase<GroupKey, Val[], GroupKey, Item> {
                 "fields=" + fields +
                 ", maxDepth=" + maxDepth +
                 ", maxGroupDepth=" + maxGroupDepth +
+                ", sharedIndexes=" + Arrays.toString(sharedIndexes) +
                 '}';
     }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges the results received by {@link TablePayloadHandler}s on a bounded pool of worker threads shared by all
+ * searches, rather than on whichever producer thread happens to deliver a payload, so producers can get on with
+ * producing more results.
+ * <p>
+ * Work is ordered by a virtual deadline: the time it was scheduled plus a delay that grows with the cost of the merge,
+ * i.e. the number of rows waiting to be merged and the number of items already in the store, and which is greater for
+ * searches that nobody is waiting on interactively. Small interactive merges therefore go first while merges for large
+ * batch searches still run once their deadline comes round.
+ * <p>
+ * The scheduler owns its threads, {@link #close()} stops them. Merges scheduled after that run on the producer's
+ * thread.
+ */
+public class MergeScheduler implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MergeScheduler.class);
+
+    // Searches nobody is waiting on give way to interactive searches for this long.
+    private static final long BATCH_DELAY_NS = 200_000_000L;
+    // Each row to merge or already in the store delays the merge by this much, up to the maximum.
+    private static final long DELAY_PER_ROW_NS = 1_000L;
+    private static final long MAX_COST_DELAY_NS = 5_000_000_000L;
+    private static final long CLOSE_TIMEOUT_MS = 30_000L;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final SearchMetrics.Timer waitTime;
+
+    /**
+     * @param threads       The number of worker threads merging results.
+     * @param searchMetrics Records how long merges wait to run and how many are waiting.
+     */
+    public MergeScheduler(final int threads, final SearchMetrics searchMetrics) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("At least one merge thread is required");
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads,
+                threads,
+                1,
+                TimeUnit.MINUTES,
+                new PriorityBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "Merge Scheduler #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        this.waitTime = searchMetrics.timer(SearchMetrics.MERGE_SCHEDULER, "waitTime");
+        searchMetrics.gauge(SearchMetrics.MERGE_SCHEDULER, "queued", () -> executor.getQueue().size());
+    }
+
+    /**
+     * Schedule a merge of the handler's pending results. Each handler only has one merge scheduled at a time, which
+     * merges everything pending when it runs.
+     */
+    void schedule(final TablePayloadHandler handler) {
+        if (handler.markScheduled()) {
+            final long now = System.nanoTime();
+            long delay = Math.min(MAX_COST_DELAY_NS, handler.getMergeCost() * DELAY_PER_ROW_NS);
+            if (!handler.isInteractive()) {
+                delay += BATCH_DELAY_NS;
+            }
+
+            try {
+                // Tasks are executed rather than submitted so the queue orders them rather than futures wrapping them.
+                executor.execute(new Task(handler, now, now + delay, sequence.incrementAndGet()));
+            } catch (final RejectedExecutionException e) {
+                LOGGER.debug("Merging on the producer's thread as the merge scheduler is closed");
+                handler.runScheduledMerge();
+            }
+        }
+    }
+
+    /**
+     * Wait for the merges already scheduled to run and stop the worker threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Timed out waiting for {} merges to run", executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        private final TablePayloadHandler handler;
+        private final long scheduledTime;
+        private final long deadline;
+        private final long sequence;
+
+        Task(final TablePayloadHandler handler, final long scheduledTime, final long deadline, final long sequence) {
+            this.handler = handler;
+            this.scheduledTime = scheduledTime;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            waitTime.update(System.nanoTime() - scheduledTime);
+            try {
+                handler.runScheduledMerge();
+            } catch (final RuntimeException e) {
+                // The handler has already logged it, keep the worker going for other searches.
+                LOGGER.debug(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public int compareTo(final Task other) {
+            // Compare the difference as nano times can overflow.
+            final long diff = deadline - other.deadline;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
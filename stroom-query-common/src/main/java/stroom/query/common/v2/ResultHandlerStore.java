@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A complete store holding the data merged by a {@link ResultHandler}, for producers that have handled all of their
+ * results before the store is created.
+ */
+public class ResultHandlerStore implements Store {
+    private final Map<String, Data> dataMap = new ConcurrentHashMap<>();
+    private final Sizes defaultMaxResultsSizes;
+    private final Sizes storeSize;
+
+    /**
+     * @param resultHandler The handler that has been given all of the results and has no pending work, see
+     *                      {@link ResultHandler#waitForPendingWork()}.
+     * @param componentIds  The components to keep the data of.
+     */
+    public ResultHandlerStore(final ResultHandler resultHandler,
+                              final Collection<String> componentIds,
+                              final Sizes defaultMaxResultsSizes,
+                              final Sizes storeSize) {
+        for (final String componentId : componentIds) {
+            final Data data = resultHandler.getResultStore(componentId);
+            if (data != null) {
+                dataMap.put(componentId, data);
+            }
+        }
+        this.defaultMaxResultsSizes = defaultMaxResultsSizes;
+        this.storeSize = storeSize;
+    }
+
+    @Override
+    public void destroy() {
+        dataMap.clear();
+    }
+
+    @Override
+    public boolean isComplete() {
+        return true;
+    }
+
+    @Override
+    public void awaitCompletion() {
+    }
+
+    @Override
+    public boolean awaitCompletion(final long timeout, final TimeUnit unit) {
+        return true;
+    }
+
+    @Override
+    public Data getData(final String componentId) {
+        return dataMap.get(componentId);
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        long estimate = 0;
+        for (final Data data : dataMap.values()) {
+            estimate += data.getEstimatedSize();
+        }
+        return estimate;
+    }
+
+    @Override
+    public List<String> getErrors() {
+        return null;
+    }
+
+    @Override
+    public List<String> getHighlights() {
+        return null;
+    }
+
+    @Override
+    public Sizes getDefaultMaxResultsSizes() {
+        return defaultMaxResultsSizes;
+    }
+
+    @Override
+    public Sizes getStoreSize() {
+        return storeSize;
+    }
+}
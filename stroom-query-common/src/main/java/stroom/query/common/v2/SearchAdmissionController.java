@@ -0,0 +1,453 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of searches that can run at once, both in total and for each user. Searches that can't start
+ * straight away wait in a bounded queue and report themselves as queued, see {@link Store#isQueued()}. When a search
+ * finishes, queued searches are started taking each user in turn so that one user with many searches queued can't
+ * hold up everyone else.
+ * <p>
+ * A search holds its place until its store completes or the search is destroyed. A search that is rejected because
+ * the queue is full reports itself as rejected, see {@link Store#isRejected()}, and a search that is destroyed while
+ * queued completes its completion future exceptionally.
+ */
+public class SearchAdmissionController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchAdmissionController.class);
+
+    private static final String UNKNOWN_USER = "";
+
+    private final int maxConcurrent;
+    private final int maxConcurrentPerUser;
+    private final int maxQueued;
+    private final Executor executor;
+
+    // Guarded by this.
+    private int running;
+    private int queued;
+    private final Map<String, Integer> runningPerUser = new HashMap<>();
+    // The queued searches of each user in the order the users will be served.
+    private final LinkedHashMap<String, Deque<AdmittedStore>> queues = new LinkedHashMap<>();
+
+    private final SearchMetrics.Meter rejected;
+    private final SearchMetrics.Timer queueTime;
+
+    /**
+     * @param maxConcurrent        The maximum number of searches that can run at once.
+     * @param maxConcurrentPerUser The maximum number of searches each user can run at once or 0 for no limit other
+     *                             than the total.
+     * @param maxQueued            The maximum number of searches that can wait to start, further searches are
+     *                             rejected.
+     * @param executor             Starts queued searches once there is room for them, at most maxConcurrent at once.
+     */
+    public SearchAdmissionController(final int maxConcurrent,
+                                     final int maxConcurrentPerUser,
+                                     final int maxQueued,
+                                     final Executor executor) {
+        this(maxConcurrent, maxConcurrentPerUser, maxQueued, SearchMetrics.NO_OP, executor);
+    }
+
+    /**
+     * @param maxConcurrent        The maximum number of searches that can run at once.
+     * @param maxConcurrentPerUser The maximum number of searches each user can run at once or 0 for no limit other
+     *                             than the total.
+     * @param maxQueued            The maximum number of searches that can wait to start, further searches are
+     *                             rejected.
+     * @param searchMetrics        Records the searches queued, running and rejected.
+     * @param executor             Starts queued searches once there is room for them, at most maxConcurrent at once.
+     */
+    public SearchAdmissionController(final int maxConcurrent,
+                                     final int maxConcurrentPerUser,
+                                     final int maxQueued,
+                                     final SearchMetrics searchMetrics,
+                                     final Executor executor) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent searches must be greater than 0");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxConcurrentPerUser = maxConcurrentPerUser;
+        this.maxQueued = maxQueued;
+        this.executor = executor;
+
+        this.rejected = searchMetrics.meter(SearchMetrics.SEARCH_ADMISSION, "rejected");
+        this.queueTime = searchMetrics.timer(SearchMetrics.SEARCH_ADMISSION, "queueTime");
+        searchMetrics.gauge(SearchMetrics.SEARCH_ADMISSION, "running", this::getRunning);
+        searchMetrics.gauge(SearchMetrics.SEARCH_ADMISSION, "queued", this::getQueued);
+    }
+
+    /**
+     * Start a search if there is room for it or queue it until there is. Searches that start straight away are
+     * created on the calling thread, so any exception from the supplier is thrown from here. Queued searches are
+     * created on another thread and report any exception as an error.
+     *
+     * @param userId            The user starting the search, may be null if unknown.
+     * @param storeSupplier     Creates the store for the search, see {@link StoreFactory#withRequestContext}.
+     * @param cancellationToken Cancelled if the search is destroyed, which removes it from the queue.
+     * @return A store that is queued until the search starts and then delegates to the created store.
+     */
+    Store admit(final String userId,
+                final Supplier<Store> storeSupplier,
+                final CancellationToken cancellationToken) {
+        final AdmittedStore store = new AdmittedStore(
+                userId == null ? UNKNOWN_USER : userId,
+                storeSupplier,
+                cancellationToken);
+
+        final boolean startNow;
+        synchronized (this) {
+            if (canStart(store.userId) && !queues.containsKey(store.userId)) {
+                // Nobody that could run is waiting so there is no need to queue.
+                acquire(store);
+                startNow = true;
+            } else if (queued >= maxQueued) {
+                rejected.mark();
+                LOGGER.debug("Rejecting search for user '{}', {} searches are already queued", store.userId, queued);
+                store.rejected = true;
+                store.fail("The search could not be started as too many searches are waiting, please try again later");
+                return store;
+            } else {
+                queues.computeIfAbsent(store.userId, k -> new ArrayDeque<>()).add(store);
+                store.queued = true;
+                queued++;
+                startNow = false;
+                LOGGER.debug("Queued search for user '{}', {} running, {} queued", store.userId, running, queued);
+            }
+        }
+
+        cancellationToken.onCancel(() -> finish(store));
+        if (startNow) {
+            store.start(true);
+        }
+        return store;
+    }
+
+    synchronized long getRunning() {
+        return running;
+    }
+
+    synchronized long getQueued() {
+        return queued;
+    }
+
+    private boolean canStart(final String userId) {
+        return running < maxConcurrent &&
+                (maxConcurrentPerUser <= 0 || runningPerUser.getOrDefault(userId, 0) < maxConcurrentPerUser);
+    }
+
+    private void acquire(final AdmittedStore store) {
+        store.acquired = true;
+        running++;
+        runningPerUser.merge(store.userId, 1, Integer::sum);
+    }
+
+    /**
+     * Called when a search completes or is destroyed, removing it from the queue or giving its place to the next
+     * queued searches.
+     */
+    private void finish(final AdmittedStore store) {
+        final List<AdmittedStore> toStart = new ArrayList<>();
+        synchronized (this) {
+            if (store.queued) {
+                final Deque<AdmittedStore> queue = queues.get(store.userId);
+                if (queue != null && queue.remove(store)) {
+                    queued--;
+                    if (queue.isEmpty()) {
+                        queues.remove(store.userId);
+                    }
+                }
+                store.queued = false;
+                store.cancelQueued();
+                return;
+            }
+
+            if (!store.acquired || store.released) {
+                return;
+            }
+            store.released = true;
+            running--;
+            runningPerUser.computeIfPresent(store.userId, (k, v) -> v > 1 ? v - 1 : null);
+
+            AdmittedStore next;
+            while ((next = pollNext()) != null) {
+                acquire(next);
+                toStart.add(next);
+            }
+        }
+
+        for (final AdmittedStore next : toStart) {
+            try {
+                executor.execute(() -> next.start(false));
+            } catch (final RejectedExecutionException e) {
+                // The executor has been stopped so nothing more will start.
+                next.fail("The search could not be started as the service is stopping");
+                finish(next);
+            }
+        }
+    }
+
+    /**
+     * @return The next queued search that can start, taking each user with queued searches in turn.
+     */
+    private AdmittedStore pollNext() {
+        if (running >= maxConcurrent) {
+            return null;
+        }
+
+        final Iterator<Map.Entry<String, Deque<AdmittedStore>>> iterator = queues.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Deque<AdmittedStore>> entry = iterator.next();
+            if (canStart(entry.getKey())) {
+                final AdmittedStore next = entry.getValue().poll();
+                next.queued = false;
+                queued--;
+
+                // Move the user to the back so other users go next.
+                iterator.remove();
+                if (!entry.getValue().isEmpty()) {
+                    queues.put(entry.getKey(), entry.getValue());
+                }
+                return next;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A store for an admitted search, which is empty while the search is queued and delegates to the real store once
+     * the search has started.
+     */
+    private class AdmittedStore implements Store {
+        private final String userId;
+        private final Supplier<Store> storeSupplier;
+        private final CancellationToken cancellationToken;
+        private final long queueStartTime = System.nanoTime();
+        private final List<DataChangeListener> dataChangeListeners = new ArrayList<>();
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+
+        // Guarded by SearchAdmissionController.this.
+        private boolean queued;
+        private boolean acquired;
+        private boolean released;
+
+        private volatile Store delegate;
+        private volatile String error;
+        private volatile boolean rejected;
+
+        AdmittedStore(final String userId,
+                      final Supplier<Store> storeSupplier,
+                      final CancellationToken cancellationToken) {
+            this.userId = userId;
+            this.storeSupplier = storeSupplier;
+            this.cancellationToken = cancellationToken;
+        }
+
+        void start(final boolean rethrow) {
+            queueTime.update(System.nanoTime() - queueStartTime);
+            if (cancellationToken.isCancelled()) {
+                fail("The search was cancelled");
+                finish(this);
+                return;
+            }
+
+            final Store store;
+            try {
+                store = storeSupplier.get();
+            } catch (final RuntimeException e) {
+                finish(this);
+                if (rethrow) {
+                    throw e;
+                }
+                LOGGER.error("Unable to start queued search: " + e.getMessage(), e);
+                fail("Unable to start search: " + e.getMessage());
+                return;
+            }
+
+            synchronized (dataChangeListeners) {
+                delegate = store;
+                dataChangeListeners.forEach(store::addDataChangeListener);
+            }
+            started.complete(null);
+            store.getCompletionFuture().whenComplete((result, throwable) -> finish(this));
+            if (cancellationToken.isCancelled()) {
+                // Destroyed while we were creating the store.
+                store.destroy();
+            }
+        }
+
+        void fail(final String message) {
+            error = message;
+            synchronized (SearchAdmissionController.this) {
+                queued = false;
+            }
+            started.complete(null);
+        }
+
+        /**
+         * Called when the search is destroyed while queued so that anyone waiting for it to complete stops waiting.
+         */
+        void cancelQueued() {
+            error = "The search was destroyed before it started";
+            started.completeExceptionally(new CancellationException(error));
+        }
+
+        @Override
+        public boolean isQueued() {
+            synchronized (SearchAdmissionController.this) {
+                return queued;
+            }
+        }
+
+        @Override
+        public boolean isRejected() {
+            return rejected;
+        }
+
+        @Override
+        public void destroy() {
+            finish(this);
+            final Store store = delegate;
+            if (store != null) {
+                store.destroy();
+            }
+        }
+
+        @Override
+        public boolean isComplete() {
+            final Store store = delegate;
+            return error != null || (store != null && store.isComplete());
+        }
+
+        @Override
+        public void awaitCompletion() throws InterruptedException {
+            try {
+                started.get();
+            } catch (final ExecutionException | CancellationException e) {
+                // Destroyed before it started so there is nothing more to wait for.
+                return;
+            }
+            final Store store = delegate;
+            if (store != null) {
+                store.awaitCompletion();
+            }
+        }
+
+        @Override
+        public boolean awaitCompletion(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            try {
+                started.get(timeout, unit);
+            } catch (final TimeoutException e) {
+                return false;
+            } catch (final ExecutionException | CancellationException e) {
+                // Destroyed before it started so there is nothing more to wait for.
+                return true;
+            }
+            final Store store = delegate;
+            return store == null ||
+                    store.awaitCompletion(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public CompletableFuture<Void> getCompletionFuture() {
+            return started.thenCompose(ignored -> {
+                final Store store = delegate;
+                return store == null ? CompletableFuture.completedFuture(null) : store.getCompletionFuture();
+            });
+        }
+
+        @Override
+        public void addDataChangeListener(final DataChangeListener listener) {
+            synchronized (dataChangeListeners) {
+                dataChangeListeners.add(listener);
+                if (delegate != null) {
+                    delegate.addDataChangeListener(listener);
+                }
+            }
+        }
+
+        @Override
+        public void removeDataChangeListener(final DataChangeListener listener) {
+            synchronized (dataChangeListeners) {
+                dataChangeListeners.remove(listener);
+                if (delegate != null) {
+                    delegate.removeDataChangeListener(listener);
+                }
+            }
+        }
+
+        @Override
+        public Data getData(final String componentId) {
+            final Store store = delegate;
+            return store == null ? null : store.getData(componentId);
+        }
+
+        @Override
+        public List<String> getErrors() {
+            if (error != null) {
+                return Collections.singletonList(error);
+            }
+            final Store store = delegate;
+            return store == null ? null : store.getErrors();
+        }
+
+        @Override
+        public List<String> getHighlights() {
+            final Store store = delegate;
+            return store == null ? null : store.getHighlights();
+        }
+
+        @Override
+        public Sizes getDefaultMaxResultsSizes() {
+            final Store store = delegate;
+            return store == null ? null : store.getDefaultMaxResultsSizes();
+        }
+
+        @Override
+        public Sizes getStoreSize() {
+            final Store store = delegate;
+            return store == null ? null : store.getStoreSize();
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            final Store store = delegate;
+            return store == null ? 0 : store.getEstimatedSize();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads used by the searches in one {@link InMemorySearchResponseCreatorCache}, which owns them and stops them
+ * when it is closed.
+ */
+final class SearchExecutors implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchExecutors.class);
+
+    private static final int MAX_QUEUED_RESPONSES = 10_000;
+    private static final long CLOSE_TIMEOUT_MS = 10_000L;
+
+    private final ThreadPoolExecutor responseExecutor;
+    private final ThreadPoolExecutor admissionExecutor;
+    private final ScheduledThreadPoolExecutor reaperExecutor;
+
+    /**
+     * @param responseThreads       The number of threads assembling responses for asynchronous requests and pushing
+     *                              them to subscribers.
+     * @param maxConcurrentSearches The maximum number of searches that can run at once, which bounds the number of
+     *                              queued searches that can be starting at once.
+     */
+    SearchExecutors(final int responseThreads, final int maxConcurrentSearches) {
+        // Responses are assembled on the thread that asked for them if too many are waiting. Unlike the JDK's caller
+        // runs policy, work given after closing is rejected rather than silently dropped, so nobody waits for it.
+        this.responseExecutor = new ThreadPoolExecutor(responseThreads,
+                responseThreads,
+                1,
+                TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(MAX_QUEUED_RESPONSES),
+                threadFactory("Search Response Assembler"),
+                (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("The search response executor has been stopped");
+                    }
+                    runnable.run();
+                });
+        this.responseExecutor.allowCoreThreadTimeOut(true);
+
+        // Only searches that have been given a place are started so there are never more waiting than places.
+        final int admissionThreads = Math.max(1, maxConcurrentSearches);
+        this.admissionExecutor = new ThreadPoolExecutor(admissionThreads,
+                admissionThreads,
+                1,
+                TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(),
+                threadFactory("Search Admission"));
+        this.admissionExecutor.allowCoreThreadTimeOut(true);
+
+        this.reaperExecutor = new ScheduledThreadPoolExecutor(1, threadFactory("Search Reaper"));
+        this.reaperExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    ExecutorService getResponseExecutor() {
+        return responseExecutor;
+    }
+
+    ExecutorService getAdmissionExecutor() {
+        return admissionExecutor;
+    }
+
+    ScheduledThreadPoolExecutor getReaperExecutor() {
+        return reaperExecutor;
+    }
+
+    /**
+     * Stop the threads, waiting briefly for the work already given to them.
+     */
+    @Override
+    public void close() {
+        final List<ExecutorService> executors = Arrays.asList(reaperExecutor, admissionExecutor, responseExecutor);
+        executors.forEach(ExecutorService::shutdown);
+        try {
+            final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+            for (final ExecutorService executor : executors) {
+                final long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (!executor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    LOGGER.warn("Timed out waiting for search threads to stop");
+                    executor.shutdownNow();
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executors.forEach(ExecutorService::shutdownNow);
+        }
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + " #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
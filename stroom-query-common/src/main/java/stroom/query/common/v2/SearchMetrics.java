@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A facade over whatever metrics library the hosting service uses so that the search pipeline can record timings and
+ * counts without depending on it. Implementations must be thread safe. The instance is passed to each component
+ * that records metrics, those created without one use {@link #NO_OP} and record nothing.
+ */
+public interface SearchMetrics {
+    SearchMetrics NO_OP = new SearchMetrics() {
+    };
+
+    String TABLE_COPROCESSOR = "tableCoprocessor";
+    String TABLE_PAYLOAD_HANDLER = "tablePayloadHandler";
+    String TABLE_RESULT_CREATOR = "tableResultCreator";
+    String SEARCH_RESPONSE_CREATOR_CACHE = "searchResponseCreatorCache";
+    String SEARCH_ADMISSION = "searchAdmission";
+    String MERGE_SCHEDULER = "mergeScheduler";
+
+    /**
+     * @param component The pipeline component, e.g. {@link #TABLE_COPROCESSOR}.
+     * @param name      The name of the metric within the component.
+     * @return A meter recording the rate at which events occur.
+     */
+    default Meter meter(final String component, final String name) {
+        return count -> {
+        };
+    }
+
+    /**
+     * @param component The pipeline component, e.g. {@link #TABLE_COPROCESSOR}.
+     * @param name      The name of the metric within the component.
+     * @return A histogram recording the distribution of values.
+     */
+    default Histogram histogram(final String component, final String name) {
+        return value -> {
+        };
+    }
+
+    /**
+     * @param component The pipeline component, e.g. {@link #TABLE_COPROCESSOR}.
+     * @param name      The name of the metric within the component.
+     * @return A timer recording the distribution and rate of durations.
+     */
+    default Timer timer(final String component, final String name) {
+        return nanos -> {
+        };
+    }
+
+    /**
+     * Register a gauge whose value is read on demand. Registering a gauge with the same name replaces the existing one.
+     *
+     * @param component The pipeline component, e.g. {@link #TABLE_COPROCESSOR}.
+     * @param name      The name of the metric within the component.
+     * @param supplier  Supplies the current value.
+     */
+    default void gauge(final String component, final String name, final LongSupplier supplier) {
+    }
+
+    interface Meter {
+        void mark(long count);
+
+        default void mark() {
+            mark(1);
+        }
+    }
+
+    interface Histogram {
+        void update(long value);
+    }
+
+    interface Timer {
+        void update(long nanos);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Periodically evicts expired and idle searches from search response creator caches, on a thread owned by the cache
+ * that stops when the cache is closed. Caches are only weakly referenced so a cache that is no longer used but was
+ * never closed is not kept alive by the reaper, its task is cancelled once it has been garbage collected.
+ */
+final class SearchReaper {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchReaper.class);
+
+    private SearchReaper() {
+        // Utility class.
+    }
+
+    static void schedule(final SearchResponseCreatorCache cache,
+                         final Duration interval,
+                         final ScheduledExecutorService executor) {
+        final WeakReference<SearchResponseCreatorCache> reference = new WeakReference<>(cache);
+        final AtomicReference<ScheduledFuture<?>> future = new AtomicReference<>();
+        future.set(executor.scheduleWithFixedDelay(() -> {
+            final SearchResponseCreatorCache searchResponseCreatorCache = reference.get();
+            if (searchResponseCreatorCache == null) {
+                final ScheduledFuture<?> scheduledFuture = future.get();
+                if (scheduledFuture != null) {
+                    scheduledFuture.cancel(false);
+                }
+                return;
+            }
+
+            try {
+                searchResponseCreatorCache.evictExpiredElements();
+            } catch (final RuntimeException e) {
+                // Don't let a failure stop future runs.
+                LOGGER.error("Error evicting searches: " + e.getMessage(), e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS));
+    }
+}
@@ -36,7 +36,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class SearchResponseCreator {
     private static final Logger LOGGER = LoggerFactory.getLogger(SearchResponseCreator.class);
@@ -45,18 +51,69 @@ public class SearchResponseCreator {
 
     private final Store store;
     private final Duration defaultTimeout;
+    private final CancellationToken cancellationToken;
+    private final String userId;
+    private final SearchMetrics searchMetrics;
+    // Responses for asynchronous requests and subscriptions are assembled here rather than on whichever thread
+    // completed the search or changed its data.
+    private final Executor executor;
 
-    private final Map<String, ResultCreator> cachedResultCreators = new HashMap<>();
+    // Responses can be assembled for requests and subscriptions at the same time.
+    private final Map<String, ResultCreator> cachedResultCreators = Collections.synchronizedMap(new HashMap<>());
 
     // Cache the last results for each component.
-    private final Map<String, Result> resultCache = new HashMap<>();
+    private final Map<String, Result> resultCache = Collections.synchronizedMap(new HashMap<>());
+
+    // The number of requests currently being served so we know whether this search is idle.
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile long lastAccessTime = System.currentTimeMillis();
+    private volatile SearchRequest lastSearchRequest;
 
     /**
      * @param store The underlying store to use for creating the search responses.
      */
     public SearchResponseCreator(final Store store) {
+        this(store, CancellationToken.NONE);
+    }
+
+    /**
+     * @param store             The underlying store to use for creating the search responses.
+     * @param cancellationToken The token that the store's work was started with. It is cancelled when this search is
+     *                          destroyed.
+     */
+    public SearchResponseCreator(final Store store, final CancellationToken cancellationToken) {
+        this(store, cancellationToken, null, SearchMetrics.NO_OP);
+    }
+
+    /**
+     * @param store             The underlying store to use for creating the search responses.
+     * @param cancellationToken The token that the store's work was started with. It is cancelled when this search is
+     *                          destroyed.
+     * @param userId            The user who started the search, may be null if unknown.
+     * @param searchMetrics     Records how long results take to create.
+     */
+    public SearchResponseCreator(final Store store,
+                                 final CancellationToken cancellationToken,
+                                 final String userId,
+                                 final SearchMetrics searchMetrics) {
+        this(store, cancellationToken, userId, searchMetrics, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor Assembles responses for asynchronous requests and subscriptions, owned by the cache holding
+     *                 this search, see {@link SearchExecutors}.
+     */
+    SearchResponseCreator(final Store store,
+                          final CancellationToken cancellationToken,
+                          final String userId,
+                          final SearchMetrics searchMetrics,
+                          final Executor executor) {
         this.store = Objects.requireNonNull(store);
         this.defaultTimeout = FALL_BACK_DEFAULT_TIMEOUT;
+        this.cancellationToken = Objects.requireNonNull(cancellationToken);
+        this.userId = userId;
+        this.searchMetrics = Objects.requireNonNull(searchMetrics);
+        this.executor = Objects.requireNonNull(executor);
     }
 
     /**
@@ -67,15 +124,32 @@ public class SearchResponseCreator {
     public SearchResponseCreator(final Store store, final Duration defaultTimeout) {
         this.store = Objects.requireNonNull(store);
         this.defaultTimeout = Objects.requireNonNull(defaultTimeout);
+        this.cancellationToken = CancellationToken.NONE;
+        this.userId = null;
+        this.searchMetrics = SearchMetrics.NO_OP;
+        this.executor = ForkJoinPool.commonPool();
     }
 
     /**
      * Stop searching and destroy any stored data.
      */
     public void destroy() {
+        cancellationToken.cancel();
         store.destroy();
     }
 
+    CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * @return The user who started the search, see {@link SearchResponseCreatorCache.Key#getUserId()}, or null if
+     * unknown.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
     /**
      * Build a {@link SearchResponse} from the passed {@link SearchRequest}.
      *
@@ -92,6 +166,45 @@ public class SearchResponseCreator {
      * </ul>
      */
     public SearchResponse create(final SearchRequest searchRequest) {
+        lastSearchRequest = searchRequest;
+        activeRequests.incrementAndGet();
+        try {
+            return doCreate(searchRequest);
+        } finally {
+            lastAccessTime = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return True if no requests are currently being served from this search.
+     */
+    public boolean isIdle() {
+        return activeRequests.get() == 0;
+    }
+
+    /**
+     * @return The time in milliseconds that a request was last served from this search.
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * @return True if the search was turned away without starting, see {@link Store#isRejected()}.
+     */
+    public boolean isRejected() {
+        return store.isRejected();
+    }
+
+    /**
+     * @return The estimated number of bytes held by the underlying store, see {@link Store#getEstimatedSize()}.
+     */
+    public long getEstimatedSize() {
+        return store.getEstimatedSize();
+    }
+
+    private SearchResponse doCreate(final SearchRequest searchRequest) {
         final boolean didSearchComplete;
 
         if (!store.isComplete()) {
@@ -123,6 +236,109 @@ public class SearchResponseCreator {
 
         // We will only get here if the search is complete or it is an incremental search in which case we don't care
         // about completion state. Therefore assemble whatever results we currently have
+        return assembleResponse(searchRequest);
+    }
+
+    /**
+     * As {@link #create(SearchRequest)} but rather than blocking the calling thread while waiting for the search to
+     * complete, the returned future completes when the response is ready. Incremental searches are answered as soon
+     * as new data is available, the search completes or the timeout expires. Non-incremental searches are answered
+     * when the search completes or with a timed out error response.
+     *
+     * @param searchRequest The {@link SearchRequest} containing the query terms and the result requests
+     * @return A future holding the {@link SearchResponse}, see {@link #create(SearchRequest)}.
+     */
+    public CompletableFuture<SearchResponse> createAsync(final SearchRequest searchRequest) {
+        lastSearchRequest = searchRequest;
+        activeRequests.incrementAndGet();
+        final CompletableFuture<SearchResponse> future;
+        try {
+            future = doCreateAsync(searchRequest);
+        } catch (final RuntimeException e) {
+            lastAccessTime = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+            throw e;
+        }
+        return future.whenComplete((response, throwable) -> {
+            lastAccessTime = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        });
+    }
+
+    private CompletableFuture<SearchResponse> doCreateAsync(final SearchRequest searchRequest) {
+        final Duration effectiveTimeout = getEffectiveTimeout(searchRequest);
+        if (store.isComplete() || effectiveTimeout.isZero() || effectiveTimeout.isNegative()) {
+            // There is nothing to wait for so answer straight away.
+            return CompletableFuture.completedFuture(doCreate(searchRequest));
+        }
+
+        // Completes with true if the search completed or false if we stopped waiting for another reason.
+        final CompletableFuture<Boolean> trigger = new CompletableFuture<>();
+        final CompletableFuture<Void> completionFuture = store.getCompletionFuture();
+        // A search destroyed while queued completes exceptionally.
+        completionFuture.whenComplete((result, throwable) -> trigger.complete(true));
+
+        final DataChangeListener dataChangeListener = () -> trigger.complete(false);
+        if (searchRequest.incremental()) {
+            store.addDataChangeListener(dataChangeListener);
+        }
+
+        trigger.completeOnTimeout(false, effectiveTimeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        return trigger.thenApplyAsync(completed -> {
+            // Stop listening so waiting requests don't accumulate on the store.
+            store.removeDataChangeListener(dataChangeListener);
+            completionFuture.cancel(false);
+
+            if (!store.isComplete() && !searchRequest.incremental()) {
+                // Search didn't complete non-incremental search in time so return a timed out error response
+                return createErrorResponse(
+                        store,
+                        Collections.singletonList(
+                                LambdaLogger.buildMessage("The search timed out after {}", effectiveTimeout.toString())));
+            }
+
+            return assembleResponse(searchRequest);
+        }, executor);
+    }
+
+    /**
+     * Push responses for this search to the consumer as new data arrives rather than waiting for them to be
+     * requested, see {@link SearchSubscription}. The search is not idle while it has subscribers.
+     *
+     * @param searchRequest The {@link SearchRequest} containing the result requests to render for the subscriber
+     * @param interval      The minimum interval between responses, changes within it are coalesced
+     * @param consumer      Receives the responses, this must not block
+     * @return The subscription which must be closed when the subscriber is no longer interested.
+     */
+    public SearchSubscription subscribe(final SearchRequest searchRequest,
+                                        final Duration interval,
+                                        final Consumer<SearchResponse> consumer) {
+        activeRequests.incrementAndGet();
+        final SearchSubscription subscription = new SearchSubscription(this,
+                store,
+                searchRequest,
+                interval,
+                consumer,
+                executor);
+        subscription.start();
+        return subscription;
+    }
+
+    void endSubscription() {
+        lastAccessTime = System.currentTimeMillis();
+        activeRequests.decrementAndGet();
+    }
+
+    /**
+     * @return The most recent request made to this search, if any, so that others can follow the search without
+     * having to know the original request.
+     */
+    public Optional<SearchRequest> getLastSearchRequest() {
+        return Optional.ofNullable(lastSearchRequest);
+    }
+
+    SearchResponse assembleResponse(final SearchRequest searchRequest) {
         try {
             // Get completion state before we get results.
             final boolean complete = store.isComplete();
@@ -137,7 +353,7 @@ public class SearchResponseCreator {
                         (results == null ? "null" : results.size()), complete, store.isComplete());
             }
 
-            return new SearchResponse(store.getHighlights(), results, store.getErrors(), complete);
+            return new SearchResponse(store.getHighlights(), results, store.getErrors(), complete, queued(store));
 
         } catch (final RuntimeException e) {
             LOGGER.error("Error getting search results for query {}", searchRequest.getKey().toString(), e);
@@ -173,7 +389,17 @@ public class SearchResponseCreator {
         if (store.getErrors() != null) {
             errors.addAll(store.getErrors());
         }
-        return createErrorResponse(errors);
+        return new SearchResponse(
+                null,
+                null,
+                errors,
+                false,
+                queued(store));
+    }
+
+    private static Boolean queued(final Store store) {
+        // Only include the queued state when it applies so that responses are unchanged for most searches.
+        return store.isQueued() ? Boolean.TRUE : null;
     }
 
 
@@ -279,7 +505,7 @@ public class SearchResponseCreator {
         try {
             if (ResultStyle.TABLE.equals(resultRequest.getResultStyle())) {
                 final FieldFormatter fieldFormatter = new FieldFormatter(new FormatterFactory(dateTimeLocale));
-                resultCreator = new TableResultCreator(fieldFormatter, store.getDefaultMaxResultsSizes());
+                resultCreator = new TableResultCreator(fieldFormatter, store.getDefaultMaxResultsSizes(), searchMetrics);
             } else {
                 resultCreator = new FlatResultCreator(
                         resultRequest,
@@ -3,6 +3,8 @@ package stroom.query.common.v2;
 import stroom.query.api.v2.QueryKey;
 import stroom.query.api.v2.SearchRequest;
 
+import java.util.Optional;
+
 /**
  * A self populating cache of {@link SearchResponseCreator} instances
  */
@@ -20,6 +22,14 @@ public interface SearchResponseCreatorCache {
      */
     void remove(final Key key);
 
+    /**
+     * @param key The key to read
+     * @return The {@link SearchResponseCreator} for the key if there is one in the cache, without creating one.
+     */
+    default Optional<SearchResponseCreator> getIfPresent(final Key key) {
+        return Optional.empty();
+    }
+
     void evictExpiredElements();
 
     /**
@@ -27,20 +37,41 @@ public interface SearchResponseCreatorCache {
      */
     void clear();
 
+    /**
+     * Clears all items from the cache and releases anything else it holds, e.g. threads. The cache must not be used
+     * afterwards.
+     */
+    default void close() {
+        clear();
+    }
+
     //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 
     class Key {
         private final QueryKey queryKey;
         private final SearchRequest searchRequest;
+        private final String userId;
 
         public Key(final SearchRequest searchRequest) {
+            this(searchRequest, null);
+        }
+
+        /**
+         * @param searchRequest The search request to create the search from if there isn't one already
+         * @param userId        The user making the request. The search is owned by the user who started it and
+         *                      the number of searches each user can run at once is limited, see
+         *                      {@link SearchAdmissionController}
+         */
+        public Key(final SearchRequest searchRequest, final String userId) {
             this.queryKey = searchRequest.getKey();
             this.searchRequest = searchRequest;
+            this.userId = userId;
         }
 
         public Key(final QueryKey queryKey) {
             this.queryKey = queryKey;
             this.searchRequest = null;
+            this.userId = null;
         }
 
         public QueryKey getQueryKey() {
@@ -51,6 +82,10 @@ public interface SearchResponseCreatorCache {
             return searchRequest;
         }
 
+        public String getUserId() {
+            return userId;
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) return true;
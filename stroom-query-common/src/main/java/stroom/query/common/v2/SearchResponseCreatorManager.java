@@ -1,5 +1,7 @@
 package stroom.query.common.v2;
 
+import java.util.Optional;
+
 public interface SearchResponseCreatorManager {
 
     /**
@@ -10,6 +12,16 @@ public interface SearchResponseCreatorManager {
      */
     SearchResponseCreator get(SearchResponseCreatorCache.Key key);
 
+    /**
+     * Get a {@link SearchResponseCreator} from the cache without creating one
+     *
+     * @param key The key of the entry to retrieve.
+     * @return The {@link SearchResponseCreator} if the search is in the cache
+     */
+    default Optional<SearchResponseCreator> getIfPresent(SearchResponseCreatorCache.Key key) {
+        return Optional.empty();
+    }
+
     /**
      * Remove an entry from the cache, this will also terminate any running search for that entry
      *
@@ -21,4 +33,10 @@ public interface SearchResponseCreatorManager {
      * Evicts any expired entries from the underlying cache
      */
     void evictExpiredElements();
+
+    /**
+     * Destroy all searches and release anything else the manager holds, e.g. when the application stops.
+     */
+    default void close() {
+    }
 }
@@ -40,6 +40,41 @@ public class SearchResultHandler implements ResultHandler {
                                final CoprocessorSettingsMap coprocessorSettingsMap,
                                final Sizes defaultMaxResultsSizes,
                                final Sizes storeSize) {
+        this(completionState, coprocessorSettingsMap, defaultMaxResultsSizes, storeSize, SearchMetrics.NO_OP);
+    }
+
+    /**
+     * @param searchMetrics Records the size and duration of merges.
+     */
+    public SearchResultHandler(final CompletionState completionState,
+                               final CoprocessorSettingsMap coprocessorSettingsMap,
+                               final Sizes defaultMaxResultsSizes,
+                               final Sizes storeSize,
+                               final SearchMetrics searchMetrics) {
+        this(completionState,
+                coprocessorSettingsMap,
+                defaultMaxResultsSizes,
+                storeSize,
+                CancellationToken.NONE,
+                searchMetrics,
+                null);
+    }
+
+    /**
+     * @param cancellationToken The token of the search, results handled and merges pending once it is cancelled are
+     *                          abandoned.
+     * @param searchMetrics     Records the size and duration of merges.
+     * @param mergeScheduler    Merges the results received on the scheduler's threads, or on the threads that deliver
+     *                          them if null, see {@link MergeScheduler}. Call {@link #waitForPendingWork()} before
+     *                          relying on the data including everything handled so far.
+     */
+    public SearchResultHandler(final CompletionState completionState,
+                               final CoprocessorSettingsMap coprocessorSettingsMap,
+                               final Sizes defaultMaxResultsSizes,
+                               final Sizes storeSize,
+                               final CancellationToken cancellationToken,
+                               final SearchMetrics searchMetrics,
+                               final MergeScheduler mergeScheduler) {
 
         this.completionState = completionState;
         this.coprocessorSettingsMap = coprocessorSettingsMap;
@@ -50,7 +85,14 @@ public class SearchResultHandler implements ResultHandler {
                     final TableSettings tableSettings = tableCoprocessorSettings.getTableSettings();
                     // Create a set of sizes that are the minimum values for the combination of user provided sizes for the table and the default maximum sizes.
                     final Sizes maxResults = Sizes.min(Sizes.create(tableSettings.getMaxResults()), defaultMaxResultsSizes);
-                    return new TablePayloadHandler(tableSettings.getFields(), tableSettings.showDetail(), maxResults, storeSize);
+                    return new TablePayloadHandler(
+                            tableSettings.getFields(),
+                            tableSettings.showDetail(),
+                            maxResults,
+                            storeSize,
+                            cancellationToken,
+                            searchMetrics,
+                            mergeScheduler);
                 }));
     }
 
@@ -102,6 +144,25 @@ public class SearchResultHandler implements ResultHandler {
         return null;
     }
 
+    /**
+     * Register a listener to be called whenever any component has new data.
+     */
+    public void addDataChangeListener(final DataChangeListener listener) {
+        handlerMap.values().forEach(handler -> handler.addDataChangeListener(listener));
+    }
+
+    public void removeDataChangeListener(final DataChangeListener listener) {
+        handlerMap.values().forEach(handler -> handler.removeDataChangeListener(listener));
+    }
+
+    /**
+     * @param interactive True if somebody is waiting on the results so merges should take priority, see
+     *                    {@link MergeScheduler}.
+     */
+    public void setInteractive(final boolean interactive) {
+        handlerMap.values().forEach(handler -> handler.setInteractive(interactive));
+    }
+
     @Override
     public void waitForPendingWork() throws InterruptedException {
         // wait for each handler to complete any outstanding work
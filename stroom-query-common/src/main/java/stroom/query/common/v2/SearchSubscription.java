@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stroom.query.api.v2.Result;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.ResultRequest.Fetch;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.api.v2.SearchResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Pushes {@link SearchResponse}s for a running search to a consumer as the store merges new data, so clients don't
+ * need to keep re-posting their search request to find out about progress.
+ * <p>
+ * Changes are coalesced so that at most one response is pushed per minimum interval however often the store
+ * changes. Each pushed response only contains the results for components that have changed since the previous push,
+ * in the same way as {@link Fetch#CHANGES}, and the final response is always pushed once the search completes.
+ */
+public class SearchSubscription implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchSubscription.class);
+
+    /**
+     * Subscribers can't ask for updates any more often than this.
+     */
+    public static final Duration MIN_INTERVAL = Duration.ofMillis(100);
+
+    private final SearchResponseCreator searchResponseCreator;
+    private final Store store;
+    private final SearchRequest searchRequest;
+    private final long intervalMs;
+    private final Consumer<SearchResponse> consumer;
+    private final Executor executor;
+
+    // The results last pushed to this subscriber, used to only push components that have changed.
+    private final Map<String, Result> lastResults = new HashMap<>();
+    // The errors and queued state last pushed, a search that keeps failing is only pushed again when they change.
+    private List<String> lastErrors;
+    private Boolean lastQueued;
+    private final AtomicBoolean publishPending = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final CompletableFuture<Void> closedFuture = new CompletableFuture<>();
+    private final DataChangeListener dataChangeListener = this::requestPublish;
+    private volatile CompletableFuture<Void> completionFuture;
+    private volatile long lastPublishTime;
+
+    SearchSubscription(final SearchResponseCreator searchResponseCreator,
+                       final Store store,
+                       final SearchRequest searchRequest,
+                       final Duration interval,
+                       final Consumer<SearchResponse> consumer,
+                       final Executor executor) {
+        this.searchResponseCreator = searchResponseCreator;
+        this.store = store;
+        this.searchRequest = fetchAll(searchRequest);
+        this.intervalMs = Math.max(MIN_INTERVAL.toMillis(), interval.toMillis());
+        this.consumer = Objects.requireNonNull(consumer);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Push the current state of the search and start listening for changes.
+     */
+    void start() {
+        store.addDataChangeListener(dataChangeListener);
+        completionFuture = store.getCompletionFuture();
+        completionFuture.whenComplete((result, throwable) -> requestPublish());
+        searchResponseCreator.getCancellationToken().onCancel(this::close);
+
+        publishPending.set(true);
+        execute(0, this::publish);
+    }
+
+    /**
+     * Run a task at a fixed interval on the threads pushing responses until this subscription is closed, e.g. to keep
+     * the subscriber's connection open while the search is quiet.
+     *
+     * @param interval The delay between the end of one run and the start of the next.
+     * @param task     The task, it must not block.
+     */
+    public void runPeriodically(final Duration interval, final Runnable task) {
+        execute(interval.toMillis(), () -> {
+            if (!closed.get()) {
+                try {
+                    task.run();
+                } finally {
+                    runPeriodically(interval, task);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A future that completes when this subscription is closed, either because the final response has been
+     * pushed, the search has been destroyed or the subscriber has closed it.
+     */
+    public CompletableFuture<Void> getClosedFuture() {
+        return closedFuture;
+    }
+
+    /**
+     * Stop pushing responses to the consumer.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            store.removeDataChangeListener(dataChangeListener);
+            final CompletableFuture<Void> future = completionFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+            searchResponseCreator.endSubscription();
+            closedFuture.complete(null);
+        }
+    }
+
+    private void requestPublish() {
+        // Only one publish is ever pending, changes that arrive before it runs are included in it.
+        if (!closed.get() && publishPending.compareAndSet(false, true)) {
+            final long delay = Math.max(0, lastPublishTime + intervalMs - System.currentTimeMillis());
+            execute(delay, this::publish);
+        }
+    }
+
+    private void execute(final long delayMs, final Runnable task) {
+        try {
+            if (delayMs <= 0) {
+                executor.execute(task);
+            } else {
+                CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS, executor).execute(task);
+            }
+        } catch (final RejectedExecutionException e) {
+            // The executor is stopped when the searches are, so this subscription has nothing more to push.
+            LOGGER.debug("Closing subscription to {} as it can no longer publish", searchRequest.getKey());
+            close();
+        }
+    }
+
+    private synchronized void publish() {
+        if (closed.get()) {
+            return;
+        }
+
+        // Clear the flag before rendering so that changes made while we render cause another publish.
+        publishPending.set(false);
+        lastPublishTime = System.currentTimeMillis();
+
+        try {
+            final SearchResponse response = searchResponseCreator.assembleResponse(searchRequest);
+            final SearchResponse changes = getChanges(response);
+            if (changes != null) {
+                consumer.accept(changes);
+            }
+            if (response.complete()) {
+                close();
+            }
+        } catch (final RuntimeException e) {
+            // Most likely the subscriber has gone away so stop pushing to it.
+            LOGGER.debug("Closing subscription to {}", searchRequest.getKey(), e);
+            close();
+        }
+    }
+
+    private SearchResponse getChanges(final SearchResponse response) {
+        final List<Result> changed = new ArrayList<>();
+        if (response.getResults() != null) {
+            for (final Result result : response.getResults()) {
+                if (!result.equals(lastResults.put(result.getComponentId(), result))) {
+                    changed.add(result);
+                }
+            }
+        }
+
+        final List<String> errors = (response.getErrors() == null || response.getErrors().isEmpty())
+                ? null
+                : response.getErrors();
+        final boolean errorsChanged = !Objects.equals(errors, lastErrors);
+        lastErrors = errors;
+
+        final boolean queuedChanged = !Objects.equals(response.getQueued(), lastQueued);
+        lastQueued = response.getQueued();
+
+        if (changed.isEmpty() && !errorsChanged && !queuedChanged && !response.complete()) {
+            // Nothing the subscriber doesn't already know about.
+            return null;
+        }
+
+        return new SearchResponse(
+                response.getHighlights(),
+                changed.isEmpty() ? null : changed,
+                errorsChanged || response.complete() ? errors : null,
+                response.complete(),
+                response.getQueued());
+    }
+
+    private static SearchRequest fetchAll(final SearchRequest searchRequest) {
+        // Changes are tracked per subscriber so the search's own change tracking must not be used.
+        final List<ResultRequest> resultRequests = new ArrayList<>();
+        for (final ResultRequest resultRequest : searchRequest.getResultRequests()) {
+            if (!Fetch.NONE.equals(resultRequest.getFetch())) {
+                resultRequests.add(new ResultRequest(
+                        resultRequest.getComponentId(),
+                        resultRequest.getMappings(),
+                        resultRequest.getRequestedRange(),
+                        resultRequest.getOpenGroups(),
+                        resultRequest.getResultStyle(),
+                        Fetch.ALL));
+            }
+        }
+        return new SearchRequest(
+                searchRequest.getKey(),
+                searchRequest.getQuery(),
+                resultRequests,
+                searchRequest.getDateTimeLocale(),
+                true,
+                searchRequest.getTimeout());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import stroom.dashboard.expression.v1.Expression;
+import stroom.dashboard.expression.v1.Generator;
+import stroom.dashboard.expression.v1.Val;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the generators for field expressions that are shared by several fields once per row. When a search feeds
+ * several table coprocessors the same expressions, e.g. the grouped fields, often appear in more than one component.
+ * Without sharing each coprocessor creates and sets its own generators for them for every row.
+ * <p>
+ * Only expressions without aggregate functions are shared. Their generators hold nothing but the value of the row
+ * they were set with and merging them changes nothing, so a single instance can be used by the items of every
+ * coprocessor. Aggregate expressions must still have a generator per item to accumulate into.
+ */
+public class SharedExpressions {
+    private final Map<String, Integer> indexMap = new HashMap<>();
+    private final List<Expression> expressions = new ArrayList<>();
+
+    public SharedExpressions(final Collection<CompiledFields> compiledFieldsList) {
+        // Count how many fields use each expression.
+        final Map<String, Integer> useCounts = new HashMap<>();
+        for (final CompiledFields compiledFields : compiledFieldsList) {
+            for (final CompiledField compiledField : compiledFields) {
+                if (isShareable(compiledField)) {
+                    useCounts.merge(getKey(compiledField), 1, Integer::sum);
+                }
+            }
+        }
+
+        for (final CompiledFields compiledFields : compiledFieldsList) {
+            for (final CompiledField compiledField : compiledFields) {
+                if (isShareable(compiledField)) {
+                    final String key = getKey(compiledField);
+                    if (useCounts.get(key) > 1 && !indexMap.containsKey(key)) {
+                        indexMap.put(key, expressions.size());
+                        expressions.add(compiledField.getExpression());
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isShareable(final CompiledField compiledField) {
+        final Expression expression = compiledField.getExpression();
+        return expression != null && !expression.hasAggregate();
+    }
+
+    private static String getKey(final CompiledField compiledField) {
+        return compiledField.getField().getExpression().trim();
+    }
+
+    /**
+     * @param compiledFields The fields of a coprocessor.
+     * @return An array holding, for each field, the index of its generator in the array returned by
+     * {@link #createGenerators(Val[])} or -1 if the field is not shared.
+     */
+    public int[] getIndexes(final CompiledFields compiledFields) {
+        final int[] indexes = new int[compiledFields.size()];
+        int pos = 0;
+        for (final CompiledField compiledField : compiledFields) {
+            Integer index = null;
+            if (isShareable(compiledField)) {
+                index = indexMap.get(getKey(compiledField));
+            }
+            indexes[pos++] = index != null ? index : -1;
+        }
+        return indexes;
+    }
+
+    /**
+     * @param values The values of the current row.
+     * @return A generator for each shared expression, set with the current row.
+     */
+    public Generator[] createGenerators(final Val[] values) {
+        final Generator[] generators = new Generator[expressions.size()];
+        for (int i = 0; i < generators.length; i++) {
+            final Generator generator = expressions.get(i).createGenerator();
+            generator.set(values);
+            generators[i] = generator;
+        }
+        return generators;
+    }
+
+    public int size() {
+        return expressions.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedExpressions{" +
+                "indexMap=" + indexMap +
+                '}';
+    }
+}
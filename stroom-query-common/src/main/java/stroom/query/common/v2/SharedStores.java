@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stroom.query.api.v2.SearchRequest;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares a single {@link Store} between searches that have different query keys but would produce identical results,
+ * e.g. many users viewing the same dashboard. Stores are identified by {@link StoreKey} and reference counted; the
+ * underlying store is destroyed when the last search using it is destroyed.
+ * <p>
+ * A search only joins an existing store if that store was created within the maximum share age so that users don't
+ * keep getting old results while overlapping searches keep a store alive. Every search that joins an existing store
+ * is checked with {@link StoreFactory#checkAccess(SearchRequest)} so authorisation is still applied per user.
+ */
+public class SharedStores {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedStores.class);
+
+    private final Map<StoreKey, Entry> entries = new ConcurrentHashMap<>();
+    private final StoreFactory storeFactory;
+    private final long maxShareAgeMs;
+
+    public SharedStores(final StoreFactory storeFactory, final Duration maxShareAge) {
+        this.storeFactory = storeFactory;
+        this.maxShareAgeMs = maxShareAge.toMillis();
+    }
+
+    /**
+     * Get a store for the search, either an existing store with the same {@link StoreKey} or a new one created by the
+     * store factory. The returned store must be destroyed when the search no longer needs it.
+     */
+    public Store acquire(final SearchRequest searchRequest) {
+        return acquire(searchRequest, CancellationToken.NONE);
+    }
+
+    /**
+     * As {@link #acquire(SearchRequest)}. The store is created with its own token that is cancelled when the last
+     * search using it is destroyed. The search's token only cancels the store while it is being created and before
+     * any search is sharing it.
+     */
+    public Store acquire(final SearchRequest searchRequest, final CancellationToken cancellationToken) {
+        final StoreKey storeKey = StoreKey.create(searchRequest);
+
+        while (true) {
+            final Entry entry = entries.computeIfAbsent(storeKey, Entry::new);
+
+            // Other searches with the same key wait here while the store is created so they can share it.
+            synchronized (entry) {
+                if (entry.released) {
+                    // This entry was released after we got it from the map so try again.
+                    entries.remove(storeKey, entry);
+                    continue;
+                }
+
+                if (entry.store == null) {
+                    try {
+                        cancellationToken.onCancel(() -> {
+                            if (!entry.created) {
+                                entry.cancellationToken.cancel();
+                            }
+                        });
+                        entry.store = storeFactory.create(searchRequest, entry.cancellationToken);
+                        entry.createTime = System.currentTimeMillis();
+                        entry.created = true;
+                    } catch (final RuntimeException e) {
+                        entry.released = true;
+                        entries.remove(storeKey, entry);
+                        throw e;
+                    }
+
+                } else if (System.currentTimeMillis() - entry.createTime > maxShareAgeMs) {
+                    // Too old to share, leave it with the searches already using it and create a new one.
+                    entries.remove(storeKey, entry);
+                    continue;
+
+                } else {
+                    storeFactory.checkAccess(searchRequest);
+                    LOGGER.debug("Sharing store for {} with query {}", storeKey, searchRequest.getKey());
+                }
+
+                entry.refCount++;
+                return new SharedStore(entry);
+            }
+        }
+    }
+
+    private void release(final Entry entry) {
+        synchronized (entry) {
+            entry.refCount--;
+            if (entry.refCount == 0) {
+                entry.released = true;
+                entries.remove(entry.storeKey, entry);
+                LOGGER.debug("Destroying shared store for {}", entry.storeKey);
+                entry.cancellationToken.cancel();
+                entry.store.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return The number of distinct stores currently shared.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final StoreKey storeKey;
+        private final CancellationToken cancellationToken = new CancellationToken();
+        private volatile Store store;
+        private volatile boolean created;
+        private long createTime;
+        private volatile int refCount;
+        private boolean released;
+
+        Entry(final StoreKey storeKey) {
+            this.storeKey = storeKey;
+        }
+    }
+
+    /**
+     * A reference to a shared store. Destroying it only destroys the underlying store once there are no other
+     * references.
+     */
+    private class SharedStore implements Store {
+        private final Entry entry;
+        private final AtomicBoolean destroyed = new AtomicBoolean();
+
+        SharedStore(final Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void destroy() {
+            if (destroyed.compareAndSet(false, true)) {
+                release(entry);
+            }
+        }
+
+        @Override
+        public boolean isComplete() {
+            return entry.store.isComplete();
+        }
+
+        @Override
+        public void awaitCompletion() throws InterruptedException {
+            entry.store.awaitCompletion();
+        }
+
+        @Override
+        public boolean awaitCompletion(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return entry.store.awaitCompletion(timeout, unit);
+        }
+
+        @Override
+        public CompletableFuture<Void> getCompletionFuture() {
+            return entry.store.getCompletionFuture();
+        }
+
+        @Override
+        public void addDataChangeListener(final DataChangeListener listener) {
+            entry.store.addDataChangeListener(listener);
+        }
+
+        @Override
+        public void removeDataChangeListener(final DataChangeListener listener) {
+            entry.store.removeDataChangeListener(listener);
+        }
+
+        @Override
+        public Data getData(final String componentId) {
+            return entry.store.getData(componentId);
+        }
+
+        @Override
+        public List<String> getErrors() {
+            return entry.store.getErrors();
+        }
+
+        @Override
+        public List<String> getHighlights() {
+            return entry.store.getHighlights();
+        }
+
+        @Override
+        public Sizes getDefaultMaxResultsSizes() {
+            return entry.store.getDefaultMaxResultsSizes();
+        }
+
+        @Override
+        public Sizes getStoreSize() {
+            return entry.store.getStoreSize();
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            // Spread the size between the searches sharing the store so it isn't counted several times.
+            final int refCount = Math.max(1, entry.refCount);
+            return entry.store.getEstimatedSize() / refCount;
+        }
+    }
+}
@@ -16,6 +16,9 @@
 
 package stroom.query.common.v2;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.BiFunction;
@@ -109,6 +112,22 @@ public class Sizes {
         return defaultSize;
     }
 
+    void write(final DataOutput output) throws IOException {
+        output.writeInt(sizes.length);
+        for (final int size : sizes) {
+            output.writeInt(size);
+        }
+        output.writeInt(defaultSize);
+    }
+
+    static Sizes read(final DataInput input) throws IOException {
+        final int[] sizes = new int[input.readInt()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = input.readInt();
+        }
+        return new Sizes(sizes, input.readInt());
+    }
+
     @Override
     public String toString() {
         return "StoreSize{" +
@@ -17,6 +17,7 @@
 package stroom.query.common.v2;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public interface Store {
@@ -50,6 +51,34 @@ public interface Store {
      */
     boolean awaitCompletion(final long timeout, final TimeUnit unit) throws InterruptedException;
 
+    /**
+     * Get a future that completes when the search completes so that callers can wait for completion without blocking
+     * a thread. Stores that can signal completion, e.g. using {@link CompletionState#getCompletionFuture()}, should
+     * override this as the default implementation polls {@link #isComplete()}.
+     *
+     * @return A future that completes when the search has completed.
+     */
+    default CompletableFuture<Void> getCompletionFuture() {
+        return CompletionPoller.poll(this);
+    }
+
+    /**
+     * Register a listener that is called whenever new data becomes available from {@link #getData(String)}, e.g. see
+     * {@link SearchResultHandler#addDataChangeListener(DataChangeListener)}. Stores that never change do nothing.
+     *
+     * @param listener The listener to call.
+     */
+    default void addDataChangeListener(final DataChangeListener listener) {
+    }
+
+    /**
+     * Remove a listener added with {@link #addDataChangeListener(DataChangeListener)}.
+     *
+     * @param listener The listener to remove.
+     */
+    default void removeDataChangeListener(final DataChangeListener listener) {
+    }
+
     /**
      * Get the current data that is available for the specified component.
      *
@@ -91,4 +120,31 @@ public interface Store {
      * @return A non-null {@link Sizes} object
      */
     Sizes getStoreSize();
+
+    /**
+     * Estimate the number of bytes of memory held by this store. The estimate is used to weigh stores against each
+     * other when cached searches need to be evicted to stay within a memory budget so it only needs to be roughly
+     * proportional to the real footprint.
+     *
+     * @return The estimated size of this store in bytes or 0 if the store can't estimate its size.
+     */
+    default long getEstimatedSize() {
+        return 0;
+    }
+
+    /**
+     * @return True if the search hasn't started yet because it is waiting for other searches to finish, see
+     * {@link SearchAdmissionController}.
+     */
+    default boolean isQueued() {
+        return false;
+    }
+
+    /**
+     * @return True if the search was turned away without starting, e.g. because too many searches are waiting, so
+     * asking for it again may start it.
+     */
+    default boolean isRejected() {
+        return false;
+    }
 }
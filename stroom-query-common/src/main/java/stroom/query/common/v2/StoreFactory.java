@@ -1,9 +1,57 @@
 package stroom.query.common.v2;
 
+import stroom.docref.DocRef;
 import stroom.query.api.v2.SearchRequest;
 
+import java.util.function.Supplier;
+
 public interface StoreFactory {
 
     Store create(final SearchRequest searchRequest);
 
+    /**
+     * Create a store whose work stops when the supplied token is cancelled, e.g. because the search has been
+     * destroyed. Factories that can stop work early should override this.
+     *
+     * @param searchRequest     The search to create a store for.
+     * @param cancellationToken Cancelled when the search is destroyed, including while the store is being created.
+     */
+    default Store create(final SearchRequest searchRequest, final CancellationToken cancellationToken) {
+        return create(searchRequest);
+    }
+
+    /**
+     * Check that the current user is allowed to see the results of a search without creating a new store. This is
+     * called when an existing store created for another user is shared with the search, see {@link SharedStores}.
+     * Implementations should throw an exception if access is denied.
+     *
+     * @param searchRequest The search that will share an existing store.
+     */
+    default void checkAccess(final SearchRequest searchRequest) {
+        if (searchRequest.getQuery() != null) {
+            checkAccess(searchRequest.getQuery().getDataSource());
+        }
+    }
+
+    /**
+     * Check that the current user is allowed to see results from a data source without creating a new store, e.g.
+     * for a search restored from a snapshot, see {@link DataSnapshots}. Implementations should throw an exception if
+     * access is denied.
+     *
+     * @param dataSource The data source that was searched, may be null if the search didn't name one.
+     */
+    default void checkAccess(final DocRef dataSource) {
+    }
+
+    /**
+     * Searches that have to wait for others to finish are created on a different thread to the request that started
+     * them, see {@link SearchAdmissionController}. Capture whatever the creation of a store needs from the requesting
+     * thread, e.g. the current user, and restore it around the supplier.
+     *
+     * @param storeSupplier Creates the store.
+     * @return A supplier that can be called from any thread.
+     */
+    default Supplier<Store> withRequestContext(final Supplier<Store> storeSupplier) {
+        return storeSupplier;
+    }
 }
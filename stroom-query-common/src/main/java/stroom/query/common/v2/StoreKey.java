@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import stroom.docref.DocRef;
+import stroom.query.api.v2.ExpressionItem;
+import stroom.query.api.v2.ExpressionOperator;
+import stroom.query.api.v2.ExpressionTerm;
+import stroom.query.api.v2.Param;
+import stroom.query.api.v2.Query;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.api.v2.TableSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Identifies the results of a search by what is searched for rather than by the {@link stroom.query.api.v2.QueryKey}
+ * of the request. Two requests with the same key will produce the same store contents so can share a single store.
+ * <p>
+ * The key is made from the data source, a canonical form of the expression, the parameters and the table settings
+ * of each component. Disabled expression items are ignored and the children of AND and OR operators are ordered so
+ * that equivalent expressions built in a different order produce the same key.
+ */
+public final class StoreKey {
+    private final String dataSource;
+    private final String expression;
+    private final Map<String, String> params;
+    private final Map<String, TableSettings> tableSettings;
+    private final int hashCode;
+
+    private StoreKey(final String dataSource,
+                     final String expression,
+                     final Map<String, String> params,
+                     final Map<String, TableSettings> tableSettings) {
+        this.dataSource = dataSource;
+        this.expression = expression;
+        this.params = params;
+        this.tableSettings = tableSettings;
+        this.hashCode = Objects.hash(dataSource, expression, params, tableSettings);
+    }
+
+    public static StoreKey create(final SearchRequest searchRequest) {
+        final Query query = searchRequest.getQuery();
+
+        String dataSource = null;
+        String expression = null;
+        final Map<String, String> params = new TreeMap<>();
+        if (query != null) {
+            final DocRef docRef = query.getDataSource();
+            if (docRef != null) {
+                dataSource = docRef.getType() + ":" + docRef.getUuid();
+            }
+            if (query.getExpression() != null) {
+                expression = canonicalise(query.getExpression());
+            }
+            if (query.getParams() != null) {
+                for (final Param param : query.getParams()) {
+                    params.put(param.getKey(), param.getValue());
+                }
+            }
+        }
+
+        final Map<String, TableSettings> tableSettings = new TreeMap<>();
+        if (searchRequest.getResultRequests() != null) {
+            for (final ResultRequest resultRequest : searchRequest.getResultRequests()) {
+                if (resultRequest.getMappings() != null && resultRequest.getMappings().size() > 0) {
+                    tableSettings.put(resultRequest.getComponentId(), resultRequest.getMappings().get(0));
+                }
+            }
+        }
+
+        return new StoreKey(dataSource, expression, params, tableSettings);
+    }
+
+    private static String canonicalise(final ExpressionItem item) {
+        if (!item.enabled()) {
+            return null;
+        }
+
+        // Each part is prefixed with its length so that values containing separators can't make two different
+        // expressions look the same.
+        final StringBuilder sb = new StringBuilder();
+        if (item instanceof ExpressionTerm) {
+            final ExpressionTerm term = (ExpressionTerm) item;
+            append(sb, term.getField());
+            append(sb, String.valueOf(term.getCondition()));
+            append(sb, term.getValue());
+            if (term.getDocRef() != null) {
+                append(sb, term.getDocRef().getType());
+                append(sb, term.getDocRef().getUuid());
+            }
+            return sb.toString();
+        }
+
+        final ExpressionOperator operator = (ExpressionOperator) item;
+        final List<String> children = new ArrayList<>();
+        if (operator.getChildren() != null) {
+            for (final ExpressionItem child : operator.getChildren()) {
+                final String canonical = canonicalise(child);
+                if (canonical != null) {
+                    children.add(canonical);
+                }
+            }
+        }
+
+        // The order of children doesn't matter for AND and OR.
+        if (operator.getOp() != ExpressionOperator.Op.NOT) {
+            Collections.sort(children);
+        }
+
+        append(sb, String.valueOf(operator.getOp()));
+        sb.append('(');
+        children.forEach(child -> append(sb, child));
+        sb.append(')');
+        return sb.toString();
+    }
+
+    private static void append(final StringBuilder sb, final String value) {
+        if (value == null) {
+            sb.append("-1:");
+        } else {
+            sb.append(value.length());
+            sb.append(':');
+            sb.append(value);
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final StoreKey storeKey = (StoreKey) o;
+        return hashCode == storeKey.hashCode &&
+                Objects.equals(dataSource, storeKey.dataSource) &&
+                Objects.equals(expression, storeKey.expression) &&
+                Objects.equals(params, storeKey.params) &&
+                Objects.equals(tableSettings, storeKey.tableSettings);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "StoreKey{" +
+                "dataSource='" + dataSource + '\'' +
+                ", expression='" + expression + '\'' +
+                ", params=" + params +
+                '}';
+    }
+}
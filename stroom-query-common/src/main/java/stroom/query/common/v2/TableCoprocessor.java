@@ -17,6 +17,7 @@
 package stroom.query.common.v2;
 
 import stroom.dashboard.expression.v1.FieldIndexMap;
+import stroom.dashboard.expression.v1.Generator;
 import stroom.dashboard.expression.v1.Val;
 import stroom.mapreduce.v2.BlockingPairQueue;
 import stroom.mapreduce.v2.PairQueue;
@@ -30,12 +31,24 @@ import java.util.Map;
 public class TableCoprocessor implements Coprocessor {
     private final PairQueue<GroupKey, Item> queue;
     private final ItemMapper mapper;
+    private final CancellationToken cancellationToken;
 
     private final CompiledDepths compiledDepths;
 
     public TableCoprocessor(final TableCoprocessorSettings settings,
                             final FieldIndexMap fieldIndexMap,
                             final Map<String, String> paramMap) {
+        this(settings, fieldIndexMap, paramMap, CancellationToken.NONE);
+    }
+
+    /**
+     * @param cancellationToken The token of the search, rows received once it is cancelled are refused.
+     */
+    public TableCoprocessor(final TableCoprocessorSettings settings,
+                            final FieldIndexMap fieldIndexMap,
+                            final Map<String, String> paramMap,
+                            final CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
         final TableSettings tableSettings = settings.getTableSettings();
 
         final List<Field> fields = tableSettings.getFields();
@@ -46,17 +59,60 @@ public class TableCoprocessor implements Coprocessor {
         mapper = new ItemMapper(queue, compiledFields, compiledDepths.getMaxDepth(), compiledDepths.getMaxGroupDepth());
     }
 
+    /**
+     * Create a coprocessor whose grouped and filtered fields may be evaluated once per row for several coprocessors
+     * by the supplied {@link SharedExpressions}. Rows must then be passed to {@link #receive(Val[], Val[])}.
+     */
+    public TableCoprocessor(final TableCoprocessorSettings settings,
+                            final CompiledFields compiledFields,
+                            final SharedExpressions sharedExpressions) {
+        this(settings, compiledFields, sharedExpressions, CancellationToken.NONE);
+    }
+
+    /**
+     * @param cancellationToken The token of the search, rows received once it is cancelled are refused.
+     */
+    public TableCoprocessor(final TableCoprocessorSettings settings,
+                            final CompiledFields compiledFields,
+                            final SharedExpressions sharedExpressions,
+                            final CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        final TableSettings tableSettings = settings.getTableSettings();
+
+        compiledDepths = new CompiledDepths(tableSettings.getFields(), tableSettings.showDetail());
+
+        queue = new BlockingPairQueue<>(settings.getQueueCapacity());
+        mapper = new ItemMapper(queue, compiledFields, compiledDepths.getMaxDepth(), compiledDepths.getMaxGroupDepth(),
+                sharedExpressions.getIndexes(compiledFields));
+    }
+
     public TableCoprocessor(final PairQueue<GroupKey, Item> queue, final CompiledFields compiledFields, final CompiledDepths compiledDepths) {
+        this.cancellationToken = CancellationToken.NONE;
         this.queue = queue;
         this.compiledDepths = compiledDepths;
         mapper = new ItemMapper(queue, compiledFields, compiledDepths.getMaxDepth(), compiledDepths.getMaxGroupDepth());
     }
 
+    /**
+     * @throws java.util.concurrent.CancellationException If the search has been cancelled, so the producer stops.
+     */
     @Override
     public void receive(final Val[] values) {
+        cancellationToken.throwIfCancelled();
         mapper.collect(null, values);
     }
 
+    /**
+     * @param values       The values of the current row.
+     * @param sharedGenerators The generators returned by {@link SharedExpressions#createGenerators(Val[])} for the
+     *                         current row.
+     * @throws java.util.concurrent.CancellationException If the search has been cancelled, so the producer stops.
+     */
+    public void receive(final Val[] values, final Generator[] sharedGenerators) {
+        cancellationToken.throwIfCancelled();
+        mapper.collectShared(values, sharedGenerators);
+    }
+
     @Override
     public Payload createPayload() {
         final UnsafePairQueue<GroupKey, Item> outputQueue = new UnsafePairQueue<>();
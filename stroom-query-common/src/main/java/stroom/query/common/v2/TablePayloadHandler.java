@@ -25,6 +25,7 @@ import stroom.query.util.LambdaLogger;
 import stroom.query.util.LambdaLoggerFactory;
 
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -40,13 +41,25 @@ public class TablePayloadHandler implements PayloadHandler {
     private final CompiledDepths compiledDepths;
     private final Sizes maxResults;
     private final Sizes storeSize;
+    private final CancellationToken cancellationToken;
     private final AtomicLong totalResults = new AtomicLong();
     private final LinkedBlockingQueue<UnsafePairQueue<GroupKey, Item>> pendingMerges = new LinkedBlockingQueue<>();
     private final AtomicBoolean merging = new AtomicBoolean();
+    private final MergeScheduler mergeScheduler;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong pendingRows = new AtomicLong();
+    private volatile boolean interactive;
 
     private volatile PairQueue<GroupKey, Item> currentQueue;
     private volatile Data data;
 
+    private final SearchMetrics.Timer mergeTimer;
+    private final SearchMetrics.Histogram queueSize;
+    private final SearchMetrics.Histogram pendingMergeCount;
+    private final SearchMetrics.Histogram storeItems;
+
+    private final List<DataChangeListener> dataChangeListeners = new CopyOnWriteArrayList<>();
+
     private final Lock lock = new ReentrantLock();
     private final Condition condition = lock.newCondition();
 
@@ -54,16 +67,65 @@ public class TablePayloadHandler implements PayloadHandler {
                                final boolean showDetails,
                                final Sizes maxResults,
                                final Sizes storeSize) {
+        this(fields, showDetails, maxResults, storeSize, CancellationToken.NONE);
+    }
+
+    /**
+     * @param cancellationToken Pending merges are abandoned once the token is cancelled.
+     */
+    public TablePayloadHandler(final List<Field> fields,
+                               final boolean showDetails,
+                               final Sizes maxResults,
+                               final Sizes storeSize,
+                               final CancellationToken cancellationToken) {
+        this(fields, showDetails, maxResults, storeSize, cancellationToken, SearchMetrics.NO_OP);
+    }
+
+    /**
+     * @param cancellationToken Pending merges are abandoned once the token is cancelled.
+     * @param searchMetrics     Records the size and duration of merges.
+     */
+    public TablePayloadHandler(final List<Field> fields,
+                               final boolean showDetails,
+                               final Sizes maxResults,
+                               final Sizes storeSize,
+                               final CancellationToken cancellationToken,
+                               final SearchMetrics searchMetrics) {
+        this(fields, showDetails, maxResults, storeSize, cancellationToken, searchMetrics, null);
+    }
+
+    /**
+     * @param cancellationToken Pending merges are abandoned once the token is cancelled.
+     * @param searchMetrics     Records the size and duration of merges.
+     * @param mergeScheduler    Merges results on the scheduler's threads rather than the thread that adds them. If
+     *                          null results are merged by the thread that adds them, so {@link #getData()} includes
+     *                          them as soon as {@link #addQueue(UnsafePairQueue)} returns.
+     */
+    public TablePayloadHandler(final List<Field> fields,
+                               final boolean showDetails,
+                               final Sizes maxResults,
+                               final Sizes storeSize,
+                               final CancellationToken cancellationToken,
+                               final SearchMetrics searchMetrics,
+                               final MergeScheduler mergeScheduler) {
+        this.cancellationToken = cancellationToken;
+        this.mergeScheduler = mergeScheduler;
         this.compiledSorter = new CompiledSorter(fields);
         this.maxResults = maxResults;
         this.storeSize = storeSize;
         this.compiledDepths = new CompiledDepths(fields, showDetails);
         this.data = new ResultStoreCreator(compiledSorter).create(0, 0);
+
+        this.mergeTimer = searchMetrics.timer(SearchMetrics.TABLE_PAYLOAD_HANDLER, "merge");
+        this.queueSize = searchMetrics.histogram(SearchMetrics.TABLE_PAYLOAD_HANDLER, "queueSize");
+        this.pendingMergeCount = searchMetrics.histogram(SearchMetrics.TABLE_PAYLOAD_HANDLER, "pendingMerges");
+        this.storeItems = searchMetrics.histogram(SearchMetrics.TABLE_PAYLOAD_HANDLER, "storeItems");
     }
 
     void clear() {
         totalResults.set(0);
         pendingMerges.clear();
+        pendingRows.set(0);
         merging.set(false);
         currentQueue = null;
         data = new ResultStoreCreator(compiledSorter).create(0, 0);
@@ -72,7 +134,7 @@ public class TablePayloadHandler implements PayloadHandler {
     void addQueue(final UnsafePairQueue<GroupKey, Item> newQueue) {
         LAMBDA_LOGGER.trace(() -> LambdaLogger.buildMessage("addQueue called for {} items", newQueue.size()));
         if (newQueue != null) {
-            if (Thread.currentThread().isInterrupted()) {
+            if (isTerminated()) {
                 // Clear the queue if we should terminate.
                 pendingMerges.clear();
 
@@ -80,7 +142,10 @@ public class TablePayloadHandler implements PayloadHandler {
                 // Add the new queue to the pending merge queue ready for
                 // merging.
                 try {
+                    queueSize.update(newQueue.size());
+                    pendingRows.addAndGet(newQueue.size());
                     pendingMerges.put(newQueue);
+                    pendingMergeCount.update(pendingMerges.size());
                 } catch (final InterruptedException e) {
                     Thread.currentThread().interrupt();
                     LOGGER.warn("Thread interrupted while trying to put an item onto pendingMerges queue");
@@ -88,10 +153,15 @@ public class TablePayloadHandler implements PayloadHandler {
                     LOGGER.error(e.getMessage(), e);
                 }
 
-                if (!Thread.currentThread().isInterrupted()) {
-                    // Try and merge all of the items on the pending merge queue.
-                    mergePending();
-                    LOGGER.trace("Finished merging items");
+                if (!isTerminated()) {
+                    if (mergeScheduler != null) {
+                        // Let the scheduler merge the items so this thread can get on with producing more.
+                        mergeScheduler.schedule(this);
+                    } else {
+                        // Try and merge all of the items on the pending merge queue.
+                        mergePending();
+                        LOGGER.trace("Finished merging items");
+                    }
                 }
             }
         }
@@ -104,7 +174,7 @@ public class TablePayloadHandler implements PayloadHandler {
         // Only 1 thread will get to do a merge.
         if (merging.compareAndSet(false, true)) {
             try {
-                if (Thread.currentThread().isInterrupted()) {
+                if (isTerminated()) {
                     // Clear the queue if we should terminate.
                     pendingMerges.clear();
 
@@ -117,14 +187,17 @@ public class TablePayloadHandler implements PayloadHandler {
                     }
 
                     while (queue != null) {
+                        pendingRows.addAndGet(-queue.size());
                         try {
+                            final long startTime = System.nanoTime();
                             mergeQueue(queue);
+                            mergeTimer.update(System.nanoTime() - startTime);
                         } catch (final RuntimeException e) {
                             LOGGER.error(e.getMessage(), e);
                             throw e;
                         }
 
-                        if (Thread.currentThread().isInterrupted()) {
+                        if (isTerminated()) {
                             // Clear the queue if we should terminate.
                             pendingMerges.clear();
                         }
@@ -133,21 +206,23 @@ public class TablePayloadHandler implements PayloadHandler {
                     }
 
                     if (didMergeItems) {
-                        lock.lock();
-                        try {
-                            // signal any thread waiting on the condition to check the busy state
-                            LOGGER.trace("Signal all threads to check busy state");
-                            condition.signalAll();
-                        } finally {
-                            lock.unlock();
+                        // Tell anyone waiting for new data that it has arrived.
+                        for (final DataChangeListener listener : dataChangeListeners) {
+                            try {
+                                listener.onDataChange();
+                            } catch (final RuntimeException e) {
+                                LOGGER.error(e.getMessage(), e);
+                            }
                         }
+
+                        signalWaiters();
                     }
                 }
             } finally {
                 merging.set(false);
             }
 
-            if (Thread.currentThread().isInterrupted()) {
+            if (isTerminated()) {
                 // Clear the queue if we should terminate.
                 pendingMerges.clear();
             }
@@ -163,6 +238,71 @@ public class TablePayloadHandler implements PayloadHandler {
         }
     }
 
+    /**
+     * @return True if a merge wasn't already scheduled, see {@link MergeScheduler#schedule(TablePayloadHandler)}.
+     */
+    boolean markScheduled() {
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by the {@link MergeScheduler} to merge everything that is pending.
+     */
+    void runScheduledMerge() {
+        // Allow another merge to be scheduled for results that arrive while this one runs.
+        scheduled.set(false);
+        try {
+            if (isTerminated()) {
+                pendingMerges.clear();
+            } else {
+                mergePending();
+            }
+        } finally {
+            // Nothing may have been merged, e.g. if the search was cancelled, but waiters still need to know that the
+            // scheduled merge is no longer pending.
+            signalWaiters();
+        }
+    }
+
+    /**
+     * @return The rough cost of the next merge, the number of rows waiting to be merged plus the number already in
+     * the store that they must be merged with.
+     */
+    long getMergeCost() {
+        return pendingRows.get() + data.getSize();
+    }
+
+    /**
+     * @return True if somebody is waiting on the results of this handler, so its merges should take priority over
+     * searches running in the background.
+     */
+    boolean isInteractive() {
+        return interactive || !dataChangeListeners.isEmpty();
+    }
+
+    /**
+     * @param interactive True if somebody is waiting on the results, e.g. the search is incremental, see
+     *                    {@link MergeScheduler}.
+     */
+    public void setInteractive(final boolean interactive) {
+        this.interactive = interactive;
+    }
+
+    private void signalWaiters() {
+        lock.lock();
+        try {
+            // signal any thread waiting on the condition to check the busy state
+            LOGGER.trace("Signal all threads to check busy state");
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isTerminated() {
+        return Thread.currentThread().isInterrupted() || cancellationToken.isCancelled();
+    }
+
     private void mergeQueue(final UnsafePairQueue<GroupKey, Item> newQueue) {
         /*
          * Update the total number of results that we have received.
@@ -216,6 +356,7 @@ public class TablePayloadHandler implements PayloadHandler {
 
         // Update the result store reference to point at this new store.
         this.data = resultStoreCreator.create(size, totalResults.get());
+        storeItems.update(size);
 
         // Give back the remaining queue items ready for the next result.
         return remaining;
@@ -232,15 +373,26 @@ public class TablePayloadHandler implements PayloadHandler {
         return false;
     }
 
+    /**
+     * Register a listener to be called each time merged data becomes available from {@link #getData()}.
+     */
+    public void addDataChangeListener(final DataChangeListener listener) {
+        dataChangeListeners.add(listener);
+    }
+
+    public void removeDataChangeListener(final DataChangeListener listener) {
+        dataChangeListeners.remove(listener);
+    }
+
     public Data getData() {
         return data;
     }
 
     public boolean busy() {
-        boolean isBusy = pendingMerges.size() > 0 || merging.get();
+        boolean isBusy = pendingMerges.size() > 0 || merging.get() || scheduled.get();
         LAMBDA_LOGGER.trace(() ->
-                LambdaLogger.buildMessage("busy() called, pendingMerges: {}, merging: {}, returning {}",
-                pendingMerges.size(), merging.get(), isBusy));
+                LambdaLogger.buildMessage("busy() called, pendingMerges: {}, merging: {}, scheduled: {}, returning {}",
+                pendingMerges.size(), merging.get(), scheduled.get(), isBusy));
         return isBusy;
     }
 
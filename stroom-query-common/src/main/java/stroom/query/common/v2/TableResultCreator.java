@@ -26,6 +26,7 @@ import stroom.query.api.v2.Row;
 import stroom.query.api.v2.TableResult;
 import stroom.query.api.v2.TableSettings;
 import stroom.query.common.v2.format.FieldFormatter;
+import stroom.query.common.v2.format.Formatter;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -37,16 +38,33 @@ public class TableResultCreator implements ResultCreator {
     private final FieldFormatter fieldFormatter;
     private volatile List<Field> latestFields;
     private final Sizes defaultMaxResultsSizes;
+    private final SearchMetrics.Timer renderTimer;
 
     public TableResultCreator(final FieldFormatter fieldFormatter,
                               final Sizes defaultMaxResultsSizes) {
+        this(fieldFormatter, defaultMaxResultsSizes, SearchMetrics.NO_OP);
+    }
+
+    public TableResultCreator(final FieldFormatter fieldFormatter,
+                              final Sizes defaultMaxResultsSizes,
+                              final SearchMetrics searchMetrics) {
 
         this.fieldFormatter = fieldFormatter;
         this.defaultMaxResultsSizes = defaultMaxResultsSizes;
+        this.renderTimer = searchMetrics.timer(SearchMetrics.TABLE_RESULT_CREATOR, "render");
     }
 
     @Override
     public Result create(final Data data, final ResultRequest resultRequest) {
+        final long startTime = System.nanoTime();
+        try {
+            return doCreate(data, resultRequest);
+        } finally {
+            renderTimer.update(System.nanoTime() - startTime);
+        }
+    }
+
+    private Result doCreate(final Data data, final ResultRequest resultRequest) {
         final List<Row> resultList = new ArrayList<>();
         int offset = 0;
         int length = Integer.MAX_VALUE;
@@ -74,8 +92,13 @@ public class TableResultCreator implements ResultCreator {
             // Create a set of sizes that are the minimum values for the combination of user provided sizes for the table and the default maximum sizes.
             final Sizes maxResults = Sizes.min(Sizes.create(tableSettings.getMaxResults()), defaultMaxResultsSizes);
 
+            // Resolve each field's formatter once rather than for every value.
+            final Formatter[] formatters = latestFields.stream()
+                    .map(fieldFormatter::getFormatter)
+                    .toArray(Formatter[]::new);
+
             totalResults = addTableResults(data,
-                    latestFields,
+                    formatters,
                     maxResults,
                     offset,
                     length,
@@ -92,7 +115,7 @@ public class TableResultCreator implements ResultCreator {
     }
 
     private int addTableResults(final Data data,
-                                final List<Field> fields,
+                                final Formatter[] formatters,
                                 final Sizes maxResults,
                                 final int offset,
                                 final int length,
@@ -115,7 +138,7 @@ public class TableResultCreator implements ResultCreator {
                     final List<String> values = new ArrayList<>(item.getGenerators().length);
                     int i = 0;
 
-                    for (final Field field : fields) {
+                    for (final Formatter formatter : formatters) {
                         String string = null;
 
                         if (item.getGenerators().length > i) {
@@ -123,7 +146,7 @@ public class TableResultCreator implements ResultCreator {
                             if (generator != null) {
                                 // Convert all list into fully resolved objects evaluating functions where necessary.
                                 final Val val = generator.eval();
-                                string = fieldFormatter.format(field, val);
+                                string = fieldFormatter.formatWith(formatter, val);
                             }
                         }
 
@@ -143,7 +166,7 @@ public class TableResultCreator implements ResultCreator {
 
                 // Add child results if a node is open.
                 if (item.getKey() != null && openGroups != null && openGroups.contains(item.getKey().toString())) {
-                    pos = addTableResults(data, fields, maxResults, offset, length, openGroups, resultList,
+                    pos = addTableResults(data, formatters, maxResults, offset, length, openGroups, resultList,
                             item.getKey(), depth + 1, pos);
                 }
 
@@ -24,15 +24,13 @@ import stroom.query.api.v2.TimeZone;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
 
 public class DateTimeFormatter implements Formatter {
     private final java.time.format.DateTimeFormatter format;
-    private final ZoneId zone;
 
     private DateTimeFormatter(final java.time.format.DateTimeFormatter format, final ZoneId zone) {
-        this.format = format;
-        this.zone = zone;
+        // Bind the zone to the compiled pattern so instants can be formatted without creating a ZonedDateTime.
+        this.format = format == null ? null : format.withZone(zone);
     }
 
     public static DateTimeFormatter create(final DateTimeFormat dateTimeFormat, final String dateTimeLocale) {
@@ -93,8 +91,27 @@ public class DateTimeFormatter implements Formatter {
                 return DateUtil.createNormalDateTimeString(millis);
             }
 
-            return format.format(Instant.ofEpochMilli(millis).atZone(zone));
+            return format.format(Instant.ofEpochMilli(millis));
         }
         return value.toString();
     }
+
+    @Override
+    public void format(final Val value, final StringBuilder sb) {
+        if (value == null) {
+            return;
+        }
+
+        final Long millis = value.toLong();
+        if (millis != null) {
+            if (format == null) {
+                sb.append(DateUtil.createNormalDateTimeString(millis));
+            } else {
+                format.formatTo(Instant.ofEpochMilli(millis), sb);
+            }
+        } else {
+            sb.append(value.toString());
+        }
+    }
+
 }
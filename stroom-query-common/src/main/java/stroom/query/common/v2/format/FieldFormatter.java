@@ -19,18 +19,39 @@ package stroom.query.common.v2.format;
 import stroom.dashboard.expression.v1.Val;
 import stroom.query.api.v2.Field;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class FieldFormatter {
+    // Reused between calls on the same thread to avoid allocating a new builder for every formatted value.
+    private static final ThreadLocal<StringBuilder> STRING_BUILDER = ThreadLocal.withInitial(StringBuilder::new);
+
     private final FormatterFactory formatterFactory;
-    private final Map<Field, Formatter> formatterCache = new HashMap<>();
 
     public FieldFormatter(final FormatterFactory formatterFactory) {
         this.formatterFactory = formatterFactory;
     }
 
+    /**
+     * @param field The field to format values for.
+     * @return The formatter for the field, resolve it once and reuse it for every value in the field.
+     */
+    public Formatter getFormatter(final Field field) {
+        return formatterFactory.create(field);
+    }
+
     public String format(final Field field, final Val value) {
-        return formatterCache.computeIfAbsent(field, k -> formatterFactory.create(field)).format(value);
+        if (value == null) {
+            return null;
+        }
+        return formatWith(getFormatter(field), value);
+    }
+
+    public String formatWith(final Formatter formatter, final Val value) {
+        if (value == null) {
+            return null;
+        }
+
+        final StringBuilder sb = STRING_BUILDER.get();
+        sb.setLength(0);
+        formatter.format(value, sb);
+        return sb.toString();
     }
 }
@@ -18,6 +18,24 @@ package stroom.query.common.v2.format;
 
 import stroom.dashboard.expression.v1.Val;
 
+/**
+ * Formats values for display. Implementations are immutable and are shared between threads once created so must not
+ * hold any per call state.
+ */
 public interface Formatter {
     String format(Val value);
+
+    /**
+     * Append the formatted representation of the supplied value to the supplied builder. Nothing is appended if the
+     * value is null.
+     *
+     * @param value The value to format.
+     * @param sb    The builder to append the formatted value to.
+     */
+    default void format(final Val value, final StringBuilder sb) {
+        final String string = format(value);
+        if (string != null) {
+            sb.append(string);
+        }
+    }
 }
@@ -16,10 +16,24 @@
 
 package stroom.query.common.v2.format;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import stroom.query.api.v2.Field;
+import stroom.query.api.v2.Format;
 import stroom.query.api.v2.Format.Type;
 
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
 public class FormatterFactory {
+    private static final int MAX_CACHED_FORMATTERS = 1000;
+
+    // Formatters are immutable so a single instance can be shared by every search for a given format and locale.
+    private static final Cache<FormatterKey, Formatter> FORMATTER_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_FORMATTERS)
+            .build();
+
     private final String dateTimeLocale;
 
     public FormatterFactory(final String dateTimeLocale) {
@@ -30,21 +44,76 @@ public class FormatterFactory {
         if (field == null) {
             return Unformatted.create();
         }
+        return create(field.getFormat());
+    }
 
-        Type type = Type.GENERAL;
-        if (field.getFormat() != null) {
-            type = field.getFormat().getType();
-        }
-
+    public Formatter create(final Format format) {
+        final Type type = getType(format);
         switch (type) {
             case TEXT:
                 return StringFormatter.create();
             case NUMBER:
-                return NumberFormatter.create(field.getFormat().getNumberFormat());
             case DATE_TIME:
-                return DateTimeFormatter.create(field.getFormat().getDateTimeFormat(), dateTimeLocale);
+                // Only date time formatting depends on the locale so don't let it fragment the cache for numbers.
+                final String locale = Type.DATE_TIME.equals(type) ? dateTimeLocale : null;
+                return getCached(new FormatterKey(format, locale));
             default:
                 return Unformatted.create();
         }
     }
+
+    private Formatter getCached(final FormatterKey key) {
+        try {
+            return FORMATTER_CACHE.get(key, () -> createFormatter(key));
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        } catch (final UncheckedExecutionException e) {
+            // Keep the formatter's own exception, e.g. for a bad pattern.
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private Formatter createFormatter(final FormatterKey key) {
+        final Format format = key.format;
+        if (Type.NUMBER.equals(format.getType())) {
+            return NumberFormatter.create(format.getNumberFormat());
+        }
+        return DateTimeFormatter.create(format.getDateTimeFormat(), key.dateTimeLocale);
+    }
+
+    private static Type getType(final Format format) {
+        if (format == null || format.getType() == null) {
+            return Type.GENERAL;
+        }
+        return format.getType();
+    }
+
+    private static class FormatterKey {
+        private final Format format;
+        private final String dateTimeLocale;
+        private final int hashCode;
+
+        FormatterKey(final Format format, final String dateTimeLocale) {
+            this.format = format;
+            this.dateTimeLocale = dateTimeLocale;
+            this.hashCode = Objects.hash(format, dateTimeLocale);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final FormatterKey that = (FormatterKey) o;
+            return Objects.equals(format, that.format) &&
+                    Objects.equals(dateTimeLocale, that.dateTimeLocale);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
@@ -17,13 +17,57 @@
 package stroom.query.common.v2.format;
 
 import stroom.dashboard.expression.v1.Val;
+import stroom.dashboard.expression.v1.ValInteger;
+import stroom.dashboard.expression.v1.ValLong;
 import stroom.query.api.v2.NumberFormat;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Formats numeric values with a fixed number of decimal places and optional thousands separators. Values are written
+ * digit by digit into a char buffer rather than being converted to a string and then manipulated. Doubles are rounded
+ * half up to the required number of decimal places based on their shortest decimal representation, as
+ * {@link Double#toString(double)} shows them, so 1.005 to two places is 1.01 even though the nearest double is
+ * slightly below 1.005.
+ */
 public class NumberFormatter implements Formatter {
-    private final NumberFormat numberFormat;
+    private static final char SEPARATOR = ',';
+    private static final char DECIMAL_POINT = '.';
+
+    // The largest number of decimal places we can scale a double by and still hold the result exactly in a long.
+    private static final int MAX_FAST_DECIMAL_PLACES = 15;
+    // Doubles can represent every integer up to 2^53 exactly so scaled values below this can be safely rounded.
+    private static final double MAX_FAST_SCALED_VALUE = 9007199254740992D;
+    // Scaling a double is out by less than two ulps of the result, so a scaled value within this many ulps of a half
+    // might round differently in binary than in decimal.
+    private static final double HALF_WAY_ULPS = 4D;
+    // Enough space for the digits, sign and separators of Long.MIN_VALUE.
+    private static final int MAX_INTEGER_CHARS = 27;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_FAST_DECIMAL_PLACES + 1];
+
+    static {
+        long power = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    private final boolean applyFormat;
+    private final int decimalPlaces;
+    private final boolean useSeparator;
 
     private NumberFormatter(final NumberFormat numberFormat) {
-        this.numberFormat = numberFormat;
+        // Resolve the format settings once so they don't need to be unboxed for every value.
+        this.applyFormat = numberFormat != null;
+        if (numberFormat != null && numberFormat.getDecimalPlaces() != null) {
+            this.decimalPlaces = Math.max(0, numberFormat.getDecimalPlaces());
+        } else {
+            this.decimalPlaces = 0;
+        }
+        this.useSeparator = numberFormat != null && numberFormat.useSeparator();
     }
 
     public static NumberFormatter create(final NumberFormat numberFormat) {
@@ -36,55 +80,138 @@ public class NumberFormatter implements Formatter {
             return null;
         }
 
-        final Double dbl = value.toDouble();
-        if (dbl != null) {
-            final String string = value.toString();
+        final StringBuilder sb = new StringBuilder();
+        format(value, sb);
+        return sb.toString();
+    }
 
-            if (numberFormat != null) {
-                final int index = string.indexOf(".");
+    @Override
+    public void format(final Val value, final StringBuilder sb) {
+        if (value == null) {
+            return;
+        }
+        if (!applyFormat) {
+            sb.append(value.toString());
+            return;
+        }
 
-                String p1 = string;
-                String p2 = "";
-                if (index != -1) {
-                    p1 = string.substring(0, index);
-                    p2 = string.substring(index + 1);
-                }
+        if (value instanceof ValLong || value instanceof ValInteger) {
+            formatLong(value.toLong(), sb);
+        } else {
+            final Double dbl = value.toDouble();
+            if (dbl == null) {
+                sb.append(value.toString());
+            } else {
+                formatDouble(dbl, sb);
+            }
+        }
+    }
 
-                // Add separator chars to i part.
-                if (numberFormat.getUseSeparator()) {
-                    final StringBuilder sb = new StringBuilder();
-                    for (int i = 0; i < p1.length(); i++) {
-                        sb.append(p1.charAt(i));
-
-                        final int pos = p1.length() - i - 1;
-                        if (pos > 0 && pos % 3 == 0) {
-                            sb.append(",");
-                        }
-                    }
-                    p1 = sb.toString();
-                }
+    private void formatLong(final long value, final StringBuilder sb) {
+        appendInteger(value, sb);
+        if (decimalPlaces > 0) {
+            sb.append(DECIMAL_POINT);
+            appendZeros(decimalPlaces, sb);
+        }
+    }
 
-                // Trim or pad decimal part.
-                if (p2.length() > numberFormat.getDecimalPlaces()) {
-                    p2 = p2.substring(0, numberFormat.getDecimalPlaces());
-                } else if (p2.length() < numberFormat.getDecimalPlaces()) {
-                    final StringBuilder sb = new StringBuilder();
-                    sb.append(p2);
-                    for (int i = 0; i < numberFormat.getDecimalPlaces() - p2.length(); i++) {
-                        sb.append('0');
-                    }
-                    p2 = sb.toString();
-                }
+    private void formatDouble(final double value, final StringBuilder sb) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            sb.append(value);
+            return;
+        }
 
-                if (p2.length() == 0) {
-                    return p1;
+        if (decimalPlaces <= MAX_FAST_DECIMAL_PLACES) {
+            final long scale = POWERS_OF_TEN[decimalPlaces];
+            final double scaled = Math.abs(value) * scale;
+            // Values close to half way are left to big decimal arithmetic so they round on the decimal value.
+            if (scaled < MAX_FAST_SCALED_VALUE &&
+                    Math.abs(scaled - Math.floor(scaled) - 0.5D) > HALF_WAY_ULPS * Math.ulp(scaled)) {
+                final long rounded = Math.round(scaled);
+                final long integerPart = rounded / scale;
+                final long fractionPart = rounded % scale;
+
+                if (value < 0 && rounded != 0) {
+                    sb.append('-');
+                }
+                appendInteger(integerPart, sb);
+                if (decimalPlaces > 0) {
+                    sb.append(DECIMAL_POINT);
+                    appendFraction(fractionPart, decimalPlaces, sb);
                 }
+                return;
+            }
+        }
+
+        // The value is too large or too precise to scale into a long, or close to half way, so fall back to big decimal
+        // arithmetic.
+        formatBigDecimal(BigDecimal.valueOf(value), sb);
+    }
+
+    private void formatBigDecimal(final BigDecimal value, final StringBuilder sb) {
+        final String string = value.setScale(decimalPlaces, RoundingMode.HALF_UP).toPlainString();
+        int start = 0;
+        if (string.charAt(0) == '-') {
+            sb.append('-');
+            start = 1;
+        }
+
+        final int index = string.indexOf(DECIMAL_POINT);
+        final int integerEnd = index == -1 ? string.length() : index;
+        for (int i = start; i < integerEnd; i++) {
+            sb.append(string.charAt(i));
+
+            final int pos = integerEnd - i - 1;
+            if (useSeparator && pos > 0 && pos % 3 == 0) {
+                sb.append(SEPARATOR);
+            }
+        }
+        if (index != -1) {
+            sb.append(string, index, string.length());
+        }
+    }
 
-                return p1 + "." + p2;
+    /**
+     * Write the digits of the supplied value right to left into a char buffer, adding separators as we go, and then
+     * append the used portion of the buffer.
+     */
+    private void appendInteger(final long value, final StringBuilder sb) {
+        final char[] buffer = new char[MAX_INTEGER_CHARS];
+        int pos = buffer.length;
+        int digits = 0;
+
+        // Work with negative numbers so that Long.MIN_VALUE doesn't overflow.
+        long remaining = value > 0 ? -value : value;
+        do {
+            if (useSeparator && digits > 0 && digits % 3 == 0) {
+                buffer[--pos] = SEPARATOR;
             }
+            final long next = remaining / 10;
+            buffer[--pos] = (char) ('0' + (next * 10 - remaining));
+            remaining = next;
+            digits++;
+        } while (remaining != 0);
+
+        if (value < 0) {
+            buffer[--pos] = '-';
+        }
+
+        sb.append(buffer, pos, buffer.length - pos);
+    }
+
+    private static void appendFraction(final long value, final int places, final StringBuilder sb) {
+        final char[] buffer = new char[places];
+        long remaining = value;
+        for (int i = places - 1; i >= 0; i--) {
+            buffer[i] = (char) ('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        sb.append(buffer);
+    }
 
-            return string;
+    private static void appendZeros(final int count, final StringBuilder sb) {
+        for (int i = 0; i < count; i++) {
+            sb.append('0');
         }
-        return value.toString();
     }
 }
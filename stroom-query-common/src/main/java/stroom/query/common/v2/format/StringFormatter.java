@@ -19,11 +19,13 @@ package stroom.query.common.v2.format;
 import stroom.dashboard.expression.v1.Val;
 
 public class StringFormatter implements Formatter {
+    private static final StringFormatter INSTANCE = new StringFormatter();
+
     private StringFormatter() {
     }
 
     public static StringFormatter create() {
-        return new StringFormatter();
+        return INSTANCE;
     }
 
     @Override
@@ -20,11 +20,13 @@ package stroom.query.common.v2.format;
 import stroom.dashboard.expression.v1.Val;
 
 public class Unformatted implements Formatter {
+    private static final Unformatted INSTANCE = new Unformatted();
+
     private Unformatted() {
     }
 
     public static Unformatted create() {
-        return new Unformatted();
+        return INSTANCE;
     }
 
     @Override
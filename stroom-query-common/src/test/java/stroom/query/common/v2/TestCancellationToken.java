@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestCancellationToken {
+    @Test
+    void testActionsRunOnce() {
+        final CancellationToken cancellationToken = new CancellationToken();
+        final AtomicInteger count = new AtomicInteger();
+        cancellationToken.onCancel(count::incrementAndGet);
+
+        cancellationToken.throwIfCancelled();
+        cancellationToken.cancel();
+        cancellationToken.cancel();
+
+        assertThat(count.get()).isEqualTo(1);
+        assertThat(cancellationToken.isCancelled()).isTrue();
+        assertThatThrownBy(cancellationToken::throwIfCancelled).isInstanceOf(CancellationException.class);
+
+        // Actions registered after cancellation run straight away.
+        cancellationToken.onCancel(count::incrementAndGet);
+        assertThat(count.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testFailingActionDoesNotStopOthers() {
+        final CancellationToken cancellationToken = new CancellationToken();
+        final AtomicInteger count = new AtomicInteger();
+        cancellationToken.onCancel(() -> {
+            throw new RuntimeException("Failed");
+        });
+        cancellationToken.onCancel(count::incrementAndGet);
+
+        cancellationToken.cancel();
+        assertThat(count.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testNoneNeverCancelled() {
+        CancellationToken.NONE.cancel();
+        assertThat(CancellationToken.NONE.isCancelled()).isFalse();
+    }
+}
@@ -0,0 +1,101 @@
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.Test;
+import stroom.query.api.v2.Filter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestCompiledFilter {
+    private static final List<String> PATTERNS = Arrays.asList(
+            "abc",
+            "^abc",
+            "abc$",
+            "^abc$",
+            "^",
+            "$",
+            "^$",
+            "a\\.c",
+            "a.c",
+            "^user\\d+$",
+            "he|she",
+            "\\$100",
+            "[xyz]",
+            "his",
+            "hers",
+            "ushe");
+
+    private static final List<String> VALUES = Arrays.asList(
+            "",
+            "abc",
+            "abc\n",
+            "xabc",
+            "abcx",
+            "a.c",
+            "axc",
+            "user123",
+            "user",
+            "ushers",
+            "costs $100",
+            "nothing",
+            "hi");
+
+    @Test
+    void testSinglePatternsMatchLikeRegex() {
+        for (final String pattern : PATTERNS) {
+            final CompiledFilter filter = new CompiledFilter(new Filter(pattern, null), Collections.emptyMap());
+            for (final String value : VALUES) {
+                final boolean expected = Pattern.compile(pattern).matcher(value).find();
+                assertThat(filter.match(value))
+                        .describedAs("pattern '%s', value '%s'", pattern, value)
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void testCombinedPatternsMatchLikeRegex() {
+        final String includes = String.join("\n", PATTERNS.subList(0, 4)) + "\n" + String.join("\n", PATTERNS.subList(12, 16));
+        final CompiledFilter filter = new CompiledFilter(new Filter(includes, null), Collections.emptyMap());
+        for (final String value : VALUES) {
+            final boolean expected = Arrays.stream(includes.split("\n"))
+                    .anyMatch(pattern -> Pattern.compile(pattern).matcher(value).find());
+            assertThat(filter.match(value))
+                    .describedAs("value '%s'", value)
+                    .isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void testIncludesAndExcludes() {
+        final CompiledFilter filter = new CompiledFilter(new Filter("error\nwarn", "^debug\nignore$"), Collections.emptyMap());
+        assertThat(filter.match("an error occurred")).isTrue();
+        assertThat(filter.match("warning")).isTrue();
+        assertThat(filter.match("info")).isFalse();
+        assertThat(filter.match("debug error")).isFalse();
+        assertThat(filter.match("error to ignore")).isFalse();
+        assertThat(filter.match(null)).isFalse();
+
+        // Check cached results are consistent.
+        assertThat(filter.match("an error occurred")).isTrue();
+        assertThat(filter.match("debug error")).isFalse();
+    }
+
+    @Test
+    void testAhoCorasick() {
+        final AhoCorasick ahoCorasick = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+        assertThat(ahoCorasick.containsAny("ushers")).isTrue();
+        assertThat(ahoCorasick.containsAny("ahishe")).isTrue();
+        assertThat(ahoCorasick.containsAny("hi")).isFalse();
+        assertThat(ahoCorasick.containsAny("")).isFalse();
+
+        // "abcd" fails part way through so must follow the failure link to find "bce".
+        final AhoCorasick overlapping = new AhoCorasick(Arrays.asList("abcd", "bce"));
+        assertThat(overlapping.containsAny("xabcex")).isTrue();
+        assertThat(overlapping.containsAny("abcx")).isFalse();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import stroom.dashboard.expression.v1.Generator;
+import stroom.dashboard.expression.v1.ValString;
+import stroom.query.api.v2.Query;
+import stroom.query.api.v2.QueryKey;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.SearchRequest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestDataSnapshots {
+    private static final String USER = "user1";
+
+    private Path directory;
+
+    @BeforeEach
+    void setup() throws IOException {
+        directory = Files.createTempDirectory("snapshots");
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        try (final Stream<Path> stream = Files.walk(directory)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void restoresSavedData() {
+        final DataSnapshots dataSnapshots = new DataSnapshots(directory, 0, Duration.ofDays(1));
+        final SearchRequest searchRequest = searchRequest("table1", "table2");
+
+        dataSnapshots.save(searchRequest, USER, new TestStore(createData()));
+
+        final Optional<DataSnapshots.SnapshotStore> restored = dataSnapshots.restore(searchRequest.getKey(), USER);
+        assertThat(restored).isPresent();
+        final DataSnapshots.SnapshotStore store = restored.get();
+        assertThat(store.isComplete()).isTrue();
+        assertThat(store.getDataSource()).isEqualTo(searchRequest.getQuery().getDataSource());
+        assertThat(store.getErrors()).containsExactly("error");
+        assertThat(store.getStoreSize().size(0)).isEqualTo(100);
+        assertThat(store.getStoreSize().size(5)).isEqualTo(1);
+        assertThat(store.getDefaultMaxResultsSizes()).isNull();
+
+        final Data data = store.getData("table1");
+        assertThat(data.getSize()).isEqualTo(2);
+        assertThat(data.getTotalSize()).isEqualTo(3);
+
+        final GroupKey parent = new GroupKey(ValString.create("a"));
+        final GroupKey child = new GroupKey(parent, ValString.create("b"));
+        assertThat(data.getChildMap().keySet()).containsExactlyInAnyOrder(null, parent);
+        assertThat(data.getChildMap().get(null).size()).isEqualTo(1);
+        final Item item = data.getChildMap().get(parent).iterator().next();
+        assertThat(item.getKey()).isEqualTo(child);
+        assertThat(item.getKey().getDepth()).isEqualTo(1);
+        assertThat(item.getDepth()).isEqualTo(1);
+        assertThat(item.getGenerators()).hasSize(2);
+
+        assertThat(store.getData("table2")).isNotNull();
+        assertThat(store.getData("unknown")).isNull();
+    }
+
+    @Test
+    void ignoresMissingAndOtherSnapshots() {
+        final DataSnapshots dataSnapshots = new DataSnapshots(directory, 0, Duration.ofDays(1));
+        dataSnapshots.save(searchRequest("table1"), USER, new TestStore(createData()));
+
+        assertThat(dataSnapshots.restore(new QueryKey(UUID.randomUUID().toString()), USER)).isEmpty();
+    }
+
+    @Test
+    void onlyRestoresSnapshotsForTheOwner() {
+        final DataSnapshots dataSnapshots = new DataSnapshots(directory, 0, Duration.ofDays(1));
+        final SearchRequest searchRequest = searchRequest("table1");
+        dataSnapshots.save(searchRequest, USER, new TestStore(createData()));
+
+        // Another user reusing the query key can't restore the snapshot or delete it.
+        assertThat(dataSnapshots.restore(searchRequest.getKey(), "user2")).isEmpty();
+        dataSnapshots.delete(searchRequest.getKey(), "user2");
+
+        assertThat(dataSnapshots.restore(searchRequest.getKey(), USER)).isPresent();
+    }
+
+    @Test
+    void deletesSnapshots() {
+        final DataSnapshots dataSnapshots = new DataSnapshots(directory, 0, Duration.ofDays(1));
+        final SearchRequest searchRequest = searchRequest("table1");
+        dataSnapshots.save(searchRequest, USER, new TestStore(createData()));
+
+        dataSnapshots.delete(searchRequest.getKey(), USER);
+
+        assertThat(dataSnapshots.restore(searchRequest.getKey(), USER)).isEmpty();
+    }
+
+    @Test
+    void expiresSnapshots() throws IOException {
+        final DataSnapshots dataSnapshots = new DataSnapshots(directory, 0, Duration.ofMinutes(1));
+        final SearchRequest searchRequest = searchRequest("table1");
+        dataSnapshots.save(searchRequest, USER, new TestStore(createData()));
+
+        setAge(Duration.ofMinutes(2));
+
+        assertThat(dataSnapshots.restore(searchRequest.getKey(), USER)).isEmpty();
+        assertThat(snapshotCount()).isZero();
+    }
+
+    @Test
+    void deletesOldestSnapshotsOverSizeLimit() throws IOException {
+        final DataSnapshots unlimited = new DataSnapshots(directory, 0, Duration.ofDays(1));
+        final SearchRequest oldest = searchRequest("table1");
+        unlimited.save(oldest, USER, new TestStore(createData()));
+        setAge(Duration.ofMinutes(1));
+        final long snapshotSize = Files.size(Files.list(directory).findFirst().get());
+
+        // Only room for two snapshots.
+        final DataSnapshots dataSnapshots = new DataSnapshots(directory, snapshotSize * 2 + snapshotSize / 2,
+                Duration.ofDays(1));
+        final SearchRequest middle = searchRequest("table1");
+        final SearchRequest newest = searchRequest("table1");
+        dataSnapshots.save(middle, USER, new TestStore(createData()));
+        dataSnapshots.save(newest, USER, new TestStore(createData()));
+
+        assertThat(dataSnapshots.restore(oldest.getKey(), USER)).isEmpty();
+        assertThat(dataSnapshots.restore(middle.getKey(), USER)).isPresent();
+        assertThat(dataSnapshots.restore(newest.getKey(), USER)).isPresent();
+    }
+
+    @Test
+    void closeWritesPendingSnapshots() {
+        final DataSnapshots dataSnapshots = new DataSnapshots(directory, 0, Duration.ofDays(1));
+        final SearchRequest searchRequest = searchRequest("table1");
+        final TestStore store = new TestStore(createData());
+
+        dataSnapshots.saveOnCompletion(searchRequest, USER, store, new CancellationToken());
+        dataSnapshots.close();
+        assertThat(dataSnapshots.restore(searchRequest.getKey(), USER)).isPresent();
+
+        // Nothing is written once closed.
+        final SearchRequest late = searchRequest("table1");
+        dataSnapshots.saveOnCompletion(late, USER, store, new CancellationToken());
+        assertThat(dataSnapshots.restore(late.getKey(), USER)).isEmpty();
+    }
+
+    private void setAge(final Duration age) throws IOException {
+        final FileTime time = FileTime.fromMillis(System.currentTimeMillis() - age.toMillis());
+        try (final Stream<Path> stream = Files.list(directory)) {
+            for (final Path path : (Iterable<Path>) stream::iterator) {
+                Files.setLastModifiedTime(path, time);
+            }
+        }
+    }
+
+    private long snapshotCount() throws IOException {
+        try (final Stream<Path> stream = Files.list(directory)) {
+            return stream.count();
+        }
+    }
+
+    private static SearchRequest searchRequest(final String... componentIds) {
+        final SearchRequest.Builder builder = new SearchRequest.Builder()
+                .key(UUID.randomUUID().toString())
+                .query(new Query.Builder()
+                        .dataSource("test", UUID.randomUUID().toString(), "test")
+                        .build());
+        for (final String componentId : componentIds) {
+            builder.addResultRequests(new ResultRequest.Builder()
+                    .componentId(componentId)
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private static Data createData() {
+        final GroupKey parent = new GroupKey(ValString.create("a"));
+        final GroupKey child = new GroupKey(parent, ValString.create("b"));
+
+        final Items<Item> topItems = new ItemsArrayList<>();
+        topItems.add(new Item(parent, new Generator[2], 0));
+        final Items<Item> childItems = new ItemsArrayList<>();
+        childItems.add(new Item(child, new Generator[2], 1));
+
+        final Map<GroupKey, Items<Item>> map = new HashMap<>();
+        map.put(null, topItems);
+        map.put(parent, childItems);
+        return new Data(map, 2, 3);
+    }
+
+    private static class TestStore implements Store {
+        private final Data data;
+
+        TestStore(final Data data) {
+            this.data = data;
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public boolean isComplete() {
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<Void> getCompletionFuture() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void awaitCompletion() {
+        }
+
+        @Override
+        public boolean awaitCompletion(final long timeout, final TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public Data getData(final String componentId) {
+            return data;
+        }
+
+        @Override
+        public List<String> getErrors() {
+            return Collections.singletonList("error");
+        }
+
+        @Override
+        public List<String> getHighlights() {
+            return null;
+        }
+
+        @Override
+        public Sizes getDefaultMaxResultsSizes() {
+            return null;
+        }
+
+        @Override
+        public Sizes getStoreSize() {
+            return Sizes.create(Arrays.asList(100, 10, 1));
+        }
+    }
+}
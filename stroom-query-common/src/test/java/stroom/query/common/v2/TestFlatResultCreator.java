@@ -0,0 +1,133 @@
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import stroom.dashboard.expression.v1.FieldIndexMap;
+import stroom.dashboard.expression.v1.Val;
+import stroom.dashboard.expression.v1.ValString;
+import stroom.mapreduce.v2.UnsafePairQueue;
+import stroom.query.api.v2.Field;
+import stroom.query.api.v2.FlatResult;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.TableSettings;
+import stroom.query.common.v2.format.FieldFormatter;
+import stroom.query.common.v2.format.FormatterFactory;
+import stroom.query.shared.v2.ParamUtil;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestFlatResultCreator {
+    private final Sizes defaultMaxResultsSizes = Sizes.create(50);
+    private final FieldFormatter fieldFormatter = new FieldFormatter(new FormatterFactory(null));
+
+    private final TableSettings parentTableSettings = new TableSettings.Builder()
+            .addFields(new Field.Builder()
+                    .name("Text")
+                    .expression(ParamUtil.makeParam("Text"))
+                    .build())
+            .build();
+
+    @Test
+    void testUnchangedDataIsNotMappedAgain() {
+        final ResultRequest resultRequest = resultRequest(child("${Text}"));
+        final FlatResultCreator resultCreator = new FlatResultCreator(resultRequest,
+                Collections.emptyMap(),
+                fieldFormatter,
+                defaultMaxResultsSizes);
+
+        final Data data = Mockito.spy(createData("a", "b", "c"));
+        final FlatResult first = (FlatResult) resultCreator.create(data, resultRequest);
+        final FlatResult second = (FlatResult) resultCreator.create(data, resultRequest);
+
+        // The mapper only reads the parent data the first time.
+        Mockito.verify(data, Mockito.times(1)).getChildMap();
+        assertThat(values(second)).isEqualTo(values(first)).containsExactlyInAnyOrder("a", "b", "c");
+    }
+
+    @Test
+    void testChangedDataIsMappedAgain() {
+        final ResultRequest resultRequest = resultRequest(child("${Text}"));
+        final FlatResultCreator resultCreator = new FlatResultCreator(resultRequest,
+                Collections.emptyMap(),
+                fieldFormatter,
+                defaultMaxResultsSizes);
+
+        final FlatResult first = (FlatResult) resultCreator.create(createData("a", "b"), resultRequest);
+        final FlatResult second = (FlatResult) resultCreator.create(createData("a", "b", "c"), resultRequest);
+
+        assertThat(values(first)).containsExactlyInAnyOrder("a", "b");
+        assertThat(values(second)).containsExactlyInAnyOrder("a", "b", "c");
+    }
+
+    @Test
+    void testDifferentMappingsDoNotShareResults() {
+        final ResultRequest upperRequest = resultRequest(child("upperCase(${Text})"));
+        final ResultRequest lowerRequest = resultRequest(child("${Text}"));
+        final FlatResultCreator upperCreator = new FlatResultCreator(upperRequest,
+                Collections.emptyMap(),
+                fieldFormatter,
+                defaultMaxResultsSizes);
+        final FlatResultCreator lowerCreator = new FlatResultCreator(lowerRequest,
+                Collections.emptyMap(),
+                fieldFormatter,
+                defaultMaxResultsSizes);
+
+        final Data data = createData("a", "b");
+        assertThat(values((FlatResult) upperCreator.create(data, upperRequest))).containsExactlyInAnyOrder("A", "B");
+        assertThat(values((FlatResult) lowerCreator.create(data, lowerRequest))).containsExactlyInAnyOrder("a", "b");
+        assertThat(values((FlatResult) upperCreator.create(data, upperRequest))).containsExactlyInAnyOrder("A", "B");
+    }
+
+    private TableSettings child(final String expression) {
+        return new TableSettings.Builder()
+                .addFields(new Field.Builder()
+                        .name("Value")
+                        .expression(expression)
+                        .build())
+                .build();
+    }
+
+    private ResultRequest resultRequest(final TableSettings child) {
+        return new ResultRequest.Builder()
+                .componentId("componentX")
+                .addMappings(parentTableSettings, child)
+                .build();
+    }
+
+    private Data createData(final String... texts) {
+        final CompiledDepths compiledDepths = new CompiledDepths(parentTableSettings.getFields(),
+                parentTableSettings.showDetail());
+        final FieldIndexMap fieldIndexMap = new FieldIndexMap(true);
+        final CompiledFields compiledFields = new CompiledFields(parentTableSettings.getFields(),
+                fieldIndexMap,
+                Collections.emptyMap());
+
+        final UnsafePairQueue<GroupKey, Item> queue = new UnsafePairQueue<>();
+        final ItemMapper itemMapper = new ItemMapper(queue, compiledFields, compiledDepths.getMaxDepth(),
+                compiledDepths.getMaxGroupDepth());
+        for (final String text : texts) {
+            final Val[] values = new Val[fieldIndexMap.size()];
+            values[fieldIndexMap.get("Text")] = ValString.create(text);
+            itemMapper.collect(null, values);
+        }
+
+        final TablePayloadHandler payloadHandler = new TablePayloadHandler(
+                parentTableSettings.getFields(),
+                parentTableSettings.showDetail(),
+                defaultMaxResultsSizes,
+                Sizes.create(100));
+        payloadHandler.addQueue(queue);
+        return payloadHandler.getData();
+    }
+
+    private List<Object> values(final FlatResult result) {
+        // The first three values of each row are the parent key, key and depth.
+        return result.getValues().stream()
+                .map(row -> row.get(3))
+                .collect(Collectors.toList());
+    }
+}
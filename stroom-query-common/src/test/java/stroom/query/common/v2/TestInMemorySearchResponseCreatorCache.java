@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.junit.jupiter.api.Test;
+import stroom.query.api.v2.SearchRequest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestInMemorySearchResponseCreatorCache {
+    @Test
+    void testHeaviestIdleSearchesEvictedFirst() {
+        final Map<String, SizedStore> stores = new HashMap<>();
+        stores.put("small", new SizedStore(100));
+        stores.put("large", new SizedStore(1000));
+        stores.put("medium", new SizedStore(500));
+
+        final SearchResponseCreatorCache cache = new TestCacheFactory(1200, Duration.ZERO)
+                .create(searchRequest -> stores.get(searchRequest.getKey().getUuid()));
+
+        cache.get(key("small"));
+        cache.get(key("large"));
+        cache.evictExpiredElements();
+        assertThat(stores.get("large").isDestroyed()).isFalse();
+
+        // Adding the medium store takes the total over the limit, the limit isn't checked when searches are requested.
+        cache.get(key("medium"));
+        assertThat(stores.get("large").isDestroyed()).isFalse();
+
+        // The largest idle store goes when the limit is next checked.
+        cache.evictExpiredElements();
+        assertThat(stores.get("large").isDestroyed()).isTrue();
+        assertThat(stores.get("small").isDestroyed()).isFalse();
+        assertThat(stores.get("medium").isDestroyed()).isFalse();
+    }
+
+    @Test
+    void testIdleSearchesEvicted() throws InterruptedException {
+        final SizedStore store = new SizedStore(100);
+
+        final SearchResponseCreatorCache cache = new TestCacheFactory(0, Duration.ofMillis(1))
+                .create(searchRequest -> store);
+
+        cache.get(key("idle"));
+        Thread.sleep(20);
+        assertThat(store.isDestroyed()).isFalse();
+
+        cache.evictExpiredElements();
+        assertThat(store.isDestroyed()).isTrue();
+    }
+
+    @Test
+    void testRemoveCancelsStoreCreation() {
+        final AtomicReference<CancellationToken> token = new AtomicReference<>();
+        final SearchResponseCreatorCache cache = new TestCacheFactory(0, Duration.ZERO).create(new StoreFactory() {
+            @Override
+            public Store create(final SearchRequest searchRequest) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Store create(final SearchRequest searchRequest, final CancellationToken cancellationToken) {
+                token.set(cancellationToken);
+                return new SizedStore(10);
+            }
+        });
+
+        cache.get(key("search"));
+        assertThat(token.get().isCancelled()).isFalse();
+
+        cache.remove(key("search"));
+        assertThat(token.get().isCancelled()).isTrue();
+    }
+
+    @Test
+    void testHitsAndMissesRecorded() {
+        final Map<String, LongSupplier> gauges = new HashMap<>();
+        final SearchMetrics searchMetrics = new SearchMetrics() {
+            @Override
+            public void gauge(final String component, final String name, final LongSupplier supplier) {
+                gauges.put(name, supplier);
+            }
+        };
+
+        final SearchResponseCreatorCache cache = new TestCacheFactory(0, Duration.ZERO, searchMetrics)
+                .create(searchRequest -> new SizedStore(10));
+
+        cache.get(key("first"));
+        cache.get(key("first"));
+        cache.get(key("second"));
+
+        assertThat(gauges.get("hits").getAsLong()).isEqualTo(1);
+        assertThat(gauges.get("misses").getAsLong()).isEqualTo(2);
+    }
+
+    @Test
+    void testRejectedSearchNotKept() {
+        final AtomicInteger created = new AtomicInteger();
+        final SearchResponseCreatorCache cache = new TestCacheFactory(0, Duration.ZERO)
+                .create(searchRequest -> {
+                    created.incrementAndGet();
+                    return new SizedStore(10) {
+                        @Override
+                        public boolean isRejected() {
+                            return true;
+                        }
+                    };
+                });
+
+        assertThat(cache.get(key("search")).isRejected()).isTrue();
+        assertThat(cache.getIfPresent(key("search"))).isEmpty();
+
+        // Asking again tries to start the search again.
+        cache.get(key("search"));
+        assertThat(created.get()).isEqualTo(2);
+    }
+
+    private SearchResponseCreatorCache.Key key(final String uuid) {
+        return new SearchResponseCreatorCache.Key(new SearchRequest.Builder().key(uuid).build());
+    }
+
+    private static class TestCacheFactory extends AbstractInMemorySearchResponseCreatorCacheFactory {
+        private final long maxMemoryBytes;
+        private final Duration maxIdleTime;
+        private final SearchMetrics searchMetrics;
+
+        TestCacheFactory(final long maxMemoryBytes, final Duration maxIdleTime) {
+            this(maxMemoryBytes, maxIdleTime, SearchMetrics.NO_OP);
+        }
+
+        TestCacheFactory(final long maxMemoryBytes, final Duration maxIdleTime, final SearchMetrics searchMetrics) {
+            this.maxMemoryBytes = maxMemoryBytes;
+            this.maxIdleTime = maxIdleTime;
+            this.searchMetrics = searchMetrics;
+        }
+
+        @Override
+        protected SearchMetrics getSearchMetrics() {
+            return searchMetrics;
+        }
+
+        @Override
+        protected long getMaxMemoryBytes() {
+            return maxMemoryBytes;
+        }
+
+        @Override
+        protected Duration getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        @Override
+        protected void addAdditionalBuildOptions(final CacheBuilder<SearchResponseCreatorCache.Key, SearchResponseCreator> cacheBuilder) {
+        }
+
+        @Override
+        protected void registerCache(final CacheBuilder<SearchResponseCreatorCache.Key, SearchResponseCreator> cacheBuilder,
+                                     final Cache<SearchResponseCreatorCache.Key, SearchResponseCreator> cache) {
+        }
+    }
+
+    private static class SizedStore implements Store {
+        private final long size;
+        private volatile boolean destroyed;
+
+        SizedStore(final long size) {
+            this.size = size;
+        }
+
+        boolean isDestroyed() {
+            return destroyed;
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return size;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return true;
+        }
+
+        @Override
+        public void awaitCompletion() {
+        }
+
+        @Override
+        public boolean awaitCompletion(final long timeout, final TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public Data getData(final String componentId) {
+            return null;
+        }
+
+        @Override
+        public List<String> getErrors() {
+            return null;
+        }
+
+        @Override
+        public List<String> getHighlights() {
+            return null;
+        }
+
+        @Override
+        public Sizes getDefaultMaxResultsSizes() {
+            return null;
+        }
+
+        @Override
+        public Sizes getStoreSize() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.Test;
+import stroom.dashboard.expression.v1.FieldIndexMap;
+import stroom.dashboard.expression.v1.Val;
+import stroom.dashboard.expression.v1.ValString;
+import stroom.mapreduce.v2.UnsafePairQueue;
+import stroom.query.api.v2.Field;
+import stroom.query.api.v2.Query;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.api.v2.TableSettings;
+import stroom.query.common.v2.CoprocessorSettingsMap.CoprocessorKey;
+import stroom.query.shared.v2.ParamUtil;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestMergeScheduler {
+    private final List<String> merged = new CopyOnWriteArrayList<>();
+
+    @Test
+    void prefersInteractiveAndCheapMerges() throws InterruptedException {
+        final MergeScheduler mergeScheduler = new MergeScheduler(1, SearchMetrics.NO_OP);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Hold the only worker so that everything else queues up.
+            mergeScheduler.schedule(new TestHandler("blocker", 0, true, release));
+            waitForMerges(1);
+
+            mergeScheduler.schedule(new TestHandler("batchLarge", 1_000_000, false, null));
+            mergeScheduler.schedule(new TestHandler("batchSmall", 10, false, null));
+            mergeScheduler.schedule(new TestHandler("interactiveLarge", 100_000, true, null));
+            mergeScheduler.schedule(new TestHandler("interactiveSmall", 10, true, null));
+
+            release.countDown();
+            waitForMerges(5);
+
+            assertThat(merged).containsExactly(
+                    "blocker",
+                    "interactiveSmall",
+                    "interactiveLarge",
+                    "batchSmall",
+                    "batchLarge");
+        } finally {
+            release.countDown();
+            mergeScheduler.close();
+        }
+    }
+
+    @Test
+    void onlySchedulesOneMergePerHandler() throws InterruptedException {
+        final MergeScheduler mergeScheduler = new MergeScheduler(1, SearchMetrics.NO_OP);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            mergeScheduler.schedule(new TestHandler("blocker", 0, true, release));
+            waitForMerges(1);
+
+            final TestHandler handler = new TestHandler("handler", 10, true, null);
+            mergeScheduler.schedule(handler);
+            mergeScheduler.schedule(handler);
+            mergeScheduler.schedule(handler);
+
+            release.countDown();
+            waitForMerges(2);
+            Thread.sleep(100);
+            assertThat(merged).containsExactly("blocker", "handler");
+
+            // Once the merge has run another can be scheduled.
+            mergeScheduler.schedule(handler);
+            waitForMerges(3);
+        } finally {
+            release.countDown();
+            mergeScheduler.close();
+        }
+    }
+
+    @Test
+    void mergesAddedResultsOnSchedulerThreads() throws InterruptedException {
+        final MergeScheduler mergeScheduler = new MergeScheduler(2, SearchMetrics.NO_OP);
+        try {
+            final TableSettings tableSettings = tableSettings();
+            final TablePayloadHandler payloadHandler = new TablePayloadHandler(tableSettings.getFields(),
+                    tableSettings.showDetail(),
+                    Sizes.create(Integer.MAX_VALUE),
+                    Sizes.create(Integer.MAX_VALUE),
+                    CancellationToken.NONE,
+                    SearchMetrics.NO_OP,
+                    mergeScheduler);
+            for (int i = 0; i < 10; i++) {
+                payloadHandler.addQueue(createQueue(tableSettings, i * 100, 100));
+            }
+
+            payloadHandler.waitForPendingWork();
+            assertThat(payloadHandler.busy()).isFalse();
+            assertThat(payloadHandler.getData().getTotalSize()).isEqualTo(1_000);
+            assertThat(payloadHandler.getData().getSize()).isEqualTo(1_000);
+        } finally {
+            mergeScheduler.close();
+        }
+    }
+
+    @Test
+    void mergesOnProducerThreadOnceClosed() {
+        final MergeScheduler mergeScheduler = new MergeScheduler(1, SearchMetrics.NO_OP);
+        mergeScheduler.close();
+
+        final TableSettings tableSettings = tableSettings();
+        final TablePayloadHandler payloadHandler = new TablePayloadHandler(tableSettings.getFields(),
+                tableSettings.showDetail(),
+                Sizes.create(Integer.MAX_VALUE),
+                Sizes.create(Integer.MAX_VALUE),
+                CancellationToken.NONE,
+                SearchMetrics.NO_OP,
+                mergeScheduler);
+        payloadHandler.addQueue(createQueue(tableSettings, 0, 100));
+
+        assertThat(payloadHandler.busy()).isFalse();
+        assertThat(payloadHandler.getData().getSize()).isEqualTo(100);
+    }
+
+    @Test
+    void destroyingSearchAbandonsPendingMerges() throws InterruptedException {
+        final MergeScheduler mergeScheduler = new MergeScheduler(1, SearchMetrics.NO_OP);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final TableSettings tableSettings = tableSettings();
+            final SearchRequest searchRequest = new SearchRequest.Builder()
+                    .key(UUID.randomUUID().toString())
+                    .query(new Query.Builder()
+                            .dataSource("test", UUID.randomUUID().toString(), "test")
+                            .build())
+                    .addResultRequests(new ResultRequest.Builder()
+                            .componentId("table")
+                            .addMappings(tableSettings)
+                            .build())
+                    .build();
+            final CoprocessorSettingsMap settingsMap = CoprocessorSettingsMap.create(searchRequest);
+            final CoprocessorKey coprocessorKey = settingsMap.getCoprocessorKey("table");
+
+            final CancellationToken cancellationToken = new CancellationToken();
+            final SearchResultHandler resultHandler = new SearchResultHandler(new CompletionState(),
+                    settingsMap,
+                    Sizes.create(Integer.MAX_VALUE),
+                    Sizes.create(Integer.MAX_VALUE),
+                    cancellationToken,
+                    SearchMetrics.NO_OP,
+                    mergeScheduler);
+            final SearchResponseCreator searchResponseCreator = new SearchResponseCreator(
+                    new ResultHandlerStore(resultHandler,
+                            Collections.singleton("table"),
+                            Sizes.create(Integer.MAX_VALUE),
+                            Sizes.create(Integer.MAX_VALUE)),
+                    cancellationToken);
+            final TableCoprocessor coprocessor = new TableCoprocessor(
+                    (TableCoprocessorSettings) settingsMap.getMap().get(coprocessorKey),
+                    new FieldIndexMap(true),
+                    Collections.emptyMap(),
+                    cancellationToken);
+
+            receive(coprocessor, 0, 100);
+            resultHandler.handle(Collections.singletonMap(coprocessorKey, coprocessor.createPayload()));
+            resultHandler.waitForPendingWork();
+            assertThat(resultHandler.getResultStore("table").getSize()).isEqualTo(100);
+
+            // Hold the only worker so that the next merge is still pending when the search is destroyed.
+            mergeScheduler.schedule(new TestHandler("blocker", 0, true, release));
+            waitForMerges(1);
+            receive(coprocessor, 100, 100);
+            final Map<CoprocessorKey, Payload> payloadMap =
+                    Collections.singletonMap(coprocessorKey, coprocessor.createPayload());
+            resultHandler.handle(payloadMap);
+            searchResponseCreator.destroy();
+            release.countDown();
+
+            resultHandler.waitForPendingWork();
+            assertThat(resultHandler.getResultStore("table").getSize()).isEqualTo(100);
+
+            // The producer is stopped by the next row it offers and anything it still hands over is dropped.
+            assertThatThrownBy(() -> coprocessor.receive(new Val[]{ValString.create("Text")}))
+                    .isInstanceOf(CancellationException.class);
+            resultHandler.handle(payloadMap);
+            resultHandler.waitForPendingWork();
+            assertThat(resultHandler.getResultStore("table").getSize()).isEqualTo(100);
+        } finally {
+            release.countDown();
+            mergeScheduler.close();
+        }
+    }
+
+    private void receive(final TableCoprocessor coprocessor, final int start, final int count) {
+        for (int i = start; i < start + count; i++) {
+            coprocessor.receive(new Val[]{ValString.create("Text " + i)});
+        }
+    }
+
+    private TableSettings tableSettings() {
+        return new TableSettings.Builder()
+                .addFields(new Field.Builder()
+                        .name("Text")
+                        .expression(ParamUtil.makeParam("Text"))
+                        .build())
+                .build();
+    }
+
+    private UnsafePairQueue<GroupKey, Item> createQueue(final TableSettings tableSettings,
+                                                        final int start,
+                                                        final int count) {
+        final CompiledDepths compiledDepths = new CompiledDepths(tableSettings.getFields(), tableSettings.showDetail());
+        final CompiledFields compiledFields = new CompiledFields(tableSettings.getFields(), null, Collections.emptyMap());
+        final UnsafePairQueue<GroupKey, Item> queue = new UnsafePairQueue<>();
+        final ItemMapper itemMapper = new ItemMapper(queue, compiledFields, compiledDepths.getMaxDepth(),
+                compiledDepths.getMaxGroupDepth());
+        for (int i = start; i < start + count; i++) {
+            final Val[] values = new Val[1];
+            values[0] = ValString.create("Text " + i);
+            itemMapper.collect(null, values);
+        }
+        return queue;
+    }
+
+    private void waitForMerges(final int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 5_000;
+        while (merged.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertThat(merged).hasSize(count);
+    }
+
+    private class TestHandler extends TablePayloadHandler {
+        private final String name;
+        private final long cost;
+        private final boolean interactive;
+        private final CountDownLatch release;
+
+        TestHandler(final String name, final long cost, final boolean interactive, final CountDownLatch release) {
+            super(Collections.emptyList(), false, null, null);
+            this.name = name;
+            this.cost = cost;
+            this.interactive = interactive;
+            this.release = release;
+        }
+
+        @Override
+        void runScheduledMerge() {
+            super.runScheduledMerge();
+            merged.add(name);
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        long getMergeCost() {
+            return cost;
+        }
+
+        @Override
+        boolean isInteractive() {
+            return interactive;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestSearchAdmissionController {
+    private final List<String> started = new ArrayList<>();
+    private final Map<String, TestStore> stores = new HashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void startsWithinLimitsAndQueuesTheRest() {
+        final SearchAdmissionController controller = new SearchAdmissionController(2, 0, 10, executor);
+
+        final Store first = controller.admit("user1", supplier("first"), new CancellationToken());
+        controller.admit("user2", supplier("second"), new CancellationToken());
+        final Store third = controller.admit("user3", supplier("third"), new CancellationToken());
+
+        assertThat(started).containsExactly("first", "second");
+        assertThat(first.isQueued()).isFalse();
+        assertThat(third.isQueued()).isTrue();
+        assertThat(third.isComplete()).isFalse();
+        assertThat(third.getData("component")).isNull();
+        assertThat(controller.getRunning()).isEqualTo(2);
+        assertThat(controller.getQueued()).isEqualTo(1);
+
+        complete("first");
+        waitForStarted(3);
+        assertThat(started).containsExactly("first", "second", "third");
+        assertThat(third.isQueued()).isFalse();
+        assertThat(controller.getQueued()).isZero();
+    }
+
+    @Test
+    void limitsSearchesPerUser() {
+        final SearchAdmissionController controller = new SearchAdmissionController(10, 2, 10, executor);
+
+        controller.admit("user1", supplier("user1-1"), new CancellationToken());
+        controller.admit("user1", supplier("user1-2"), new CancellationToken());
+        final Store third = controller.admit("user1", supplier("user1-3"), new CancellationToken());
+        controller.admit("user2", supplier("user2-1"), new CancellationToken());
+
+        assertThat(started).containsExactly("user1-1", "user1-2", "user2-1");
+        assertThat(third.isQueued()).isTrue();
+
+        complete("user1-1");
+        waitForStarted(4);
+        assertThat(started).containsExactly("user1-1", "user1-2", "user2-1", "user1-3");
+    }
+
+    @Test
+    void takesUsersInTurn() {
+        final SearchAdmissionController controller = new SearchAdmissionController(1, 0, 10, executor);
+
+        controller.admit("busy", supplier("busy-1"), new CancellationToken());
+        controller.admit("busy", supplier("busy-2"), new CancellationToken());
+        controller.admit("busy", supplier("busy-3"), new CancellationToken());
+        controller.admit("other", supplier("other-1"), new CancellationToken());
+
+        complete("busy-1");
+        waitForStarted(2);
+        complete("busy-2");
+        waitForStarted(3);
+        complete("other-1");
+        waitForStarted(4);
+
+        // The other user doesn't have to wait for all of the busy user's searches.
+        assertThat(started).containsExactly("busy-1", "busy-2", "other-1", "busy-3");
+    }
+
+    @Test
+    void rejectsWhenQueueFull() {
+        final SearchAdmissionController controller = new SearchAdmissionController(1, 0, 1, executor);
+
+        controller.admit("user1", supplier("first"), new CancellationToken());
+        controller.admit("user1", supplier("second"), new CancellationToken());
+        final Store rejected = controller.admit("user1", supplier("third"), new CancellationToken());
+
+        assertThat(rejected.isQueued()).isFalse();
+        assertThat(rejected.isRejected()).isTrue();
+        assertThat(rejected.isComplete()).isTrue();
+        assertThat(rejected.getErrors()).hasSize(1);
+        assertThat(controller.getQueued()).isEqualTo(1);
+
+        // Destroying a rejected search must not free a place it never had.
+        rejected.destroy();
+        assertThat(controller.getRunning()).isEqualTo(1);
+    }
+
+    @Test
+    void failsQueuedSearchesOnceStopped() {
+        final SearchAdmissionController controller = new SearchAdmissionController(1, 0, 10, executor);
+
+        controller.admit("user1", supplier("first"), new CancellationToken());
+        final Store second = controller.admit("user2", supplier("second"), new CancellationToken());
+        final Store third = controller.admit("user3", supplier("third"), new CancellationToken());
+
+        executor.shutdown();
+        complete("first");
+
+        // Neither queued search can start so both fail and give their places back.
+        assertThat(started).containsExactly("first");
+        assertThat(second.isComplete()).isTrue();
+        assertThat(second.getErrors()).hasSize(1);
+        assertThat(third.isComplete()).isTrue();
+        assertThat(controller.getRunning()).isZero();
+        assertThat(controller.getQueued()).isZero();
+    }
+
+    @Test
+    void removesDestroyedSearchFromQueue() {
+        final SearchAdmissionController controller = new SearchAdmissionController(1, 0, 10, executor);
+
+        controller.admit("user1", supplier("first"), new CancellationToken());
+        final CancellationToken cancellationToken = new CancellationToken();
+        controller.admit("user1", supplier("second"), cancellationToken);
+        controller.admit("user2", supplier("third"), new CancellationToken());
+
+        cancellationToken.cancel();
+        assertThat(controller.getQueued()).isEqualTo(1);
+
+        complete("first");
+        waitForStarted(2);
+        assertThat(started).containsExactly("first", "third");
+    }
+
+    @Test
+    void destroyedQueuedSearchStopsWaiting() throws InterruptedException {
+        final SearchAdmissionController controller = new SearchAdmissionController(1, 0, 10, executor);
+
+        controller.admit("user1", supplier("first"), new CancellationToken());
+        final Store queued = controller.admit("user1", supplier("second"), new CancellationToken());
+        final CompletableFuture<Void> completionFuture = queued.getCompletionFuture();
+        assertThat(completionFuture).isNotDone();
+
+        queued.destroy();
+        assertThat(completionFuture).isCompletedExceptionally();
+        assertThat(queued.isComplete()).isTrue();
+        assertThat(queued.isRejected()).isFalse();
+        assertThat(queued.awaitCompletion(1, TimeUnit.SECONDS)).isTrue();
+        // Returns straight away rather than waiting for a start that will never happen.
+        queued.awaitCompletion();
+        assertThat(controller.getQueued()).isZero();
+    }
+
+    @Test
+    void releasesPlaceWhenStartFails() {
+        final SearchAdmissionController controller = new SearchAdmissionController(1, 0, 10, executor);
+
+        assertThatThrownBy(() -> controller.admit("user1", () -> {
+            throw new RuntimeException("Failed");
+        }, new CancellationToken())).hasMessage("Failed");
+
+        assertThat(controller.getRunning()).isZero();
+    }
+
+    private Supplier<Store> supplier(final String name) {
+        return () -> {
+            final TestStore store = new TestStore();
+            synchronized (started) {
+                started.add(name);
+                stores.put(name, store);
+            }
+            return store;
+        };
+    }
+
+    private void complete(final String name) {
+        synchronized (started) {
+            stores.get(name).completionFuture.complete(null);
+        }
+    }
+
+    private void waitForStarted(final int count) {
+        final long end = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < end) {
+            synchronized (started) {
+                if (started.size() >= count) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(10);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        assertThat(started).hasSize(count);
+    }
+
+    private static class TestStore implements Store {
+        private final CompletableFuture<Void> completionFuture = new CompletableFuture<>();
+
+        @Override
+        public CompletableFuture<Void> getCompletionFuture() {
+            return completionFuture;
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public boolean isComplete() {
+            return completionFuture.isDone();
+        }
+
+        @Override
+        public void awaitCompletion() {
+        }
+
+        @Override
+        public boolean awaitCompletion(final long timeout, final TimeUnit unit) {
+            return isComplete();
+        }
+
+        @Override
+        public Data getData(final String componentId) {
+            return null;
+        }
+
+        @Override
+        public List<String> getErrors() {
+            return null;
+        }
+
+        @Override
+        public List<String> getHighlights() {
+            return null;
+        }
+
+        @Override
+        public Sizes getDefaultMaxResultsSizes() {
+            return null;
+        }
+
+        @Override
+        public Sizes getStoreSize() {
+            return null;
+        }
+    }
+}
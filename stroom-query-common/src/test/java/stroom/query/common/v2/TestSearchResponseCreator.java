@@ -3,6 +3,7 @@ package stroom.query.common.v2;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.stubbing.Answer;
@@ -25,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -211,6 +213,66 @@ class TestSearchResponseCreator {
                 TOLLERANCE)).isTrue();
     }
 
+    @Test
+    void createAsync_nonIncremental_completesWhenStoreCompletes() throws Exception {
+        Duration serverTimeout = Duration.ofMillis(5_000);
+        SearchResponseCreator searchResponseCreator = new SearchResponseCreator(mockStore, serverTimeout);
+
+        final CompletableFuture<Void> completionFuture = new CompletableFuture<>();
+        Mockito.when(mockStore.isComplete()).thenReturn(false);
+        Mockito.when(mockStore.getCompletionFuture()).thenReturn(completionFuture);
+
+        final CompletableFuture<SearchResponse> future = searchResponseCreator.createAsync(getSearchRequest(false, null));
+
+        //nothing has happened yet so the response must still be pending and no thread is waiting for it
+        assertThat(future.isDone()).isFalse();
+        assertThat(searchResponseCreator.isIdle()).isFalse();
+
+        Mockito.when(mockStore.isComplete()).thenReturn(true);
+        completionFuture.complete(null);
+
+        assertResponseWithData(future.get(1, TimeUnit.SECONDS));
+        assertThat(searchResponseCreator.isIdle()).isTrue();
+    }
+
+    @Test
+    void createAsync_nonIncremental_timesOut() throws Exception {
+        Duration serverTimeout = Duration.ofMillis(200);
+        SearchResponseCreator searchResponseCreator = new SearchResponseCreator(mockStore, serverTimeout);
+
+        Mockito.when(mockStore.isComplete()).thenReturn(false);
+        Mockito.when(mockStore.getCompletionFuture()).thenReturn(new CompletableFuture<>());
+
+        final SearchResponse searchResponse = searchResponseCreator.createAsync(getSearchRequest(false, null))
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(searchResponse.getResults()).isNullOrEmpty();
+        assertThat(searchResponse.getErrors()).hasSize(1);
+        assertThat(searchResponse.getErrors().get(0)).containsIgnoringCase("timed out");
+    }
+
+    @Test
+    void createAsync_incremental_respondsOnDataChange() throws Exception {
+        Duration serverTimeout = Duration.ofMillis(5_000);
+        SearchResponseCreator searchResponseCreator = new SearchResponseCreator(mockStore, serverTimeout);
+
+        Mockito.when(mockStore.isComplete()).thenReturn(false);
+        Mockito.when(mockStore.getCompletionFuture()).thenReturn(new CompletableFuture<>());
+        final ArgumentCaptor<DataChangeListener> listener = ArgumentCaptor.forClass(DataChangeListener.class);
+
+        final CompletableFuture<SearchResponse> future = searchResponseCreator.createAsync(
+                getSearchRequest(true, 5_000L));
+        Mockito.verify(mockStore).addDataChangeListener(listener.capture());
+        assertThat(future.isDone()).isFalse();
+
+        listener.getValue().onDataChange();
+
+        final SearchResponse searchResponse = future.get(1, TimeUnit.SECONDS);
+        assertResponseWithData(searchResponse);
+        assertThat(searchResponse.complete()).isFalse();
+        Mockito.verify(mockStore).removeDataChangeListener(listener.getValue());
+    }
+
     private void makeSearchStateAfter(final long sleepTime, final boolean state) {
         try {
             final Answer answer = invocation -> {
@@ -0,0 +1,218 @@
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import stroom.dashboard.expression.v1.Generator;
+import stroom.dashboard.expression.v1.StaticValueFunction;
+import stroom.dashboard.expression.v1.ValString;
+import stroom.query.api.v2.Field;
+import stroom.query.api.v2.OffsetRange;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.api.v2.SearchResponse;
+import stroom.query.api.v2.TableSettings;
+import stroom.query.test.util.MockitoExtension;
+import stroom.query.test.util.TimingUtils;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(MockitoExtension.class)
+class TestSearchSubscription {
+    @Mock
+    private Store mockStore;
+
+    private final CompletableFuture<Void> completionFuture = new CompletableFuture<>();
+    private final List<SearchResponse> responses = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setup() {
+        Mockito.when(mockStore.getErrors()).thenReturn(Collections.emptyList());
+        Mockito.when(mockStore.getHighlights()).thenReturn(Collections.emptyList());
+        Mockito.when(mockStore.getStoreSize()).thenReturn(Sizes.create(Arrays.asList(100, 10, 1)));
+        Mockito.when(mockStore.isComplete()).thenReturn(false);
+        Mockito.when(mockStore.getCompletionFuture()).thenReturn(completionFuture);
+    }
+
+    @Test
+    void pushesChangesThenFinalResponse() throws Exception {
+        Mockito.when(mockStore.getData(Mockito.any())).thenReturn(createData(1));
+        final SearchResponseCreator searchResponseCreator = new SearchResponseCreator(mockStore);
+
+        final SearchSubscription subscription = searchResponseCreator.subscribe(
+                getSearchRequest(), Duration.ofMillis(100), responses::add);
+        final DataChangeListener listener = captureListener();
+
+        waitForResponses(1);
+        assertThat(responses.get(0).getResults()).hasSize(1);
+        assertThat(responses.get(0).complete()).isFalse();
+        assertThat(searchResponseCreator.isIdle()).isFalse();
+
+        // Nothing has really changed so there is nothing to push.
+        listener.onDataChange();
+        TimingUtils.sleep(300);
+        assertThat(responses).hasSize(1);
+
+        Mockito.when(mockStore.isComplete()).thenReturn(true);
+        completionFuture.complete(null);
+
+        subscription.getClosedFuture().get(5, TimeUnit.SECONDS);
+        assertThat(responses).hasSize(2);
+        assertThat(responses.get(1).getResults()).isNull();
+        assertThat(responses.get(1).complete()).isTrue();
+        assertThat(searchResponseCreator.isIdle()).isTrue();
+        Mockito.verify(mockStore).removeDataChangeListener(listener);
+    }
+
+    @Test
+    void coalescesChanges() {
+        final AtomicInteger size = new AtomicInteger();
+        Mockito.when(mockStore.getData(Mockito.any())).thenAnswer(invocation -> createData(size.incrementAndGet()));
+        final SearchResponseCreator searchResponseCreator = new SearchResponseCreator(mockStore);
+
+        final SearchSubscription subscription = searchResponseCreator.subscribe(
+                getSearchRequest(), Duration.ofMillis(500), responses::add);
+        final DataChangeListener listener = captureListener();
+        waitForResponses(1);
+
+        for (int i = 0; i < 20; i++) {
+            listener.onDataChange();
+        }
+        TimingUtils.sleep(200);
+        assertThat(responses).hasSize(1);
+
+        waitForResponses(2);
+        TimingUtils.sleep(700);
+        assertThat(responses).hasSize(2);
+
+        subscription.close();
+        assertThat(searchResponseCreator.isIdle()).isTrue();
+    }
+
+    @Test
+    void runsPeriodicallyUntilClosed() {
+        Mockito.when(mockStore.getData(Mockito.any())).thenReturn(createData(1));
+        final SearchResponseCreator searchResponseCreator = new SearchResponseCreator(mockStore);
+
+        final SearchSubscription subscription = searchResponseCreator.subscribe(
+                getSearchRequest(), Duration.ofMillis(100), responses::add);
+        final AtomicInteger runs = new AtomicInteger();
+        subscription.runPeriodically(Duration.ofMillis(50), runs::incrementAndGet);
+
+        TimingUtils.sleep(500);
+        assertThat(runs.get()).isGreaterThan(2);
+
+        subscription.close();
+        TimingUtils.sleep(100);
+        final int runsWhenClosed = runs.get();
+        TimingUtils.sleep(300);
+        assertThat(runs.get()).isEqualTo(runsWhenClosed);
+    }
+
+    @Test
+    void pushesRepeatedErrorsOnce() {
+        Mockito.when(mockStore.getErrors()).thenReturn(Collections.singletonList("Failed"));
+        Mockito.when(mockStore.getData(Mockito.any())).thenReturn(createData(1));
+        final SearchResponseCreator searchResponseCreator = new SearchResponseCreator(mockStore);
+
+        final SearchSubscription subscription = searchResponseCreator.subscribe(
+                getSearchRequest(), Duration.ofMillis(100), responses::add);
+        final DataChangeListener listener = captureListener();
+        waitForResponses(1);
+        assertThat(responses.get(0).getErrors()).containsExactly("Failed");
+
+        // The same error again is nothing new for the subscriber.
+        listener.onDataChange();
+        TimingUtils.sleep(300);
+        assertThat(responses).hasSize(1);
+
+        Mockito.when(mockStore.getErrors()).thenReturn(Arrays.asList("Failed", "Failed again"));
+        listener.onDataChange();
+        waitForResponses(2);
+        assertThat(responses.get(1).getResults()).isNull();
+        assertThat(responses.get(1).getErrors()).containsExactly("Failed", "Failed again");
+
+        subscription.close();
+    }
+
+    @Test
+    void closesWhenSearchDestroyed() throws Exception {
+        Mockito.when(mockStore.getData(Mockito.any())).thenReturn(createData(1));
+        final CancellationToken cancellationToken = new CancellationToken();
+        final SearchResponseCreator searchResponseCreator = new SearchResponseCreator(mockStore, cancellationToken);
+
+        final SearchSubscription subscription = searchResponseCreator.subscribe(
+                getSearchRequest(), Duration.ofMillis(100), responses::add);
+        searchResponseCreator.destroy();
+
+        subscription.getClosedFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    private DataChangeListener captureListener() {
+        final ArgumentCaptor<DataChangeListener> listener = ArgumentCaptor.forClass(DataChangeListener.class);
+        Mockito.verify(mockStore).addDataChangeListener(listener.capture());
+        return listener.getValue();
+    }
+
+    private void waitForResponses(final int count) {
+        final long end = System.currentTimeMillis() + 5_000;
+        while (responses.size() < count && System.currentTimeMillis() < end) {
+            TimingUtils.sleep(10);
+        }
+        assertThat(responses).hasSize(count);
+    }
+
+    private SearchRequest getSearchRequest() {
+        return new SearchRequest.Builder()
+                .key(UUID.randomUUID().toString())
+                .addResultRequests(new ResultRequest.Builder()
+                        .componentId(UUID.randomUUID().toString())
+                        .resultStyle(ResultRequest.ResultStyle.TABLE)
+                        .requestedRange(new OffsetRange.Builder()
+                                .offset(0L)
+                                .length(100L)
+                                .build())
+                        .addMappings(new TableSettings.Builder()
+                                .queryId("someQueryId")
+                                .addFields(new Field.Builder()
+                                        .name("field1")
+                                        .expression("expression1")
+                                        .build())
+                                .extractValues(false)
+                                .showDetail(false)
+                                .build())
+                        .build())
+                .incremental(true)
+                .dateTimeLocale("en-gb")
+                .build();
+    }
+
+    private Data createData(final int size) {
+        final Items<Item> items = new ItemsArrayList<>();
+        for (int i = 0; i < size; i++) {
+            final Generator[] generators = new Generator[1];
+            generators[0] = new StaticValueFunction(ValString.create("A" + i)).createGenerator();
+            items.add(new Item(null, generators, 0));
+        }
+
+        final Map<GroupKey, Items<Item>> map = new HashMap<>();
+        map.put(null, items);
+
+        return new Data(map, items.size(), items.size());
+    }
+}
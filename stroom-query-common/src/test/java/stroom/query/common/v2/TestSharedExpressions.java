@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.Test;
+import stroom.dashboard.expression.v1.FieldIndexMap;
+import stroom.dashboard.expression.v1.Generator;
+import stroom.dashboard.expression.v1.Val;
+import stroom.dashboard.expression.v1.ValString;
+import stroom.mapreduce.v2.UnsafePairQueue;
+import stroom.query.api.v2.Field;
+import stroom.query.api.v2.Filter;
+import stroom.query.api.v2.TableSettings;
+import stroom.query.shared.v2.ParamUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestSharedExpressions {
+    @Test
+    void testSharedGroupedFields() {
+        final FieldIndexMap fieldIndexMap = new FieldIndexMap(true);
+
+        final TableSettings grouped = new TableSettings.Builder()
+                .addFields(new Field.Builder()
+                        .name("Text")
+                        .expression(ParamUtil.makeParam("Text"))
+                        .group(0)
+                        .build())
+                .addFields(new Field.Builder()
+                        .name("Count")
+                        .expression("count()")
+                        .build())
+                .build();
+        final TableSettings filtered = new TableSettings.Builder()
+                .addFields(new Field.Builder()
+                        .name("Text")
+                        .expression(ParamUtil.makeParam("Text"))
+                        .group(0)
+                        .filter(new Filter("Text 1.*", null))
+                        .build())
+                .addFields(new Field.Builder()
+                        .name("Other")
+                        .expression(ParamUtil.makeParam("Other"))
+                        .build())
+                .build();
+
+        final CompiledFields groupedFields = new CompiledFields(grouped.getFields(), fieldIndexMap, Collections.emptyMap());
+        final CompiledFields filteredFields = new CompiledFields(filtered.getFields(), fieldIndexMap, Collections.emptyMap());
+        final SharedExpressions sharedExpressions = new SharedExpressions(Arrays.asList(groupedFields, filteredFields));
+
+        // Only the text field is used twice, aggregates are never shared.
+        assertThat(sharedExpressions.size()).isEqualTo(1);
+        assertThat(sharedExpressions.getIndexes(groupedFields)).containsExactly(0, -1);
+        assertThat(sharedExpressions.getIndexes(filteredFields)).containsExactly(0, -1);
+
+        // Mapping with shared generators must produce the same output as creating every generator in the mapper.
+        assertThat(map(filtered, filteredFields, fieldIndexMap, sharedExpressions))
+                .isEqualTo(map(filtered, filteredFields, fieldIndexMap, null));
+        assertThat(map(grouped, groupedFields, fieldIndexMap, sharedExpressions))
+                .isEqualTo(map(grouped, groupedFields, fieldIndexMap, null));
+    }
+
+    @Test
+    void testGeneratorsSharedBetweenMappers() {
+        final FieldIndexMap fieldIndexMap = new FieldIndexMap(true);
+        final TableSettings tableSettings = new TableSettings.Builder()
+                .addFields(new Field.Builder()
+                        .name("Text")
+                        .expression(ParamUtil.makeParam("Text"))
+                        .build())
+                .build();
+        final CompiledFields fields1 = new CompiledFields(tableSettings.getFields(), fieldIndexMap, Collections.emptyMap());
+        final CompiledFields fields2 = new CompiledFields(tableSettings.getFields(), fieldIndexMap, Collections.emptyMap());
+        final SharedExpressions sharedExpressions = new SharedExpressions(Arrays.asList(fields1, fields2));
+        assertThat(sharedExpressions.size()).isEqualTo(1);
+
+        final CompiledDepths compiledDepths = new CompiledDepths(tableSettings.getFields(), tableSettings.showDetail());
+        final UnsafePairQueue<GroupKey, Item> queue1 = new UnsafePairQueue<>();
+        final UnsafePairQueue<GroupKey, Item> queue2 = new UnsafePairQueue<>();
+        final ItemMapper itemMapper1 = new ItemMapper(queue1, fields1, compiledDepths.getMaxDepth(),
+                compiledDepths.getMaxGroupDepth(), sharedExpressions.getIndexes(fields1));
+        final ItemMapper itemMapper2 = new ItemMapper(queue2, fields2, compiledDepths.getMaxDepth(),
+                compiledDepths.getMaxGroupDepth(), sharedExpressions.getIndexes(fields2));
+
+        final Val[] values = new Val[fieldIndexMap.size()];
+        values[fieldIndexMap.get("Text")] = ValString.create("Text");
+        final Generator[] sharedGenerators = sharedExpressions.createGenerators(values);
+        itemMapper1.collectShared(values, sharedGenerators);
+        itemMapper2.collectShared(values, sharedGenerators);
+
+        // Both mappers output the one generator rather than creating their own.
+        final Generator generator1 = queue1.iterator().next().getValue().getGenerators()[0];
+        final Generator generator2 = queue2.iterator().next().getValue().getGenerators()[0];
+        assertThat(generator1).isSameAs(sharedGenerators[0]);
+        assertThat(generator2).isSameAs(sharedGenerators[0]);
+        assertThat(generator1.eval()).isEqualTo(ValString.create("Text"));
+    }
+
+    private Set<GroupKey> map(final TableSettings tableSettings,
+                              final CompiledFields compiledFields,
+                              final FieldIndexMap fieldIndexMap,
+                              final SharedExpressions sharedExpressions) {
+        final CompiledDepths compiledDepths = new CompiledDepths(tableSettings.getFields(), tableSettings.showDetail());
+        final UnsafePairQueue<GroupKey, Item> queue = new UnsafePairQueue<>();
+        final ItemMapper itemMapper = new ItemMapper(queue, compiledFields, compiledDepths.getMaxDepth(),
+                compiledDepths.getMaxGroupDepth(),
+                sharedExpressions != null ? sharedExpressions.getIndexes(compiledFields) : null);
+
+        for (int i = 0; i < 100; i++) {
+            final Val[] values = new Val[fieldIndexMap.size()];
+            values[fieldIndexMap.get("Text")] = ValString.create("Text " + (i % 20));
+            values[fieldIndexMap.get("Other")] = ValString.create("Other " + i);
+
+            if (sharedExpressions != null) {
+                itemMapper.collectShared(values, sharedExpressions.createGenerators(values));
+            } else {
+                itemMapper.collect(null, values);
+            }
+        }
+
+        final Set<GroupKey> keys = new HashSet<>();
+        queue.forEach(pair -> keys.add(pair.getKey()));
+        return keys;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Crown Copyright
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package stroom.query.common.v2;
+
+import org.junit.jupiter.api.Test;
+import stroom.query.api.v2.ExpressionOperator;
+import stroom.query.api.v2.ExpressionTerm.Condition;
+import stroom.query.api.v2.Field;
+import stroom.query.api.v2.Query;
+import stroom.query.api.v2.ResultRequest;
+import stroom.query.api.v2.SearchRequest;
+import stroom.query.api.v2.TableSettings;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestSharedStores {
+    @Test
+    void testStoreKeyIgnoresChildOrderAndDisabledItems() {
+        final ExpressionOperator expression1 = new ExpressionOperator.Builder()
+                .addTerm("a", Condition.EQUALS, "1")
+                .addTerm("b", Condition.EQUALS, "2")
+                .build();
+        final ExpressionOperator expression2 = new ExpressionOperator.Builder()
+                .addTerm("b", Condition.EQUALS, "2")
+                .addOperator(new ExpressionOperator.Builder(false, ExpressionOperator.Op.OR)
+                        .addTerm("c", Condition.EQUALS, "3")
+                        .build())
+                .addTerm("a", Condition.EQUALS, "1")
+                .build();
+        final ExpressionOperator expression3 = new ExpressionOperator.Builder()
+                .addTerm("a", Condition.EQUALS, "1, b = 2")
+                .build();
+
+        assertThat(StoreKey.create(request(expression1))).isEqualTo(StoreKey.create(request(expression2)));
+        assertThat(StoreKey.create(request(expression1))).isNotEqualTo(StoreKey.create(request(expression3)));
+    }
+
+    @Test
+    void testStoreSharedUntilLastReleased() {
+        final CountingStoreFactory storeFactory = new CountingStoreFactory();
+        final SharedStores sharedStores = new SharedStores(storeFactory, Duration.ofMinutes(1));
+
+        final Store store1 = sharedStores.acquire(request(expression("1")));
+        final Store store2 = sharedStores.acquire(request(expression("1")));
+        final Store store3 = sharedStores.acquire(request(expression("2")));
+
+        assertThat(storeFactory.stores).hasSize(2);
+        assertThat(storeFactory.accessChecks.get()).isEqualTo(1);
+        assertThat(sharedStores.size()).isEqualTo(2);
+
+        store1.destroy();
+        // Destroying the same reference twice must not release the other reference.
+        store1.destroy();
+        assertThat(storeFactory.stores.get(0).destroyed).isFalse();
+
+        store2.destroy();
+        assertThat(storeFactory.stores.get(0).destroyed).isTrue();
+        assertThat(storeFactory.stores.get(1).destroyed).isFalse();
+        assertThat(sharedStores.size()).isEqualTo(1);
+
+        store3.destroy();
+        assertThat(sharedStores.size()).isZero();
+    }
+
+    @Test
+    void testOldStoresNotShared() {
+        final CountingStoreFactory storeFactory = new CountingStoreFactory();
+        final SharedStores sharedStores = new SharedStores(storeFactory, Duration.ofMillis(-1));
+
+        sharedStores.acquire(request(expression("1")));
+        sharedStores.acquire(request(expression("1")));
+
+        assertThat(storeFactory.stores).hasSize(2);
+    }
+
+    @Test
+    void testAccessDenied() {
+        final CountingStoreFactory storeFactory = new CountingStoreFactory();
+        final SharedStores sharedStores = new SharedStores(storeFactory, Duration.ofMinutes(1));
+
+        final Store store = sharedStores.acquire(request(expression("1")));
+        storeFactory.denyAccess = true;
+        assertThatThrownBy(() -> sharedStores.acquire(request(expression("1"))))
+                .isInstanceOf(RuntimeException.class);
+
+        // The failed search must not hold a reference.
+        store.destroy();
+        assertThat(storeFactory.stores.get(0).destroyed).isTrue();
+    }
+
+    private ExpressionOperator expression(final String value) {
+        return new ExpressionOperator.Builder()
+                .addTerm("field", Condition.EQUALS, value)
+                .build();
+    }
+
+    private SearchRequest request(final ExpressionOperator expression) {
+        final TableSettings tableSettings = new TableSettings.Builder()
+                .addFields(new Field.Builder()
+                        .name("field")
+                        .expression("${field}")
+                        .build())
+                .build();
+
+        return new SearchRequest.Builder()
+                .key(UUID.randomUUID().toString())
+                .query(new Query.Builder()
+                        .dataSource("test", "uuid", "name")
+                        .expression(expression)
+                        .build())
+                .addResultRequests(new ResultRequest.Builder()
+                        .componentId("table")
+                        .addMappings(tableSettings)
+                        .build())
+                .build();
+    }
+
+    private static class CountingStoreFactory implements StoreFactory {
+        private final List<TestStore> stores = new ArrayList<>();
+        private final AtomicInteger accessChecks = new AtomicInteger();
+        private volatile boolean denyAccess;
+
+        @Override
+        public Store create(final SearchRequest searchRequest) {
+            final TestStore store = new TestStore();
+            stores.add(store);
+            return store;
+        }
+
+        @Override
+        public void checkAccess(final SearchRequest searchRequest) {
+            accessChecks.incrementAndGet();
+            if (denyAccess) {
+                throw new RuntimeException("Access denied");
+            }
+        }
+    }
+
+    private static class TestStore implements Store {
+        private volatile boolean destroyed;
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return true;
+        }
+
+        @Override
+        public void awaitCompletion() {
+        }
+
+        @Override
+        public boolean awaitCompletion(final long timeout, final TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public Data getData(final String componentId) {
+            return null;
+        }
+
+        @Override
+        public List<String> getErrors() {
+            return null;
+        }
+
+        @Override
+        public List<String> getHighlights() {
+            return null;
+        }
+
+        @Override
+        public Sizes getDefaultMaxResultsSizes() {
+            return null;
+        }
+
+        @Override
+        public Sizes getStoreSize() {
+            return null;
+        }
+    }
+}
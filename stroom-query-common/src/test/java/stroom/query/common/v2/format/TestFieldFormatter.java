@@ -0,0 +1,75 @@
+package stroom.query.common.v2.format;
+
+import org.junit.jupiter.api.Test;
+import stroom.dashboard.expression.v1.ValDouble;
+import stroom.dashboard.expression.v1.ValLong;
+import stroom.dashboard.expression.v1.ValString;
+import stroom.query.api.v2.DateTimeFormat;
+import stroom.query.api.v2.Field;
+import stroom.query.api.v2.Format;
+import stroom.query.api.v2.NumberFormat;
+import stroom.query.api.v2.TimeZone;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestFieldFormatter {
+    private static final long MILLIS = Instant.parse("2018-01-02T03:04:05.000Z").toEpochMilli();
+
+    @Test
+    void testFormattersAreSharedForEqualFormats() {
+        final Format format1 = new Format(new NumberFormat(2, true));
+        final Format format2 = new Format(new NumberFormat(2, true));
+
+        final Formatter formatter1 = new FormatterFactory(null).create(format1);
+        final Formatter formatter2 = new FormatterFactory("Europe/London").create(format2);
+
+        // Number formats don't depend on the locale so the same formatter should be used.
+        assertThat(formatter1).isSameAs(formatter2);
+    }
+
+    @Test
+    void testDateTimeFormattersAreKeyedByLocale() {
+        final Format format = new Format(new DateTimeFormat("yyyy-MM-dd HH:mm", TimeZone.local()));
+
+        final Formatter london1 = new FormatterFactory("Europe/London").create(format);
+        final Formatter london2 = new FormatterFactory("Europe/London").create(format);
+        final Formatter tokyo = new FormatterFactory("Asia/Tokyo").create(format);
+
+        assertThat(london1).isSameAs(london2);
+        assertThat(london1).isNotSameAs(tokyo);
+        assertThat(london1.format(ValLong.create(MILLIS))).isEqualTo("2018-01-02 03:04");
+        assertThat(tokyo.format(ValLong.create(MILLIS))).isEqualTo("2018-01-02 12:04");
+    }
+
+    @Test
+    void testFormatFields() {
+        final FieldFormatter fieldFormatter = new FieldFormatter(new FormatterFactory(null));
+
+        final Field dateField = new Field.Builder()
+                .name("Date")
+                .format(new Format(new DateTimeFormat("yyyy-MM-dd'T'HH:mm:ss", TimeZone.fromOffset(1, 30))))
+                .build();
+        final Field numberField = new Field.Builder()
+                .name("Number")
+                .format(new Format(new NumberFormat(3, true)))
+                .build();
+        final Field textField = new Field.Builder()
+                .name("Text")
+                .format(Format.Type.TEXT)
+                .build();
+
+        assertThat(fieldFormatter.format(dateField, ValLong.create(MILLIS))).isEqualTo("2018-01-02T04:34:05");
+        assertThat(fieldFormatter.format(numberField, ValDouble.create(1234567.5))).isEqualTo("1,234,567.500");
+        assertThat(fieldFormatter.format(textField, ValString.create("abc"))).isEqualTo("abc");
+        assertThat(fieldFormatter.format(null, ValString.create("abc"))).isEqualTo("abc");
+        assertThat(fieldFormatter.format(textField, null)).isNull();
+
+        // A formatter resolved once for a field formats every value in it the same way.
+        final Formatter numberFormatter = fieldFormatter.getFormatter(numberField);
+        assertThat(numberFormatter).isSameAs(fieldFormatter.getFormatter(numberField));
+        assertThat(fieldFormatter.formatWith(numberFormatter, ValDouble.create(1.5))).isEqualTo("1.500");
+        assertThat(fieldFormatter.formatWith(numberFormatter, null)).isNull();
+    }
+}
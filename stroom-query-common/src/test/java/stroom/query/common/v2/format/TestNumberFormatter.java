@@ -0,0 +1,178 @@
+package stroom.query.common.v2.format;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stroom.dashboard.expression.v1.Val;
+import stroom.dashboard.expression.v1.ValDouble;
+import stroom.dashboard.expression.v1.ValInteger;
+import stroom.dashboard.expression.v1.ValLong;
+import stroom.dashboard.expression.v1.ValString;
+import stroom.query.api.v2.NumberFormat;
+import stroom.query.test.util.TimingUtils;
+
+import java.time.Duration;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestNumberFormatter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestNumberFormatter.class);
+
+    @Test
+    void testNoFormat() {
+        final NumberFormatter formatter = NumberFormatter.create(null);
+        assertThat(formatter.format(ValDouble.create(1234.5))).isEqualTo(ValDouble.create(1234.5).toString());
+        assertThat(formatter.format(ValString.create("abc"))).isEqualTo("abc");
+        assertThat(formatter.format(null)).isNull();
+    }
+
+    @Test
+    void testLongs() {
+        final NumberFormatter formatter = NumberFormatter.create(new NumberFormat(2, true));
+        assertThat(formatter.format(ValLong.create(0))).isEqualTo("0.00");
+        assertThat(formatter.format(ValLong.create(999))).isEqualTo("999.00");
+        assertThat(formatter.format(ValLong.create(1000))).isEqualTo("1,000.00");
+        assertThat(formatter.format(ValInteger.create(-1234567))).isEqualTo("-1,234,567.00");
+        assertThat(formatter.format(ValLong.create(Long.MIN_VALUE))).isEqualTo("-9,223,372,036,854,775,808.00");
+        assertThat(formatter.format(ValLong.create(Long.MAX_VALUE))).isEqualTo("9,223,372,036,854,775,807.00");
+    }
+
+    @Test
+    void testDoubles() {
+        final NumberFormatter formatter = NumberFormatter.create(new NumberFormat(3, false));
+        assertThat(formatter.format(ValDouble.create(0))).isEqualTo("0.000");
+        assertThat(formatter.format(ValDouble.create(1.5))).isEqualTo("1.500");
+        assertThat(formatter.format(ValDouble.create(1234567.12345))).isEqualTo("1234567.123");
+        assertThat(formatter.format(ValDouble.create(0.0006))).isEqualTo("0.001");
+        assertThat(formatter.format(ValDouble.create(-0.0004))).isEqualTo("0.000");
+        assertThat(formatter.format(ValDouble.create(-2.9999))).isEqualTo("-3.000");
+        assertThat(formatter.format(ValString.create("42"))).isEqualTo("42.000");
+        assertThat(formatter.format(ValString.create("abc"))).isEqualTo("abc");
+    }
+
+    @Test
+    void testDoublesWithSeparator() {
+        final NumberFormatter formatter = NumberFormatter.create(new NumberFormat(0, true));
+        assertThat(formatter.format(ValDouble.create(999.4))).isEqualTo("999");
+        assertThat(formatter.format(ValDouble.create(999.5))).isEqualTo("1,000");
+        assertThat(formatter.format(ValDouble.create(-1234567.2))).isEqualTo("-1,234,567");
+    }
+
+    @Test
+    void testHalfWayDoublesRoundOnDecimalValue() {
+        final NumberFormatter formatter = NumberFormatter.create(new NumberFormat(2, false));
+        // Below the fast path limit, the nearest doubles are slightly under half way.
+        assertThat(formatter.format(ValDouble.create(1.005))).isEqualTo("1.01");
+        assertThat(formatter.format(ValDouble.create(-1.005))).isEqualTo("-1.01");
+        assertThat(formatter.format(ValDouble.create(2.675))).isEqualTo("2.68");
+        assertThat(formatter.format(ValDouble.create(0.125))).isEqualTo("0.13");
+        assertThat(formatter.format(ValDouble.create(1.0049))).isEqualTo("1.00");
+        // Above the fast path limit the double is exactly half way but its shortest decimal form is 90071992547410.12.
+        assertThat(formatter.format(ValDouble.create(90071992547410.125))).isEqualTo("90071992547410.12");
+        assertThat(formatter.format(ValDouble.create(-90071992547410.125))).isEqualTo("-90071992547410.12");
+        assertThat(formatter.format(ValDouble.create(90071992547410.11))).isEqualTo("90071992547410.11");
+
+        // Too many places for the fast path.
+        final NumberFormatter precise = NumberFormatter.create(new NumberFormat(16, false));
+        assertThat(precise.format(ValDouble.create(1.25E-15))).isEqualTo("0.0000000000000013");
+        assertThat(precise.format(ValDouble.create(-1.25E-15))).isEqualTo("-0.0000000000000013");
+    }
+
+    @Test
+    void testLargeAndPreciseDoubles() {
+        // These can't be scaled into a long so exercise the big decimal fallback.
+        final NumberFormatter formatter = NumberFormatter.create(new NumberFormat(2, true));
+        assertThat(formatter.format(ValDouble.create(1.0E20))).isEqualTo("100,000,000,000,000,000,000.00");
+        assertThat(formatter.format(ValDouble.create(-1.0E20))).isEqualTo("-100,000,000,000,000,000,000.00");
+
+        final NumberFormatter precise = NumberFormatter.create(new NumberFormat(20, false));
+        assertThat(precise.format(ValDouble.create(0.5))).isEqualTo("0.50000000000000000000");
+        assertThat(precise.format(ValDouble.create(Double.NaN))).isEqualTo("NaN");
+    }
+
+    @Disabled("Benchmark, run manually")
+    @Test
+    void benchmark() {
+        final NumberFormat numberFormat = new NumberFormat(2, true);
+        final NumberFormatter formatter = NumberFormatter.create(numberFormat);
+        final Random random = new Random(1);
+        final Val[] values = new Val[1_000_000];
+        for (int i = 0; i < values.length; i++) {
+            if (i % 2 == 0) {
+                values[i] = ValDouble.create(random.nextDouble() * 1_000_000);
+            } else {
+                values[i] = ValLong.create(random.nextInt());
+            }
+        }
+
+        for (int run = 0; run < 5; run++) {
+            final Duration stringPath = TimingUtils.timeIt(() -> {
+                long length = 0;
+                for (final Val value : values) {
+                    length += formatViaString(numberFormat, value).length();
+                }
+                return length;
+            }).getDuration();
+
+            final Duration fastPath = TimingUtils.timeIt(() -> {
+                long length = 0;
+                final StringBuilder sb = new StringBuilder();
+                for (final Val value : values) {
+                    sb.setLength(0);
+                    formatter.format(value, sb);
+                    length += sb.length();
+                }
+                return length;
+            }).getDuration();
+
+            LOGGER.info("Formatted {} values, string path: {}, fast path: {}", values.length, stringPath, fastPath);
+        }
+    }
+
+    /**
+     * The previous formatting implementation that manipulated the string form of the value, kept for comparison.
+     */
+    private static String formatViaString(final NumberFormat numberFormat, final Val value) {
+        final String string = value.toString();
+        final int index = string.indexOf(".");
+
+        String p1 = string;
+        String p2 = "";
+        if (index != -1) {
+            p1 = string.substring(0, index);
+            p2 = string.substring(index + 1);
+        }
+
+        if (numberFormat.getUseSeparator()) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < p1.length(); i++) {
+                sb.append(p1.charAt(i));
+
+                final int pos = p1.length() - i - 1;
+                if (pos > 0 && pos % 3 == 0) {
+                    sb.append(",");
+                }
+            }
+            p1 = sb.toString();
+        }
+
+        if (p2.length() > numberFormat.getDecimalPlaces()) {
+            p2 = p2.substring(0, numberFormat.getDecimalPlaces());
+        } else if (p2.length() < numberFormat.getDecimalPlaces()) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(p2);
+            for (int i = 0; i < numberFormat.getDecimalPlaces() - p2.length(); i++) {
+                sb.append('0');
+            }
+            p2 = sb.toString();
+        }
+
+        if (p2.length() == 0) {
+            return p1;
+        }
+
+        return p1 + "." + p2;
+    }
+}
@@ -5,6 +5,8 @@ import com.bendb.dropwizard.jooq.JooqFactory;
 import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
 import com.google.inject.Module;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.google.inject.util.Modules;
 import io.dropwizard.Configuration;
 import io.dropwizard.ConfiguredBundle;
@@ -26,6 +28,10 @@ import stroom.query.audit.model.IsDataSourceField;
 import stroom.query.security.HasTokenConfig;
 import stroom.query.audit.service.DocRefService;
 import stroom.query.audit.service.QueryService;
+import stroom.query.common.v2.MergeScheduler;
+import stroom.query.common.v2.SearchMetrics;
+import stroom.query.common.v2.SearchResponseCreatorManager;
+import stroom.query.jooq.search.JooqSearchResponseCreatorManager;
 
 import java.util.function.Function;
 
@@ -86,6 +92,19 @@ public class AuditedJooqDocRefBundle<CONFIG extends Configuration & HasTokenConf
             @Override
             protected void configure() {
                 bind(DSLContext.class).toInstance(DSL.using(jooqBundle.getConfiguration()));
+
+                final SearchConfig searchConfig = (configuration instanceof HasSearchConfig)
+                        ? ((HasSearchConfig) configuration).getSearchConfig()
+                        : null;
+                bind(SearchConfig.class).toInstance((searchConfig != null) ? searchConfig : new SearchConfig());
+                bind(SearchResponseCreatorManager.class).to(JooqSearchResponseCreatorManager.class);
+            }
+
+            // Shared by every search, it is stopped with the application by the audited query bundle.
+            @Provides
+            @Singleton
+            MergeScheduler mergeScheduler(final SearchConfig searchConfig, final SearchMetrics searchMetrics) {
+                return new MergeScheduler(searchConfig.getMergeThreads(), searchMetrics);
             }
         }, auditedQueryBundle.getGuiceModule(configuration));
     }
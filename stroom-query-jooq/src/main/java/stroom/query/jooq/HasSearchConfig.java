@@ -0,0 +1,8 @@
+package stroom.query.jooq;
+
+/**
+ * Implemented by application configurations that want to tune the searches run against the database.
+ */
+public interface HasSearchConfig {
+    SearchConfig getSearchConfig();
+}
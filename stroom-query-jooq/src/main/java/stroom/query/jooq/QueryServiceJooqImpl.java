@@ -15,12 +15,18 @@ import stroom.query.audit.service.QueryApiException;
 import stroom.query.audit.service.QueryService;
 import stroom.query.common.v2.SearchResponseCreator;
 import stroom.query.common.v2.SearchResponseCreatorCache;
-import stroom.query.common.v2.SearchResponseCreatorManager;
+import stroom.query.common.v2.SearchSubscription;
 import stroom.query.jooq.search.JooqDataSourceProvider;
 import stroom.query.jooq.search.JooqSearchResponseCreatorManager;
 
 import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 public class QueryServiceJooqImpl implements QueryService {
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryServiceJooqImpl.class);
@@ -29,7 +35,7 @@ public class QueryServiceJooqImpl implements QueryService {
 
     private final DocRefService<?> docRefService;
 
-    private final SearchResponseCreatorManager searchResponseCreatorManager;
+    private final JooqSearchResponseCreatorManager searchResponseCreatorManager;
 
     @Inject
     public QueryServiceJooqImpl(final JooqSearchResponseCreatorManager searchResponseCreatorManager,
@@ -62,31 +68,94 @@ public class QueryServiceJooqImpl implements QueryService {
                                            final SearchRequest request) throws QueryApiException {
 
         CurrentServiceUser.pushServiceUser(user);
+        try {
+            //if this is the first call for this query key then it will create a searchResponseCreator (& store) that
+            //have a lifespan beyond the scope of this request and then begin the search for the data
+            //If it is not the first call for this query key then it will return the existing searchResponseCreator
+            //with access to whatever data has been found so far
+            final SearchResponseCreator searchResponseCreator = searchResponseCreatorManager.get(new SearchResponseCreatorCache.Key(request, user.getName()));
+            if (!isOwner(user, searchResponseCreator)) {
+                LOGGER.warn("User {} cannot see search {} started by another user", user.getName(), request.getKey());
+                return Optional.empty();
+            }
+
+            //create a response from the data found so far, this could be complete/incomplete
+            return Optional.of(searchResponseCreator.create(request));
+        } finally {
+            CurrentServiceUser.popServiceUser();
+        }
+    }
 
-        //if this is the first call for this query key then it will create a searchResponseCreator (& store) that have
-        //a lifespan beyond the scope of this request and then begin the search for the data
-        //If it is not the first call for this query key then it will return the existing searchResponseCreator with
-        //access to whatever data has been found so far
-        final SearchResponseCreator searchResponseCreator = searchResponseCreatorManager.get(new SearchResponseCreatorCache.Key(request));
-
-        //create a response from the data found so far, this could be complete/incomplete
-        final SearchResponse response = searchResponseCreator.create(request);
+    @Override
+    public CompletionStage<Optional<SearchResponse>> searchAsync(final ServiceUser user,
+                                                                 final SearchRequest request) {
+        //the user is only needed while the store is created, the response is assembled once the search has moved on
+        final CompletableFuture<SearchResponseCreator> started;
+        try {
+            started = CompletableFuture.supplyAsync(() -> {
+                CurrentServiceUser.pushServiceUser(user);
+                try {
+                    return searchResponseCreatorManager.get(new SearchResponseCreatorCache.Key(request, user.getName()));
+                } finally {
+                    CurrentServiceUser.popServiceUser();
+                }
+            }, searchResponseCreatorManager.getSearchStarter());
+        } catch (final RejectedExecutionException e) {
+            LOGGER.warn("Too many searches are waiting to start, rejecting search {}", request.getKey());
+            return CompletableFuture.failedFuture(e);
+        }
 
-        CurrentServiceUser.popServiceUser();
+        return started.thenCompose(searchResponseCreator -> {
+            if (!isOwner(user, searchResponseCreator)) {
+                LOGGER.warn("User {} cannot see search {} started by another user", user.getName(), request.getKey());
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+            return searchResponseCreator.createAsync(request).thenApply(Optional::of);
+        });
+    }
 
-        return Optional.of(response);
+    @Override
+    public Optional<SearchSubscription> subscribe(final ServiceUser user,
+                                                  final QueryKey queryKey,
+                                                  final Duration interval,
+                                                  final Consumer<SearchResponse> consumer) {
+        //only follow searches that are already running, render the tables the way they were last requested
+        return getOwnSearch(user, queryKey)
+                .flatMap(searchResponseCreator -> searchResponseCreator.getLastSearchRequest()
+                        .map(request -> searchResponseCreator.subscribe(request, interval, consumer)));
     }
 
     @Override
     public Boolean destroy(final ServiceUser user,
                            final QueryKey queryKey) {
-        searchResponseCreatorManager.remove(new SearchResponseCreatorCache.Key(queryKey));
+        final SearchResponseCreatorCache.Key key = new SearchResponseCreatorCache.Key(queryKey);
+        final Optional<SearchResponseCreator> searchResponseCreator = searchResponseCreatorManager.getIfPresent(key);
+        if (searchResponseCreator.isPresent() && !isOwner(user, searchResponseCreator.get())) {
+            LOGGER.warn("User {} cannot destroy search {} started by another user", user.getName(), queryKey);
+            return Boolean.FALSE;
+        }
+
+        searchResponseCreatorManager.remove(key);
         return Boolean.TRUE;
     }
 
     @Override
     public Optional<DocRef> getDocRefForQueryKey(final ServiceUser user,
                                                  final QueryKey queryKey) {
-        return Optional.empty();
+        return getOwnSearch(user, queryKey)
+                .flatMap(SearchResponseCreator::getLastSearchRequest)
+                .map(request -> request.getQuery().getDataSource());
+    }
+
+    private Optional<SearchResponseCreator> getOwnSearch(final ServiceUser user,
+                                                         final QueryKey queryKey) {
+        //searches are looked up by query key alone so only let the user who started the search see it
+        return searchResponseCreatorManager.getIfPresent(new SearchResponseCreatorCache.Key(queryKey))
+                .filter(searchResponseCreator -> isOwner(user, searchResponseCreator));
+    }
+
+    private static boolean isOwner(final ServiceUser user,
+                                   final SearchResponseCreator searchResponseCreator) {
+        return Objects.equals(user.getName(), searchResponseCreator.getUserId());
     }
 }
@@ -0,0 +1,202 @@
+package stroom.query.jooq;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Settings for the searches run by {@link QueryServiceJooqImpl}.
+ */
+public class SearchConfig {
+
+    private static final long DEFAULT_QUERY_TIMEOUT_MS = 5 * 60 * 1000L;
+    private static final long DEFAULT_MAX_SNAPSHOT_AGE_MS = 24 * 60 * 60 * 1000L;
+    private static final long DEFAULT_MAX_IDLE_TIME_MS = 10 * 60 * 1000L;
+    private static final long DEFAULT_REAPER_INTERVAL_MS = 60 * 1000L;
+    private static final long DEFAULT_MAX_STORE_SHARE_AGE_MS = 60 * 1000L;
+    private static final int DEFAULT_MAX_CONCURRENT_SEARCHES_PER_USER = 4;
+    private static final int DEFAULT_MAX_QUEUED_SEARCHES = 100;
+
+    @JsonProperty
+    private Long maxMemoryBytes;
+
+    @JsonProperty
+    private Long queryTimeoutMs;
+
+    @JsonProperty
+    private String snapshotDirectory;
+
+    @JsonProperty
+    private Long maxSnapshotBytes;
+
+    @JsonProperty
+    private Long maxSnapshotAgeMs;
+
+    @JsonProperty
+    private Integer mergeThreads;
+
+    @JsonProperty
+    private Integer maxConcurrentSearches;
+
+    @JsonProperty
+    private Integer maxConcurrentSearchesPerUser;
+
+    @JsonProperty
+    private Integer maxQueuedSearches;
+
+    @JsonProperty
+    private Long maxIdleTimeMs;
+
+    @JsonProperty
+    private Long reaperIntervalMs;
+
+    @JsonProperty
+    private Long maxStoreShareAgeMs;
+
+    /**
+     * @return The total estimated size in bytes of cached searches above which idle searches are destroyed, heaviest
+     * first. Zero or less for no limit. Defaults to a quarter of the maximum heap size.
+     */
+    public long getMaxMemoryBytes() {
+        return (maxMemoryBytes != null) ? maxMemoryBytes : Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    public void setMaxMemoryBytes(final Long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * @return The time in milliseconds after which the database abandons a search's query. Zero or less for no limit.
+     * Defaults to five minutes. This is separate from the timeout of each search request, which is only how long the
+     * client waits for results.
+     */
+    public long getQueryTimeoutMs() {
+        return (queryTimeoutMs != null) ? queryTimeoutMs : DEFAULT_QUERY_TIMEOUT_MS;
+    }
+
+    public void setQueryTimeoutMs(final Long queryTimeoutMs) {
+        this.queryTimeoutMs = queryTimeoutMs;
+    }
+
+    /**
+     * @return The directory to keep snapshots of completed searches in, so that they can be served again after a
+     * restart or after being evicted rather than being run again. Null, the default, disables snapshots.
+     */
+    public String getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    public void setSnapshotDirectory(final String snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * @return The maximum total size in bytes of the snapshots on disk, the oldest are deleted first. Zero or less
+     * for no limit, the default.
+     */
+    public long getMaxSnapshotBytes() {
+        return (maxSnapshotBytes != null) ? maxSnapshotBytes : 0;
+    }
+
+    public void setMaxSnapshotBytes(final Long maxSnapshotBytes) {
+        this.maxSnapshotBytes = maxSnapshotBytes;
+    }
+
+    /**
+     * @return How long in milliseconds a snapshot can be restored for after it was written. Defaults to one day.
+     */
+    public long getMaxSnapshotAgeMs() {
+        return (maxSnapshotAgeMs != null) ? maxSnapshotAgeMs : DEFAULT_MAX_SNAPSHOT_AGE_MS;
+    }
+
+    public void setMaxSnapshotAgeMs(final Long maxSnapshotAgeMs) {
+        this.maxSnapshotAgeMs = maxSnapshotAgeMs;
+    }
+
+    /**
+     * @return The number of threads shared by all searches to merge the rows they read, the merges of small
+     * interactive searches go first. Defaults to the number of processors.
+     */
+    public int getMergeThreads() {
+        return (mergeThreads != null) ? mergeThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void setMergeThreads(final Integer mergeThreads) {
+        this.mergeThreads = mergeThreads;
+    }
+
+    /**
+     * @return The maximum number of searches that can run at once, further searches wait for others to finish. Each
+     * running search holds a database connection so this should be less than the size of the connection pool. Zero or
+     * less for no limit. Defaults to twice the number of processors.
+     */
+    public int getMaxConcurrentSearches() {
+        return (maxConcurrentSearches != null)
+                ? maxConcurrentSearches
+                : Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    public void setMaxConcurrentSearches(final Integer maxConcurrentSearches) {
+        this.maxConcurrentSearches = maxConcurrentSearches;
+    }
+
+    /**
+     * @return The maximum number of searches each user can run at once, so that one user can't take them all. Zero or
+     * less for no limit other than {@link #getMaxConcurrentSearches()}. Defaults to four.
+     */
+    public int getMaxConcurrentSearchesPerUser() {
+        return (maxConcurrentSearchesPerUser != null)
+                ? maxConcurrentSearchesPerUser
+                : DEFAULT_MAX_CONCURRENT_SEARCHES_PER_USER;
+    }
+
+    public void setMaxConcurrentSearchesPerUser(final Integer maxConcurrentSearchesPerUser) {
+        this.maxConcurrentSearchesPerUser = maxConcurrentSearchesPerUser;
+    }
+
+    /**
+     * @return The maximum number of searches that can wait to start, further searches are rejected with an error.
+     * Defaults to 100.
+     */
+    public int getMaxQueuedSearches() {
+        return (maxQueuedSearches != null) ? maxQueuedSearches : DEFAULT_MAX_QUEUED_SEARCHES;
+    }
+
+    public void setMaxQueuedSearches(final Integer maxQueuedSearches) {
+        this.maxQueuedSearches = maxQueuedSearches;
+    }
+
+    /**
+     * @return The time in milliseconds after which a search that no results have been requested from is destroyed,
+     * e.g. one abandoned by closing the browser. Zero or less to keep idle searches. Defaults to ten minutes.
+     */
+    public long getMaxIdleTimeMs() {
+        return (maxIdleTimeMs != null) ? maxIdleTimeMs : DEFAULT_MAX_IDLE_TIME_MS;
+    }
+
+    public void setMaxIdleTimeMs(final Long maxIdleTimeMs) {
+        this.maxIdleTimeMs = maxIdleTimeMs;
+    }
+
+    /**
+     * @return How often in milliseconds idle searches are destroyed in the background. Zero or less to only do so
+     * when the cache is used. Defaults to one minute.
+     */
+    public long getReaperIntervalMs() {
+        return (reaperIntervalMs != null) ? reaperIntervalMs : DEFAULT_REAPER_INTERVAL_MS;
+    }
+
+    public void setReaperIntervalMs(final Long reaperIntervalMs) {
+        this.reaperIntervalMs = reaperIntervalMs;
+    }
+
+    /**
+     * @return The time in milliseconds within which users running the same search, e.g. by opening the same
+     * dashboard, share the results of a single search. Zero or less to disable sharing. Defaults to one minute.
+     */
+    public long getMaxStoreShareAgeMs() {
+        return (maxStoreShareAgeMs != null) ? maxStoreShareAgeMs : DEFAULT_MAX_STORE_SHARE_AGE_MS;
+    }
+
+    public void setMaxStoreShareAgeMs(final Long maxStoreShareAgeMs) {
+        this.maxStoreShareAgeMs = maxStoreShareAgeMs;
+    }
+}
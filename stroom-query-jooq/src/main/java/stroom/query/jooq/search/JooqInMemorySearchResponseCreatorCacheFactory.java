@@ -3,10 +3,86 @@ package stroom.query.jooq.search;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import stroom.query.common.v2.AbstractInMemorySearchResponseCreatorCacheFactory;
+import stroom.query.common.v2.SearchMetrics;
 import stroom.query.common.v2.SearchResponseCreator;
 import stroom.query.common.v2.SearchResponseCreatorCache;
+import stroom.query.jooq.SearchConfig;
+
+import javax.inject.Inject;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 
 public class JooqInMemorySearchResponseCreatorCacheFactory extends AbstractInMemorySearchResponseCreatorCacheFactory {
+    private final SearchConfig searchConfig;
+    private final SearchMetrics searchMetrics;
+
+    @Inject
+    public JooqInMemorySearchResponseCreatorCacheFactory(final SearchConfig searchConfig,
+                                                         final SearchMetrics searchMetrics) {
+        this.searchConfig = searchConfig;
+        this.searchMetrics = searchMetrics;
+    }
+
+    @Override
+    protected SearchMetrics getSearchMetrics() {
+        return searchMetrics;
+    }
+
+    @Override
+    protected long getMaxMemoryBytes() {
+        return searchConfig.getMaxMemoryBytes();
+    }
+
+    @Override
+    protected Duration getMaxIdleTime() {
+        return positiveOrZero(searchConfig.getMaxIdleTimeMs());
+    }
+
+    @Override
+    protected Duration getReaperInterval() {
+        return positiveOrZero(searchConfig.getReaperIntervalMs());
+    }
+
+    @Override
+    protected Duration getMaxStoreShareAge() {
+        return positiveOrZero(searchConfig.getMaxStoreShareAgeMs());
+    }
+
+    @Override
+    protected int getMaxConcurrentSearches() {
+        return Math.max(0, searchConfig.getMaxConcurrentSearches());
+    }
+
+    @Override
+    protected int getMaxConcurrentSearchesPerUser() {
+        return Math.max(0, searchConfig.getMaxConcurrentSearchesPerUser());
+    }
+
+    @Override
+    protected int getMaxQueuedSearches() {
+        return Math.max(0, searchConfig.getMaxQueuedSearches());
+    }
+
+    @Override
+    protected Path getSnapshotDirectory() {
+        final String snapshotDirectory = searchConfig.getSnapshotDirectory();
+        return (snapshotDirectory != null && !snapshotDirectory.isEmpty()) ? Paths.get(snapshotDirectory) : null;
+    }
+
+    @Override
+    protected long getMaxSnapshotBytes() {
+        return searchConfig.getMaxSnapshotBytes();
+    }
+
+    @Override
+    protected Duration getMaxSnapshotAge() {
+        return Duration.ofMillis(searchConfig.getMaxSnapshotAgeMs());
+    }
+
+    private static Duration positiveOrZero(final long millis) {
+        return Duration.ofMillis(Math.max(0, millis));
+    }
 
     @Override
     protected void addAdditionalBuildOptions(final CacheBuilder<SearchResponseCreatorCache.Key, SearchResponseCreator> cacheBuilder) {
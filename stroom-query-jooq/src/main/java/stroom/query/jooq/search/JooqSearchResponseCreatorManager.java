@@ -3,17 +3,59 @@ package stroom.query.jooq.search;
 import stroom.query.common.v2.SearchResponseCreator;
 import stroom.query.common.v2.SearchResponseCreatorCache;
 import stroom.query.common.v2.SearchResponseCreatorManager;
+import stroom.query.jooq.SearchConfig;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// All the resources share the one cache so that each can find searches started through the others.
+@Singleton
 public class JooqSearchResponseCreatorManager implements SearchResponseCreatorManager {
 
+    private static final long CLOSE_TIMEOUT_MS = 10_000L;
+
     private final SearchResponseCreatorCache cache;
+    private final ThreadPoolExecutor searchStarter;
 
     @Inject
     public JooqSearchResponseCreatorManager(final JooqInMemorySearchResponseCreatorCacheFactory cacheFactory,
-                                            final JooqStoreFactory storeFactory) {
+                                            final JooqStoreFactory storeFactory,
+                                            final SearchConfig searchConfig) {
         this.cache = cacheFactory.create(storeFactory);
+
+        // Searches beyond the concurrency limit are queued by the cache rather than holding a starter thread, so
+        // starters are only needed for the searches that can run and those waiting to be queued.
+        final int threads = searchConfig.getMaxConcurrentSearches() > 0
+                ? searchConfig.getMaxConcurrentSearches()
+                : Runtime.getRuntime().availableProcessors() * 2;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.searchStarter = new ThreadPoolExecutor(threads,
+                threads,
+                1,
+                TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(Math.max(1, searchConfig.getMaxQueuedSearches())),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "Jooq Search Starter #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.searchStarter.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creating the store for a new search runs its query, so asynchronous searches create it here rather than on the
+     * request thread.
+     *
+     * @return The executor to get searches on, it rejects searches once too many are waiting to start.
+     */
+    public Executor getSearchStarter() {
+        return searchStarter;
     }
 
     @Override
@@ -21,6 +63,11 @@ public class JooqSearchResponseCreatorManager implements SearchResponseCreatorMa
         return cache.get(key);
     }
 
+    @Override
+    public Optional<SearchResponseCreator> getIfPresent(final SearchResponseCreatorCache.Key key) {
+        return cache.getIfPresent(key);
+    }
+
     @Override
     public void remove(final SearchResponseCreatorCache.Key key) {
         cache.remove(key);
@@ -33,4 +80,18 @@ public class JooqSearchResponseCreatorManager implements SearchResponseCreatorMa
     public void evictExpiredElements() {
         cache.evictExpiredElements();
     }
+
+    @Override
+    public void close() {
+        searchStarter.shutdown();
+        cache.close();
+        try {
+            if (!searchStarter.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                searchStarter.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            searchStarter.shutdownNow();
+        }
+    }
 }
@@ -1,38 +1,58 @@
 package stroom.query.jooq.search;
 
 import org.jooq.Condition;
+import org.jooq.Configuration;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListenerProvider;
 import org.jooq.Record;
-import org.jooq.Result;
+import org.jooq.ResultQuery;
 import org.jooq.Table;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultExecuteListener;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import stroom.dashboard.expression.v1.FieldIndexMap;
+import stroom.dashboard.expression.v1.Generator;
 import stroom.dashboard.expression.v1.Val;
 import stroom.dashboard.expression.v1.ValString;
 import stroom.datasource.api.v2.AbstractField;
+import stroom.docref.DocRef;
 import stroom.query.api.v2.ExpressionItem;
 import stroom.query.api.v2.ExpressionOperator;
 import stroom.query.api.v2.ExpressionTerm;
 import stroom.query.api.v2.Param;
+import stroom.query.api.v2.ResultRequest;
 import stroom.query.api.v2.SearchRequest;
-import stroom.query.audit.CriteriaStore;
 import stroom.query.audit.model.QueryableEntity;
 import stroom.query.audit.service.DocRefService;
 import stroom.query.audit.service.QueryApiException;
-import stroom.query.common.v2.Coprocessor;
+import stroom.query.common.v2.CancellationToken;
+import stroom.query.common.v2.CompiledFields;
+import stroom.query.common.v2.CompletionState;
 import stroom.query.common.v2.CoprocessorSettings;
 import stroom.query.common.v2.CoprocessorSettingsMap;
+import stroom.query.common.v2.MergeScheduler;
 import stroom.query.common.v2.Payload;
+import stroom.query.common.v2.ResultHandlerStore;
+import stroom.query.common.v2.SearchMetrics;
+import stroom.query.common.v2.SearchResultHandler;
+import stroom.query.common.v2.SharedExpressions;
 import stroom.query.common.v2.Sizes;
 import stroom.query.common.v2.Store;
 import stroom.query.common.v2.StoreFactory;
 import stroom.query.common.v2.TableCoprocessor;
 import stroom.query.common.v2.TableCoprocessorSettings;
 import stroom.query.jooq.JooqEntity;
+import stroom.query.jooq.SearchConfig;
 import stroom.query.security.CurrentServiceUser;
 import stroom.query.security.ServiceUser;
 
 import javax.inject.Inject;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,6 +60,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static org.jooq.impl.DSL.and;
@@ -48,19 +71,37 @@ import static org.jooq.impl.DSL.not;
 import static org.jooq.impl.DSL.or;
 
 public class JooqStoreFactory implements StoreFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JooqStoreFactory.class);
+
+    // Rows are handed over to be merged in batches of this size while the rest are still being read.
+    private static final int MERGE_BATCH_SIZE = 10_000;
+    // The merged results aren't trimmed, the result requests choose how many to return.
+    private static final Sizes UNLIMITED = Sizes.create(Integer.MAX_VALUE);
+
     private final JooqDataSourceProvider dataSourceProvider;
     private final DSLContext database;
     private final DocRefService<?> docRefService;
     private final Table<Record> table;
+    private final SearchConfig searchConfig;
+    private final SearchMetrics searchMetrics;
+    private final MergeScheduler mergeScheduler;
+    private final SearchMetrics.Meter rowsReceived;
 
     @Inject
     public JooqStoreFactory(final QueryableEntity.ClassProvider dtoClassProvider,
                             final DocRefService docRefService,
                             final DSLContext database,
-                            final JooqDataSourceProvider dataSourceProvider) {
+                            final JooqDataSourceProvider dataSourceProvider,
+                            final SearchConfig searchConfig,
+                            final SearchMetrics searchMetrics,
+                            final MergeScheduler mergeScheduler) {
         this.database = database;
+        this.searchConfig = searchConfig;
+        this.searchMetrics = searchMetrics;
+        this.mergeScheduler = mergeScheduler;
         this.docRefService = docRefService;
         this.dataSourceProvider = dataSourceProvider;
+        this.rowsReceived = searchMetrics.meter(SearchMetrics.TABLE_COPROCESSOR, "rowsReceived");
 
         final Class<?> dtoClass = dtoClassProvider.get();
 
@@ -72,28 +113,108 @@ public class JooqStoreFactory implements StoreFactory {
 
     @Override
     public Store create(final SearchRequest searchRequest) {
-        final String dataSourceUuid = searchRequest.getQuery().getDataSource().getUuid();
+        return create(searchRequest, CancellationToken.NONE);
+    }
 
-        try {
-            final ServiceUser user = CurrentServiceUser.currentServiceUser();
-            docRefService.get(user, dataSourceUuid)
-                    .orElseThrow(() -> new RuntimeException(String.format("Could not find doc ref entity for data source %s", dataSourceUuid)));
-        } catch (QueryApiException e) {
-            throw new RuntimeException(String.format("Could not find doc ref entity for data source %s", dataSourceUuid));
-        }
+    @Override
+    public Store create(final SearchRequest searchRequest, final CancellationToken cancellationToken) {
+        checkAccess(searchRequest.getQuery().getDataSource());
 
-        return database.transactionResult(configuration -> {
+        final SearchResultHandler resultHandler = database.transactionResult(configuration -> {
+            cancellationToken.throwIfCancelled();
 
-            final Result<Record> results = DSL.using(configuration)
+            final ResultQuery<Record> query = DSL.using(cancellable(configuration, cancellationToken))
                     .select(dataSourceProvider.getFields().stream()
                             .map(f -> field(f.getName()))
                             .collect(Collectors.toList()))
                     .from(table)
-                    .where(and(getCondition(searchRequest.getQuery().getExpression())))
-                    .fetch();
+                    .where(and(getCondition(searchRequest.getQuery().getExpression())));
+
+            // Don't let the database keep working on a runaway search. The request's timeout is only how long the
+            // client waits for results, the search carries on after that.
+            final long queryTimeoutMs = searchConfig.getQueryTimeoutMs();
+            if (queryTimeoutMs > 0) {
+                query.queryTimeout((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(queryTimeoutMs)));
+            }
+
+            try (final Cursor<Record> cursor = query.fetchLazy()) {
+                return projectResults(searchRequest, cursor, cancellationToken);
+            }
+        });
+
+        // The rows have all been read so the connection has been given back, just wait for the last merges.
+        try {
+            resultHandler.waitForPendingWork();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted waiting for search results to be merged");
+        }
+        cancellationToken.throwIfCancelled();
 
-            return projectResults(searchRequest, results);
+        final List<String> componentIds = searchRequest.getResultRequests().stream()
+                .map(ResultRequest::getComponentId)
+                .collect(Collectors.toList());
+        return new ResultHandlerStore(resultHandler, componentIds, UNLIMITED, UNLIMITED);
+    }
+
+    /**
+     * Cancel the statements run with the returned configuration if the search is destroyed while they are running.
+     * The statement only exists once the query has started, so the cancel action is registered then, and a search
+     * destroyed before that point stops before the statement is executed.
+     */
+    private Configuration cancellable(final Configuration configuration, final CancellationToken cancellationToken) {
+        final ExecuteListenerProvider[] providers = Arrays.copyOf(configuration.executeListenerProviders(),
+                configuration.executeListenerProviders().length + 1);
+        providers[providers.length - 1] = new DefaultExecuteListenerProvider(new DefaultExecuteListener() {
+            @Override
+            public void executeStart(final ExecuteContext ctx) {
+                final Statement statement = ctx.statement();
+                if (statement != null) {
+                    cancellationToken.onCancel(() -> cancel(statement));
+                }
+                cancellationToken.throwIfCancelled();
+            }
         });
+        return configuration.derive(providers);
+    }
+
+    private static void cancel(final Statement statement) {
+        try {
+            statement.cancel();
+        } catch (final SQLException e) {
+            // The statement may already have finished or been closed.
+            LOGGER.debug("Unable to cancel statement: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Supplier<Store> withRequestContext(final Supplier<Store> storeSupplier) {
+        // Queued searches are created on another thread so take the user with them.
+        final ServiceUser user = CurrentServiceUser.currentServiceUser();
+        return () -> {
+            CurrentServiceUser.pushServiceUser(user);
+            try {
+                return storeSupplier.get();
+            } finally {
+                CurrentServiceUser.popServiceUser();
+            }
+        };
+    }
+
+    @Override
+    public void checkAccess(final DocRef dataSource) {
+        if (dataSource == null) {
+            throw new RuntimeException("No data source given");
+        }
+        final String dataSourceUuid = dataSource.getUuid();
+
+        try {
+            final ServiceUser user = CurrentServiceUser.currentServiceUser();
+            docRefService.get(user, dataSourceUuid)
+                    .orElseThrow(() -> new RuntimeException(String.format("Could not find doc ref entity for data source %s", dataSourceUuid)));
+        } catch (QueryApiException e) {
+            throw new RuntimeException(String.format("Could not find doc ref entity for data source %s", dataSourceUuid));
+        }
     }
 
     private Condition getCondition(final ExpressionItem item) {
@@ -174,46 +295,73 @@ public class JooqStoreFactory implements StoreFactory {
     }
 
     // TODO I copied this from 'stats', but can't make head or tail of it to try and move it into somewhere more sensible
-    private Store projectResults(final SearchRequest searchRequest,
-                                 final List<Record> tuples) {
+    private SearchResultHandler projectResults(final SearchRequest searchRequest,
+                                               final Iterable<Record> tuples,
+                                               final CancellationToken cancellationToken) {
 
         // TODO: possibly the mapping from the componentId to the coprocessorsettings map is a bit odd.
         final CoprocessorSettingsMap coprocessorSettingsMap = CoprocessorSettingsMap.create(searchRequest);
 
-        final Map<CoprocessorSettingsMap.CoprocessorKey, Coprocessor> coprocessorMap = new HashMap<>();
+        final Map<CoprocessorSettingsMap.CoprocessorKey, TableCoprocessor> coprocessorMap = new HashMap<>();
 
         // TODO: Mapping to this is complicated! it'd be nice not to have to do this.
         final FieldIndexMap fieldIndexMap = new FieldIndexMap(true);
 
+        // Create a parameter map.
+        final Map<String, String> paramMap;
+        if (searchRequest.getQuery().getParams() != null) {
+            paramMap = searchRequest.getQuery().getParams().stream()
+                    .collect(Collectors.toMap(Param::getKey, Param::getValue));
+        } else {
+            paramMap = Collections.emptyMap();
+        }
+
         // Compile all of the result component options to optimise pattern matching etc.
+        final Map<CoprocessorSettingsMap.CoprocessorKey, CompiledFields> compiledFieldsMap = new HashMap<>();
         if (coprocessorSettingsMap.getMap() != null) {
             for (final Map.Entry<CoprocessorSettingsMap.CoprocessorKey, CoprocessorSettings> entry : coprocessorSettingsMap.getMap().entrySet()) {
-                final CoprocessorSettingsMap.CoprocessorKey coprocessorId = entry.getKey();
-                final CoprocessorSettings coprocessorSettings = entry.getValue();
-
-                // Create a parameter map.
-                final Map<String, String> paramMap;
-                if (searchRequest.getQuery().getParams() != null) {
-                    paramMap = searchRequest.getQuery().getParams().stream()
-                            .collect(Collectors.toMap(Param::getKey, Param::getValue));
-                } else {
-                    paramMap = Collections.emptyMap();
-                }
-
-                if (coprocessorSettings instanceof TableCoprocessorSettings) {
-                    final TableCoprocessorSettings tableCoprocessorSettings = (TableCoprocessorSettings) coprocessorSettings;
-                    final Coprocessor coprocessor = new TableCoprocessor(tableCoprocessorSettings,
+                if (entry.getValue() instanceof TableCoprocessorSettings) {
+                    final TableCoprocessorSettings tableCoprocessorSettings = (TableCoprocessorSettings) entry.getValue();
+                    compiledFieldsMap.put(entry.getKey(), new CompiledFields(
+                            tableCoprocessorSettings.getTableSettings().getFields(),
                             fieldIndexMap,
-                            paramMap);
-
-                    coprocessorMap.put(coprocessorId, coprocessor);
+                            paramMap));
                 }
             }
         }
 
+        // Create the generators for expressions that several components have in common once per row rather than once
+        // per component.
+        final SharedExpressions sharedExpressions = new SharedExpressions(compiledFieldsMap.values());
+        compiledFieldsMap.forEach((coprocessorId, compiledFields) -> {
+            final TableCoprocessorSettings tableCoprocessorSettings =
+                    (TableCoprocessorSettings) coprocessorSettingsMap.getMap().get(coprocessorId);
+            coprocessorMap.put(coprocessorId, new TableCoprocessor(tableCoprocessorSettings,
+                    compiledFields,
+                    sharedExpressions,
+                    cancellationToken));
+        });
+
+        // Merge the rows read so far on the merge scheduler while more are read. The handler completes the state once
+        // it has enough results, e.g. when the table isn't sorted or grouped, so there is no need to read the rest.
+        final CompletionState completionState = new CompletionState();
+        final SearchResultHandler resultHandler = new SearchResultHandler(completionState,
+                coprocessorSettingsMap,
+                UNLIMITED,
+                UNLIMITED,
+                cancellationToken,
+                searchMetrics,
+                mergeScheduler);
+        resultHandler.setInteractive(searchRequest.incremental());
+
         //TODO TableCoprocessor is doing a lot of work to pre-process and aggregate the datas
 
+        int batchRows = 0;
         for (Record criteriaDataPoint : tuples) {
+            if (completionState.isComplete()) {
+                break;
+            }
+
             Val[] dataArray = new Val[fieldIndexMap.size()];
 
             //TODO should probably drive this off a new fieldIndexMap.getEntries() method or similar
@@ -230,15 +378,29 @@ public class JooqStoreFactory implements StoreFactory {
                 }
             }
 
-            coprocessorMap.forEach((key, value) -> value.receive(dataArray));
+            final Generator[] sharedGenerators = sharedExpressions.createGenerators(dataArray);
+            coprocessorMap.forEach((key, value) -> value.receive(dataArray, sharedGenerators));
+            rowsReceived.mark();
+
+            if (++batchRows == MERGE_BATCH_SIZE) {
+                resultHandler.handle(createPayloads(coprocessorMap));
+                batchRows = 0;
+            }
         }
+        resultHandler.handle(createPayloads(coprocessorMap));
+
+        return resultHandler;
+    }
+
+    private static Map<CoprocessorSettingsMap.CoprocessorKey, Payload> createPayloads(
+            final Map<CoprocessorSettingsMap.CoprocessorKey, TableCoprocessor> coprocessorMap) {
 
         // TODO putting things into a payload and taking them out again is a waste of time in this case. We could use a queue instead and that'd be fine.
         //TODO: 'Payload' is a cluster specific name - what lucene ships back from a node.
         // Produce payloads for each coprocessor.
         Map<CoprocessorSettingsMap.CoprocessorKey, Payload> payloadMap = null;
         if (coprocessorMap.size() > 0) {
-            for (final Map.Entry<CoprocessorSettingsMap.CoprocessorKey, Coprocessor> entry : coprocessorMap.entrySet()) {
+            for (final Map.Entry<CoprocessorSettingsMap.CoprocessorKey, TableCoprocessor> entry : coprocessorMap.entrySet()) {
                 final Payload payload = entry.getValue().createPayload();
                 if (payload != null) {
                     if (payloadMap == null) {
@@ -249,12 +411,6 @@ public class JooqStoreFactory implements StoreFactory {
             }
         }
 
-        // Construct the store
-        final Sizes storeSize = Sizes.create(tuples.size());
-        return new CriteriaStore(
-                storeSize,
-                storeSize,
-                coprocessorSettingsMap,
-                payloadMap);
+        return payloadMap;
     }
 }
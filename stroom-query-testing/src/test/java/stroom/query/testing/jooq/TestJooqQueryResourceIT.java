@@ -180,4 +180,38 @@ class TestJooqQueryResourceIT extends QueryResourceIT<TestDocRefJooqEntity, Jooq
 
         assertThat(resultsSet).hasSize(CreateTestDataJooqImpl.RECORDS_TO_CREATE);
     }
+
+    @Test
+    void testSearchReusingAnotherUsersQueryKey() {
+        final String owner = UUID.randomUUID().toString();
+        final String otherUser = UUID.randomUUID().toString();
+        authRule.permitAuthenticatedUser(owner)
+                .andAuthenticatedUser(otherUser)
+                .docRef(testDataDocRef)
+                .permission(DocumentPermission.READ)
+                .done();
+
+        final ExpressionOperator expressionOperator = new ExpressionOperator.Builder(ExpressionOperator.Op.OR)
+                .addTerm(TestQueryableJooqEntity.COLOUR, ExpressionTerm.Condition.CONTAINS, this.testDataSeed)
+                .build();
+        final SearchRequest request = getValidSearchRequest(testDataDocRef,
+                expressionOperator,
+                new OffsetRange.Builder()
+                        .offset(0L)
+                        .length(10L)
+                        .build());
+
+        final Response ownerResponse = queryClient.search(authRule.authenticatedUser(owner), request);
+        assertThat(ownerResponse.getStatus()).isEqualTo(HttpStatus.OK_200);
+        ownerResponse.close();
+
+        // Knowing the query key must not give another user the results of the owner's search.
+        final Response otherResponse = queryClient.search(authRule.authenticatedUser(otherUser), request);
+        assertThat(otherResponse.getStatus()).isEqualTo(HttpStatus.NOT_FOUND_404);
+        otherResponse.close();
+
+        final Response ownerAgainResponse = queryClient.search(authRule.authenticatedUser(owner), request);
+        assertThat(ownerAgainResponse.getStatus()).isEqualTo(HttpStatus.OK_200);
+        ownerAgainResponse.close();
+    }
 }